@@ -0,0 +1,65 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - AdaptiveTimeoutModel.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j;
+
+import org.snmp4j.smi.Address;
+
+/**
+ * The <code>AdaptiveTimeoutModel</code> is a {@link TimeoutModel} that
+ * adapts the timeouts of requests to the measured round trip times of the
+ * target addresses. {@link Snmp} reports the round trip time of each request
+ * that has been answered on its first transmission and asks for retry
+ * timeouts by target address.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ * @since 2.4
+ */
+public interface AdaptiveTimeoutModel extends TimeoutModel {
+
+  /**
+   * Gets the timeout for the specified retry of a request to the given
+   * address (a zero value for <code>retryCount</code> specifies the first
+   * request).
+   * @param address
+   *    the target address of the request.
+   * @param retryCount
+   *    the number of retries already performed for the target.
+   * @param totalNumberOfRetries
+   *    the total number of retries configured for the target.
+   * @param targetTimeout
+   *    the timeout as specified for the target in milliseconds.
+   * @return long
+   *    the timeout duration in milliseconds for the supplied retry.
+   */
+  long getRetryTimeout(Address address, int retryCount,
+                       int totalNumberOfRetries, long targetTimeout);
+
+  /**
+   * Adds a round trip time sample for the specified address. Samples are only
+   * taken from requests that have not been retransmitted, because the
+   * response to a retransmitted request cannot be mapped to a transmission.
+   * @param address
+   *    the target address of the request.
+   * @param roundTripTime
+   *    the measured round trip time in nanoseconds.
+   */
+  void roundTripTimeMeasured(Address address, long roundTripTime);
+}
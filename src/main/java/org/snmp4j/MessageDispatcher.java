@@ -24,6 +24,7 @@ import org.snmp4j.smi.Address;
 import org.snmp4j.transport.TransportListener;
 
 import java.util.Collection;
+import java.util.List;
 
 /**
  * The <code>MessageDispatcher</code> interface defines common services of
@@ -36,7 +37,7 @@ import java.util.Collection;
  * process any messages.
  *
  * @author Frank Fock
- * @version 2.0
+ * @version 2.4
  */
 public interface MessageDispatcher extends TransportListener {
 
@@ -232,6 +233,46 @@ public interface MessageDispatcher extends TransportListener {
                     PDU pdu,
                     boolean expectResponse) throws MessageException;
 
+  /**
+   * Sends a batch of PDUs. Each PDU is processed as by
+   * {@link #sendPdu(TransportMapping, Target, PDU, boolean, PduHandleCallback)},
+   * but a PDU that cannot be sent does not stop the batch. The assigned
+   * <code>PduHandle</code> or the failure is set on each
+   * {@link OutboundPdu}. Implementations may override this method to hand
+   * the encoded messages to the transport mappings as a batch, the default
+   * implementation sends the PDUs one by one.
+   *
+   * @param transportMapping
+   *    the <code>TransportMapping</code> to be used to send the PDUs. If
+   *    <code>transportMapping</code> is <code>null</code> the message
+   *    dispatcher will determine the appropriate transport mapping for each
+   *    target address.
+   * @param pdus
+   *    the PDUs to send together with their targets and optional callbacks.
+   * @param expectResponse
+   *    <code>true</code> if responses are expected and state references should
+   *    be saved (if needed for the supplied message processing model).
+   * @return
+   *    the number of PDUs sent successfully.
+   * @since 2.4
+   */
+  default int sendPdus(TransportMapping transportMapping,
+                       List<OutboundPdu> pdus,
+                       boolean expectResponse) {
+    int sent = 0;
+    for (OutboundPdu outboundPdu : pdus) {
+      try {
+        outboundPdu.setPduHandle(sendPdu(transportMapping, outboundPdu.getTarget(), outboundPdu.getPdu(),
+                                         expectResponse, outboundPdu.getCallback()));
+        sent++;
+      }
+      catch (MessageException mex) {
+        outboundPdu.setFailure(mex);
+      }
+    }
+    return sent;
+  }
+
   /**
    * Returns a response PDU to the sender of the corresponding request PDU.
    *
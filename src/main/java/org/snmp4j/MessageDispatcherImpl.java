@@ -35,11 +35,15 @@ import org.snmp4j.smi.Address;
 import org.snmp4j.smi.GenericAddress;
 import org.snmp4j.smi.Integer32;
 import org.snmp4j.smi.OctetString;
+import org.snmp4j.transport.OutboundMessage;
 import org.snmp4j.transport.UnsupportedAddressClassException;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * The <code>MessageDispatcherImpl</code> decodes and dispatches incoming
@@ -59,7 +63,7 @@ import java.util.*;
  * @see MPv3
  *
  * @author Frank Fock
- * @version 2.0
+ * @version 2.4
  */
 public class MessageDispatcherImpl implements MessageDispatcher {
 
@@ -77,6 +81,10 @@ public class MessageDispatcherImpl implements MessageDispatcher {
 
   private boolean checkOutgoingMsg = true;
 
+  // Optional executor for decoding, authenticating, and decrypting v3 messages
+  private volatile Executor securityStageExecutor;
+  private final ConcurrentHashMap<Address, PeerSequence> peerSequences = new ConcurrentHashMap<>();
+
   /**
    * Default constructor creates a message dispatcher without any associated
    * message processing models.
@@ -270,50 +278,63 @@ public class MessageDispatcherImpl implements MessageDispatcher {
                                  Address incomingAddress,
                                  BERInputStream wholeMessage,
                                  TransportStateReference tmStateReference) throws IOException {
-    MutablePDU pdu = new MutablePDU();
-    Integer32 messageProcessingModel = new Integer32();
-    Integer32 securityModel = new Integer32();
-    OctetString securityName = new OctetString();
-    Integer32 securityLevel = new Integer32();
-
-    PduHandle handle = createPduHandle();
-
-    Integer32 maxSizeRespPDU =
-        new Integer32(sourceTransport.getMaxInboundMessageSize());
-    StatusInformation statusInfo = new StatusInformation();
-    MutableStateReference mutableStateReference = new MutableStateReference();
+    IncomingMessage message =
+        new IncomingMessage(sourceTransport, mp, incomingAddress, wholeMessage, tmStateReference);
+    prepareIncomingMessage(message);
+    deliverIncomingMessage(message);
+  }
+
+  /**
+   * Decodes an incoming message and processes its security parameters
+   * (authentication and decryption) with the message processing model. This
+   * is the CPU intensive stage of the incoming message processing which
+   * may run in parallel for messages of the same peer.
+   */
+  private void prepareIncomingMessage(IncomingMessage message) throws IOException {
+    message.handle = createPduHandle();
+    message.maxSizeRespPDU =
+        new Integer32(message.sourceTransport.getMaxInboundMessageSize());
     // add the transport mapping to the state reference to allow the MP to
     // return REPORTs on the same interface/port the message had been received.
     StateReference stateReference = new StateReference();
-    stateReference.setTransportMapping(sourceTransport);
-    stateReference.setAddress(incomingAddress);
-    mutableStateReference.setStateReference(stateReference);
-
-    int status = mp.prepareDataElements(this, incomingAddress, wholeMessage,
-                                        tmStateReference,
-                                        messageProcessingModel, securityModel,
-                                        securityName, securityLevel, pdu,
-                                        handle, maxSizeRespPDU, statusInfo,
-                                        mutableStateReference);
-    if (mutableStateReference.getStateReference() != null) {
+    stateReference.setTransportMapping(message.sourceTransport);
+    stateReference.setAddress(message.incomingAddress);
+    message.mutableStateReference.setStateReference(stateReference);
+
+    message.status =
+        message.mp.prepareDataElements(this, message.incomingAddress, message.wholeMessage,
+                                       message.tmStateReference,
+                                       message.messageProcessingModel, message.securityModel,
+                                       message.securityName, message.securityLevel, message.pdu,
+                                       message.handle, message.maxSizeRespPDU, message.statusInfo,
+                                       message.mutableStateReference);
+    if (message.mutableStateReference.getStateReference() != null) {
       // make sure transport mapping is set
-      mutableStateReference.
-          getStateReference().setTransportMapping(sourceTransport);
+      message.mutableStateReference.
+          getStateReference().setTransportMapping(message.sourceTransport);
     }
+  }
+
+  /**
+   * Dispatches a prepared incoming message to the command responders or
+   * reports an authentication failure.
+   */
+  private void deliverIncomingMessage(IncomingMessage message) {
+    int status = message.status;
     if (status == SnmpConstants.SNMP_ERROR_SUCCESS) {
       // dispatch it
       CommandResponderEvent e =
           new CommandResponderEvent(this,
-                                    sourceTransport,
-                                    incomingAddress,
-                                    messageProcessingModel.getValue(),
-                                    securityModel.getValue(),
-                                    securityName.getValue(),
-                                    securityLevel.getValue(),
-                                    handle,
-                                    pdu.getPdu(),
-                                    maxSizeRespPDU.getValue(),
-                                    mutableStateReference.getStateReference());
+                                    message.sourceTransport,
+                                    message.incomingAddress,
+                                    message.messageProcessingModel.getValue(),
+                                    message.securityModel.getValue(),
+                                    message.securityName.getValue(),
+                                    message.securityLevel.getValue(),
+                                    message.handle,
+                                    message.pdu.getPdu(),
+                                    message.maxSizeRespPDU.getValue(),
+                                    message.mutableStateReference.getStateReference());
       fireProcessPdu(e);
     }
     else {
@@ -330,17 +351,195 @@ public class MessageDispatcherImpl implements MessageDispatcher {
         case SnmpConstants.SNMPv3_TSM_INADEQUATE_SECURITY_LEVELS:
         case SnmpConstants.SNMP_MP_USM_ERROR: {
           AuthenticationFailureEvent event =
-              new AuthenticationFailureEvent(this, incomingAddress,
-                                             sourceTransport, status,
-                                             wholeMessage);
+              new AuthenticationFailureEvent(this, message.incomingAddress,
+                                             message.sourceTransport, status,
+                                             message.wholeMessage);
           fireAuthenticationFailure(event);
           break;
         }
       }
-      logger.warn("statusInfo={}, status={}", statusInfo, status);
+      logger.warn("statusInfo={}, status={}", message.statusInfo, status);
     }
   }
 
+  /**
+   * Processes an incoming message with the security stage executor. SNMPv3
+   * messages are prepared on the executor, all other messages on the calling
+   * thread. The prepared messages of a peer are delivered in the order they
+   * have been received.
+   */
+  private void dispatchMessageAsync(Executor executor,
+                                    TransportMapping sourceTransport,
+                                    MessageProcessingModel mp,
+                                    Address incomingAddress,
+                                    BERInputStream wholeMessage,
+                                    TransportStateReference tmStateReference) throws IOException {
+    // the transport mapping may reuse its buffer when we return
+    byte[] data = new byte[wholeMessage.available()];
+    wholeMessage.read(data);
+    final IncomingMessage message =
+        new IncomingMessage(sourceTransport, mp, incomingAddress,
+                            new BERInputStream(ByteBuffer.wrap(data)), tmStateReference);
+    final PeerSequence sequence = enqueue(message);
+    if (mp.getID() == MessageProcessingModel.MPv3) {
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            prepareAndDeliver(sequence, message);
+          }
+        });
+        return;
+      }
+      catch (RejectedExecutionException rex) {
+        logger.debug("Security stage executor rejected message from {}, processing it inline",
+                     incomingAddress);
+      }
+    }
+    prepareAndDeliver(sequence, message);
+  }
+
+  private PeerSequence enqueue(IncomingMessage message) {
+    while (true) {
+      PeerSequence sequence = peerSequences.get(message.incomingAddress);
+      if (sequence == null) {
+        sequence = new PeerSequence();
+        PeerSequence existing = peerSequences.putIfAbsent(message.incomingAddress, sequence);
+        if (existing != null) {
+          sequence = existing;
+        }
+      }
+      synchronized (sequence) {
+        if (!sequence.removed) {
+          sequence.queue.add(message);
+          return sequence;
+        }
+      }
+    }
+  }
+
+  private void prepareAndDeliver(PeerSequence sequence, IncomingMessage message) {
+    try {
+      prepareIncomingMessage(message);
+    }
+    catch (IOException iox) {
+      message.error = iox;
+    }
+    catch (RuntimeException rex) {
+      logger.error("Failed to process message from "+message.incomingAddress+": "+rex.getMessage(), rex);
+      message.status = SnmpConstants.SNMP_MP_ERROR;
+    }
+    message.prepared = true;
+    while (true) {
+      IncomingMessage next;
+      synchronized (sequence) {
+        next = sequence.queue.peek();
+        if (sequence.delivering || (next == null) || !next.prepared) {
+          if ((next == null) && !sequence.delivering) {
+            sequence.removed = true;
+            peerSequences.remove(message.incomingAddress, sequence);
+          }
+          return;
+        }
+        sequence.queue.poll();
+        sequence.delivering = true;
+      }
+      try {
+        if (next.error != null) {
+          logger.warn(next.error.getMessage(), next.error);
+          fireIncrementCounter(new CounterEvent(this, SnmpConstants.snmpInvalidMsgs));
+        }
+        else {
+          deliverIncomingMessage(next);
+        }
+      }
+      catch (RuntimeException rex) {
+        logger.error("Failed to dispatch message from "+next.incomingAddress+": "+rex.getMessage(), rex);
+      }
+      finally {
+        synchronized (sequence) {
+          sequence.delivering = false;
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the executor of the security stage.
+   * @return
+   *    the <code>Executor</code> that prepares incoming SNMPv3 messages or
+   *    <code>null</code> if messages are processed by the thread of the
+   *    transport mapping.
+   * @since 2.4
+   */
+  public Executor getSecurityStageExecutor() {
+    return securityStageExecutor;
+  }
+
+  /**
+   * Sets the executor of the security stage. If set, incoming SNMPv3
+   * messages are decoded, authenticated, and decrypted on this executor,
+   * for example a {@link java.util.concurrent.ForkJoinPool}, while the
+   * transport mapping's thread only decodes the message version. Thus, a
+   * single listener thread can use all cores for authPriv traffic. Messages
+   * from the same peer address are still dispatched to the command
+   * responders in the order they have been received, one at a time.
+   * <p>
+   * If an executor is set, {@link #dispatchMessage} is not called for
+   * incoming messages.
+   * </p>
+   * @param securityStageExecutor
+   *    an <code>Executor</code> or <code>null</code> (default) to process
+   *    messages on the thread of the transport mapping.
+   * @since 2.4
+   */
+  public void setSecurityStageExecutor(Executor securityStageExecutor) {
+    this.securityStageExecutor = securityStageExecutor;
+  }
+
+  /**
+   * The decoding state of an incoming message.
+   */
+  private static class IncomingMessage {
+    private final TransportMapping sourceTransport;
+    private final MessageProcessingModel mp;
+    private final Address incomingAddress;
+    private final BERInputStream wholeMessage;
+    private final TransportStateReference tmStateReference;
+
+    private final MutablePDU pdu = new MutablePDU();
+    private final Integer32 messageProcessingModel = new Integer32();
+    private final Integer32 securityModel = new Integer32();
+    private final OctetString securityName = new OctetString();
+    private final Integer32 securityLevel = new Integer32();
+    private final StatusInformation statusInfo = new StatusInformation();
+    private final MutableStateReference mutableStateReference = new MutableStateReference();
+    private PduHandle handle;
+    private Integer32 maxSizeRespPDU;
+    private int status;
+    private IOException error;
+    private volatile boolean prepared;
+
+    IncomingMessage(TransportMapping sourceTransport, MessageProcessingModel mp,
+                    Address incomingAddress, BERInputStream wholeMessage,
+                    TransportStateReference tmStateReference) {
+      this.sourceTransport = sourceTransport;
+      this.mp = mp;
+      this.incomingAddress = incomingAddress;
+      this.wholeMessage = wholeMessage;
+      this.tmStateReference = tmStateReference;
+    }
+  }
+
+  /**
+   * The messages of a peer in the order they have been received.
+   */
+  private static class PeerSequence {
+    private final ArrayDeque<IncomingMessage> queue = new ArrayDeque<>();
+    private boolean delivering;
+    private boolean removed;
+  }
+
   @Override
   public void processMessage(TransportMapping sourceTransport,
                              Address incomingAddress,
@@ -386,7 +585,13 @@ public class MessageDispatcherImpl implements MessageDispatcher {
         // reset it
         wholeMessage.reset();
         // dispatch it
-        dispatchMessage(sourceTransport, mp, incomingAddress, wholeMessage, tmStateReference);
+        Executor executor = securityStageExecutor;
+        if (executor != null) {
+          dispatchMessageAsync(executor, sourceTransport, mp, incomingAddress, wholeMessage, tmStateReference);
+        }
+        else {
+          dispatchMessage(sourceTransport, mp, incomingAddress, wholeMessage, tmStateReference);
+        }
       }
     }
     catch (IOException iox) {
@@ -412,116 +617,229 @@ public class MessageDispatcherImpl implements MessageDispatcher {
                            PduHandleCallback<PDU> pduHandleCallback)
       throws MessageException
   {
-    int messageProcessingModel = target.getVersion();
-    Address transportAddress = target.getAddress();
-    int securityModel = target.getSecurityModel();
-    int securityLevel = target.getSecurityLevel();
+    OutboundPdu outboundPdu = new OutboundPdu(target, pdu, pduHandleCallback);
     try {
-      byte[] securityName = target.getSecurityName().getValue();
-      MessageProcessingModel mp =
-          getMessageProcessingModel(messageProcessingModel);
-      if (mp == null) {
-        throw new MessageException("Unsupported message processing model: "
-                                   + messageProcessingModel, SnmpConstants.SNMP_MD_UNSUPPORTED_MP_MODEL);
+      OutboundMessage<Address> message = prepareOutboundMessage(transport, outboundPdu, expectResponse);
+      sendMessage(message.getTmStateReference().getTransport(), message.getAddress(),
+                  message.getMessage(), message.getTmStateReference());
+      if (pduHandleCallback != null) {
+        pduHandleCallback.pduSent(outboundPdu.getPduHandle(), pdu);
       }
-      if (!mp.isProtocolVersionSupported(messageProcessingModel)) {
-        throw new MessageException("SNMP version "+messageProcessingModel+
-                                   " is not supported "+
-                                   "by message processing model "+
-                                   messageProcessingModel, SnmpConstants.SNMP_MD_UNSUPPORTED_SNMP_VERSION);
+      return outboundPdu.getPduHandle();
+    }
+    catch (IndexOutOfBoundsException iobex) {
+      throw new MessageException("Unsupported message processing model: "
+                                 + target.getVersion(), SnmpConstants.SNMP_MD_UNSUPPORTED_MP_MODEL, iobex);
+    } catch (MessageException mex) {
+      logger.debug(mex.getMessage(), mex);
+      throw mex;
+    }
+    catch (IOException iox) {
+      logger.debug(iox.getMessage(), iox);
+      throw new MessageException(iox.getMessage(), SnmpConstants.SNMP_MD_ERROR, iox);
+    }
+  }
+
+  /**
+   * Sends a batch of PDUs. The PDUs are encoded one by one and the resulting
+   * messages are then handed to {@link TransportMapping#sendMessages} as a
+   * single batch per transport mapping.
+   *
+   * @param transport
+   *    the <code>TransportMapping</code> to be used to send the PDUs or
+   *    <code>null</code> to determine it for each target address.
+   * @param pdus
+   *    the PDUs to send together with their targets and optional callbacks.
+   * @param expectResponse
+   *    <code>true</code> if responses are expected.
+   * @return
+   *    the number of PDUs sent successfully.
+   * @since 2.4
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public int sendPdus(TransportMapping transport, List<OutboundPdu> pdus, boolean expectResponse) {
+    Map<TransportMapping, List<OutboundMessage<Address>>> messages = new LinkedHashMap<>(2);
+    Map<TransportMapping, List<OutboundPdu>> sources = new LinkedHashMap<>(2);
+    for (OutboundPdu outboundPdu : pdus) {
+      try {
+        OutboundMessage<Address> message = prepareOutboundMessage(transport, outboundPdu, expectResponse);
+        TransportMapping tm = message.getTmStateReference().getTransport();
+        List<OutboundMessage<Address>> batch = messages.get(tm);
+        if (batch == null) {
+          batch = new ArrayList<>(pdus.size());
+          messages.put(tm, batch);
+          sources.put(tm, new ArrayList<OutboundPdu>(pdus.size()));
+        }
+        batch.add(message);
+        sources.get(tm).add(outboundPdu);
       }
-      if (transport == null) {
-        transport = getTransport(transportAddress);
+      catch (IndexOutOfBoundsException iobex) {
+        outboundPdu.setFailure(new MessageException("Unsupported message processing model: " +
+            outboundPdu.getTarget().getVersion(), SnmpConstants.SNMP_MD_UNSUPPORTED_MP_MODEL, iobex));
       }
-      if (transport == null) {
-        throw new UnsupportedAddressClassException(
-            "Unsupported address class (transport mapping): "+
-            transportAddress.getClass().getName(),
-            transportAddress.getClass());
+      catch (MessageException mex) {
+        logger.debug(mex.getMessage(), mex);
+        outboundPdu.setFailure(mex);
+      }
+      catch (IOException iox) {
+        logger.debug(iox.getMessage(), iox);
+        outboundPdu.setFailure(new MessageException(iox.getMessage(), SnmpConstants.SNMP_MD_ERROR, iox));
+      }
+    }
+    int sent = 0;
+    for (Map.Entry<TransportMapping, List<OutboundMessage<Address>>> batch : messages.entrySet()) {
+      List<OutboundPdu> batchSources = sources.get(batch.getKey());
+      try {
+        sent += batch.getKey().sendMessages(batch.getValue());
+      }
+      catch (IOException iox) {
+        logger.debug(iox.getMessage(), iox);
+        for (OutboundMessage<Address> message : batch.getValue()) {
+          message.setFailure(iox);
+        }
       }
-      else if (pdu.isConfirmedPdu()) {
-        checkListening4ConfirmedPDU(pdu, target.getAddress(), transport);
+      for (int i=0; i<batchSources.size(); i++) {
+        OutboundPdu outboundPdu = batchSources.get(i);
+        IOException failure = batch.getValue().get(i).getFailure();
+        if (failure != null) {
+          outboundPdu.setFailure(new MessageException(failure.getMessage(),
+                                                      SnmpConstants.SNMP_MD_ERROR, failure));
+        }
+        else if (outboundPdu.getCallback() != null) {
+          outboundPdu.getCallback().pduSent(outboundPdu.getPduHandle(), outboundPdu.getPdu());
+        }
       }
+    }
+    return sent;
+  }
 
-      // check if contextEngineID discovery is needed
+  /**
+   * Encodes a PDU for sending with the message processing model of its
+   * target and assigns its <code>PduHandle</code>.
+   *
+   * @param transport
+   *    the transport mapping or <code>null</code> to determine it from the
+   *    target address.
+   * @param outboundPdu
+   *    the PDU to encode. Its PDU handle is set on success and the callback
+   *    (if any) is informed about it.
+   * @param expectResponse
+   *    <code>true</code> if a response is expected.
+   * @return
+   *    the encoded message with the unwrapped destination address and the
+   *    transport state reference that references the transport mapping to
+   *    use.
+   * @throws MessageException
+   *    if the PDU cannot be sent to the target.
+   * @throws IOException
+   *    if the message cannot be BER encoded.
+   */
+  private OutboundMessage<Address> prepareOutboundMessage(TransportMapping transport,
+                                                          OutboundPdu outboundPdu,
+                                                          boolean expectResponse)
+      throws MessageException, IOException
+  {
+    Target target = outboundPdu.getTarget();
+    PDU pdu = outboundPdu.getPdu();
+    int messageProcessingModel = target.getVersion();
+    Address transportAddress = target.getAddress();
+    int securityModel = target.getSecurityModel();
+    int securityLevel = target.getSecurityLevel();
+    byte[] securityName = target.getSecurityName().getValue();
+    MessageProcessingModel mp =
+        getMessageProcessingModel(messageProcessingModel);
+    if (mp == null) {
+      throw new MessageException("Unsupported message processing model: "
+                                 + messageProcessingModel, SnmpConstants.SNMP_MD_UNSUPPORTED_MP_MODEL);
+    }
+    if (!mp.isProtocolVersionSupported(messageProcessingModel)) {
+      throw new MessageException("SNMP version "+messageProcessingModel+
+                                 " is not supported "+
+                                 "by message processing model "+
+                                 messageProcessingModel, SnmpConstants.SNMP_MD_UNSUPPORTED_SNMP_VERSION);
+    }
+    if (transport == null) {
+      transport = getTransport(transportAddress);
+    }
+    if (transport == null) {
+      throw new UnsupportedAddressClassException(
+          "Unsupported address class (transport mapping): "+
+          transportAddress.getClass().getName(),
+          transportAddress.getClass());
+    }
+    else if (pdu.isConfirmedPdu()) {
+      checkListening4ConfirmedPDU(pdu, target.getAddress(), transport);
+    }
 
+    // check if contextEngineID discovery is needed
 
-      // check PDU type
-      checkOutgoingMsg(transportAddress, messageProcessingModel, pdu);
 
-      // if request ID is == 0 then create one here, otherwise use the request
-      // ID because it may be a resent request.
-      PduHandle pduHandle;
-      Integer32 reqID = pdu.getRequestID();
-      if ((reqID == null) || (reqID.getValue() == 0) &&
-          (pdu.getType() != PDU.RESPONSE)) {
-        pduHandle = createPduHandle();
-      }
-      else {
-        pduHandle = new PduHandle(pdu.getRequestID().getValue());
-      }
+    // check PDU type
+    checkOutgoingMsg(transportAddress, messageProcessingModel, pdu);
 
-      // assign request ID
-      if (pdu.getType() != PDU.V1TRAP) {
-        pdu.setRequestID(new Integer32(pduHandle.getTransactionID()));
-      }
+    // if request ID is == 0 then create one here, otherwise use the request
+    // ID because it may be a resent request.
+    PduHandle pduHandle;
+    Integer32 reqID = pdu.getRequestID();
+    if ((reqID == null) || (reqID.getValue() == 0) &&
+        (pdu.getType() != PDU.RESPONSE)) {
+      pduHandle = createPduHandle();
+    }
+    else {
+      pduHandle = new PduHandle(pdu.getRequestID().getValue());
+    }
 
-      // parameters to receive
-      GenericAddress destAddress = new GenericAddress();
+    // assign request ID
+    if (pdu.getType() != PDU.V1TRAP) {
+      pdu.setRequestID(new Integer32(pduHandle.getTransactionID()));
+    }
 
-      CertifiedIdentity certifiedIdentity = null;
-      if (target instanceof CertifiedIdentity) {
-        certifiedIdentity = (CertifiedIdentity) target;
-      }
-      TransportStateReference tmStateReference =
-          new TransportStateReference(transport,
-                                      transportAddress,
-                                      new OctetString(securityName),
-                                      SecurityLevel.get(securityLevel),
-                                      SecurityLevel.undefined,
-                                      false, null, certifiedIdentity);
+    // parameters to receive
+    GenericAddress destAddress = new GenericAddress();
 
-      configureAuthoritativeEngineID(target, mp);
-      BEROutputStream outgoingMessage = new BEROutputStream();
-      int status = mp.prepareOutgoingMessage(transportAddress,
-                                             transport.getMaxInboundMessageSize(),
-                                             messageProcessingModel,
-                                             securityModel,
-                                             securityName,
-                                             securityLevel,
-                                             pdu,
-                                             expectResponse,
-                                             pduHandle,
-                                             destAddress,
-                                             outgoingMessage,
-                                             tmStateReference);
-
-      if (status == SnmpConstants.SNMP_ERROR_SUCCESS) {
-        // inform callback about PDU new handle
-        if (pduHandleCallback != null) {
-          pduHandleCallback.pduHandleAssigned(pduHandle, pdu);
-        }
-        byte[] messageBytes = outgoingMessage.getBuffer().array();
-        sendMessage(transport, transportAddress, messageBytes, tmStateReference);
-      }
-      else {
-        throw new MessageException("Message processing model "+
-                                   mp.getID()+" returned error: "+
-                                   SnmpConstants.mpErrorMessage(status), status);
-      }
-      return pduHandle;
+    CertifiedIdentity certifiedIdentity = null;
+    if (target instanceof CertifiedIdentity) {
+      certifiedIdentity = (CertifiedIdentity) target;
     }
-    catch (IndexOutOfBoundsException iobex) {
-      throw new MessageException("Unsupported message processing model: "
-                                 + messageProcessingModel, SnmpConstants.SNMP_MD_UNSUPPORTED_MP_MODEL, iobex);
-    } catch (MessageException mex) {
-      logger.debug(mex.getMessage(), mex);
-      throw mex;
+    TransportStateReference tmStateReference =
+        new TransportStateReference(transport,
+                                    transportAddress,
+                                    new OctetString(securityName),
+                                    SecurityLevel.get(securityLevel),
+                                    SecurityLevel.undefined,
+                                    false, null, certifiedIdentity);
+
+    configureAuthoritativeEngineID(target, mp);
+    BEROutputStream outgoingMessage = new BEROutputStream();
+    int status = mp.prepareOutgoingMessage(transportAddress,
+                                           transport.getMaxInboundMessageSize(),
+                                           messageProcessingModel,
+                                           securityModel,
+                                           securityName,
+                                           securityLevel,
+                                           pdu,
+                                           expectResponse,
+                                           pduHandle,
+                                           destAddress,
+                                           outgoingMessage,
+                                           tmStateReference);
+
+    if (status != SnmpConstants.SNMP_ERROR_SUCCESS) {
+      throw new MessageException("Message processing model "+
+                                 mp.getID()+" returned error: "+
+                                 SnmpConstants.mpErrorMessage(status), status);
     }
-    catch (IOException iox) {
-      logger.debug(iox.getMessage(), iox);
-      throw new MessageException(iox.getMessage(), SnmpConstants.SNMP_MD_ERROR, iox);
+    outboundPdu.setPduHandle(pduHandle);
+    // inform callback about PDU new handle, it has to be registered before
+    // the message is sent to be able to match a fast response
+    if (outboundPdu.getCallback() != null) {
+      outboundPdu.getCallback().pduHandleAssigned(pduHandle, pdu);
     }
+    byte[] messageBytes = outgoingMessage.getBuffer().array();
+    Address address = (transportAddress instanceof GenericAddress) ?
+        ((GenericAddress)transportAddress).getAddress() : transportAddress;
+    return new OutboundMessage<Address>(address, messageBytes, tmStateReference);
   }
 
   protected void configureAuthoritativeEngineID(Target target, MessageProcessingModel mp) {
@@ -0,0 +1,107 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - OutboundPdu.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+
+package org.snmp4j;
+
+import org.snmp4j.mp.PduHandle;
+import org.snmp4j.mp.PduHandleCallback;
+
+/**
+ * An <code>OutboundPdu</code> is a PDU and its target as sent in a batch by
+ * {@link MessageDispatcher#sendPdus(TransportMapping, java.util.List, boolean)}.
+ * The message dispatcher sets the <code>PduHandle</code> assigned to the PDU
+ * or the failure that prevented the PDU from being sent.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ * @since 2.4
+ */
+public class OutboundPdu {
+
+  private final Target target;
+  private final PDU pdu;
+  private final PduHandleCallback<PDU> callback;
+  private PduHandle pduHandle;
+  private MessageException failure;
+
+  /**
+   * Creates an outbound PDU.
+   * @param target
+   *    the target which identifies, transport address, message processing model,
+   *    security model, security name and level.
+   * @param pdu
+   *    the SNMP Protocol Data Unit.
+   * @param callback
+   *    an optional callback instance that is informed (if not
+   *    <code>null</code>) about the newly assigned PduHandle just before the
+   *    message is sent out.
+   */
+  public OutboundPdu(Target target, PDU pdu, PduHandleCallback<PDU> callback) {
+    this.target = target;
+    this.pdu = pdu;
+    this.callback = callback;
+  }
+
+  public Target getTarget() {
+    return target;
+  }
+
+  public PDU getPdu() {
+    return pdu;
+  }
+
+  public PduHandleCallback<PDU> getCallback() {
+    return callback;
+  }
+
+  /**
+   * Gets the handle that uniquely identifies the sent PDU.
+   * @return
+   *    the <code>PduHandle</code> or <code>null</code> if the PDU could not be
+   *    prepared for sending.
+   */
+  public PduHandle getPduHandle() {
+    return pduHandle;
+  }
+
+  public void setPduHandle(PduHandle pduHandle) {
+    this.pduHandle = pduHandle;
+  }
+
+  /**
+   * Gets the reason why the PDU has not been sent.
+   * @return
+   *    a <code>MessageException</code> or <code>null</code> if the PDU has been
+   *    sent.
+   */
+  public MessageException getFailure() {
+    return failure;
+  }
+
+  public void setFailure(MessageException failure) {
+    this.failure = failure;
+  }
+
+  @Override
+  public String toString() {
+    return "OutboundPdu[target="+target+",pdu="+pdu+",pduHandle="+pduHandle+
+        ",failure="+failure+"]";
+  }
+}
@@ -0,0 +1,504 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - RequestThrottle.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Address;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The <code>RequestThrottle</code> limits the number of confirmed requests
+ * that are outstanding (in flight) and the rate at which they are sent, both
+ * globally and per target {@link Address}. Rates are enforced by token
+ * buckets that are refilled continuously with the configured rate up to the
+ * configured burst size.
+ * <p>
+ * A request needs a {@link Permit} before it is sent. If no permit is
+ * available, the request is queued and its {@link PermitListener} is called
+ * as soon as a permit becomes available, either because another request to
+ * the same address (or globally) has finished or because the token bucket
+ * has been refilled. Requests for the same address are granted in FIFO order.
+ * <p>
+ * To activate throttling for a {@link Snmp} session, set a throttle with
+ * {@link Snmp#setRequestThrottle(RequestThrottle)}. Because a request is
+ * only sent after it got its permit, the time spent in the queue does not
+ * count for its timeout.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ * @since 2.4
+ */
+public class RequestThrottle {
+
+  private static final Logger logger =
+      LoggerFactory.getLogger(RequestThrottle.class);
+
+  /**
+   * Limits that do not restrict anything.
+   */
+  public static final Limits UNLIMITED = new Limits(0, 0.0, 0);
+
+  private Limits globalLimits;
+  private Limits defaultAddressLimits;
+  private final Map<Address, Limits> addressLimits = new HashMap<>();
+
+  private final Bucket global = new Bucket(null);
+  private final Map<Address, Bucket> buckets = new HashMap<>();
+  private final LinkedHashSet<Bucket> waiting = new LinkedHashSet<>();
+  private int queueDepth;
+  private long scheduledWakeup;
+
+  /**
+   * Creates a request throttle without any limits.
+   */
+  public RequestThrottle() {
+    this(UNLIMITED, UNLIMITED);
+  }
+
+  /**
+   * Creates a request throttle.
+   * @param globalLimits
+   *    the limits for all requests.
+   * @param defaultAddressLimits
+   *    the limits for the requests to a single address, unless other limits
+   *    are set for that address by {@link #setAddressLimits}.
+   */
+  public RequestThrottle(Limits globalLimits, Limits defaultAddressLimits) {
+    setGlobalLimits(globalLimits);
+    setDefaultAddressLimits(defaultAddressLimits);
+  }
+
+  public synchronized Limits getGlobalLimits() {
+    return globalLimits;
+  }
+
+  public void setGlobalLimits(Limits globalLimits) {
+    List<Grant> grants;
+    synchronized (this) {
+      this.globalLimits = checkLimits(globalLimits);
+      global.tokens = globalLimits.getBurstSize();
+      grants = dispatch();
+    }
+    grant(grants);
+  }
+
+  public synchronized Limits getDefaultAddressLimits() {
+    return defaultAddressLimits;
+  }
+
+  public void setDefaultAddressLimits(Limits defaultAddressLimits) {
+    List<Grant> grants;
+    synchronized (this) {
+      this.defaultAddressLimits = checkLimits(defaultAddressLimits);
+      grants = dispatch();
+    }
+    grant(grants);
+  }
+
+  /**
+   * Sets the limits for requests to the specified address.
+   * @param address
+   *    the target address.
+   * @param limits
+   *    the limits for that address, or <code>null</code> to use the default
+   *    address limits again.
+   */
+  public void setAddressLimits(Address address, Limits limits) {
+    List<Grant> grants;
+    synchronized (this) {
+      if (limits == null) {
+        addressLimits.remove(address);
+      }
+      else {
+        addressLimits.put(address, limits);
+      }
+      grants = dispatch();
+    }
+    grant(grants);
+  }
+
+  public synchronized Limits getAddressLimits(Address address) {
+    Limits limits = addressLimits.get(address);
+    return (limits == null) ? defaultAddressLimits : limits;
+  }
+
+  /**
+   * Gets the number of requests waiting for a permit.
+   * @return
+   *    the total queue depth.
+   */
+  public synchronized int getQueueDepth() {
+    return queueDepth;
+  }
+
+  /**
+   * Gets the number of requests to the specified address waiting for a permit.
+   * @param address
+   *    the target address.
+   * @return
+   *    the queue depth for <code>address</code>.
+   */
+  public synchronized int getQueueDepth(Address address) {
+    Bucket bucket = buckets.get(address);
+    return (bucket == null) ? 0 : bucket.queue.size();
+  }
+
+  /**
+   * Gets the number of requests holding a permit.
+   * @return
+   *    the number of requests in flight.
+   */
+  public synchronized int getRequestsInFlight() {
+    return global.inFlight;
+  }
+
+  /**
+   * Gets the number of requests to the specified address holding a permit.
+   * @param address
+   *    the target address.
+   * @return
+   *    the number of requests in flight to <code>address</code>.
+   */
+  public synchronized int getRequestsInFlight(Address address) {
+    Bucket bucket = buckets.get(address);
+    return (bucket == null) ? 0 : bucket.inFlight;
+  }
+
+  /**
+   * Acquires a permit for a request to the specified address.
+   *
+   * @param address
+   *    the target address of the request.
+   * @param listener
+   *    the listener to be called with the permit if no permit is available
+   *    right now.
+   * @return
+   *    a <code>Permit</code> if the request can be sent immediately, or
+   *    <code>null</code> if the request has been queued.
+   */
+  public Permit acquire(Address address, PermitListener listener) {
+    synchronized (this) {
+      Bucket bucket = buckets.get(address);
+      if (bucket == null) {
+        bucket = new Bucket(address);
+        bucket.tokens = getAddressLimits(address).getBurstSize();
+        buckets.put(address, bucket);
+      }
+      if (bucket.queue.isEmpty() && tryAcquire(bucket, System.nanoTime())) {
+        return new Permit(bucket);
+      }
+      bucket.queue.add(listener);
+      waiting.add(bucket);
+      queueDepth++;
+      if (logger.isDebugEnabled()) {
+        logger.debug("Queued request to {}, queue depth is {}", address,
+                     bucket.queue.size());
+      }
+      scheduleWakeup(System.nanoTime());
+      return null;
+    }
+  }
+
+  /**
+   * Removes a queued request.
+   * @param address
+   *    the target address used to acquire the permit.
+   * @param listener
+   *    the listener supplied with {@link #acquire}.
+   * @return
+   *    <code>true</code> if the request has been removed from the queue.
+   */
+  public synchronized boolean cancel(Address address, PermitListener listener) {
+    Bucket bucket = buckets.get(address);
+    if ((bucket != null) && bucket.queue.remove(listener)) {
+      queueDepth--;
+      if (bucket.queue.isEmpty()) {
+        waiting.remove(bucket);
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Removes all queued requests.
+   * @return
+   *    the listeners of the removed requests.
+   */
+  public synchronized List<PermitListener> clear() {
+    List<PermitListener> removed = new ArrayList<>(queueDepth);
+    for (Bucket bucket : waiting) {
+      removed.addAll(bucket.queue);
+      bucket.queue.clear();
+    }
+    waiting.clear();
+    queueDepth = 0;
+    return removed;
+  }
+
+  private void release(Permit permit) {
+    List<Grant> grants;
+    synchronized (this) {
+      Bucket bucket = permit.bucket;
+      bucket.inFlight--;
+      global.inFlight--;
+      grants = dispatch();
+      if ((bucket.inFlight == 0) && bucket.queue.isEmpty() &&
+          (bucket.tokens >= getAddressLimits(bucket.address).getBurstSize())) {
+        buckets.remove(bucket.address);
+      }
+    }
+    grant(grants);
+  }
+
+  private void grant(List<Grant> grants) {
+    for (Grant grant : grants) {
+      try {
+        grant.listener.permitGranted(grant.permit);
+      }
+      catch (RuntimeException ex) {
+        logger.error("Permit listener failed: {}", ex.getMessage(), ex);
+        grant.permit.release();
+      }
+    }
+  }
+
+  private List<Grant> dispatch() {
+    if (waiting.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Grant> grants = new ArrayList<>();
+    long now = System.nanoTime();
+    boolean progress = true;
+    while (progress && !waiting.isEmpty()) {
+      progress = false;
+      for (Iterator<Bucket> it = waiting.iterator(); it.hasNext(); ) {
+        Bucket bucket = it.next();
+        if (tryAcquire(bucket, now)) {
+          grants.add(new Grant(bucket.queue.poll(), new Permit(bucket)));
+          queueDepth--;
+          progress = true;
+          if (bucket.queue.isEmpty()) {
+            it.remove();
+          }
+        }
+      }
+    }
+    scheduleWakeup(now);
+    return grants;
+  }
+
+  private boolean tryAcquire(Bucket bucket, long now) {
+    Limits limits = getAddressLimits(bucket.address);
+    refill(global, globalLimits, now);
+    refill(bucket, limits, now);
+    if (((globalLimits.maxInFlight > 0) &&
+         (global.inFlight >= globalLimits.maxInFlight)) ||
+        ((limits.maxInFlight > 0) && (bucket.inFlight >= limits.maxInFlight)) ||
+        ((globalLimits.maxRate > 0.0) && (global.tokens < 1.0)) ||
+        ((limits.maxRate > 0.0) && (bucket.tokens < 1.0))) {
+      return false;
+    }
+    global.inFlight++;
+    bucket.inFlight++;
+    if (globalLimits.maxRate > 0.0) {
+      global.tokens -= 1.0;
+    }
+    if (limits.maxRate > 0.0) {
+      bucket.tokens -= 1.0;
+    }
+    return true;
+  }
+
+  private static void refill(Bucket bucket, Limits limits, long now) {
+    if (limits.maxRate > 0.0) {
+      double elapsed = (now - bucket.lastRefill) / 1.0e9;
+      bucket.tokens = Math.min(limits.getBurstSize(),
+                               bucket.tokens + elapsed * limits.maxRate);
+    }
+    bucket.lastRefill = now;
+  }
+
+  /**
+   * Schedules a dispatch for the time when the next token becomes available
+   * for a waiting request that is not blocked by an in-flight limit.
+   * @param now
+   *    the current time as returned by {@link System#nanoTime()}.
+   */
+  private void scheduleWakeup(long now) {
+    long wait = Long.MAX_VALUE;
+    for (Bucket bucket : waiting) {
+      Limits limits = getAddressLimits(bucket.address);
+      if (((limits.maxInFlight > 0) && (bucket.inFlight >= limits.maxInFlight)) ||
+          ((globalLimits.maxInFlight > 0) &&
+           (global.inFlight >= globalLimits.maxInFlight))) {
+        continue;
+      }
+      long bucketWait = Math.max(tokenWait(bucket, limits),
+                                 tokenWait(global, globalLimits));
+      wait = Math.min(wait, bucketWait);
+    }
+    if ((wait == Long.MAX_VALUE) ||
+        ((scheduledWakeup != 0) && (scheduledWakeup - now <= wait))) {
+      return;
+    }
+    scheduledWakeup = now + wait;
+    try {
+      SNMP4JSettings.getSharedTimer().schedule(new TimerTask() {
+        @Override
+        public void run() {
+          List<Grant> grants;
+          synchronized (RequestThrottle.this) {
+            scheduledWakeup = 0;
+            grants = dispatch();
+          }
+          grant(grants);
+        }
+      }, Math.max(1, wait / SnmpConstants.MILLISECOND_TO_NANOSECOND));
+    }
+    catch (IllegalStateException isex) {
+      scheduledWakeup = 0;
+      logger.warn("Failed to schedule dispatch of queued requests: {}",
+                  isex.getMessage());
+    }
+  }
+
+  private static long tokenWait(Bucket bucket, Limits limits) {
+    if ((limits.maxRate <= 0.0) || (bucket.tokens >= 1.0)) {
+      return 0;
+    }
+    return (long) Math.ceil((1.0 - bucket.tokens) / limits.maxRate * 1.0e9);
+  }
+
+  private static Limits checkLimits(Limits limits) {
+    if (limits == null) {
+      throw new NullPointerException("Limits must not be null");
+    }
+    return limits;
+  }
+
+  /**
+   * The <code>Limits</code> class defines the maximum number of requests in
+   * flight and the maximum request rate.
+   */
+  public static class Limits {
+
+    private int maxInFlight;
+    private double maxRate;
+    private int burstSize;
+
+    /**
+     * Creates request limits.
+     * @param maxInFlight
+     *    the maximum number of outstanding requests or zero for no limit.
+     * @param maxRate
+     *    the maximum number of requests sent per second or zero for no limit.
+     * @param burstSize
+     *    the maximum number of requests that can be sent at once after an
+     *    idle period if <code>maxRate</code> is greater than zero. The burst
+     *    size is at least one.
+     */
+    public Limits(int maxInFlight, double maxRate, int burstSize) {
+      if ((maxInFlight < 0) || (maxRate < 0.0)) {
+        throw new IllegalArgumentException("Limits must not be negative");
+      }
+      this.maxInFlight = maxInFlight;
+      this.maxRate = maxRate;
+      this.burstSize = Math.max(1, burstSize);
+    }
+
+    public int getMaxInFlight() {
+      return maxInFlight;
+    }
+
+    public double getMaxRate() {
+      return maxRate;
+    }
+
+    public int getBurstSize() {
+      return burstSize;
+    }
+
+    @Override
+    public String toString() {
+      return "Limits[maxInFlight="+maxInFlight+",maxRate="+maxRate+
+          ",burstSize="+burstSize+"]";
+    }
+  }
+
+  /**
+   * A <code>Permit</code> allows to send one request. It has to be released
+   * when the request has been answered, timed out, or cancelled. Releasing a
+   * permit more than once has no effect.
+   */
+  public class Permit {
+
+    private Bucket bucket;
+    private AtomicBoolean released = new AtomicBoolean();
+
+    private Permit(Bucket bucket) {
+      this.bucket = bucket;
+    }
+
+    public Address getAddress() {
+      return bucket.address;
+    }
+
+    public void release() {
+      if (released.compareAndSet(false, true)) {
+        RequestThrottle.this.release(this);
+      }
+    }
+  }
+
+  /**
+   * The <code>PermitListener</code> is called when a queued request got its
+   * permit. The listener is called without holding any lock of the throttle.
+   */
+  public interface PermitListener {
+    void permitGranted(Permit permit);
+  }
+
+  private static class Bucket {
+    private Address address;
+    private int inFlight;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+    private ArrayDeque<PermitListener> queue = new ArrayDeque<>();
+
+    Bucket(Address address) {
+      this.address = address;
+    }
+  }
+
+  private static class Grant {
+    private PermitListener listener;
+    private Permit permit;
+
+    Grant(PermitListener listener, Permit permit) {
+      this.listener = listener;
+      this.permit = permit;
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - ResponseFuture.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j;
+
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * The <code>ResponseFuture</code> is a <code>CompletableFuture</code> that
+ * is completed by the response (or timeout) of a request sent through a
+ * {@link Session}. The future completes normally with the
+ * {@link ResponseEvent}, also if the request timed out (then the response PDU
+ * of the event is <code>null</code>). It completes exceptionally if the
+ * request is not a confirmed PDU, if it could not be sent, or if the
+ * response event carries an error.
+ * <p>
+ * Cancelling the future cancels the request in the session, which removes
+ * the pending request and stops its retries.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ * @since 2.4
+ */
+class ResponseFuture extends CompletableFuture<ResponseEvent>
+    implements ResponseListener {
+
+  private Session session;
+  private PDU request;
+  private Executor executor;
+
+  /**
+   * Creates a response future.
+   * @param session
+   *    the session used to send the request.
+   * @param request
+   *    the request PDU.
+   * @param executor
+   *    the executor that completes the future, or <code>null</code> to
+   *    complete it on the thread that delivers the response.
+   */
+  ResponseFuture(Session session, PDU request, Executor executor) {
+    this.session = session;
+    this.request = request;
+    this.executor = executor;
+  }
+
+  /**
+   * Sends the request and returns this future. If the request is not a
+   * confirmed PDU, it is not sent and the future completes exceptionally
+   * with an <code>IllegalArgumentException</code>, because no response would
+   * ever complete it.
+   * @param target
+   *    the target of the request.
+   * @param transport
+   *    the transport mapping to use or <code>null</code>.
+   * @return
+   *    this future.
+   */
+  ResponseFuture send(Target target, TransportMapping transport) {
+    if (!request.isConfirmedPdu()) {
+      completeExceptionally(new IllegalArgumentException("PDU type "+
+          PDU.getTypeString(request.getType())+" is not a confirmed PDU type"));
+      return this;
+    }
+    try {
+      session.send(request, target, transport, null, this);
+    }
+    catch (IOException | RuntimeException ex) {
+      completeExceptionally(ex);
+    }
+    return this;
+  }
+
+  @Override
+  public void onResponse(final ResponseEvent event) {
+    // Always cancel async request when response has been received
+    session.cancel(event.getRequest(), this);
+    if (executor == null) {
+      completeWith(event);
+    }
+    else {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          completeWith(event);
+        }
+      });
+    }
+  }
+
+  private void completeWith(ResponseEvent event) {
+    if (event.getError() != null) {
+      completeExceptionally(event.getError());
+    }
+    else {
+      complete(event);
+    }
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    // cancel the request only once, super.cancel also returns true
+    // if this future has already been cancelled
+    if (completeExceptionally(new CancellationException())) {
+      session.cancel(request, this);
+      return true;
+    }
+    return isCancelled();
+  }
+}
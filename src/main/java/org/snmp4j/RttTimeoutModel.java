@@ -0,0 +1,241 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - RttTimeoutModel.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j;
+
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Address;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The <code>RttTimeoutModel</code> computes retry timeouts from the smoothed
+ * round trip time and its variation per target address as specified for the
+ * TCP retransmission timer by RFC 6298:
+ * <pre>
+ *   RTTVAR &lt;- (1 - beta) * RTTVAR + beta * |SRTT - R|
+ *   SRTT &lt;- (1 - alpha) * SRTT + alpha * R
+ *   RTO = SRTT + max(G, K * RTTVAR)
+ * </pre>
+ * with alpha = 1/8, beta = 1/4, and K = 4. For the first sample R, SRTT is
+ * set to R and RTTVAR to R/2. As long as no sample is available for an
+ * address, the target's timeout is used instead of RTO.
+ * <p>
+ * The timeout of each retry is doubled (exponential back-off) and every
+ * timeout is clamped to the range between the minimum and maximum timeout.
+ * The number of addresses for which round trip time estimates are kept is
+ * bounded; the least recently used estimates are discarded first.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ * @since 2.4
+ */
+public class RttTimeoutModel implements AdaptiveTimeoutModel {
+
+  public static final long DEFAULT_MIN_TIMEOUT = 200;
+  public static final long DEFAULT_MAX_TIMEOUT = 60000;
+  public static final long DEFAULT_CLOCK_GRANULARITY = 10;
+  public static final int DEFAULT_MAX_ADDRESSES = 10000;
+
+  private static final double ALPHA = 0.125;
+  private static final double BETA = 0.25;
+  private static final int K = 4;
+
+  private long minTimeout = DEFAULT_MIN_TIMEOUT;
+  private long maxTimeout = DEFAULT_MAX_TIMEOUT;
+  private long clockGranularity = DEFAULT_CLOCK_GRANULARITY;
+  private final Map<Address, RttEstimate> estimates;
+
+  /**
+   * Creates a RTT based timeout model that keeps estimates for up to
+   * {@link #DEFAULT_MAX_ADDRESSES} addresses.
+   */
+  public RttTimeoutModel() {
+    this(DEFAULT_MAX_ADDRESSES);
+  }
+
+  /**
+   * Creates a RTT based timeout model.
+   * @param maxAddresses
+   *    the maximum number of addresses for which round trip time estimates
+   *    are kept.
+   */
+  public RttTimeoutModel(final int maxAddresses) {
+    if (maxAddresses < 1) {
+      throw new IllegalArgumentException("maxAddresses must be > 0");
+    }
+    this.estimates = new LinkedHashMap<Address, RttEstimate>(16, 0.75f, true) {
+      private static final long serialVersionUID = 2877328233613424932L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Address, RttEstimate> eldest) {
+        return size() > maxAddresses;
+      }
+    };
+  }
+
+  @Override
+  public long getRetryTimeout(int retryCount,
+                              int totalNumberOfRetries, long targetTimeout) {
+    return backOff(targetTimeout, retryCount);
+  }
+
+  @Override
+  public long getRetryTimeout(Address address, int retryCount,
+                              int totalNumberOfRetries, long targetTimeout) {
+    RttEstimate estimate;
+    synchronized (estimates) {
+      estimate = estimates.get(address);
+    }
+    long timeout = targetTimeout;
+    if (estimate != null) {
+      synchronized (estimate) {
+        timeout = (long) Math.ceil(estimate.srtt +
+                                   Math.max(clockGranularity,
+                                            K * estimate.rttvar));
+      }
+    }
+    return backOff(timeout, retryCount);
+  }
+
+  @Override
+  public long getRequestTimeout(int totalNumberOfRetries, long targetTimeout) {
+    long timeout = 0;
+    for (int i = 0; i <= totalNumberOfRetries; i++) {
+      timeout += getRetryTimeout(i, totalNumberOfRetries, targetTimeout);
+    }
+    return timeout;
+  }
+
+  @Override
+  public void roundTripTimeMeasured(Address address, long roundTripTime) {
+    double r = (double) roundTripTime / SnmpConstants.MILLISECOND_TO_NANOSECOND;
+    RttEstimate estimate;
+    synchronized (estimates) {
+      estimate = estimates.get(address);
+      if (estimate == null) {
+        estimate = new RttEstimate(r);
+        estimates.put(address, estimate);
+        return;
+      }
+    }
+    synchronized (estimate) {
+      estimate.rttvar = (1.0 - BETA) * estimate.rttvar +
+          BETA * Math.abs(estimate.srtt - r);
+      estimate.srtt = (1.0 - ALPHA) * estimate.srtt + ALPHA * r;
+    }
+  }
+
+  /**
+   * Gets the smoothed round trip time for the specified address.
+   * @param address
+   *    a target address.
+   * @return
+   *    the smoothed round trip time in milliseconds or a negative value if
+   *    no round trip time has been measured for <code>address</code> yet.
+   */
+  public double getSmoothedRoundTripTime(Address address) {
+    RttEstimate estimate;
+    synchronized (estimates) {
+      estimate = estimates.get(address);
+    }
+    if (estimate == null) {
+      return -1.0;
+    }
+    synchronized (estimate) {
+      return estimate.srtt;
+    }
+  }
+
+  /**
+   * Removes the round trip time estimate for the specified address, for
+   * example if the target has been moved to a different network.
+   * @param address
+   *    a target address.
+   */
+  public void reset(Address address) {
+    synchronized (estimates) {
+      estimates.remove(address);
+    }
+  }
+
+  public long getMinTimeout() {
+    return minTimeout;
+  }
+
+  /**
+   * Sets the lower bound for all retry timeouts.
+   * @param minTimeout
+   *    the minimum timeout in milliseconds (default is
+   *    {@link #DEFAULT_MIN_TIMEOUT}).
+   */
+  public void setMinTimeout(long minTimeout) {
+    this.minTimeout = minTimeout;
+  }
+
+  public long getMaxTimeout() {
+    return maxTimeout;
+  }
+
+  /**
+   * Sets the upper bound for all retry timeouts.
+   * @param maxTimeout
+   *    the maximum timeout in milliseconds (default is
+   *    {@link #DEFAULT_MAX_TIMEOUT}).
+   */
+  public void setMaxTimeout(long maxTimeout) {
+    this.maxTimeout = maxTimeout;
+  }
+
+  public long getClockGranularity() {
+    return clockGranularity;
+  }
+
+  /**
+   * Sets the clock granularity G which is the lower bound for the variation
+   * term of the timeout.
+   * @param clockGranularity
+   *    the clock granularity in milliseconds (default is
+   *    {@link #DEFAULT_CLOCK_GRANULARITY}).
+   */
+  public void setClockGranularity(long clockGranularity) {
+    this.clockGranularity = clockGranularity;
+  }
+
+  private long backOff(long timeout, int retryCount) {
+    int shift = Math.min(Math.max(retryCount, 0), 30);
+    long t = timeout << shift;
+    if ((t >> shift) != timeout) {
+      // overflow
+      t = Long.MAX_VALUE;
+    }
+    return Math.max(minTimeout, Math.min(maxTimeout, t));
+  }
+
+  private static class RttEstimate {
+    private double srtt;
+    private double rttvar;
+
+    RttEstimate(double r) {
+      this.srtt = r;
+      this.rttvar = r / 2.0;
+    }
+  }
+}
@@ -19,16 +19,18 @@
   _##########################################################################*/
 package org.snmp4j;
 
+import org.snmp4j.event.ResponseEvent;
 import org.snmp4j.event.ResponseListener;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <code>Session</code> defines a common interface for all classes that
  * implement SNMP protocol operations based on SNMP4J.
  *
  * @author Frank Fock
- * @version 1.2
+ * @version 2.4
  */
 public interface Session {
   /**
@@ -104,5 +106,114 @@ public interface Session {
    *    a ResponseListener instance.
    */
   public void cancel(PDU request, ResponseListener listener);
+
+  /**
+   * Asynchronously sends a <code>PDU</code> to the given target and returns
+   * a future for the response. The future completes normally with the
+   * <code>ResponseEvent</code> when the response has been received or the
+   * request timed out (the response PDU is <code>null</code> then). It
+   * completes exceptionally with an <code>IllegalArgumentException</code> if
+   * the PDU is not a confirmed PDU, and with the cause if the PDU could not
+   * be sent or if the response event carries an error. Cancelling the returned future cancels the
+   * request.
+   * <p>
+   * This default implementation completes the future on the thread that
+   * delivers the response.
+   *
+   * @param pdu
+   *    the confirmed PDU instance to send.
+   * @param target
+   *    the Target instance representing the target SNMP engine where to send
+   *    the <code>pdu</code>.
+   * @return
+   *    a <code>CompletableFuture</code> for the response event.
+   * @since 2.4
+   */
+  default CompletableFuture<ResponseEvent> sendAsync(PDU pdu, Target target) {
+    return new ResponseFuture(this, pdu, null).send(target, null);
+  }
+
+  /**
+   * Asynchronously sends a GET request <code>PDU</code> to the given target.
+   * @param pdu
+   *    the PDU instance to send (its type is set to {@link PDU#GET}).
+   * @param target
+   *    the Target instance representing the target SNMP engine.
+   * @return
+   *    a <code>CompletableFuture</code> for the response event.
+   * @see #sendAsync(PDU, Target)
+   * @since 2.4
+   */
+  default CompletableFuture<ResponseEvent> getAsync(PDU pdu, Target target) {
+    pdu.setType(PDU.GET);
+    return sendAsync(pdu, target);
+  }
+
+  /**
+   * Asynchronously sends a GETNEXT request <code>PDU</code> to the given
+   * target.
+   * @param pdu
+   *    the PDU instance to send (its type is set to {@link PDU#GETNEXT}).
+   * @param target
+   *    the Target instance representing the target SNMP engine.
+   * @return
+   *    a <code>CompletableFuture</code> for the response event.
+   * @see #sendAsync(PDU, Target)
+   * @since 2.4
+   */
+  default CompletableFuture<ResponseEvent> getNextAsync(PDU pdu, Target target) {
+    pdu.setType(PDU.GETNEXT);
+    return sendAsync(pdu, target);
+  }
+
+  /**
+   * Asynchronously sends a GETBULK request <code>PDU</code> to the given
+   * target.
+   * @param pdu
+   *    the PDU instance to send (its type is set to {@link PDU#GETBULK}).
+   * @param target
+   *    the Target instance representing the target SNMP engine.
+   * @return
+   *    a <code>CompletableFuture</code> for the response event.
+   * @see #sendAsync(PDU, Target)
+   * @since 2.4
+   */
+  default CompletableFuture<ResponseEvent> getBulkAsync(PDU pdu, Target target) {
+    pdu.setType(PDU.GETBULK);
+    return sendAsync(pdu, target);
+  }
+
+  /**
+   * Asynchronously sends a SET request <code>PDU</code> to the given target.
+   * @param pdu
+   *    the PDU instance to send (its type is set to {@link PDU#SET}).
+   * @param target
+   *    the Target instance representing the target SNMP engine.
+   * @return
+   *    a <code>CompletableFuture</code> for the response event.
+   * @see #sendAsync(PDU, Target)
+   * @since 2.4
+   */
+  default CompletableFuture<ResponseEvent> setAsync(PDU pdu, Target target) {
+    pdu.setType(PDU.SET);
+    return sendAsync(pdu, target);
+  }
+
+  /**
+   * Asynchronously sends an INFORM request <code>PDU</code> to the given
+   * target.
+   * @param pdu
+   *    the PDU instance to send (its type is set to {@link PDU#INFORM}).
+   * @param target
+   *    the Target instance representing the target SNMP engine.
+   * @return
+   *    a <code>CompletableFuture</code> for the response event.
+   * @see #sendAsync(PDU, Target)
+   * @since 2.4
+   */
+  default CompletableFuture<ResponseEvent> informAsync(PDU pdu, Target target) {
+    pdu.setType(PDU.INFORM);
+    return sendAsync(pdu, target);
+  }
 }
 
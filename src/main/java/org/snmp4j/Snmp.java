@@ -34,6 +34,9 @@ import org.snmp4j.transport.TransportMappings;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The <code>Snmp</code> class is the core of SNMP4J. It provides functions to
@@ -146,6 +149,18 @@ public class Snmp implements Session, CommandResponder {
   private static final int DEFAULT_MAX_REQUEST_STATUS = 2;
   private static final int ENGINE_ID_DISCOVERY_MAX_REQUEST_STATUS = 0;
 
+  /**
+   * The number of threads of the default report executor.
+   * @since 2.4
+   */
+  public static final int DEFAULT_REPORT_THREADS = 2;
+  /**
+   * The queue capacity of the default report executor. If the queue is full,
+   * reports are processed by the thread that received them.
+   * @since 2.4
+   */
+  public static final int DEFAULT_REPORT_QUEUE_SIZE = 1000;
+
   // Message processing implementation
   private MessageDispatcher messageDispatcher;
 
@@ -175,10 +190,31 @@ public class Snmp implements Session, CommandResponder {
   // Default ReportHandler
   private ReportHandler reportHandler = new ReportProcessor();
 
-  private Map<Address,OctetString> contextEngineIDs =
-      Collections.synchronizedMap(new HashMap<>());
+  // Context engine IDs discovered by RFC 5343
+  private volatile EngineIdCache contextEngineIDs = new EngineIdCache();
   private boolean contextEngineIdDiscoveryDisabled;
 
+  // Executor completing the futures returned by sendAsync - optional
+  private volatile Executor asyncExecutor;
+
+  // Optional limits for requests in flight and request rates
+  private volatile RequestThrottle requestThrottle;
+
+  // Executor processing REPORT PDUs and resending their requests
+  private volatile Executor reportExecutor;
+  private ExecutorService defaultReportExecutor;
+
+  // Requests waiting for a resend after a REPORT by target address and user
+  private final Map<ResyncKey, Resync> resyncs = new ConcurrentHashMap<>();
+  private final AtomicLong resyncCount = new AtomicLong();
+
+  /**
+   * The <code>queuedRequests</code> table contains the requests waiting for
+   * a permit of the request throttle accessed through the key userObject
+   */
+  private final Map<AsyncRequestKey, QueuedRequest> queuedRequests =
+      new Hashtable<>(50);
+
   /**
    * Creates a <code>Snmp</code> instance that uses a
    * <code>MessageDispatcherImpl</code> with no message processing
@@ -503,10 +539,19 @@ public class Snmp implements Session, CommandResponder {
         tm.close();
       }
     }
-    Timer t = timer;
+    // The timer is shared by all sessions and must not be cancelled here,
+    // the retry tasks of this session are cancelled with its pending requests
     timer = null;
-    if (t != null) {
-      t.cancel();
+    ExecutorService executor;
+    synchronized (this) {
+      executor = defaultReportExecutor;
+      if (executor != null) {
+        defaultReportExecutor = null;
+        reportExecutor = null;
+      }
+    }
+    if (executor != null) {
+      executor.shutdown();
     }
     // close all notification listeners
     if (notificationDispatcher != null) {
@@ -516,17 +561,37 @@ public class Snmp implements Session, CommandResponder {
     synchronized (pendingRequests) {
       pr = new ArrayList<>(pendingRequests.values());
     }
+    for (Resync resync : resyncs.values()) {
+      List<Resync.WaitingRequest> waiting = resync.finish();
+      if (waiting != null) {
+        for (Resync.WaitingRequest w : waiting) {
+          if (w.initial) {
+            // reported requests are already pending
+            pr.add(w.request);
+          }
+        }
+      }
+    }
+    RequestThrottle throttle = requestThrottle;
+    if (throttle != null) {
+      for (RequestThrottle.PermitListener queued : throttle.clear()) {
+        pr.add(((QueuedRequest)queued).request);
+      }
+    }
+    queuedRequests.clear();
     for (PendingRequest pending : pr) {
-      pending.cancel();
+      pending.releaseResources();
       ResponseEvent e =
           new ResponseEvent(this, null, pending.pdu, null, pending.userObject,
               new InterruptedException(
                   "Snmp session has been closed"));
       ResponseListener l = pending.listener;
+      pending.cancel();
       if (l != null) {
         l.onResponse(e);
       }
     }
+    resyncs.clear();
     pendingRequests.clear();
     asyncRequests.clear();
   }
@@ -715,6 +780,77 @@ public class Snmp implements Session, CommandResponder {
     send(pdu, target, userHandle, listener);
   }
 
+  /**
+   * Asynchronously sends a confirmed <code>PDU</code> to the given target and
+   * returns a future for the response. The future is completed by the
+   * executor set with {@link #setAsyncExecutor(Executor)}, or by the thread
+   * that delivers the response if no executor is set. Cancelling the future
+   * removes the pending request and its retry timer task immediately.
+   *
+   * @param pdu
+   *    the confirmed PDU instance to send.
+   * @param target
+   *    the Target instance representing the target SNMP engine where to send
+   *    the <code>pdu</code>.
+   * @return
+   *    a <code>CompletableFuture</code> for the response event.
+   * @see Session#sendAsync(PDU, Target)
+   * @since 2.4
+   */
+  @Override
+  public CompletableFuture<ResponseEvent> sendAsync(PDU pdu, Target target) {
+    return sendAsync(pdu, target, null);
+  }
+
+  /**
+   * Asynchronously sends a confirmed <code>PDU</code> to the given target
+   * using the specified transport mapping and returns a future for the
+   * response.
+   *
+   * @param pdu
+   *    the confirmed PDU instance to send.
+   * @param target
+   *    the Target instance representing the target SNMP engine where to send
+   *    the <code>pdu</code>.
+   * @param transport
+   *    the <code>TransportMapping</code> to be used or <code>null</code> to
+   *    determine it by the <code>target</code>'s address.
+   * @return
+   *    a <code>CompletableFuture</code> for the response event.
+   * @see #sendAsync(PDU, Target)
+   * @since 2.4
+   */
+  public CompletableFuture<ResponseEvent> sendAsync(PDU pdu, Target target,
+                                                    TransportMapping transport) {
+    return new ResponseFuture(this, pdu, asyncExecutor).send(target, transport);
+  }
+
+  /**
+   * Gets the executor that completes the futures returned by the
+   * <code>...Async</code> methods.
+   * @return
+   *    an <code>Executor</code> or <code>null</code> if futures are completed
+   *    by the thread that delivers the response (default).
+   * @since 2.4
+   */
+  public Executor getAsyncExecutor() {
+    return asyncExecutor;
+  }
+
+  /**
+   * Sets the executor that completes the futures returned by the
+   * <code>...Async</code> methods. Using an executor decouples dependent
+   * stages of the futures from the threads of the transport mappings and
+   * the retry timer.
+   * @param asyncExecutor
+   *    an <code>Executor</code> or <code>null</code> to complete futures on
+   *    the thread that delivers the response.
+   * @since 2.4
+   */
+  public void setAsyncExecutor(Executor asyncExecutor) {
+    this.asyncExecutor = asyncExecutor;
+  }
+
   private synchronized void createPendingTimer() {
     if (timer == null) {
       timer = SNMP4JSettings.getSharedTimer();
@@ -742,7 +878,141 @@ public class Snmp implements Session, CommandResponder {
     }
     PendingRequest request =
         new AsyncPendingRequest(listener, userHandle, pdu, target, transport);
-    sendMessage(request.pdu, target, transport, request);
+    sendAsyncRequest(request, target, transport);
+  }
+
+  private void sendAsyncRequest(PendingRequest request, Target target,
+                                TransportMapping transport) throws IOException {
+    RequestThrottle throttle = requestThrottle;
+    if (throttle != null) {
+      QueuedRequest queued = new QueuedRequest(request, throttle);
+      queuedRequests.put(new AsyncRequestKey(request.pdu, request.listener), queued);
+      request.permit = throttle.acquire(target.getAddress(), queued);
+      if (request.permit == null) {
+        return;
+      }
+      queuedRequests.remove(new AsyncRequestKey(request.pdu, request.listener));
+    }
+    if (holdForResync(request, transport)) {
+      return;
+    }
+    try {
+      sendMessage(request.pdu, target, transport, request);
+    }
+    catch (IOException iox) {
+      request.releaseResources();
+      throw iox;
+    }
+  }
+
+  /**
+   * Asynchronously sends a batch of PDUs, for example all requests of a
+   * polling cycle, with minimal per message overhead. The PDUs are encoded
+   * first and then handed to the transport mappings as a batch, see
+   * {@link TransportMapping#sendMessages(List)}. Responses, timeouts, and
+   * retries are processed as for {@link #send(PDU, Target, Object, ResponseListener)}.
+   * A PDU that cannot be sent does not stop the batch, the listener is
+   * informed about it by a <code>ResponseEvent</code> with the error instead.
+   * <p>
+   * Each PDU must be a separate instance, because the request ID is assigned
+   * to the PDU. If a {@link RequestThrottle} is set, the PDUs are sent one by
+   * one as permits are granted.
+   * </p>
+   *
+   * @param pdus
+   *    the PDUs to send.
+   * @param targets
+   *    the targets of the PDUs, the n-th target belongs to the n-th PDU.
+   * @param userHandle
+   *    user control object that is passed with the response events.
+   * @param listener
+   *    the <code>ResponseListener</code> instance that is called when a
+   *    response or timeout arrives or a PDU could not be sent.
+   * @return
+   *    the number of PDUs sent (or queued by the request throttle).
+   * @throws IllegalArgumentException
+   *    if the number of PDUs and targets differ.
+   * @since 2.4
+   */
+  public int sendBatch(List<? extends PDU> pdus, List<? extends Target> targets,
+                       Object userHandle, ResponseListener listener) {
+    if (pdus.size() != targets.size()) {
+      throw new IllegalArgumentException("Number of PDUs ("+pdus.size()+
+                                         ") does not match number of targets ("+targets.size()+")");
+    }
+    if (requestThrottle != null) {
+      int sent = 0;
+      for (int i=0; i<pdus.size(); i++) {
+        try {
+          send(pdus.get(i), targets.get(i), userHandle, listener);
+          sent++;
+        }
+        catch (IOException iox) {
+          logger.error("Failed to send SNMP message to {}: {}", targets.get(i), iox.getMessage());
+          if (listener != null) {
+            listener.onResponse(new ResponseEvent(this, null, pdus.get(i), null, userHandle, iox));
+          }
+        }
+      }
+      return sent;
+    }
+    if (timer == null) {
+      createPendingTimer();
+    }
+    // group by transport mapping because targets may prefer different ones
+    Map<TransportMapping, List<OutboundPdu>> batches = new LinkedHashMap<>(2);
+    for (int i=0; i<pdus.size(); i++) {
+      PDU pdu = pdus.get(i);
+      Target target = targets.get(i);
+      PendingRequest request = null;
+      if (pdu.isConfirmedPdu()) {
+        request = new AsyncPendingRequest(listener, userHandle, pdu, target, null);
+        pdu = request.pdu;
+      }
+      TransportMapping tm = lookupTransportMapping(target);
+      List<OutboundPdu> batch = batches.get(tm);
+      if (batch == null) {
+        batch = new ArrayList<>(pdus.size());
+        batches.put(tm, batch);
+      }
+      batch.add(new OutboundPdu(target, pdu, request));
+    }
+    int sent = 0;
+    for (Map.Entry<TransportMapping, List<OutboundPdu>> batch : batches.entrySet()) {
+      sent += messageDispatcher.sendPdus(batch.getKey(), batch.getValue(), true);
+      for (OutboundPdu outboundPdu : batch.getValue()) {
+        if (outboundPdu.getFailure() != null) {
+          batchRequestFailed(outboundPdu, userHandle, listener);
+        }
+      }
+    }
+    return sent;
+  }
+
+  /**
+   * Removes the pending request of a PDU of a batch that could not be sent
+   * and informs the listener about the failure.
+   */
+  private void batchRequestFailed(OutboundPdu outboundPdu, Object userHandle, ResponseListener listener) {
+    PDU pdu = outboundPdu.getPdu();
+    Target target = outboundPdu.getTarget();
+    logger.error("Failed to send SNMP message to {}: {}", target, outboundPdu.getFailure().getMessage());
+    PduHandle handle = outboundPdu.getPduHandle();
+    if (outboundPdu.getCallback() instanceof PendingRequest) {
+      PendingRequest request = (PendingRequest) outboundPdu.getCallback();
+      if (handle != null) {
+        pendingRequests.remove(handle);
+        asyncRequests.remove(new AsyncRequestKey(pdu, listener));
+        messageDispatcher.releaseStateReference(target.getVersion(), handle);
+      }
+      synchronized (request) {
+        request.setFinished();
+        request.cancel();
+      }
+    }
+    if (listener != null) {
+      listener.onResponse(new ResponseEvent(this, null, pdu, null, userHandle, outboundPdu.getFailure()));
+    }
   }
 
   /**
@@ -799,12 +1069,59 @@ public class Snmp implements Session, CommandResponder {
       PendingRequest pendingRequest =
               pendingRequests.remove(pending);
       if (pendingRequest != null) {
+        pendingRequest.releaseResources();
         synchronized (pendingRequest) {
           pendingRequest.setFinished();
           pendingRequest.cancel();
         }
       }
     }
+    else {
+      QueuedRequest queued = queuedRequests.remove(key);
+      if (queued != null) {
+        queued.throttle.cancel(queued.request.target.getAddress(), queued);
+        queued.request.cancel();
+      }
+      else {
+        for (Resync resync : resyncs.values()) {
+          PendingRequest held = resync.remove(request, listener);
+          if (held != null) {
+            held.releaseResources();
+            held.cancel();
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the request throttle that limits the number of requests in flight
+   * and the request rate of this session.
+   * @return
+   *    the <code>RequestThrottle</code> or <code>null</code> if requests are
+   *    not throttled (default).
+   * @since 2.4
+   */
+  public RequestThrottle getRequestThrottle() {
+    return requestThrottle;
+  }
+
+  /**
+   * Sets the request throttle that limits the number of confirmed requests in
+   * flight and the rate at which they are sent, globally and per target
+   * address. Requests that exceed the limits are queued and sent as soon as
+   * the limits allow it. The time a request waits in the queue is not
+   * counted for its timeout. The throttle should be set before any request
+   * has been sent.
+   *
+   * @param requestThrottle
+   *    a <code>RequestThrottle</code> or <code>null</code> to disable
+   *    throttling.
+   * @since 2.4
+   */
+  public void setRequestThrottle(RequestThrottle requestThrottle) {
+    this.requestThrottle = requestThrottle;
   }
 
   /**
@@ -868,7 +1185,6 @@ public class Snmp implements Session, CommandResponder {
    *    if it could not be discovered.
    * @see USM#setEngineDiscoveryEnabled(boolean enableEngineDiscovery)
    */
-  /*
   public byte[] discoverAuthoritativeEngineID(Address address, long timeout) {
     MPv3 mpv3 = getMPv3();
     // We need to remove the engine ID explicitly to be sure that it is updated
@@ -880,14 +1196,19 @@ public class Snmp implements Session, CommandResponder {
         usm.removeEngineTime(engineID);
       }
     }
-    ScopedPDU scopedPDU = new ScopedPDU();
-    scopedPDU.setType(PDU.GET);
-    SecureTarget target = new UserTarget();
+    UserTarget target = new UserTarget();
     target.setTimeout(timeout);
     target.setAddress(address);
-    target.setSecurityLevel(SecurityLevel.NOAUTH_NOPRIV);
+    final CompletableFuture<ResponseEvent> future = new CompletableFuture<ResponseEvent>();
     try {
-      send(scopedPDU, target, null, ENGINE_ID_DISCOVERY_MAX_REQUEST_STATUS);
+      discoverAuthoritativeEngineID(target, null, new ResponseListener() {
+        @Override
+        public void onResponse(ResponseEvent event) {
+          ((Session)event.getSource()).cancel(event.getRequest(), this);
+          future.complete(event);
+        }
+      });
+      future.get();
       OctetString authoritativeEngineID = mpv3.getEngineID(address);
       if (authoritativeEngineID == null) {
         return null;
@@ -902,8 +1223,57 @@ public class Snmp implements Session, CommandResponder {
           ex);
       return null;
     }
+    catch (InterruptedException iex) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+    catch (ExecutionException eex) {
+      logger.error("Failed to discover authoritative engine ID of {}: {}", address, eex.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Asynchronously sends an authoritative engine ID discovery request as
+   * described in RFC 3414 §4 to the SNMPv3 entity denoted by the supplied
+   * target. The request is a GET without variable bindings sent with
+   * security level <code>noAuthNoPriv</code> and an empty user name, which
+   * the agent answers with a <code>usmStatsUnknownEngineIDs</code> REPORT.
+   * In contrast to a normal request, the REPORT is not answered by resending
+   * the request but returned to the listener. When the listener is called
+   * with a response, the engine ID of the target address is available from
+   * the {@link MPv3} engine ID cache.
+   * <p>
+   * Engine times are not synchronized by this request, because the USM only
+   * accepts them from authenticated messages.
+   * </p>
+   * @param target
+   *    the target whose address, timeout, and retries are used.
+   * @param userHandle
+   *    user supplied object that is returned with the response event.
+   * @param listener
+   *    the listener that receives the REPORT or <code>null</code> on timeout.
+   * @throws IOException
+   *    if the request cannot be sent.
+   * @since 2.4
+   */
+  public void discoverAuthoritativeEngineID(Target target, Object userHandle,
+                                            ResponseListener listener) throws IOException {
+    UserTarget discoveryTarget = new UserTarget();
+    discoveryTarget.setAddress(target.getAddress());
+    discoveryTarget.setTimeout(target.getTimeout());
+    discoveryTarget.setRetries(target.getRetries());
+    discoveryTarget.setSecurityLevel(SecurityLevel.NOAUTH_NOPRIV);
+    ScopedPDU scopedPDU = new ScopedPDU();
+    scopedPDU.setType(PDU.GET);
+    if (timer == null) {
+      createPendingTimer();
+    }
+    PendingRequest request =
+        new AsyncPendingRequest(listener, userHandle, scopedPDU, discoveryTarget, null);
+    request.setMaxRequestStatus(ENGINE_ID_DISCOVERY_MAX_REQUEST_STATUS);
+    sendAsyncRequest(request, discoveryTarget, null);
   }
-  */
 
   /**
    * Gets the User Based Security Model (USM). This is a convenience method
@@ -960,6 +1330,7 @@ public class Snmp implements Session, CommandResponder {
         request = pendingRequests.get(handle);
         if (request != null) {
           request.responseReceived();
+          request.measureRoundTripTime();
         }
       }
       if (request == null) {
@@ -968,6 +1339,7 @@ public class Snmp implements Session, CommandResponder {
         }
       }
       else if (!resendRequest(request, pdu)) {
+        request.releaseResources();
         ResponseListener l = request.listener;
         if (l != null) {
           l.onResponse(new ResponseEvent(this,
@@ -1009,6 +1381,31 @@ public class Snmp implements Session, CommandResponder {
     this.contextEngineIdDiscoveryDisabled = contextEngineIdDiscoveryDisabled;
   }
 
+  /**
+   * Gets the cache of the context engine IDs discovered by RFC 5343 for
+   * target addresses. Its maximum size and idle timeout can be set to bound
+   * the memory used for sessions that communicate with many agents.
+   * @return
+   *    the <code>EngineIdCache</code> for context engine IDs.
+   * @since 2.4
+   */
+  public EngineIdCache getContextEngineIdCache() {
+    return contextEngineIDs;
+  }
+
+  /**
+   * Sets the cache of the context engine IDs discovered by RFC 5343.
+   * @param contextEngineIdCache
+   *    an <code>EngineIdCache</code> (must not be <code>null</code>).
+   * @since 2.4
+   */
+  public void setContextEngineIdCache(EngineIdCache contextEngineIdCache) {
+    if (contextEngineIdCache == null) {
+      throw new NullPointerException("Context engine ID cache must not be null");
+    }
+    this.contextEngineIDs = contextEngineIdCache;
+  }
+
   protected boolean resendRequest(PendingRequest request, PDU response) {
     if (request.useNextPDU()) {
       request.responseReceived = false;
@@ -1033,6 +1430,7 @@ public class Snmp implements Session, CommandResponder {
     if (contextEngineID instanceof OctetString) {
       if (pdu instanceof ScopedPDU) {
         ((ScopedPDU)pdu).setContextEngineID((OctetString) contextEngineID);
+        contextEngineIDs.put(target, (OctetString) contextEngineID);
         if (logger.isInfoEnabled()) {
           logger.info("Discovered contextEngineID '{}' by RFC 5343 for {}", contextEngineID, target);
         }
@@ -1040,10 +1438,291 @@ public class Snmp implements Session, CommandResponder {
     }
   }
 
+  /**
+   * Resends a request after a REPORT. The first request to an address and
+   * security name resent after a REPORT leads a resync: further requests
+   * reported meanwhile and new asynchronous requests to the same address and
+   * security name are held until the leading request has been answered, has
+   * timed out, or has been cancelled. Thus, the engine ID, time, and key
+   * updates are done by the leading request only. A finished resync is
+   * kept for the timeout of the leading request, so that late REPORTs to
+   * requests sent before the resync do not start another one.
+   */
+  private void resendAfterReport(PendingRequest request, TransportMapping transport) {
+    Target target = request.target;
+    if (target == null) {
+      return;
+    }
+    ResyncKey key = new ResyncKey(target);
+    Resync resync = new Resync(key);
+    Resync running;
+    while ((running = resyncs.putIfAbsent(key, resync)) != null) {
+      if (running == request.resync) {
+        // the leading request has been reported again
+        resend(request, transport);
+        return;
+      }
+      if (running.add(request, transport, false)) {
+        return;
+      }
+      if (running.isStale(request)) {
+        // report to a request sent before the finished resync
+        resend(request, transport);
+        return;
+      }
+      resyncs.remove(key, running);
+    }
+    request.resync = resync;
+    resync.start(resyncCount.incrementAndGet(), target.getTimeout());
+    resend(request, transport);
+    if ((request.target == null) || request.cancelled) {
+      request.resync = null;
+      finishResync(resync);
+    }
+  }
+
+  /**
+   * Holds a new asynchronous request until the resync running for its
+   * address and security name, if any, has been finished.
+   * @return
+   *    <code>true</code> if the request has been held and must not be sent
+   *    now.
+   */
+  private boolean holdForResync(PendingRequest request, TransportMapping transport) {
+    if (resyncs.isEmpty()) {
+      return false;
+    }
+    Resync running = resyncs.get(new ResyncKey(request.target));
+    return (running != null) && running.add(request, transport, true);
+  }
+
+  private void finishResync(final Resync resync) {
+    final List<Resync.WaitingRequest> waiting = resync.finish();
+    if (waiting == null) {
+      // finished before
+      return;
+    }
+    Timer timerCopy = timer;
+    try {
+      if (timerCopy == null) {
+        resyncs.remove(resync.key, resync);
+      }
+      else {
+        timerCopy.schedule(new TimerTask() {
+          @Override
+          public void run() {
+            resyncs.remove(resync.key, resync);
+          }
+        }, resync.retention);
+      }
+    }
+    catch (IllegalStateException isex) {
+      resyncs.remove(resync.key, resync);
+    }
+    if (waiting.isEmpty()) {
+      return;
+    }
+    if (logger.isDebugEnabled()) {
+      logger.debug("Resending {} requests waiting for resync with {}", waiting.size(), resync.key.address);
+    }
+    Runnable sender = new Runnable() {
+      @Override
+      public void run() {
+        for (Resync.WaitingRequest w : waiting) {
+          if (w.initial) {
+            sendHeld(w.request, w.transport);
+          }
+          else {
+            resend(w.request, w.transport);
+          }
+        }
+      }
+    };
+    try {
+      reportExecutor().execute(sender);
+    }
+    catch (RejectedExecutionException rex) {
+      // executor queue is full or executor has been shut down
+      sender.run();
+    }
+  }
+
+  private void sendHeld(PendingRequest request, TransportMapping transport) {
+    PDU pdu = request.pdu;
+    Target target = request.target;
+    ResponseListener l = request.listener;
+    Object userObject = request.userObject;
+    if ((pdu == null) || (target == null) || request.cancelled) {
+      return;
+    }
+    try {
+      sendMessage(pdu, target, transport, request);
+    }
+    catch (IOException iox) {
+      logger.error("Failed to send held SNMP message to {}: {}", target, iox.getMessage());
+      request.releaseResources();
+      if (l != null) {
+        l.onResponse(new ResponseEvent(Snmp.this, null, pdu, null, userObject, iox));
+      }
+    }
+  }
+
+  private void resend(PendingRequest request, TransportMapping transport) {
+    PDU pdu = request.pdu;
+    Target target = request.target;
+    if ((pdu == null) || (target == null) || request.cancelled) {
+      return;
+    }
+    try {
+      // We need no callback here because we already have an equivalent
+      // handle registered.
+      // make sure reference to handle is hold until request is finished,
+      // because otherwise cache information may get lost (WeakHashMap)
+      request.key = sendMessage(pdu, target, transport, null);
+    }
+    catch (IOException iox) {
+      logger.error("Failed to send message to {}: {}", target, iox.getMessage());
+    }
+  }
+
+  private static class ResyncKey {
+    private final Address address;
+    private final int securityModel;
+    private final OctetString securityName;
+
+    ResyncKey(Target target) {
+      this.address = target.getAddress();
+      this.securityModel = target.getSecurityModel();
+      this.securityName = target.getSecurityName();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof ResyncKey)) {
+        return false;
+      }
+      ResyncKey other = (ResyncKey) o;
+      return (securityModel == other.securityModel) && address.equals(other.address) &&
+          ((securityName == null) ? (other.securityName == null) : securityName.equals(other.securityName));
+    }
+
+    @Override
+    public int hashCode() {
+      return (address.hashCode() * 31 + securityModel) * 31 +
+          ((securityName == null) ? 0 : securityName.hashCode());
+    }
+  }
+
+  private static class Resync {
+    private final ResyncKey key;
+    private boolean finished;
+    private List<WaitingRequest> waiting;
+    // value of the resync count when this resync has been started
+    private long epoch;
+    // time in milliseconds this resync is kept after it has been finished
+    private long retention;
+
+    Resync(ResyncKey key) {
+      this.key = key;
+    }
+
+    synchronized void start(long epoch, long retention) {
+      this.epoch = epoch;
+      this.retention = retention;
+    }
+
+    /**
+     * Checks whether a request has been sent before the leading request of
+     * this finished resync.
+     * @return
+     *    <code>true</code> if this resync has been finished and the request
+     *    has been sent before it has been started.
+     */
+    synchronized boolean isStale(PendingRequest request) {
+      return finished && (request.resyncEpoch < epoch);
+    }
+
+    synchronized boolean add(PendingRequest request, TransportMapping transport, boolean initial) {
+      if (finished) {
+        return false;
+      }
+      if (waiting == null) {
+        waiting = new ArrayList<>();
+      }
+      waiting.add(new WaitingRequest(request, transport, initial));
+      return true;
+    }
+
+    /**
+     * Removes a held request that has not been sent yet.
+     * @return
+     *    the removed request or <code>null</code> if there is no such request.
+     */
+    synchronized PendingRequest remove(PDU pdu, ResponseListener listener) {
+      if (waiting != null) {
+        for (Iterator<WaitingRequest> it = waiting.iterator(); it.hasNext(); ) {
+          WaitingRequest w = it.next();
+          if (w.initial && pdu.equals(w.request.pdu) && listener.equals(w.request.listener)) {
+            it.remove();
+            return w.request;
+          }
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Finishes this resync.
+     * @return
+     *    the waiting requests if this resync has not been finished before,
+     *    <code>null</code> otherwise.
+     */
+    synchronized List<WaitingRequest> finish() {
+      if (finished) {
+        return null;
+      }
+      finished = true;
+      List<WaitingRequest> w = waiting;
+      waiting = null;
+      return (w == null) ? Collections.<WaitingRequest>emptyList() : w;
+    }
+
+    private static class WaitingRequest {
+      private final PendingRequest request;
+      private final TransportMapping transport;
+      // true for a new request that has not been sent yet
+      private final boolean initial;
+
+      WaitingRequest(PendingRequest request, TransportMapping transport, boolean initial) {
+        this.request = request;
+        this.transport = transport;
+        this.initial = initial;
+      }
+    }
+  }
+
   class ReportProcessor implements ReportHandler {
 
     @Override
-    public void processReport(PduHandle handle, CommandResponderEvent e) {
+    public void processReport(final PduHandle handle, final CommandResponderEvent e) {
+      try {
+        reportExecutor().execute(new Runnable() {
+          @Override
+          public void run() {
+            processReportNow(handle, e);
+          }
+        });
+      }
+      catch (RejectedExecutionException rex) {
+        // executor queue is full or executor has been shut down
+        processReportNow(handle, e);
+      }
+    }
+
+    protected void processReportNow(PduHandle handle, CommandResponderEvent e) {
       PDU pdu = e.getPDU();
       logger.debug("Searching pending request with handle{}", handle);
       PendingRequest request = pendingRequests.get(handle);
@@ -1075,17 +1754,7 @@ public class Snmp implements Session, CommandResponder {
       if (resend) {
         logger.debug("Send new request after report.");
         request.requestStatus++;
-        try {
-          // We need no callback here because we already have an equivalent
-          // handle registered.
-          // make sure reference to handle is hold until request is finished,
-          // because otherwise cache information may get lost (WeakHashMap)
-          request.key = sendMessage(request.pdu, request.target, e.getTransportMapping(),
-                      null);
-        }
-        catch (IOException iox) {
-          logger.error("Failed to send message to {}: {}", request.target, iox.getMessage());
-        }
+        resendAfterReport(request, e.getTransportMapping());
       }
       else {
         boolean intime;
@@ -1094,6 +1763,7 @@ public class Snmp implements Session, CommandResponder {
         ResponseListener reqListener = request.listener;
         PDU reqPDU = request.pdu;
         Object reqUserObject = request.userObject;
+        request.releaseResources();
         synchronized (request) {
           intime = request.cancel();
         }
@@ -1102,7 +1772,7 @@ public class Snmp implements Session, CommandResponder {
         pendingRequests.remove(handle);
         if (intime && (reqListener != null)) {
           // return report
-          reqListener.onResponse(new ResponseEvent(this,
+          reqListener.onResponse(new ResponseEvent(Snmp.this,
               e.getPeerAddress(),
               reqPDU,
               pdu,
@@ -1231,7 +1901,9 @@ public class Snmp implements Session, CommandResponder {
    * sends retries whenever the time specified by the <code>timeout</code>
    * parameter of the target has elapsed without a response being received for
    * the request. By specifying a different timeout model this behaviour can
-   * be changed.
+   * be changed. An {@link AdaptiveTimeoutModel}, like {@link RttTimeoutModel},
+   * is informed about the round trip times of the requests sent by this
+   * session.
    * @param timeoutModel
    *    a <code>TimeoutModel</code> instance (must not be <code>null</code>).
    */
@@ -1256,6 +1928,95 @@ public class Snmp implements Session, CommandResponder {
     this.reportHandler = reportHandler;
   }
 
+  /**
+   * Gets the number of resyncs started by this session. A resync is started
+   * by the first request resent after a REPORT to an address and security
+   * name, further requests to them are held until the resync is finished.
+   * @return
+   *    the number of resyncs since this session has been created.
+   * @since 2.4
+   */
+  public long getResyncCount() {
+    return resyncCount.get();
+  }
+
+  /**
+   * Gets the executor that processes REPORT PDUs received for requests of
+   * this session and resends the requests where necessary.
+   * @return
+   *    the <code>Executor</code> set by {@link #setReportExecutor(Executor)},
+   *    or <code>null</code> if the default executor is used.
+   * @since 2.4
+   */
+  public Executor getReportExecutor() {
+    return (reportExecutor == defaultReportExecutor) ? null : reportExecutor;
+  }
+
+  /**
+   * Sets the executor that processes REPORT PDUs received for requests of
+   * this session, for example the <code>usmStatsNotInTimeWindows</code>
+   * REPORTs of a rebooted agent, and resends the requests. Processing
+   * reports on an executor keeps the thread of the transport mapping free
+   * for other incoming messages. By default, a pool of
+   * {@link #DEFAULT_REPORT_THREADS} daemon threads with a queue of
+   * {@link #DEFAULT_REPORT_QUEUE_SIZE} reports is created on demand.
+   * To process reports on the receiving thread, use an executor that runs
+   * tasks directly.
+   * <p>
+   * Independent of the executor, requests to the same address and security
+   * name that are answered by a REPORT while a previous one is resent are
+   * resent after it. Thus, the engine ID, time, and key updates caused by
+   * a REPORT are done only once for all of them.
+   * </p>
+   * @param reportExecutor
+   *    an <code>Executor</code> or <code>null</code> to use the default
+   *    executor.
+   * @since 2.4
+   */
+  public void setReportExecutor(Executor reportExecutor) {
+    ExecutorService executor;
+    synchronized (this) {
+      executor = defaultReportExecutor;
+      defaultReportExecutor = null;
+      this.reportExecutor = reportExecutor;
+    }
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  private Executor reportExecutor() {
+    Executor executor = reportExecutor;
+    if (executor == null) {
+      synchronized (this) {
+        executor = reportExecutor;
+        if (executor == null) {
+          ThreadPoolExecutor pool =
+              new ThreadPoolExecutor(DEFAULT_REPORT_THREADS, DEFAULT_REPORT_THREADS,
+                                     60, TimeUnit.SECONDS,
+                                     new ArrayBlockingQueue<Runnable>(DEFAULT_REPORT_QUEUE_SIZE),
+                                     new ThreadFactory() {
+                                       private final AtomicInteger threadNumber = new AtomicInteger();
+                                       @Override
+                                       public Thread newThread(Runnable r) {
+                                         Thread thread = SNMP4JSettings.getThreadFactory().newThread(r);
+                                         thread.setName("Snmp.ReportProcessor."+
+                                             threadNumber.incrementAndGet());
+                                         thread.setDaemon(true);
+                                         return thread;
+                                       }
+                                     },
+                                     // rejected reports are processed inline by processReport
+                                     new ThreadPoolExecutor.AbortPolicy());
+          pool.allowCoreThreadTimeOut(true);
+          defaultReportExecutor = pool;
+          reportExecutor = executor = pool;
+        }
+      }
+    }
+    return executor;
+  }
+
   private boolean isEmptyContextEngineID(PDU pdu) {
     if (pdu instanceof ScopedPDU) {
       ScopedPDU scopedPDU = (ScopedPDU) pdu;
@@ -1294,6 +2055,25 @@ public class Snmp implements Session, CommandResponder {
      */
     private PDU nextPDU;
 
+    /**
+     * The permit of the request throttle shared by all retries of a request.
+     */
+    private volatile RequestThrottle.Permit permit;
+
+    /**
+     * The resync this request leads, which is finished when the request is.
+     */
+    private volatile Resync resync;
+
+    /**
+     * The resync count when this request has been sent, to recognize REPORTs
+     * to requests sent before the last resync with the target.
+     */
+    private volatile long resyncEpoch = resyncCount.get();
+
+    // send time of this transmission in nanoseconds for RTT measurement
+    private volatile long sendTime;
+
     public PendingRequest(ResponseListener listener,
                           Object userObject,
                           PDU pdu,
@@ -1326,6 +2106,9 @@ public class Snmp implements Session, CommandResponder {
       this.responseReceived = other.responseReceived;
       this.transport = other.transport;
       this.nextPDU = other.nextPDU;
+      this.permit = other.permit;
+      this.resync = other.resync;
+      this.maxRequestStatus = other.maxRequestStatus;
     }
 
     private void discoverContextEngineID() {
@@ -1369,6 +2152,23 @@ public class Snmp implements Session, CommandResponder {
       this.responseReceived = true;
     }
 
+    /**
+     * Reports the round trip time of this request to the timeout model if it
+     * is an {@link AdaptiveTimeoutModel}. According to Karn's algorithm, only
+     * requests that have not been retransmitted (because of a timeout or a
+     * report) are measured.
+     */
+    protected void measureRoundTripTime() {
+      TimeoutModel tm = timeoutModel;
+      Target t = target;
+      long sent = sendTime;
+      if ((tm instanceof AdaptiveTimeoutModel) && (t != null) && (sent != 0) &&
+          (retryCount == t.getRetries()) && (requestStatus == 0)) {
+        ((AdaptiveTimeoutModel)tm).roundTripTimeMeasured(t.getAddress(),
+                                                         System.nanoTime() - sent);
+      }
+    }
+
     public PDU getNextPDU() {
       return nextPDU;
     }
@@ -1396,10 +2196,15 @@ public class Snmp implements Session, CommandResponder {
           if (logger.isDebugEnabled()) {
             logger.debug("Running pending async request with handle {} and retry count left {}", handle, retryCount);
           }
-          long delay =
-              timeoutModel.getRetryTimeout(t.getRetries() - retryCount,
-                                           t.getRetries(),
-                                           t.getTimeout());
+          TimeoutModel tm = timeoutModel;
+          long delay = (tm instanceof AdaptiveTimeoutModel) ?
+              ((AdaptiveTimeoutModel)tm).getRetryTimeout(t.getAddress(),
+                                                        t.getRetries() - retryCount,
+                                                        t.getRetries(),
+                                                        t.getTimeout()) :
+              tm.getRetryTimeout(t.getRetries() - retryCount,
+                                 t.getRetries(),
+                                 t.getTimeout());
           if ((!finished) && (!responseReceived) && (!cancelled)) {
             try {
               Timer timerCopy = timer;
@@ -1419,6 +2224,17 @@ public class Snmp implements Session, CommandResponder {
       }
     }
 
+    /**
+     * Takes the send time for the round trip time measurement when the
+     * message has actually been handed to the transport mapping, which may
+     * be considerably later than the PDU handle assignment if the message is
+     * sent as part of a batch.
+     */
+    @Override
+    public void pduSent(PduHandle handle, PDU pdu) {
+      sendTime = System.nanoTime();
+    }
+
     /**
      * Process retries of a pending request.
      */
@@ -1453,6 +2269,7 @@ public class Snmp implements Session, CommandResponder {
           catch (IOException ex) {
             ResponseListener l = listener;
             finished = true;
+            releaseResources();
             logger.error("Failed to send SNMP message to {}: {}", m_target, ex.getMessage());
             messageDispatcher.releaseStateReference(m_target.getVersion(),
                 m_key);
@@ -1465,6 +2282,7 @@ public class Snmp implements Session, CommandResponder {
         else if (!finished) {
           finished = true;
           pendingRequests.remove(m_key);
+          releaseResources();
           if (!cancelled) {
             // request timed out
             if (logger.isDebugEnabled()) {
@@ -1488,6 +2306,31 @@ public class Snmp implements Session, CommandResponder {
       }
     }
 
+    /**
+     * Releases the permit of the request throttle, if any, for this request
+     * and all its retries.
+     */
+    protected void releasePermit() {
+      RequestThrottle.Permit p = permit;
+      if (p != null) {
+        p.release();
+      }
+    }
+
+    /**
+     * Releases the permit of the request throttle and finishes the resync
+     * led by this request, if any, when the request has been answered, has
+     * timed out, or has been cancelled.
+     */
+    protected void releaseResources() {
+      releasePermit();
+      Resync r = resync;
+      if (r != null) {
+        resync = null;
+        finishResync(r);
+      }
+    }
+
     public boolean setFinished() {
       boolean currentState = finished;
       this.finished = true;
@@ -1547,6 +2390,49 @@ public class Snmp implements Session, CommandResponder {
 
   }
 
+  /**
+   * A <code>QueuedRequest</code> is a request waiting for a permit of the
+   * request throttle. The request is sent when the permit has been granted.
+   */
+  class QueuedRequest implements RequestThrottle.PermitListener {
+
+    private PendingRequest request;
+    private RequestThrottle throttle;
+
+    QueuedRequest(PendingRequest request, RequestThrottle throttle) {
+      this.request = request;
+      this.throttle = throttle;
+    }
+
+    @Override
+    public void permitGranted(RequestThrottle.Permit permit) {
+      PDU pdu = request.pdu;
+      ResponseListener l = request.listener;
+      Object userObject = request.userObject;
+      if ((pdu == null) || (l == null)) {
+        // cancelled
+        permit.release();
+        return;
+      }
+      queuedRequests.remove(new AsyncRequestKey(pdu, l));
+      request.permit = permit;
+      request.resyncEpoch = resyncCount.get();
+      if (holdForResync(request, request.transport)) {
+        return;
+      }
+      try {
+        sendMessage(pdu, request.target, request.transport, request);
+      }
+      catch (IOException ex) {
+        logger.error("Failed to send queued SNMP message to {}: {}",
+                     request.target, ex.getMessage());
+        request.releaseResources();
+        l.onResponse(new ResponseEvent(Snmp.this, null, pdu, null,
+                                       userObject, ex));
+      }
+    }
+  }
+
   static class AsyncRequestKey {
     private PDU request;
     private ResponseListener listener;
@@ -22,9 +22,11 @@
 package org.snmp4j;
 
 import org.snmp4j.smi.Address;
+import org.snmp4j.transport.OutboundMessage;
 import org.snmp4j.transport.TransportListener;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * The <code>TransportMapping</code> defines the common interface for SNMP
@@ -32,7 +34,7 @@ import java.io.IOException;
  * transport protocol.
  *
  * @author Frank Fock
- * @version 2.0
+ * @version 2.4
  */
 public interface TransportMapping<A extends Address> {
 
@@ -69,6 +71,36 @@ public interface TransportMapping<A extends Address> {
   void sendMessage(A address, byte[] message,
                    TransportStateReference tmStateReference) throws IOException;
 
+  /**
+   * Sends a batch of messages using this transport. A message that cannot be
+   * sent does not stop the batch, instead its failure is recorded with
+   * {@link OutboundMessage#setFailure(IOException)}. Transport mappings may
+   * override this method to reduce the per message overhead, the default
+   * implementation calls {@link #sendMessage} for each message.
+   *
+   * @param messages
+   *    the messages to send in list order.
+   * @return
+   *    the number of messages sent successfully.
+   * @throws IOException
+   *    if the transport mapping cannot send any message, for example because
+   *    it has been closed.
+   * @since 2.4
+   */
+  default int sendMessages(List<OutboundMessage<A>> messages) throws IOException {
+    int sent = 0;
+    for (OutboundMessage<A> message : messages) {
+      try {
+        sendMessage(message.getAddress(), message.getMessage(), message.getTmStateReference());
+        sent++;
+      }
+      catch (IOException iox) {
+        message.setFailure(iox);
+      }
+    }
+    return sent;
+  }
+
   /**
    * Adds a transport listener to the transport. Normally, at least one
    * transport listener needs to be added to process incoming messages.
@@ -0,0 +1,332 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - EngineIdCache.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+
+package org.snmp4j.mp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.OctetString;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The <code>EngineIdCache</code> maps transport addresses to engine IDs. It
+ * is used by {@link MPv3} for the authoritative engine IDs and by
+ * {@link org.snmp4j.Snmp} for the context engine IDs discovered by RFC 5343.
+ * <p>
+ * Lookups and updates of an address do not lock other addresses. The cache
+ * can be bounded by a maximum size and an idle timeout: entries that have
+ * not been accessed within the idle timeout are removed periodically, and
+ * when the maximum size is exceeded, the least recently accessed entries are
+ * evicted in bulk down to 90% of the maximum size. An
+ * {@link EvictionListener} is informed about every entry removed by the
+ * cache itself.
+ * </p>
+ *
+ * @author Frank Fock
+ * @version 2.4
+ * @since 2.4
+ */
+public class EngineIdCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(EngineIdCache.class);
+
+  // access times are updated at most once per second
+  private static final long ACCESS_PRECISION = 1000000000L;
+
+  private final ConcurrentHashMap<Address, Entry> entries = new ConcurrentHashMap<>();
+  private volatile int maxSize;
+  private volatile long idleTimeout;
+  private final AtomicLong nextSweep = new AtomicLong(System.nanoTime());
+  private final AtomicBoolean evicting = new AtomicBoolean();
+  private volatile EvictionListener evictionListener;
+
+  /**
+   * Creates an unbounded engine ID cache without idle timeout.
+   */
+  public EngineIdCache() {
+  }
+
+  /**
+   * Creates an engine ID cache.
+   * @param maxSize
+   *    the maximum number of entries or zero for no limit.
+   * @param idleTimeout
+   *    the idle timeout in milliseconds or zero to keep entries forever.
+   */
+  public EngineIdCache(int maxSize, long idleTimeout) {
+    setMaxSize(maxSize);
+    setIdleTimeout(idleTimeout);
+  }
+
+  /**
+   * Gets the engine ID of the supplied address.
+   * @param address
+   *    a transport address.
+   * @return
+   *    the engine ID or <code>null</code> if there is no entry for
+   *    <code>address</code>.
+   */
+  public OctetString get(Address address) {
+    long now = System.nanoTime();
+    Entry entry = entries.get(address);
+    if (entry == null) {
+      sweepIdleEntries(now);
+      return null;
+    }
+    entry.touch(now);
+    return entry.engineID;
+  }
+
+  /**
+   * Associates an engine ID with an address.
+   * @param address
+   *    a transport address.
+   * @param engineID
+   *    the engine ID.
+   * @return
+   *    the engine ID previously associated with <code>address</code> or
+   *    <code>null</code>.
+   */
+  public OctetString put(Address address, OctetString engineID) {
+    long now = System.nanoTime();
+    Entry previous = entries.put(address, new Entry(engineID, now));
+    if (previous == null) {
+      int max = maxSize;
+      if ((max > 0) && (entries.size() > max)) {
+        evict(now, max);
+      }
+      else {
+        sweepIdleEntries(now);
+      }
+      return null;
+    }
+    return previous.engineID;
+  }
+
+  /**
+   * Removes the engine ID of the supplied address. The eviction listener is
+   * not called.
+   * @param address
+   *    a transport address.
+   * @return
+   *    the removed engine ID or <code>null</code>.
+   */
+  public OctetString remove(Address address) {
+    Entry entry = entries.remove(address);
+    return (entry == null) ? null : entry.engineID;
+  }
+
+  /**
+   * Removes all entries. The eviction listener is not called.
+   */
+  public void clear() {
+    entries.clear();
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Gets a snapshot of the cache content.
+   * @return
+   *    a copy of the address to engine ID map.
+   */
+  public Map<Address, OctetString> toMap() {
+    Map<Address, OctetString> map = new HashMap<>(entries.size());
+    for (Map.Entry<Address, Entry> e : entries.entrySet()) {
+      map.put(e.getKey(), e.getValue().engineID);
+    }
+    return map;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Sets the maximum number of entries. If the cache grows beyond that size,
+   * the least recently accessed entries are evicted down to 90% of the
+   * maximum size.
+   * @param maxSize
+   *    the maximum number of entries or zero (default) for no limit.
+   */
+  public void setMaxSize(int maxSize) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException("Maximum size must not be negative: "+maxSize);
+    }
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Gets the idle timeout.
+   * @return
+   *    the idle timeout in milliseconds or zero if entries are kept forever.
+   */
+  public long getIdleTimeout() {
+    return idleTimeout / SnmpConstants.MILLISECOND_TO_NANOSECOND;
+  }
+
+  /**
+   * Sets the time after which an entry that has not been accessed is removed.
+   * @param idleTimeout
+   *    the idle timeout in milliseconds or zero (default) to keep entries
+   *    forever.
+   */
+  public void setIdleTimeout(long idleTimeout) {
+    if (idleTimeout < 0) {
+      throw new IllegalArgumentException("Idle timeout must not be negative: "+idleTimeout);
+    }
+    this.idleTimeout = idleTimeout * SnmpConstants.MILLISECOND_TO_NANOSECOND;
+  }
+
+  public EvictionListener getEvictionListener() {
+    return evictionListener;
+  }
+
+  /**
+   * Sets the listener that is called for entries removed because of the idle
+   * timeout or the maximum size.
+   * @param evictionListener
+   *    an <code>EvictionListener</code> or <code>null</code>.
+   */
+  public void setEvictionListener(EvictionListener evictionListener) {
+    this.evictionListener = evictionListener;
+  }
+
+  /**
+   * Removes all entries that have not been accessed within the idle timeout.
+   * @return
+   *    the number of removed entries.
+   */
+  public int removeIdleEntries() {
+    return removeIdleEntries(System.nanoTime());
+  }
+
+  private int removeIdleEntries(long now) {
+    long timeout = idleTimeout;
+    if (timeout <= 0) {
+      return 0;
+    }
+    int removed = 0;
+    for (Map.Entry<Address, Entry> e : entries.entrySet()) {
+      if ((now - e.getValue().lastAccess > timeout) && removeEntry(e.getKey(), e.getValue())) {
+        removed++;
+      }
+    }
+    if ((removed > 0) && logger.isDebugEnabled()) {
+      logger.debug("Removed {} idle engine IDs, {} entries left", removed, entries.size());
+    }
+    return removed;
+  }
+
+  private void sweepIdleEntries(long now) {
+    long timeout = idleTimeout;
+    if (timeout > 0) {
+      long next = nextSweep.get();
+      if ((now - next >= 0) &&
+          nextSweep.compareAndSet(next, now + Math.max(timeout / 4, ACCESS_PRECISION))) {
+        removeIdleEntries(now);
+      }
+    }
+  }
+
+  private void evict(long now, int max) {
+    if (!evicting.compareAndSet(false, true)) {
+      // another thread is evicting already
+      return;
+    }
+    try {
+      int removed = removeIdleEntries(now);
+      int target = max - max / 10;
+      int excess = entries.size() - target;
+      if (excess > 0) {
+        List<Map.Entry<Address, Entry>> candidates = new ArrayList<>(entries.entrySet());
+        Collections.sort(candidates, new Comparator<Map.Entry<Address, Entry>>() {
+          @Override
+          public int compare(Map.Entry<Address, Entry> o1, Map.Entry<Address, Entry> o2) {
+            return Long.signum(o1.getValue().lastAccess - o2.getValue().lastAccess);
+          }
+        });
+        for (int i=0; (i<candidates.size()) && (excess > 0); i++) {
+          Map.Entry<Address, Entry> e = candidates.get(i);
+          if (removeEntry(e.getKey(), e.getValue())) {
+            removed++;
+            excess--;
+          }
+        }
+      }
+      if (logger.isDebugEnabled()) {
+        logger.debug("Evicted {} engine IDs, {} entries left", removed, entries.size());
+      }
+    }
+    finally {
+      evicting.set(false);
+    }
+  }
+
+  private boolean removeEntry(Address address, Entry entry) {
+    if (entries.remove(address, entry)) {
+      EvictionListener listener = evictionListener;
+      if (listener != null) {
+        listener.engineIdEvicted(address, entry.engineID);
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * The <code>EvictionListener</code> is informed about engine IDs removed
+   * by an {@link EngineIdCache} because of its size limit or idle timeout.
+   */
+  public interface EvictionListener {
+
+    /**
+     * An engine ID has been removed from the cache.
+     * @param address
+     *    the transport address of the engine.
+     * @param engineID
+     *    the removed engine ID.
+     */
+    void engineIdEvicted(Address address, OctetString engineID);
+  }
+
+  private static final class Entry {
+    private final OctetString engineID;
+    private volatile long lastAccess;
+
+    Entry(OctetString engineID, long now) {
+      this.engineID = engineID;
+      this.lastAccess = now;
+    }
+
+    void touch(long now) {
+      if (now - lastAccess >= ACCESS_PRECISION) {
+        lastAccess = now;
+      }
+    }
+  }
+}
@@ -79,7 +79,7 @@ public class MPv3
   private SecurityModels securityModels;
 
   private Cache cache;
-  private Map<Address, OctetString> engineIDs;
+  private EngineIdCache engineIDs;
   private byte[] localEngineID;
 
   private int currentMsgID = new Random().nextInt(MAX_MESSAGE_ID);
@@ -177,7 +177,17 @@ public class MPv3
     if (incomingPDUFactory != null) {
       this.incomingPDUFactory = incomingPDUFactory;
     }
-    engineIDs = new Hashtable<>();
+    engineIDs = new EngineIdCache();
+    engineIDs.setEvictionListener(new EngineIdCache.EvictionListener() {
+      @Override
+      public void engineIdEvicted(Address address, OctetString engineID) {
+        if (snmpEngineListeners != null) {
+          fireEngineChanged(new SnmpEngineEvent(MPv3.this,
+                                                SnmpEngineEvent.REMOVED_ENGINE_ID,
+                                                engineID, address));
+        }
+      }
+    });
     cache = new Cache();
     if (secProtocols == null) {
       throw new NullPointerException();
@@ -366,6 +376,30 @@ public class MPv3
     return engineIDs.get(address);
   }
 
+  /**
+   * Gets a snapshot of the engine IDs associated with transport addresses
+   * in the local storage.
+   * @return
+   *    a copy of the address to engine ID map.
+   * @since 2.4
+   */
+  public Map<Address, OctetString> getEngineIDs() {
+    return engineIDs.toMap();
+  }
+
+  /**
+   * Gets the cache of the engine IDs by transport address. Its maximum size
+   * and idle timeout can be set to bound the memory used for managers that
+   * communicate with many agents. Evicted entries are reported as
+   * {@link SnmpEngineEvent#REMOVED_ENGINE_ID} events.
+   * @return
+   *    the <code>EngineIdCache</code> of this message processing model.
+   * @since 2.4
+   */
+  public EngineIdCache getEngineIdCache() {
+    return engineIDs;
+  }
+
   /**
    * Removes an engine ID association from the local storage and fires the
    * corresponding {@link SnmpEngineEvent}.
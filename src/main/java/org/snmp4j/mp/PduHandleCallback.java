@@ -42,4 +42,18 @@ public interface PduHandleCallback<P> {
    */
   void pduHandleAssigned(PduHandle handle, P pdu);
 
+  /**
+   * The message of a PDU, for which {@link #pduHandleAssigned} has been
+   * called before, has been handed over to the transport mapping. This
+   * default implementation does nothing.
+   *
+   * @param handle
+   *   the <code>PduHandle</code> of the sent request.
+   * @param pdu
+   *    the request PDU that has been sent.
+   * @since 2.4
+   */
+  default void pduSent(PduHandle handle, P pdu) {
+  }
+
 }
@@ -25,6 +25,12 @@ import org.snmp4j.smi.OctetString;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The abstract class AuthGeneric implements common operations for
@@ -37,6 +43,20 @@ import java.security.NoSuchAlgorithmException;
 public abstract class AuthGeneric implements AuthenticationProtocol {
 
   private static final Logger logger = LoggerFactory.getLogger(AuthGeneric.class);
+  /**
+   * The number of password octets digested to compute the master key.
+   */
+  private static final int PASSWORD_STREAM_LENGTH = 1048576;
+  private static final int MIN_BLOCK_LENGTH = 16384;
+  /**
+   * Batches with at least this number of engine IDs are localized in parallel.
+   */
+  private static final int PARALLEL_LOCALIZATION_THRESHOLD = 64;
+  /**
+   * The number of engine IDs localized by a task of a parallel localization.
+   */
+  private static final int LOCALIZATION_CHUNK_SIZE = 32;
+
   private int digestLength;
   private String protoName;
 
@@ -197,46 +217,205 @@ public abstract class AuthGeneric implements AuthenticationProtocol {
 
   @Override
   public byte[] passwordToKey(OctetString passwordString, byte[] engineID) {
+    return localizeKey(passwordToMasterKey(passwordString), engineID);
+  }
 
+  /**
+   * Computes the non-localized master key (Ku) from the given password as
+   * defined by RFC 3414 A.2. The password is repeated until 1 MB of data has
+   * been digested. Instead of feeding the digest 64 bytes at a time, a block
+   * containing the repeated password is built once and passed in large
+   * chunks so that the (intrinsic backed) digest implementation can process
+   * it without per byte overhead.
+   *
+   * @param passwordString
+   *    the authentication pass phrase.
+   * @return
+   *    the master key which is independent from any engine ID.
+   * @since 2.4
+   */
+  public byte[] passwordToMasterKey(OctetString passwordString) {
+    byte[] password = passwordString.getValue();
+    if (password.length == 0) {
+      throw new IllegalArgumentException("Password must not be empty");
+    }
+    // block length is a multiple of the password length and 64 bytes
+    int blockLength = Math.min(PASSWORD_STREAM_LENGTH,
+                               Math.max(1, MIN_BLOCK_LENGTH / (password.length * 64)) *
+                                   password.length * 64);
+    byte[] block = new byte[blockLength];
+    for (int i = 0; i < blockLength; i += password.length) {
+      System.arraycopy(password, 0, block, i, Math.min(password.length, blockLength - i));
+    }
     MessageDigest md = getDigestObject();
-
-    byte[] digest;
-    byte[] buf = new byte[64];
-    int password_index = 0;
     int count = 0;
-    byte[] password = passwordString.getValue();
-
-    /* Use while loop until we've done 1 Megabyte */
-    while (count < 1048576) {
-      for (int i = 0; i < 64; ++i) {
-        /* Take the next octet of the password, wrapping */
-        /* to the beginning of the password as necessary.*/
-        buf[i] = password[password_index++ % password.length];
-      }
-      md.update(buf);
-      count += 64;
+    while (count < PASSWORD_STREAM_LENGTH) {
+      int len = Math.min(blockLength, PASSWORD_STREAM_LENGTH - count);
+      md.update(block, 0, len);
+      count += len;
     }
-    digest = md.digest();
+    byte[] digest = md.digest();
     if (logger.isDebugEnabled()) {
       logger.debug("{}First digest: {}", protoName, new OctetString(digest).toHexString());
     }
+    return digest;
+  }
 
-    /*****************************************************/
-    /* Now localize the key with the engine_id and pass  */
-    /* through MD to produce final key                   */
-    /*****************************************************/
-    md.reset();
-    md.update(digest);
+  /**
+   * Localizes a master key as returned by {@link #passwordToMasterKey} for
+   * the given authoritative engine ID.
+   *
+   * @param masterKey
+   *    the non-localized key (Ku).
+   * @param engineID
+   *    the engine ID of the authoritative engine.
+   * @return
+   *    the localized authentication key.
+   * @since 2.4
+   */
+  public byte[] localizeKey(byte[] masterKey, byte[] engineID) {
+    MessageDigest md = getDigestObject();
+    md.update(masterKey);
     md.update(engineID);
-    md.update(digest);
-    digest = md.digest();
+    md.update(masterKey);
+    byte[] digest = md.digest();
     if (logger.isDebugEnabled()) {
       logger.debug("{}localized key: {}", protoName, new OctetString(digest).toHexString());
     }
-
     return digest;
   }
 
+  /**
+   * Generates the localized keys for a password and a list of engine IDs.
+   * The expensive master key computation is done only once, the keys are
+   * localized by the calling thread.
+   *
+   * @param passwordString
+   *    the authentication pass phrase.
+   * @param engineIDs
+   *    the engine IDs of the authoritative engines.
+   * @return
+   *    the localized keys in the order of <code>engineIDs</code>.
+   * @since 2.4
+   */
+  public List<byte[]> passwordToKeys(OctetString passwordString, List<byte[]> engineIDs) {
+    return passwordToKeys(passwordString, engineIDs, null);
+  }
+
+  /**
+   * Generates the localized keys for a password and a list of engine IDs.
+   * The expensive master key computation is done only once. The localization
+   * of large batches is split into tasks that are run by the supplied
+   * executor and the calling thread. The calling thread localizes all keys
+   * not taken by a task of the executor, so that a busy or shut down executor
+   * does not delay the result.
+   *
+   * @param passwordString
+   *    the authentication pass phrase.
+   * @param engineIDs
+   *    the engine IDs of the authoritative engines.
+   * @param executor
+   *    the executor that helps localizing large batches, or <code>null</code>
+   *    to localize all keys by the calling thread.
+   * @return
+   *    the localized keys in the order of <code>engineIDs</code>.
+   * @since 2.4
+   */
+  public List<byte[]> passwordToKeys(OctetString passwordString, List<byte[]> engineIDs,
+                                     Executor executor) {
+    byte[] masterKey = passwordToMasterKey(passwordString);
+    if ((executor == null) || (engineIDs.size() < PARALLEL_LOCALIZATION_THRESHOLD)) {
+      List<byte[]> keys = new ArrayList<byte[]>(engineIDs.size());
+      for (byte[] engineID : engineIDs) {
+        keys.add(localizeKey(masterKey, engineID));
+      }
+      return keys;
+    }
+    Localization localization = new Localization(masterKey, engineIDs);
+    // the executor limits the number of helping threads, a task that
+    // finds no chunk left returns immediately
+    for (int i=1; i<localization.chunks; i++) {
+      try {
+        executor.execute(localization);
+      }
+      catch (RejectedExecutionException rex) {
+        break;
+      }
+    }
+    localization.run();
+    return localization.getKeys();
+  }
+
+  /**
+   * A <code>Localization</code> localizes the keys of a batch of engine IDs
+   * in chunks, which are taken by the threads running it.
+   */
+  private class Localization implements Runnable {
+    private final byte[] masterKey;
+    private final List<byte[]> engineIDs;
+    private final byte[][] keys;
+    private final int chunks;
+    private final AtomicInteger nextChunk = new AtomicInteger();
+    private int completedChunks;
+    private RuntimeException failure;
+
+    Localization(byte[] masterKey, List<byte[]> engineIDs) {
+      this.masterKey = masterKey;
+      this.engineIDs = engineIDs;
+      this.keys = new byte[engineIDs.size()][];
+      this.chunks = (keys.length + LOCALIZATION_CHUNK_SIZE - 1) / LOCALIZATION_CHUNK_SIZE;
+    }
+
+    @Override
+    public void run() {
+      int chunk;
+      while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+        RuntimeException error = null;
+        try {
+          int end = Math.min(keys.length, (chunk + 1) * LOCALIZATION_CHUNK_SIZE);
+          for (int i = chunk * LOCALIZATION_CHUNK_SIZE; i < end; i++) {
+            keys[i] = localizeKey(masterKey, engineIDs.get(i));
+          }
+        }
+        catch (RuntimeException ex) {
+          error = ex;
+        }
+        synchronized (this) {
+          if ((error != null) && (failure == null)) {
+            failure = error;
+          }
+          if (++completedChunks == chunks) {
+            notifyAll();
+          }
+        }
+      }
+    }
+
+    /**
+     * Waits until the chunks taken by other threads have been localized.
+     * @return
+     *    the localized keys.
+     */
+    synchronized List<byte[]> getKeys() {
+      boolean interrupted = false;
+      while (completedChunks < chunks) {
+        try {
+          wait();
+        }
+        catch (InterruptedException iex) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return new ArrayList<byte[]>(Arrays.asList(keys));
+    }
+  }
+
   @Override
   public byte[] hash(byte[] data) {
     MessageDigest md = getDigestObject();
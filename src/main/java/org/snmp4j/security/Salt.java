@@ -25,50 +25,66 @@ package org.snmp4j.security;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
-import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
  * Class that holds a 64 bit salt value for crypto operations.
  *
- * This class tries to use the SecureRandom class to initialize
- * the salt value. If SecureRandom is not available the class Random
- * is used.
+ * The salt is initialized with a random value from {@link SecureRandom}.
+ * Values are handed out without locking: each thread reserves a range of
+ * consecutive values from a shared atomic counter and then returns the
+ * values of its range one by one. Because ranges are disjoint, no value is
+ * returned twice (until the counter wraps around) while the shared counter
+ * is only updated once per range.
  *
  * @author Jochen Katz
- * @version 1.0
+ * @version 2.4
  */
 class Salt {
-  private long salt;
 
-  private static Salt instance = null;
+  /**
+   * The default number of salt values reserved by a thread at once.
+   */
+  static final int DEFAULT_RANGE_SIZE = 256;
+
   private static final Logger logger = LoggerFactory.getLogger(Salt.class);
 
+  private final AtomicLong salt;
+  private final int rangeSize;
+  private final ThreadLocal<long[]> range = new ThreadLocal<long[]>() {
+    @Override
+    protected long[] initialValue() {
+      // next value and end (exclusive) of the range, empty initially
+      return new long[2];
+    }
+  };
+
   /**
    * Default constructor, initializes the salt to a random value.
    */
   protected Salt() {
-    byte[] rnd = new byte[8];
-
-    try {
-      SecureRandom sr = SecureRandom.getInstance("SHA1PRNG");
-      sr.nextBytes(rnd);
-    }
-    catch (NoSuchAlgorithmException nsae) {
-      logger.warn("Could not use SecureRandom. Using Random instead.");
-      Random r = new Random();
-      r.nextBytes(rnd);
-    }
-
-    salt = rnd[0];
+    this(new SecureRandom().nextLong(), DEFAULT_RANGE_SIZE);
+  }
 
-    for (int i = 0; i < 7; i++) {
-      salt = (salt * 256) + ((int)rnd[i]) + 128;
+  /**
+   * Creates a salt with the specified initial value and range size.
+   *
+   * @param initialValue
+   *    the first salt value.
+   * @param rangeSize
+   *    the number of values reserved by a thread at once.
+   * @since 2.4
+   */
+  protected Salt(long initialValue, int rangeSize) {
+    if (rangeSize <= 0) {
+      throw new IllegalArgumentException("Range size must be positive: "+rangeSize);
     }
+    this.salt = new AtomicLong(initialValue);
+    this.rangeSize = rangeSize;
     if (logger.isDebugEnabled()) {
-      logger.debug("Initialized Salt to {}.", Long.toHexString(salt));
+      logger.debug("Initialized Salt to {}.", Long.toHexString(initialValue));
     }
   }
 
@@ -78,19 +94,25 @@ class Salt {
    * @return the Salt object
    */
   public static Salt getInstance() {
-    if (instance == null) {
-      instance = new Salt();
-    }
-    return instance;
+    return InstanceHolder.INSTANCE;
   }
 
   /**
    * Get the next value of the salt.
    *
    * @return
-   *    previous value increased by one.
+   *    a value that has not been returned before by this salt.
    */
-  public synchronized long getNext() {
-    return salt++;
+  public long getNext() {
+    long[] r = range.get();
+    if (r[0] == r[1]) {
+      r[0] = salt.getAndAdd(rangeSize);
+      r[1] = r[0] + rangeSize;
+    }
+    return r[0]++;
+  }
+
+  private static final class InstanceHolder {
+    private static final Salt INSTANCE = new Salt();
   }
 }
@@ -28,9 +28,12 @@ import org.snmp4j.smi.OctetString;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Executor;
 
 /**
  * The <code>SecurityProtocols</code> class holds all authentication and
@@ -305,7 +308,146 @@ public class SecurityProtocols implements Serializable {
       return null;
     }
     byte[] key = authProtocol.passwordToKey(passwordString, engineID);
+    return toPrivacyKey(key, privProtocol, authProtocol, passwordString, engineID);
+  }
+
+  /**
+   * Generates the localized keys for the given password and a batch of engine
+   * IDs for the authentication protocol specified by the supplied OID. For
+   * {@link AuthGeneric} based protocols the password is hashed only once for
+   * the whole batch.
+   *
+   * @param authProtocolID
+   *    an <code>OID</code> identifying the authentication protocol to
+   *    use.
+   * @param passwordString
+   *    the authentication pass phrase.
+   * @param engineIDs
+   *    the engine IDs of the authoritative engines.
+   * @return
+   *    the localized authentication keys in the order of <code>engineIDs</code>
+   *    or <code>null</code> if the protocol is unknown.
+   * @since 2.4
+   */
+  public List<byte[]> passwordToKeys(OID authProtocolID,
+                                     OctetString passwordString,
+                                     List<byte[]> engineIDs) {
+    return passwordToKeys(authProtocolID, passwordString, engineIDs, null);
+  }
+
+  /**
+   * Generates the localized keys for the given password and a batch of engine
+   * IDs for the authentication protocol specified by the supplied OID. For
+   * {@link AuthGeneric} based protocols the password is hashed only once for
+   * the whole batch and large batches are localized with the help of the
+   * supplied executor.
+   *
+   * @param authProtocolID
+   *    an <code>OID</code> identifying the authentication protocol to
+   *    use.
+   * @param passwordString
+   *    the authentication pass phrase.
+   * @param engineIDs
+   *    the engine IDs of the authoritative engines.
+   * @param executor
+   *    the executor that helps localizing large batches, or <code>null</code>
+   *    to localize all keys by the calling thread.
+   * @return
+   *    the localized authentication keys in the order of <code>engineIDs</code>
+   *    or <code>null</code> if the protocol is unknown.
+   * @since 2.4
+   */
+  public List<byte[]> passwordToKeys(OID authProtocolID,
+                                     OctetString passwordString,
+                                     List<byte[]> engineIDs,
+                                     Executor executor) {
+    AuthenticationProtocol protocol =
+            authProtocols.get(authProtocolID);
+    if (protocol == null) {
+      return null;
+    }
+    if (protocol instanceof AuthGeneric) {
+      return ((AuthGeneric)protocol).passwordToKeys(passwordString, engineIDs, executor);
+    }
+    List<byte[]> keys = new ArrayList<byte[]>(engineIDs.size());
+    for (byte[] engineID : engineIDs) {
+      keys.add(protocol.passwordToKey(passwordString, engineID));
+    }
+    return keys;
+  }
+
+  /**
+   * Generates the localized privacy keys for the given password and a batch
+   * of engine IDs.
+   *
+   * @param privProtocolID
+   *    an <code>OID</code> identifying the privacy protocol the keys should
+   *    be created for.
+   * @param authProtocolID
+   *    an <code>OID</code> identifying the authentication protocol to use.
+   * @param passwordString
+   *    the privacy pass phrase.
+   * @param engineIDs
+   *    the engine IDs of the authoritative engines.
+   * @return
+   *    the localized privacy keys in the order of <code>engineIDs</code>
+   *    or <code>null</code> if one of the protocols is unknown.
+   * @since 2.4
+   */
+  public List<byte[]> passwordToKeys(OID privProtocolID,
+                                     OID authProtocolID,
+                                     OctetString passwordString,
+                                     List<byte[]> engineIDs) {
+    return passwordToKeys(privProtocolID, authProtocolID, passwordString, engineIDs, null);
+  }
+
+  /**
+   * Generates the localized privacy keys for the given password and a batch
+   * of engine IDs, large batches are localized with the help of the supplied
+   * executor.
+   *
+   * @param privProtocolID
+   *    an <code>OID</code> identifying the privacy protocol the keys should
+   *    be created for.
+   * @param authProtocolID
+   *    an <code>OID</code> identifying the authentication protocol to use.
+   * @param passwordString
+   *    the privacy pass phrase.
+   * @param engineIDs
+   *    the engine IDs of the authoritative engines.
+   * @param executor
+   *    the executor that helps localizing large batches, or <code>null</code>
+   *    to localize all keys by the calling thread.
+   * @return
+   *    the localized privacy keys in the order of <code>engineIDs</code>
+   *    or <code>null</code> if one of the protocols is unknown.
+   * @since 2.4
+   */
+  public List<byte[]> passwordToKeys(OID privProtocolID,
+                                     OID authProtocolID,
+                                     OctetString passwordString,
+                                     List<byte[]> engineIDs,
+                                     Executor executor) {
+    AuthenticationProtocol authProtocol =
+            authProtocols.get(authProtocolID);
+    PrivacyProtocol privProtocol =
+            privProtocols.get(privProtocolID);
+    if ((authProtocol == null) || (privProtocol == null)) {
+      return null;
+    }
+    List<byte[]> keys = passwordToKeys(authProtocolID, passwordString, engineIDs, executor);
+    for (int i=0; i<keys.size(); i++) {
+      keys.set(i, toPrivacyKey(keys.get(i), privProtocol, authProtocol,
+                               passwordString, engineIDs.get(i)));
+    }
+    return keys;
+  }
 
+  private static byte[] toPrivacyKey(byte[] key,
+                                     PrivacyProtocol privProtocol,
+                                     AuthenticationProtocol authProtocol,
+                                     OctetString passwordString,
+                                     byte[] engineID) {
     if (key == null) {
       return null;
     }
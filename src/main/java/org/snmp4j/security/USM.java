@@ -400,9 +400,10 @@ public class USM extends SNMPv3SecurityModel {
       else {
         // get engineBoots, engineTime
         OctetString secEngineID = new OctetString(securityEngineID);
-        UsmTimeEntry entry = timeTable.getTime(secEngineID);
-        if (entry == null) {
-          entry =
+        long now = System.nanoTime();
+        UsmTimeEntry.TimeState time = timeTable.getTimeState(secEngineID, now);
+        if (time == null) {
+          UsmTimeEntry entry =
               new UsmTimeEntry(secEngineID,
                                usmSecurityParams.getAuthoritativeEngineBoots(),
                                usmSecurityParams.getAuthoritativeEngineTime());
@@ -410,9 +411,9 @@ public class USM extends SNMPv3SecurityModel {
           timeTable.addEntry(entry);
         }
         else {
-          usmSecurityParams.setAuthoritativeEngineBoots(entry.getEngineBoots());
-          usmSecurityParams.setAuthoritativeEngineTime(entry.
-              getLatestReceivedTime());
+          usmSecurityParams.setAuthoritativeEngineBoots(time.getEngineBoots());
+          usmSecurityParams.setAuthoritativeEngineTime(time.getTimeDiff() +
+              (int) (now / UsmTimeTable.TIME_PRECISION));
         }
       }
     }
@@ -681,9 +682,9 @@ public class USM extends SNMPv3SecurityModel {
             return SnmpConstants.SNMPv3_USM_AUTHENTICATION_FAILURE;
           }
           // check time
-          int status = timeTable.checkTime(new UsmTimeEntry(securityEngineID,
+          int status = timeTable.checkTime(securityEngineID,
             usmSecurityParameters.getAuthoritativeEngineBoots(),
-            usmSecurityParameters.getAuthoritativeEngineTime()));
+            usmSecurityParameters.getAuthoritativeEngineTime());
 
           switch (status) {
             case SnmpConstants.SNMPv3_USM_NOT_IN_TIME_WINDOW: {
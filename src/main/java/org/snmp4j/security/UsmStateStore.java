@@ -0,0 +1,505 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - UsmStateStore.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+
+package org.snmp4j.security;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.mp.MPv3;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The <code>UsmStateStore</code> saves the state that an SNMPv3 command
+ * generator learns about remote engines to a local file and restores it
+ * on startup. This avoids engine ID discovery, time synchronization, and
+ * key localization for all known agents after a restart. The snapshot
+ * contains:
+ * <ul>
+ * <li>the engine IDs by transport address of the {@link MPv3},</li>
+ * <li>the engine boots and estimated engine time of the {@link UsmTimeTable},</li>
+ * <li>the localized keys of the users in the {@link UsmUserTable} that have
+ * been localized from a non-localized user (password) entry.</li>
+ * </ul>
+ * <p>
+ * The file has a versioned binary format and is encrypted and
+ * authenticated with AES/GCM by a key derived from a passphrase with
+ * PBKDF2. Files are read and written through memory-mapped buffers and
+ * replaced atomically where supported by the file system.
+ * </p><p>
+ * Restored entries never replace existing ones. A localized key is only
+ * restored if the non-localized user entry it was derived from still
+ * exists with the same protocols and passphrases.
+ * </p>
+ *
+ * @author Frank Fock
+ * @version 2.4
+ * @since 2.4
+ */
+public class UsmStateStore {
+
+  private static final Logger logger = LoggerFactory.getLogger(UsmStateStore.class);
+
+  /**
+   * The version of the snapshot format written by this class.
+   */
+  public static final int FORMAT_VERSION = 1;
+
+  /**
+   * The default number of PBKDF2 iterations for the encryption key.
+   */
+  public static final int DEFAULT_KEY_DERIVATION_ITERATIONS = 65536;
+
+  private static final int MAGIC = 0x53345553; // "S4US"
+  private static final int SALT_LENGTH = 16;
+  private static final int IV_LENGTH = 12;
+  private static final int KEY_LENGTH = 128;
+  private static final int TAG_LENGTH = 128;
+  private static final int HEADER_LENGTH = 4 + 4 + 4 + SALT_LENGTH + IV_LENGTH;
+  private static final int MAX_ENGINE_TIME = 2147483647;
+
+  private final File file;
+  private final char[] passphrase;
+  private int keyDerivationIterations = DEFAULT_KEY_DERIVATION_ITERATIONS;
+  private final SecureRandom random = new SecureRandom();
+
+  /**
+   * Creates a state store for the supplied file.
+   * @param file
+   *    the snapshot file.
+   * @param passphrase
+   *    the passphrase from which the encryption key of the snapshot is
+   *    derived. The array is copied.
+   */
+  public UsmStateStore(File file, char[] passphrase) {
+    if ((passphrase == null) || (passphrase.length == 0)) {
+      throw new IllegalArgumentException("A passphrase is required to encrypt the USM state");
+    }
+    this.file = file;
+    this.passphrase = passphrase.clone();
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public int getKeyDerivationIterations() {
+    return keyDerivationIterations;
+  }
+
+  /**
+   * Sets the number of PBKDF2 iterations used to derive the encryption key
+   * for snapshots saved by this store. Loading uses the number stored in
+   * the snapshot.
+   * @param keyDerivationIterations
+   *    the number of iterations (default is 65536).
+   */
+  public void setKeyDerivationIterations(int keyDerivationIterations) {
+    if (keyDerivationIterations <= 0) {
+      throw new IllegalArgumentException("Iterations must be positive: "+keyDerivationIterations);
+    }
+    this.keyDerivationIterations = keyDerivationIterations;
+  }
+
+  /**
+   * Saves the engine IDs of the supplied message processing model and the
+   * time table and localized users of the supplied USM.
+   *
+   * @param mpv3
+   *    the message processing model whose engine IDs are saved, or
+   *    <code>null</code>.
+   * @param usm
+   *    the user based security model whose time and localized user entries
+   *    are saved.
+   * @throws IOException
+   *    if the snapshot cannot be encrypted or written.
+   */
+  public void save(MPv3 mpv3, USM usm) throws IOException {
+    ByteArrayOutputStream plain = new ByteArrayOutputStream(4096);
+    DataOutputStream out = new DataOutputStream(plain);
+    out.writeLong(System.currentTimeMillis());
+    int numEngineIDs = 0;
+    if (mpv3 == null) {
+      out.writeInt(0);
+    }
+    else {
+      Map<Address, OctetString> engineIDs = mpv3.getEngineIDs();
+      out.writeInt(engineIDs.size());
+      for (Map.Entry<Address, OctetString> entry : engineIDs.entrySet()) {
+        out.writeUTF(entry.getKey().getClass().getName());
+        out.writeUTF(entry.getKey().toString());
+        writeOctetString(out, entry.getValue());
+      }
+      numEngineIDs = engineIDs.size();
+    }
+    int now = (int) (System.nanoTime() / UsmTimeTable.TIME_PRECISION);
+    List<UsmTimeEntry> timeEntries = usm.getTimeTable().getEntries();
+    out.writeInt(timeEntries.size());
+    for (UsmTimeEntry entry : timeEntries) {
+      UsmTimeEntry.TimeState time = entry.getTimeState();
+      writeOctetString(out, entry.getEngineID());
+      out.writeInt(time.getEngineBoots());
+      out.writeInt(time.getTimeDiff() + now);
+    }
+    List<byte[]> users = new ArrayList<>();
+    UsmUserTable userTable = usm.getUserTable();
+    for (UsmUserEntry entry : userTable.getUserEntries()) {
+      if ((entry.getEngineID() == null) || (entry.getEngineID().length() == 0) ||
+          (entry.getAuthenticationKey() == null)) {
+        continue;
+      }
+      UsmUser template = getTemplate(userTable, entry);
+      if (template != null) {
+        ByteArrayOutputStream user = new ByteArrayOutputStream(128);
+        DataOutputStream userOut = new DataOutputStream(user);
+        writeOctetString(userOut, entry.getEngineID());
+        writeOctetString(userOut, entry.getUsmUser().getSecurityName());
+        writeBytes(userOut, fingerprint(template));
+        writeOID(userOut, entry.getUsmUser().getAuthenticationProtocol());
+        writeBytes(userOut, entry.getAuthenticationKey());
+        writeOID(userOut, entry.getUsmUser().getPrivacyProtocol());
+        writeBytes(userOut, entry.getPrivacyKey());
+        userOut.flush();
+        users.add(user.toByteArray());
+      }
+    }
+    out.writeInt(users.size());
+    for (byte[] user : users) {
+      out.write(user);
+      Arrays.fill(user, (byte) 0);
+    }
+    out.flush();
+    byte[] plainBytes = plain.toByteArray();
+    try {
+      write(encrypt(plainBytes));
+    }
+    finally {
+      Arrays.fill(plainBytes, (byte) 0);
+    }
+    if (logger.isInfoEnabled()) {
+      logger.info("Saved USM state with {} engine IDs, {} engine times, and {} localized users to {}",
+                  numEngineIDs, timeEntries.size(), users.size(), file);
+    }
+  }
+
+  /**
+   * Restores the engine IDs, engine times, and localized users from the
+   * snapshot file. Entries already present are not changed. Engine times
+   * are advanced by the wall clock time elapsed since the snapshot has been
+   * saved.
+   *
+   * @param mpv3
+   *    the message processing model whose engine IDs are restored, or
+   *    <code>null</code>.
+   * @param usm
+   *    the user based security model whose time and localized user entries
+   *    are restored.
+   * @return
+   *    the number of restored entries, or <code>-1</code> if the snapshot
+   *    file does not exist.
+   * @throws IOException
+   *    if the snapshot cannot be read, has an unsupported version, or cannot
+   *    be decrypted with the passphrase of this store.
+   */
+  public int load(MPv3 mpv3, USM usm) throws IOException {
+    if (!file.exists()) {
+      logger.info("No USM state snapshot found at {}", file);
+      return -1;
+    }
+    byte[] plainBytes = decrypt(read());
+    int engineIDsRestored = 0, timesRestored = 0, usersRestored = 0;
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(plainBytes))) {
+      long savedAt = in.readLong();
+      long elapsed = Math.max(0, (System.currentTimeMillis() - savedAt) / 1000);
+      int numEngineIDs = in.readInt();
+      for (int i=0; i<numEngineIDs; i++) {
+        String addressClass = in.readUTF();
+        String address = in.readUTF();
+        OctetString engineID = readOctetString(in);
+        Address a = createAddress(addressClass, address);
+        if ((mpv3 != null) && (a != null) && (mpv3.getEngineID(a) == null) && mpv3.addEngineID(a, engineID)) {
+          engineIDsRestored++;
+        }
+      }
+      UsmTimeTable timeTable = usm.getTimeTable();
+      int numTimes = in.readInt();
+      for (int i=0; i<numTimes; i++) {
+        OctetString engineID = readOctetString(in);
+        int engineBoots = in.readInt();
+        long engineTime = (in.readInt() & 0xFFFFFFFFL) + elapsed;
+        if ((engineTime <= MAX_ENGINE_TIME) && (timeTable.getEntry(engineID) == null)) {
+          timeTable.addEntry(new UsmTimeEntry(engineID, engineBoots, (int) engineTime));
+          timesRestored++;
+        }
+      }
+      UsmUserTable userTable = usm.getUserTable();
+      int numUsers = in.readInt();
+      for (int i=0; i<numUsers; i++) {
+        OctetString engineID = readOctetString(in);
+        OctetString securityName = readOctetString(in);
+        byte[] fingerprint = readBytes(in);
+        OID authProtocol = readOID(in);
+        byte[] authKey = readBytes(in);
+        OID privProtocol = readOID(in);
+        byte[] privKey = readBytes(in);
+        UsmUserEntry template = userTable.getUser(securityName);
+        if ((template != null) && MessageDigest.isEqual(fingerprint, fingerprint(template.getUsmUser())) &&
+            (userTable.getUser(engineID, securityName) == null)) {
+          usm.addLocalizedUser(engineID.getValue(), securityName, authProtocol, authKey, privProtocol, privKey);
+          usersRestored++;
+        }
+      }
+    }
+    catch (EOFException eofex) {
+      throw new IOException("USM state snapshot "+file+" is truncated", eofex);
+    }
+    finally {
+      Arrays.fill(plainBytes, (byte) 0);
+    }
+    if (logger.isInfoEnabled()) {
+      logger.info("Restored {} engine IDs, {} engine times, and {} localized users from {}",
+                  engineIDsRestored, timesRestored, usersRestored, file);
+    }
+    return engineIDsRestored + timesRestored + usersRestored;
+  }
+
+  /**
+   * Gets the non-localized user entry from which the supplied localized
+   * user entry has been derived.
+   */
+  private static UsmUser getTemplate(UsmUserTable userTable, UsmUserEntry entry) {
+    UsmUserEntry template = userTable.getUser(entry.getUsmUser().getSecurityName());
+    if ((template == null) || template.getUsmUser().isLocalized()) {
+      return null;
+    }
+    UsmUser user = template.getUsmUser();
+    if (!equals(user.getAuthenticationProtocol(), entry.getUsmUser().getAuthenticationProtocol()) ||
+        !equals(user.getPrivacyProtocol(), entry.getUsmUser().getPrivacyProtocol())) {
+      return null;
+    }
+    return user;
+  }
+
+  private static boolean equals(Object a, Object b) {
+    return (a == null) ? (b == null) : a.equals(b);
+  }
+
+  /**
+   * Computes a fingerprint of the protocols and passphrases of a
+   * non-localized user, which binds saved keys to the passphrases they have
+   * been derived from.
+   */
+  private static byte[] fingerprint(UsmUser user) throws IOException {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      ByteArrayOutputStream buf = new ByteArrayOutputStream(128);
+      DataOutputStream out = new DataOutputStream(buf);
+      writeOctetString(out, user.getSecurityName());
+      writeOID(out, user.getAuthenticationProtocol());
+      writeOctetString(out, user.getAuthenticationPassphrase());
+      writeOID(out, user.getPrivacyProtocol());
+      writeOctetString(out, user.getPrivacyPassphrase());
+      out.flush();
+      byte[] data = buf.toByteArray();
+      byte[] result = digest.digest(data);
+      Arrays.fill(data, (byte) 0);
+      return result;
+    }
+    catch (GeneralSecurityException gsex) {
+      throw new IOException(gsex);
+    }
+  }
+
+  private static Address createAddress(String addressClass, String address) {
+    try {
+      Class<?> c = Class.forName(addressClass);
+      if (Address.class.isAssignableFrom(c)) {
+        Address a = (Address) c.getDeclaredConstructor().newInstance();
+        if (a.parseAddress(address)) {
+          return a;
+        }
+      }
+    }
+    catch (ReflectiveOperationException | RuntimeException ex) {
+      logger.warn("Saved address '{}' of class {} cannot be restored: {}", address, addressClass, ex.getMessage());
+    }
+    return null;
+  }
+
+  private Cipher createCipher(int mode, byte[] salt, int iterations, byte[] iv) throws IOException {
+    PBEKeySpec keySpec = new PBEKeySpec(passphrase, salt, iterations, KEY_LENGTH);
+    try {
+      byte[] key = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(keySpec).getEncoded();
+      Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      cipher.init(mode, new SecretKeySpec(key, "AES"), new GCMParameterSpec(TAG_LENGTH, iv));
+      Arrays.fill(key, (byte) 0);
+      return cipher;
+    }
+    catch (GeneralSecurityException gsex) {
+      throw new IOException("Failed to initialize USM state encryption: "+gsex.getMessage(), gsex);
+    }
+    finally {
+      keySpec.clearPassword();
+    }
+  }
+
+  private ByteBuffer encrypt(byte[] plainBytes) throws IOException {
+    byte[] salt = new byte[SALT_LENGTH];
+    byte[] iv = new byte[IV_LENGTH];
+    random.nextBytes(salt);
+    random.nextBytes(iv);
+    int iterations = keyDerivationIterations;
+    ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(iterations).put(salt).put(iv);
+    Cipher cipher = createCipher(Cipher.ENCRYPT_MODE, salt, iterations, iv);
+    cipher.updateAAD(header.array());
+    ByteBuffer result = ByteBuffer.allocate(HEADER_LENGTH + cipher.getOutputSize(plainBytes.length));
+    header.flip();
+    result.put(header);
+    try {
+      cipher.doFinal(ByteBuffer.wrap(plainBytes), result);
+    }
+    catch (GeneralSecurityException gsex) {
+      throw new IOException("Failed to encrypt USM state: "+gsex.getMessage(), gsex);
+    }
+    result.flip();
+    return result;
+  }
+
+  private byte[] decrypt(ByteBuffer data) throws IOException {
+    if (data.remaining() < HEADER_LENGTH) {
+      throw new IOException("USM state snapshot "+file+" is truncated");
+    }
+    byte[] header = new byte[HEADER_LENGTH];
+    data.get(header);
+    ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+    if (headerBuffer.getInt() != MAGIC) {
+      throw new IOException(file+" is not a USM state snapshot");
+    }
+    int version = headerBuffer.getInt();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported USM state snapshot version "+version+" in "+file);
+    }
+    int iterations = headerBuffer.getInt();
+    byte[] salt = new byte[SALT_LENGTH];
+    byte[] iv = new byte[IV_LENGTH];
+    headerBuffer.get(salt);
+    headerBuffer.get(iv);
+    if (iterations <= 0) {
+      throw new IOException("Invalid key derivation iterations "+iterations+" in "+file);
+    }
+    Cipher cipher = createCipher(Cipher.DECRYPT_MODE, salt, iterations, iv);
+    cipher.updateAAD(header);
+    ByteBuffer plain = ByteBuffer.allocate(cipher.getOutputSize(data.remaining()));
+    try {
+      cipher.doFinal(data, plain);
+    }
+    catch (GeneralSecurityException gsex) {
+      throw new IOException("USM state snapshot "+file+" cannot be decrypted (wrong passphrase or corrupted): "+
+                            gsex.getMessage(), gsex);
+    }
+    byte[] result = Arrays.copyOf(plain.array(), plain.position());
+    Arrays.fill(plain.array(), (byte) 0);
+    return result;
+  }
+
+  private ByteBuffer read() throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+
+  private void write(ByteBuffer data) throws IOException {
+    Path target = file.toPath();
+    Path temp = target.resolveSibling(target.getFileName()+".tmp");
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, data.remaining());
+      mapped.put(data);
+      mapped.force();
+    }
+    try {
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (AtomicMoveNotSupportedException amnsex) {
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static void writeOctetString(DataOutputStream out, OctetString s) throws IOException {
+    writeBytes(out, (s == null) ? null : s.getValue());
+  }
+
+  private static OctetString readOctetString(DataInputStream in) throws IOException {
+    byte[] value = readBytes(in);
+    return (value == null) ? null : new OctetString(value);
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    if (bytes == null) {
+      out.writeInt(-1);
+    }
+    else {
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    if (length > in.available()) {
+      throw new EOFException();
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  private static void writeOID(DataOutputStream out, OID oid) throws IOException {
+    out.writeUTF((oid == null) ? "" : oid.toDottedString());
+  }
+
+  private static OID readOID(DataInputStream in) throws IOException {
+    String oid = in.readUTF();
+    return (oid.length() == 0) ? null : new OID(oid);
+  }
+}
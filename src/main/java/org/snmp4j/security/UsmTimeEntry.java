@@ -21,23 +21,43 @@ package org.snmp4j.security;
 
 import org.snmp4j.smi.OctetString;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * The <code>UsmTimeEntry</code> class represents time synchronization
  * information associated with an engine ID.
+ * <p>
+ * The engine boots, time difference, and latest received time are held in
+ * an immutable {@link TimeState} which is replaced atomically on each
+ * update. Readers therefore always see a consistent combination of the
+ * three values without locking.
+ * </p>
  *
  * @author Frank Fock
- * @version 1.0
+ * @version 2.4
  */
 public class UsmTimeEntry implements Serializable {
 
   private static final long serialVersionUID = -8064483016765127449L;
 
+  private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("engineID", OctetString.class),
+      new ObjectStreamField("engineBoots", Integer.TYPE),
+      new ObjectStreamField("timeDiff", Integer.TYPE),
+      new ObjectStreamField("latestReceivedTime", Integer.TYPE)
+  };
+
+  private static final AtomicReferenceFieldUpdater<UsmTimeEntry, TimeState> STATE =
+      AtomicReferenceFieldUpdater.newUpdater(UsmTimeEntry.class, TimeState.class, "state");
+
   private OctetString engineID;
-  private int engineBoots;
-  private int timeDiff;
-  private int latestReceivedTime;
+  private transient volatile TimeState state;
+  private transient volatile long lastAccess;
 
   /**
    * Creates a time entry with engine ID, engine boots and time.
@@ -51,8 +71,10 @@ public class UsmTimeEntry implements Serializable {
    */
   public UsmTimeEntry(OctetString engineID, int engineBoots, int engineTime) {
     this.engineID = engineID;
-    this.engineBoots = engineBoots;
-    setEngineTime(engineTime);
+    this.state = new TimeState(engineBoots,
+                               engineTime - (int)(System.nanoTime()/UsmTimeTable.TIME_PRECISION),
+                               engineTime);
+    this.lastAccess = System.nanoTime();
   }
 
   public OctetString getEngineID() {
@@ -60,19 +82,29 @@ public class UsmTimeEntry implements Serializable {
   }
 
   public int getEngineBoots() {
-    return engineBoots;
+    return state.engineBoots;
   }
 
   public void setEngineBoots(int engineBoots) {
-    this.engineBoots = engineBoots;
+    TimeState current;
+    do {
+      current = state;
+    }
+    while (!STATE.compareAndSet(this, current,
+                                new TimeState(engineBoots, current.timeDiff, current.latestReceivedTime)));
   }
 
   public int getTimeDiff() {
-    return timeDiff;
+    return state.timeDiff;
   }
 
   public void setTimeDiff(int timeDiff) {
-    this.timeDiff = timeDiff;
+    TimeState current;
+    do {
+      current = state;
+    }
+    while (!STATE.compareAndSet(this, current,
+                                new TimeState(current.engineBoots, timeDiff, current.latestReceivedTime)));
   }
 
   /**
@@ -82,7 +114,7 @@ public class UsmTimeEntry implements Serializable {
    *    the engine time in seconds.
    */
   public int getLatestReceivedTime() {
-    return latestReceivedTime;
+    return state.latestReceivedTime;
   }
 
   /**
@@ -92,7 +124,12 @@ public class UsmTimeEntry implements Serializable {
    *    the engine time in seconds.
    */
   public void setLatestReceivedTime(int latestReceivedTime) {
-    this.latestReceivedTime = latestReceivedTime;
+    TimeState current;
+    do {
+      current = state;
+    }
+    while (!STATE.compareAndSet(this, current,
+                                new TimeState(current.engineBoots, current.timeDiff, latestReceivedTime)));
   }
 
   /**
@@ -102,7 +139,115 @@ public class UsmTimeEntry implements Serializable {
    *    the time in seconds elapsed since the last reboot of the engine.
    */
   public void setEngineTime(int engineTime) {
-    this.latestReceivedTime = engineTime;
-    this.timeDiff = engineTime - (int)(System.nanoTime()/UsmTimeTable.TIME_PRECISION);
+    int timeDiff = engineTime - (int)(System.nanoTime()/UsmTimeTable.TIME_PRECISION);
+    TimeState current;
+    do {
+      current = state;
+    }
+    while (!STATE.compareAndSet(this, current, new TimeState(current.engineBoots, timeDiff, engineTime)));
+  }
+
+  /**
+   * Gets the current engine boots, time difference, and latest received time
+   * as a consistent snapshot.
+   * @return
+   *    the current <code>TimeState</code>.
+   * @since 2.4
+   */
+  public TimeState getTimeState() {
+    return state;
+  }
+
+  /**
+   * Atomically replaces the time state of this entry if it has not been
+   * changed since <code>expected</code> had been read.
+   * @param expected
+   *    the time state read before.
+   * @param update
+   *    the new time state.
+   * @return
+   *    <code>true</code> if the state has been replaced.
+   * @since 2.4
+   */
+  public boolean compareAndSetTimeState(TimeState expected, TimeState update) {
+    return STATE.compareAndSet(this, expected, update);
+  }
+
+  /**
+   * Gets the system time (see {@link System#nanoTime()}) when this entry has
+   * been accessed last with a precision of one second.
+   * @return
+   *    the last access time in nanoseconds.
+   * @since 2.4
+   */
+  public long getLastAccess() {
+    return lastAccess;
+  }
+
+  /**
+   * Marks this entry as accessed at the specified time. The access time is
+   * only written if it advances by at least a second, to avoid contention on
+   * entries that are read concurrently.
+   * @param now
+   *    the current system time in nanoseconds.
+   */
+  void touch(long now) {
+    if (now - lastAccess >= UsmTimeTable.TIME_PRECISION) {
+      lastAccess = now;
+    }
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    TimeState current = state;
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("engineID", engineID);
+    fields.put("engineBoots", current.engineBoots);
+    fields.put("timeDiff", current.timeDiff);
+    fields.put("latestReceivedTime", current.latestReceivedTime);
+    out.writeFields();
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    engineID = (OctetString) fields.get("engineID", null);
+    state = new TimeState(fields.get("engineBoots", 0), fields.get("timeDiff", 0),
+                          fields.get("latestReceivedTime", 0));
+    lastAccess = System.nanoTime();
+  }
+
+  /**
+   * The <code>TimeState</code> is an immutable snapshot of the time
+   * synchronization values of an engine.
+   *
+   * @since 2.4
+   */
+  public static final class TimeState {
+    private final int engineBoots;
+    private final int timeDiff;
+    private final int latestReceivedTime;
+
+    public TimeState(int engineBoots, int timeDiff, int latestReceivedTime) {
+      this.engineBoots = engineBoots;
+      this.timeDiff = timeDiff;
+      this.latestReceivedTime = latestReceivedTime;
+    }
+
+    public int getEngineBoots() {
+      return engineBoots;
+    }
+
+    public int getTimeDiff() {
+      return timeDiff;
+    }
+
+    public int getLatestReceivedTime() {
+      return latestReceivedTime;
+    }
+
+    @Override
+    public String toString() {
+      return "TimeState[engineBoots="+engineBoots+",timeDiff="+timeDiff+
+          ",latestReceivedTime="+latestReceivedTime+"]";
+    }
   }
 }
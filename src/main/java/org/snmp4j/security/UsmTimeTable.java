@@ -25,15 +25,32 @@ import org.snmp4j.mp.SnmpConstants;
 import org.snmp4j.smi.OctetString;
 import org.snmp4j.smi.Variable;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The <code>UsmTimeTable</code> class is a singleton that stores USM user
  * information as part of the Local Configuration Datastore (LCD).
+ * <p>
+ * The table can be accessed concurrently without locking. The time values
+ * of an entry are updated atomically according to RFC 3414 &sect;3.2.7.
+ * If an idle timeout is set, entries of engines that have not been
+ * accessed within the timeout are removed in bulk by the next table access
+ * after the sweep interval.
+ * </p>
  *
  * @author Frank Fock
- * @version 1.2
+ * @version 2.4
  */
 public class UsmTimeTable implements Serializable {
 
@@ -43,9 +60,24 @@ public class UsmTimeTable implements Serializable {
 
   static final long TIME_PRECISION = 1000000000L;
 
-  private Hashtable<Variable, UsmTimeEntry> table = new Hashtable<>(10);
+  private static final int MAX_ENGINE_BOOTS = 2147483647;
+  private static final int TIME_WINDOW = 150;
+
+  /**
+   * The serialized form of SNMP4J 2.3 and before is kept: the time cache as
+   * a <code>Hashtable</code>, the last local time change and the local time.
+   */
+  private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("table", Hashtable.class),
+      new ObjectStreamField("lastLocalTimeChange", Long.TYPE),
+      new ObjectStreamField("localTime", UsmTimeEntry.class)
+  };
+
+  private transient Map<OctetString, UsmTimeEntry> table = new ConcurrentHashMap<>(16);
   private long lastLocalTimeChange = System.nanoTime();
-  private UsmTimeEntry localTime;
+  private volatile UsmTimeEntry localTime;
+  private volatile long idleTimeout;
+  private transient AtomicLong nextSweep = new AtomicLong(System.nanoTime());
 
   public UsmTimeTable(OctetString localEngineID, int engineBoots) {
     setLocalTime(new UsmTimeEntry(localEngineID, engineBoots, 0));
@@ -53,10 +85,15 @@ public class UsmTimeTable implements Serializable {
 
   public void addEntry(final UsmTimeEntry entry) {
     table.put(entry.getEngineID(), entry);
+    sweepIdleEntries(System.nanoTime());
   }
 
   public UsmTimeEntry getEntry(final OctetString engineID) {
-    return table.get(engineID);
+    UsmTimeEntry entry = table.get(engineID);
+    if (entry != null) {
+      entry.touch(System.nanoTime());
+    }
+    return entry;
   }
 
   public UsmTimeEntry getLocalTime() {
@@ -109,17 +146,45 @@ public class UsmTimeTable implements Serializable {
     return localTime.getEngineBoots();
   }
 
-  public synchronized UsmTimeEntry getTime(OctetString engineID) {
+  public UsmTimeEntry getTime(OctetString engineID) {
     if (localTime.getEngineID().equals(engineID)) {
       return getLocalTime();
     }
+    long now = System.nanoTime();
+    UsmTimeEntry.TimeState time = getTimeState(engineID, now);
+    if (time == null) {
+      return null;
+    }
+    return new UsmTimeEntry(engineID, time.getEngineBoots(),
+                            time.getTimeDiff() + (int) (now / TIME_PRECISION));
+  }
+
+  /**
+   * Gets the time state of an engine without copying it into a new
+   * <code>UsmTimeEntry</code>, which is the per message path of the USM.
+   * The current engine time is the time difference of the returned state
+   * plus <code>nanoTime / TIME_PRECISION</code>.
+   *
+   * @param engineID
+   *    the engine ID.
+   * @param nanoTime
+   *    the current {@link System#nanoTime()}.
+   * @return
+   *    the current time state of the engine or <code>null</code> if the
+   *    engine is unknown.
+   */
+  UsmTimeEntry.TimeState getTimeState(OctetString engineID, long nanoTime) {
+    if (localTime.getEngineID().equals(engineID)) {
+      return new UsmTimeEntry.TimeState(getEngineBoots(),
+          getEngineTime() - (int) (nanoTime / TIME_PRECISION), 0);
+    }
     UsmTimeEntry found = table.get(engineID);
     if (found == null) {
+      sweepIdleEntries(nanoTime);
       return null;
     }
-    return new UsmTimeEntry(engineID, found.getEngineBoots(),
-                            found.getTimeDiff() +
-                            (int) (System.nanoTime() / TIME_PRECISION));
+    found.touch(nanoTime);
+    return found.getTimeState();
   }
 
   /**
@@ -131,31 +196,151 @@ public class UsmTimeTable implements Serializable {
     table.remove(engineID);
   }
 
-  public synchronized int checkEngineID(OctetString engineID,
-                                        boolean discoveryAllowed) {
-    if (table.get(engineID) != null) {
+  /**
+   * Gets a snapshot of the time entries of the remote engines in the time
+   * cache.
+   * @return
+   *    a copy of the time entries. The entries are not copied.
+   * @since 2.4
+   */
+  public List<UsmTimeEntry> getEntries() {
+    return new ArrayList<>(table.values());
+  }
+
+  /**
+   * Gets the number of remote engines in the time cache.
+   * @return
+   *    the number of time entries.
+   * @since 2.4
+   */
+  public int size() {
+    return table.size();
+  }
+
+  /**
+   * Gets the idle timeout after which the time entry of a remote engine is
+   * removed if the engine has not been accessed.
+   * @return
+   *    the idle timeout in milliseconds or zero if entries do not expire.
+   * @since 2.4
+   */
+  public long getIdleTimeout() {
+    return idleTimeout / SnmpConstants.MILLISECOND_TO_NANOSECOND;
+  }
+
+  /**
+   * Sets the idle timeout after which the time entry of a remote engine is
+   * removed if the engine has not been accessed. Expired entries are removed
+   * in bulk at most every quarter of the timeout. A removed engine is
+   * rediscovered with the next message exchange.
+   * @param idleTimeout
+   *    the idle timeout in milliseconds or zero (default) to keep entries
+   *    forever.
+   * @since 2.4
+   */
+  public void setIdleTimeout(long idleTimeout) {
+    if (idleTimeout < 0) {
+      throw new IllegalArgumentException("Idle timeout must not be negative: "+idleTimeout);
+    }
+    this.idleTimeout = idleTimeout * SnmpConstants.MILLISECOND_TO_NANOSECOND;
+  }
+
+  /**
+   * Removes all time entries that have not been accessed within the idle
+   * timeout.
+   * @return
+   *    the number of removed entries.
+   * @since 2.4
+   */
+  public int removeIdleEntries() {
+    return removeIdleEntries(System.nanoTime());
+  }
+
+  private int removeIdleEntries(long now) {
+    long timeout = idleTimeout;
+    if (timeout <= 0) {
+      return 0;
+    }
+    int removed = 0;
+    for (Iterator<UsmTimeEntry> it = table.values().iterator(); it.hasNext(); ) {
+      UsmTimeEntry entry = it.next();
+      if (now - entry.getLastAccess() > timeout) {
+        it.remove();
+        removed++;
+      }
+    }
+    if ((removed > 0) && logger.isDebugEnabled()) {
+      logger.debug("Removed {} idle time entries, {} entries left", removed, table.size());
+    }
+    return removed;
+  }
+
+  private void sweepIdleEntries(long now) {
+    long timeout = idleTimeout;
+    if (timeout > 0) {
+      long next = nextSweep.get();
+      if ((now - next >= 0) &&
+          nextSweep.compareAndSet(next, now + Math.max(timeout / 4, TIME_PRECISION))) {
+        removeIdleEntries(now);
+      }
+    }
+  }
+
+  public int checkEngineID(OctetString engineID,
+                           boolean discoveryAllowed) {
+    long now = System.nanoTime();
+    UsmTimeEntry entry = table.get(engineID);
+    if (entry != null) {
+      entry.touch(now);
       return SnmpConstants.SNMPv3_USM_OK;
     }
     else if (discoveryAllowed) {
-      addEntry(new UsmTimeEntry(engineID, 0, 0));
+      OctetString key = new OctetString(engineID.getValue());
+      table.putIfAbsent(key, new UsmTimeEntry(key, 0, 0));
+      sweepIdleEntries(now);
       return SnmpConstants.SNMPv3_USM_OK;
     }
     return SnmpConstants.SNMPv3_USM_UNKNOWN_ENGINEID;
   }
 
-  public synchronized int checkTime(final UsmTimeEntry entry) {
-    int now = (int) (System.nanoTime() / TIME_PRECISION);
-    if (localTime.getEngineID().equals(entry.getEngineID())) {
+  public int checkTime(final UsmTimeEntry entry) {
+    return checkTime(entry.getEngineID(), entry.getEngineBoots(), entry.getLatestReceivedTime());
+  }
+
+  /**
+   * Checks whether a message with the supplied engine boots and time of the
+   * authoritative engine is within the time window as defined by
+   * RFC 3414 &sect;3.2.7 and updates the cached time of a non authoritative
+   * engine.
+   *
+   * @param engineID
+   *    the authoritative engine ID of the message.
+   * @param engineBoots
+   *    the msgAuthoritativeEngineBoots of the message.
+   * @param engineTime
+   *    the msgAuthoritativeEngineTime of the message.
+   * @return
+   *    {@link SnmpConstants#SNMPv3_USM_OK},
+   *    {@link SnmpConstants#SNMPv3_USM_NOT_IN_TIME_WINDOW}, or
+   *    {@link SnmpConstants#SNMPv3_USM_UNKNOWN_ENGINEID}.
+   * @since 2.4
+   */
+  public int checkTime(OctetString engineID, int engineBoots, int engineTime) {
+    long nanoTime = System.nanoTime();
+    int now = (int) (nanoTime / TIME_PRECISION);
+    UsmTimeEntry local = localTime;
+    if (local.getEngineID().equals(engineID)) {
+      UsmTimeEntry.TimeState localState = local.getTimeState();
       /* Entry found, we are authoritative */
-      if ((localTime.getEngineBoots() == 2147483647) ||
-          (localTime.getEngineBoots() != entry.getEngineBoots()) ||
-          (Math.abs(now + localTime.getTimeDiff() - entry.getLatestReceivedTime())
-           > 150)) {
+      if ((localState.getEngineBoots() == MAX_ENGINE_BOOTS) ||
+          (localState.getEngineBoots() != engineBoots) ||
+          (Math.abs(now + localState.getTimeDiff() - engineTime)
+           > TIME_WINDOW)) {
         if (logger.isDebugEnabled()) {
-          logger.debug("CheckTime: received message outside time window (authoritative):{}", (localTime.getEngineBoots() !=
-              entry.getEngineBoots()) ? "engineBoots differ " + localTime.getEngineBoots() + "!=" + entry.getEngineBoots() :
-              "" + (Math.abs(now + localTime.getTimeDiff() -
-                  entry.getLatestReceivedTime())) + " > 150");
+          logger.debug("CheckTime: received message outside time window (authoritative):{}",
+              (localState.getEngineBoots() != engineBoots) ?
+                  "engineBoots differ " + localState.getEngineBoots() + "!=" + engineBoots :
+                  "" + (Math.abs(now + localState.getTimeDiff() - engineTime)) + " > " + TIME_WINDOW);
         }
         return SnmpConstants.SNMPv3_USM_NOT_IN_TIME_WINDOW;
       }
@@ -167,24 +352,34 @@ public class UsmTimeTable implements Serializable {
       }
     }
     else {
-      UsmTimeEntry time = table.get(entry.getEngineID());
+      UsmTimeEntry time = table.get(engineID);
       if (time == null) {
         return SnmpConstants.SNMPv3_USM_UNKNOWN_ENGINEID;
       }
-      // RFC 3414 section 3.2.7 b) 1):
-      if ((entry.getEngineBoots() > time.getEngineBoots()) ||
-          ((entry.getEngineBoots() == time.getEngineBoots()) &&
-           (entry.getLatestReceivedTime() > time.getLatestReceivedTime()))) {
+      time.touch(nanoTime);
+      UsmTimeEntry.TimeState current;
+      while (true) {
+        current = time.getTimeState();
+        // RFC 3414 section 3.2.7 b) 1):
+        if ((engineBoots > current.getEngineBoots()) ||
+            ((engineBoots == current.getEngineBoots()) &&
+             (engineTime > current.getLatestReceivedTime()))) {
           /* time ok, update values */
-        time.setEngineBoots(entry.getEngineBoots());
-        time.setLatestReceivedTime(entry.getLatestReceivedTime());
-        time.setTimeDiff(entry.getLatestReceivedTime() - now);
+          UsmTimeEntry.TimeState updated =
+              new UsmTimeEntry.TimeState(engineBoots, engineTime - now, engineTime);
+          if (!time.compareAndSetTimeState(current, updated)) {
+            // concurrently updated, check again
+            continue;
+          }
+          current = updated;
+        }
+        break;
       }
       // RFC 3414 section 3.2.7 b) 2):
-      if ((entry.getEngineBoots() < time.getEngineBoots()) ||
-          ((entry.getEngineBoots() == time.getEngineBoots()) &&
-           (time.getLatestReceivedTime() > entry.getLatestReceivedTime() + 150)) ||
-          (time.getEngineBoots() == 2147483647)) {
+      if ((engineBoots < current.getEngineBoots()) ||
+          ((engineBoots == current.getEngineBoots()) &&
+           (current.getLatestReceivedTime() > engineTime + TIME_WINDOW)) ||
+          (current.getEngineBoots() == MAX_ENGINE_BOOTS)) {
         if (logger.isDebugEnabled()) {
           logger.debug(
               "CheckTime: received message outside time window (non authoritative)");
@@ -199,4 +394,27 @@ public class UsmTimeTable implements Serializable {
       }
     }
   }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("table", new Hashtable<Variable, UsmTimeEntry>(table));
+    fields.put("lastLocalTimeChange", lastLocalTimeChange);
+    fields.put("localTime", localTime);
+    out.writeFields();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    table = new ConcurrentHashMap<>(16);
+    Hashtable<Variable, UsmTimeEntry> entries = (Hashtable<Variable, UsmTimeEntry>) fields.get("table", null);
+    if (entries != null) {
+      for (UsmTimeEntry entry : entries.values()) {
+        table.put(entry.getEngineID(), entry);
+      }
+    }
+    lastLocalTimeChange = fields.get("lastLocalTimeChange", System.nanoTime());
+    localTime = (UsmTimeEntry) fields.get("localTime", null);
+    nextSweep = new AtomicLong(System.nanoTime());
+  }
 }
@@ -23,16 +23,28 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.snmp4j.smi.OctetString;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
  * The <code>UsmUserTable</code> class stores USM user
  * information as part of the Local Configuration Datastore (LCD).
+ * <p>
+ * Users are indexed by engine ID and security name with nested hash maps,
+ * so that {@link #getUser(OctetString, OctetString)} does not need to
+ * allocate a key. A secondary index by security name serves the lookups and
+ * removals of all entries of a user. Read operations do not lock and scale
+ * with the number of concurrent readers, modifications are serialized.
+ * </p>
  *
  * @author Frank Fock
- * @version 1.1
+ * @version 2.4
  */
 public class UsmUserTable implements Serializable {
 
@@ -40,7 +52,17 @@ public class UsmUserTable implements Serializable {
 
   private static final Logger logger = LoggerFactory.getLogger(UsmUserTable.class);
 
-  private Map<UsmUserKey, UsmUserEntry> table = new TreeMap<>();
+  private static final OctetString NO_ENGINE_ID = new OctetString();
+
+  /**
+   * The serialized form of SNMP4J 2.3 and before is kept: the users as a
+   * <code>Map</code> of {@link UsmUserKey} to {@link UsmUserEntry}.
+   */
+  private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("table", Map.class)
+  };
+
+  private transient volatile UserIndex index = new UserIndex();
 
   public UsmUserTable() {
   }
@@ -49,17 +71,18 @@ public class UsmUserTable implements Serializable {
     if (logger.isDebugEnabled()) {
       logger.debug("Adding user {} = {}", user.getUserName(), user.getUsmUser());
     }
-    return table.put(new UsmUserKey(user), user);
+    return index.put(user);
   }
 
   public synchronized void setUsers(Collection<UsmUserEntry> c) {
     if (logger.isDebugEnabled()) {
       logger.debug("Setting users to {}", c);
     }
-    table.clear();
+    UserIndex newIndex = new UserIndex();
     for (UsmUserEntry user : c) {
-      table.put(new UsmUserKey(user), user);
+      newIndex.put(user);
     }
+    index = newIndex;
   }
 
   /**
@@ -70,35 +93,51 @@ public class UsmUserTable implements Serializable {
    *    a possibly empty <code>List</code> containing all user entries with
    *    the specified <code>userName</code>.
    */
-  public synchronized List<UsmUserEntry> getUserEntries(OctetString userName) {
-    LinkedList<UsmUserEntry> users = new LinkedList<>();
-    for (UsmUserEntry value : table.values()) {
+  @SuppressWarnings("unchecked")
+  public List<UsmUserEntry> getUserEntries(OctetString userName) {
+    UserIndex current = index;
+    List<UsmUserEntry> users = new ArrayList<>();
+    Map<OctetString, UsmUserEntry> entries = current.bySecurityName.get(userName);
+    if (entries != null) {
+      for (UsmUserEntry value : entries.values()) {
+        if (userName.equals(value.getUserName())) {
+          users.add(value);
+        }
+      }
+    }
+    for (UsmUserEntry value : current.renamedEntries.keySet()) {
       if (userName.equals(value.getUserName())) {
         users.add(value);
       }
     }
+    Collections.sort((List)users);
     if (logger.isDebugEnabled()) {
       logger.debug("Returning user entries for {} = {}", userName, users);
     }
     return users;
   }
 
-  public synchronized List<UsmUserEntry> getUserEntries() {
-    LinkedList<UsmUserEntry> l = new LinkedList<>();
-    for (UsmUserEntry usmUserEntry : table.values()) {
-      l.add(usmUserEntry);
+  @SuppressWarnings("unchecked")
+  public List<UsmUserEntry> getUserEntries() {
+    List<UsmUserEntry> l = new ArrayList<>();
+    for (Map<OctetString, UsmUserEntry> entries : index.byEngineID.values()) {
+      l.addAll(entries.values());
     }
+    Collections.sort((List)l);
     return l;
   }
 
   public synchronized List<UsmUserEntry> removeAllUsers(OctetString securityName, OctetString engineID) {
     if (engineID == null) {
-      List<UsmUserEntry> deleted = new ArrayList<>();
-      for (Iterator<UsmUserEntry> usmUserEntryIterator = table.values().iterator(); usmUserEntryIterator.hasNext(); ) {
-        UsmUserEntry usmUserEntry = usmUserEntryIterator.next();
-        if (securityName.equals(usmUserEntry.getUsmUser().getSecurityName())) {
+      Map<OctetString, UsmUserEntry> entries = index.bySecurityName.get(securityName);
+      if (entries == null) {
+        return new ArrayList<>();
+      }
+      List<UsmUserEntry> deleted = new ArrayList<>(entries.size());
+      for (OctetString userEngineID : new ArrayList<>(entries.keySet())) {
+        UsmUserEntry usmUserEntry = index.remove(userEngineID, securityName);
+        if (usmUserEntry != null) {
           deleted.add(usmUserEntry);
-          usmUserEntryIterator.remove();
           if (logger.isDebugEnabled()) {
             logger.debug("Removed user {}", usmUserEntry);
           }
@@ -106,8 +145,7 @@ public class UsmUserTable implements Serializable {
       }
       return deleted;
     }
-    UsmUserEntry entry =
-        table.remove(new UsmUserKey(engineID, securityName));
+    UsmUserEntry entry = index.remove(engineID, securityName);
     if (logger.isDebugEnabled()) {
       logger.debug("Removed user with secName={} and engineID={}", securityName, engineID);
     }
@@ -116,31 +154,127 @@ public class UsmUserTable implements Serializable {
 
   public synchronized UsmUserEntry removeUser(OctetString engineID,
                                               OctetString securityName) {
-    UsmUserEntry entry =
-            table.remove(new UsmUserKey(engineID, securityName));
+    UsmUserEntry entry = index.remove(engineID, securityName);
     if (logger.isDebugEnabled()) {
       logger.debug("Removed user with secName={} and engineID={}", securityName, engineID);
     }
     return entry;
   }
 
-  public synchronized UsmUserEntry getUser(OctetString engineID,
-                                           OctetString securityName) {
-    return table.get(new UsmUserKey(engineID, securityName));
+  public UsmUserEntry getUser(OctetString engineID,
+                              OctetString securityName) {
+    return index.get(engineID, securityName);
   }
 
-  public synchronized UsmUserEntry getUser(OctetString securityName) {
-    return table.get(new UsmUserKey(new OctetString(), securityName));
+  public UsmUserEntry getUser(OctetString securityName) {
+    return index.get(NO_ENGINE_ID, securityName);
   }
 
   public synchronized void clear() {
-    table.clear();
+    index = new UserIndex();
     if (logger.isDebugEnabled()) {
       logger.debug("Cleared UsmUserTable");
     }
   }
 
-  public static class UsmUserKey implements Comparable {
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    Map<UsmUserKey, UsmUserEntry> table = new TreeMap<>();
+    for (UsmUserEntry entry : getUserEntries()) {
+      table.put(new UsmUserKey(entry), entry);
+    }
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("table", table);
+    out.writeFields();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    UserIndex newIndex = new UserIndex();
+    Map<UsmUserKey, UsmUserEntry> table = (Map<UsmUserKey, UsmUserEntry>) fields.get("table", null);
+    if (table != null) {
+      for (UsmUserEntry entry : table.values()) {
+        newIndex.put(entry);
+      }
+    }
+    index = newIndex;
+  }
+
+  /**
+   * The <code>UserIndex</code> holds the primary index by engine ID and
+   * security name and the secondary index by security name. It is modified
+   * by the synchronized methods of the table only and read without locking.
+   */
+  private static class UserIndex {
+    // engine ID -> security name -> entry
+    private final Map<OctetString, Map<OctetString, UsmUserEntry>> byEngineID =
+        new ConcurrentHashMap<>();
+    // security name -> engine ID -> entry
+    private final Map<OctetString, Map<OctetString, UsmUserEntry>> bySecurityName =
+        new ConcurrentHashMap<>();
+    // entries whose user name differs from their security name
+    private final Map<UsmUserEntry, Boolean> renamedEntries = new ConcurrentHashMap<>();
+
+    UsmUserEntry get(OctetString engineID, OctetString securityName) {
+      Map<OctetString, UsmUserEntry> entries =
+          byEngineID.get((engineID == null) ? NO_ENGINE_ID : engineID);
+      return (entries == null) ? null : entries.get(securityName);
+    }
+
+    UsmUserEntry put(UsmUserEntry user) {
+      OctetString engineID = (user.getEngineID() == null) ? NO_ENGINE_ID : user.getEngineID();
+      OctetString securityName = user.getUsmUser().getSecurityName();
+      Map<OctetString, UsmUserEntry> entries = byEngineID.get(engineID);
+      if (entries == null) {
+        entries = new ConcurrentHashMap<>(2);
+        byEngineID.put(engineID, entries);
+      }
+      UsmUserEntry previous = entries.put(securityName, user);
+      Map<OctetString, UsmUserEntry> engines = bySecurityName.get(securityName);
+      if (engines == null) {
+        engines = new ConcurrentHashMap<>(2);
+        bySecurityName.put(securityName, engines);
+      }
+      engines.put(engineID, user);
+      if (previous != null) {
+        renamedEntries.remove(previous);
+      }
+      if (!securityName.equals(user.getUserName())) {
+        renamedEntries.put(user, Boolean.TRUE);
+      }
+      return previous;
+    }
+
+    UsmUserEntry remove(OctetString engineID, OctetString securityName) {
+      if (engineID == null) {
+        engineID = NO_ENGINE_ID;
+      }
+      Map<OctetString, UsmUserEntry> entries = byEngineID.get(engineID);
+      if (entries == null) {
+        return null;
+      }
+      UsmUserEntry removed = entries.remove(securityName);
+      if (removed != null) {
+        if (entries.isEmpty()) {
+          byEngineID.remove(engineID);
+        }
+        Map<OctetString, UsmUserEntry> engines = bySecurityName.get(securityName);
+        if (engines != null) {
+          engines.remove(engineID);
+          if (engines.isEmpty()) {
+            bySecurityName.remove(securityName);
+          }
+        }
+        renamedEntries.remove(removed);
+      }
+      return removed;
+    }
+  }
+
+  public static class UsmUserKey implements Comparable, Serializable {
+
+    private static final long serialVersionUID = -7946474658520470781L;
+
     OctetString engineID;
     OctetString securityName;
 
@@ -0,0 +1,61 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - DtlsAddress.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+
+package org.snmp4j.smi;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * The <code>DtlsAddress</code> represents a DTLS/UDP transport address as
+ * defined by RFC 6353 for the snmpDTLSUDPDomain. It is the connectionless
+ * counterpart of the {@link TlsAddress}.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ * @since 2.4
+ */
+public class DtlsAddress extends UdpAddress {
+  static final long serialVersionUID = 0L;
+
+  public DtlsAddress() {
+    super();
+  }
+
+  public DtlsAddress(int aPort) {
+    super(aPort);
+  }
+
+  public DtlsAddress(InetSocketAddress address) {
+    super(address);
+  }
+
+  public DtlsAddress(InetAddress anAddress, int aPort) {
+    super(anAddress, aPort);
+  }
+
+  public DtlsAddress(String address) {
+    super(address);
+  }
+
+  public boolean equals(Object o) {
+    return (o instanceof DtlsAddress) && super.equals(o);
+  }
+}
@@ -65,6 +65,12 @@ public class GenericAddress extends SMIAddress {
    */
   public static final String TYPE_TLS = "tls";
 
+  /**
+   * Default address type identifier for a DtlsAddress.
+   * @since 2.4
+   */
+  public static final String TYPE_DTLS = "dtls";
+
   public static final String ADDRESS_TYPES_PROPERTIES =
       "org.snmp4j.addresses";
   private static final String ADDRESS_TYPES_PROPERTIES_DEFAULT =
@@ -188,6 +194,7 @@ public class GenericAddress extends SMIAddress {
       h.put(TYPE_TCP, TcpAddress.class);
       h.put(TYPE_IP, IpAddress.class);
       h.put(TYPE_TLS, TlsAddress.class);
+      h.put(TYPE_DTLS, DtlsAddress.class);
       knownAddressTypes = h;
     }
   }
@@ -196,8 +196,8 @@ public class OctetString extends AbstractVariable
 
   public int hashCode() {
     int hash = 0;
-    for (int i=0; i<value.length; i++) {
-      hash += value[i]*31^((value.length-1)-i);
+    for (byte b : value) {
+      hash = 31 * hash + b;
     }
     return hash;
   }
@@ -0,0 +1,141 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - ByteBufferPool.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+
+package org.snmp4j.transport;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The <code>ByteBufferPool</code> provides byte buffers of a fixed capacity
+ * that are leased by connections only while data is actually transferred.
+ * Buffers returned to the pool are reused by other connections. The number
+ * of idle buffers kept by the pool is limited by {@link #getMaxPoolSize()},
+ * additional buffers are left to the garbage collector.
+ * <p>
+ * This class is thread safe.
+ * </p>
+ *
+ * @author Frank Fock
+ * @version 2.4
+ * @since 2.4
+ */
+public class ByteBufferPool {
+
+  private final ConcurrentLinkedQueue<ByteBuffer> availableBuffers =
+      new ConcurrentLinkedQueue<>();
+  private final AtomicInteger currentPoolSize = new AtomicInteger();
+  private final AtomicInteger leasedBuffers = new AtomicInteger();
+
+  private final int bufferSize;
+  private final int maxPoolSize;
+  private final boolean direct;
+
+  /**
+   * Creates a new byte buffer pool.
+   * @param bufferSize
+   *    the capacity of the buffers provided by this pool.
+   * @param maxPoolSize
+   *    the maximum number of idle buffers kept by the pool.
+   * @param direct
+   *    <code>true</code> to allocate direct buffers, <code>false</code> to
+   *    allocate heap buffers.
+   */
+  public ByteBufferPool(int bufferSize, int maxPoolSize, boolean direct) {
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("Buffer size must be > 0");
+    }
+    if (maxPoolSize < 0) {
+      throw new IllegalArgumentException("Pool size must be >= 0");
+    }
+    this.bufferSize = bufferSize;
+    this.maxPoolSize = maxPoolSize;
+    this.direct = direct;
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  public int getMaxPoolSize() {
+    return maxPoolSize;
+  }
+
+  public boolean isDirect() {
+    return direct;
+  }
+
+  /**
+   * Gets a cleared buffer from the pool or allocates a new one if the pool
+   * is empty. The buffer should be returned by {@link #offerBuffer(ByteBuffer)}
+   * when it does not contain any pending data anymore.
+   * @return
+   *    a cleared buffer with a capacity of {@link #getBufferSize()}.
+   */
+  public ByteBuffer acquireBuffer() {
+    ByteBuffer buffer = availableBuffers.poll();
+    leasedBuffers.incrementAndGet();
+    if (buffer == null) {
+      return (direct) ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+    }
+    currentPoolSize.decrementAndGet();
+    return buffer;
+  }
+
+  /**
+   * Returns a buffer to the pool. Its content is discarded. A buffer must
+   * only be offered to the pool it has been acquired from and only once.
+   * @param buffer
+   *    a buffer previously acquired by {@link #acquireBuffer()}. Buffers of a
+   *    different capacity or kind cannot stem from this pool and are ignored.
+   */
+  public void offerBuffer(ByteBuffer buffer) {
+    if ((buffer.capacity() != bufferSize) || (buffer.isDirect() != direct)) {
+      return;
+    }
+    leasedBuffers.decrementAndGet();
+    if (currentPoolSize.incrementAndGet() <= maxPoolSize) {
+      buffer.clear();
+      availableBuffers.offer(buffer);
+    }
+    else {
+      currentPoolSize.decrementAndGet();
+    }
+  }
+
+  /**
+   * Returns the number of idle buffers in the pool.
+   * @return
+   *    the number of buffers that can be acquired without allocation.
+   */
+  public int getPooledBuffers() {
+    return currentPoolSize.get();
+  }
+
+  /**
+   * Returns the number of buffers acquired and not yet offered back.
+   * @return
+   *    the number of leased buffers.
+   */
+  public int getLeasedBuffers() {
+    return leasedBuffers.get();
+  }
+}
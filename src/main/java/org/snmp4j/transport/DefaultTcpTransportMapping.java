@@ -27,25 +27,41 @@ import org.snmp4j.asn1.BER;
 import org.snmp4j.asn1.BER.MutableByte;
 import org.snmp4j.asn1.BERInputStream;
 import org.snmp4j.concurrent.ControlableRunnable;
+import org.snmp4j.mp.SnmpConstants;
 import org.snmp4j.security.SecurityLevel;
 import org.snmp4j.smi.TcpAddress;
-
 import java.io.IOException;
 import java.net.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The <code>DefaultTcpTransportMapping</code> implements a TCP transport
  * mapping with the Java 1.4 new IO API.
  * <p>
- * It uses a single thread for processing incoming and outgoing messages.
- * The thread is started when the <code>listen</code> method is called, or
+ * It uses a boss/worker thread model: If the server is enabled, a single
+ * acceptor thread accepts incoming connections and distributes them
+ * round-robin across a configurable number of selector threads
+ * (see {@link #setSelectorThreads(int)}). Outgoing connections are
+ * distributed the same way. Each selector thread exclusively owns the
+ * channels assigned to it and performs all connect, read, and write
+ * operations for them. Received messages are dispatched on the selector
+ * thread or, if a dispatch executor is set
+ * (see {@link #setDispatchExecutor(java.util.concurrent.Executor)}),
+ * on that executor.
+ * <p>
+ * The threads are started when the <code>listen</code> method is called, or
  * when an outgoing request is sent using the <code>sendMessage</code> method.
  *
  * @author Frank Fock
- * @version 1.11
+ * @version 2.4
  */
 public class DefaultTcpTransportMapping extends TcpTransportMapping {
   private static final Logger logger =
@@ -53,20 +69,39 @@ public class DefaultTcpTransportMapping extends TcpTransportMapping {
 
   private static final int MIN_SNMP_HEADER_LENGTH = 6;
   private static final long DEFAULT_CONNECTION_MS_TIMEOUT = 60000;
+  private static final int DEFAULT_READ_BUFFER_SIZE = 65536;
+  /**
+   * The maximum number of messages written with a single gathering write.
+   * @since 2.4
+   */
+  public static final int MAX_GATHERING_WRITE_BUFFERS = 64;
+  private static final long MIN_IDLE_CHECK_INTERVAL_MS = 100;
 
   private Thread listenerThread;
   private SocketListener socketListener;
-  private final Selector selector;
+  private SelectorWorker[] selectorWorkers;
+  private final AtomicInteger nextSelectorWorker = new AtomicInteger();
+  private int selectorThreads = 1;
+  private volatile Executor dispatchExecutor;
 
-  private final Map<SocketAddress, SelectionKey> keys;
+  private final Map<SocketAddress, SocketEntry> sockets;
 
   // 1 minute default timeout
-  private long connectionTimeout = DEFAULT_CONNECTION_MS_TIMEOUT;
+  private volatile long connectionTimeout = DEFAULT_CONNECTION_MS_TIMEOUT;
   private final boolean serverEnabled;
 
   private MessageLengthDecoder messageLengthDecoder =
       new SnmpMesssageLengthDecoder();
 
+  private int readBufferSize = DEFAULT_READ_BUFFER_SIZE;
+  private boolean directBuffers;
+  private volatile int maxConnections = 0;
+  private volatile long maxQueuedBytes = 0;
+
+  private final AtomicLong connectionsOpened = new AtomicLong();
+  private final AtomicLong connectionsReaped = new AtomicLong();
+  private final AtomicLong connectionsEvicted = new AtomicLong();
+
   /**
    * Creates a default TCP transport mapping with the server for incoming
    * messages disabled.
@@ -91,37 +126,83 @@ public class DefaultTcpTransportMapping extends TcpTransportMapping {
     super(serverAddress);
 
     serverEnabled = enableServer;
-    keys = new Hashtable<>();
-
-    // Selector for incoming requests
-    selector = Selector.open();
+    sockets = new ConcurrentHashMap<>();
   }
 
   /**
    * Listen for incoming and outgoing requests. If the <code>serverEnabled</code>
    * member is <code>false</code> the server for incoming requests is not
-   * started. This starts the internal server thread that processes messages.
+   * started. This starts the internal selector threads that process messages
+   * and, if the server is enabled, the acceptor thread.
    * @throws SocketException
    *    when the transport is already listening for incoming/outgoing messages.
    * @throws IOException
    */
   @Override
   public synchronized void listen() throws IOException {
-    if (listenerThread == null) {
-      socketListener = new SocketListener(getListenAddress().toSocketAddress());
-      listenerThread = SNMP4JSettings.getThreadFactory().newThread(socketListener);
-      listenerThread.start();
+    if (selectorWorkers == null) {
+      SelectorWorker[] workers = new SelectorWorker[selectorThreads];
+      SocketListener listener = null;
+      try {
+        for (int i=0; i<workers.length; i++) {
+          workers[i] = new SelectorWorker(i);
+        }
+        if (serverEnabled) {
+          listener = new SocketListener(getListenAddress().toSocketAddress());
+        }
+      }
+      catch (IOException iox) {
+        for (SelectorWorker worker : workers) {
+          if (worker != null) {
+            worker.closeSelector();
+          }
+        }
+        throw iox;
+      }
+      selectorWorkers = workers;
+      for (SelectorWorker worker : workers) {
+        SNMP4JSettings.getThreadFactory().newThread(worker).start();
+      }
+      if (listener != null) {
+        socketListener = listener;
+        listenerThread = SNMP4JSettings.getThreadFactory().newThread(listener);
+        listenerThread.start();
+      }
     }
 
-    logger.info("Now listening with {}", socketListener);
+    logger.info("Now listening with {} selector thread(s) and {}",
+                selectorWorkers.length, socketListener);
   }
 
   /**
-   * Closes all open sockets and stops the internal server thread that
-   * processes messages.
+   * Closes all open sockets and stops the internal threads that
+   * process messages.
    */
   @Override
   public void close() {
+    SocketListener listener;
+    SelectorWorker[] workers;
+    synchronized (this) {
+      listener = socketListener;
+      workers = selectorWorkers;
+      socketListener = null;
+      listenerThread = null;
+      selectorWorkers = null;
+    }
+    if (listener != null) {
+      listener.askToStop();
+      listener.selector.wakeup();
+    }
+    if (workers != null) {
+      logger.info("Close requested for {}", this);
+      for (SelectorWorker worker : workers) {
+        worker.askToStop();
+        worker.selector.wakeup();
+      }
+    }
+    for (SocketEntry entry : new ArrayList<>(sockets.values())) {
+      close(entry);
+    }
   }
 
   /**
@@ -139,38 +220,41 @@ public class DefaultTcpTransportMapping extends TcpTransportMapping {
    * @since 1.7.1
    */
   @Override
-  public synchronized boolean close(TcpAddress remoteAddress) {
-    close(remoteAddress.toSocketAddress());
+  public boolean close(TcpAddress remoteAddress) {
+    SocketEntry entry = sockets.get(remoteAddress.toSocketAddress());
+    if (entry == null) {
+      return false;
+    }
+    close(entry);
     return true;
   }
 
-  private void close(InetSocketAddress socketAddress) {
-    SelectionKey key = keys.get(socketAddress);
-    close(key);
-  }
-
-  private void close(SelectionKey key) {
-    SocketAddress remoteAddress = getEntry(key).remoteAddress;
+  private void close(SocketEntry entry) {
+    SocketAddress remoteAddress = entry.remoteAddress;
     logger.debug("Closing socket to {}", remoteAddress);
+    entry.markClosed();
 
     try {
-      keys.remove(remoteAddress);
+      sockets.remove(remoteAddress, entry);
 
-      key.cancel();
-      key.channel().close();
+      SelectionKey key = entry.key;
+      if (key != null) {
+        key.cancel();
+      }
+      entry.channel.close();
     } catch (IOException e) {
       logger.error("Encountered an I/O error when attempting to close socket to {}", remoteAddress, e);
     }
   }
 
-  private void close(SelectionKey key, IOException cause) {
-    logger.error("Closing {} due to a {} being thrown during its operation", key, cause, cause);
+  private void close(SocketEntry entry, IOException cause) {
+    logger.error("Closing {} due to a {} being thrown during its operation", entry, cause, cause);
 
-    close(key);
+    close(entry);
 
     TransportStateEvent e =
         new TransportStateEvent(DefaultTcpTransportMapping.this,
-            new TcpAddress(getEntry(key).remoteAddress),
+            new TcpAddress(entry.remoteAddress),
             TransportStateEvent.TransportStates.DISCONNECTED_REMOTELY,
             cause);
 
@@ -202,10 +286,26 @@ public class DefaultTcpTransportMapping extends TcpTransportMapping {
     sendMessage(socketAddress, bufferMessage);
   }
 
+  /**
+   * Queues a message for sending to the supplied address. This method may
+   * be called concurrently by any number of threads.
+   * @param remoteAddress
+   *    the address of the peer.
+   * @param message
+   *    the message to send. The buffer must not be modified afterwards.
+   * @throws MessageQueueFullException
+   *    if the maximum number of queued bytes for the peer would be exceeded.
+   * @throws IOException
+   *    if the connection to the peer cannot be opened.
+   */
   public void sendMessage(InetSocketAddress remoteAddress, ByteBuffer message) throws IOException {
     logger.debug("Adding message of length {} to send queue for {}", message.remaining(), remoteAddress);
-    getEntry(remoteAddress).addMessage(message);
-    selector.wakeup();
+    SocketEntry entry = getEntry(remoteAddress);
+    while (!entry.addMessage(message)) {
+      // closed (reaped or evicted) after the lookup, open a new connection
+      sockets.remove(remoteAddress, entry);
+      entry = getEntry(remoteAddress);
+    }
   }
 
   /**
@@ -220,7 +320,10 @@ public class DefaultTcpTransportMapping extends TcpTransportMapping {
 
   /**
    * Sets the connection timeout. This timeout specifies the time a connection
-   * may be idle before it is closed.
+   * may be idle before it is closed. Idle connections are detected by the
+   * selector threads, which check their connections at an interval of a
+   * quarter of the timeout (but not more often than every 100ms). Thus, a connection
+   * may stay open up to 25% longer than the timeout.
    * @param connectionTimeout
    *    the idle timeout in milliseconds. A zero or negative value will disable
    *    any timeout and connections opened by this transport mapping will stay
@@ -229,6 +332,124 @@ public class DefaultTcpTransportMapping extends TcpTransportMapping {
   @Override
   public void setConnectionTimeout(long connectionTimeout) {
     this.connectionTimeout = connectionTimeout;
+    SelectorWorker[] workers = selectorWorkers;
+    if (workers != null) {
+      for (SelectorWorker worker : workers) {
+        worker.selector.wakeup();
+      }
+    }
+  }
+
+  /**
+   * Gets the maximum number of open connections.
+   * @return
+   *    the maximum number of connections or zero if unlimited.
+   * @since 2.4
+   */
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  /**
+   * Sets the maximum number of open connections. When a new connection is
+   * opened or accepted while the maximum is reached, the least recently used
+   * connection is closed (evicted) first and a
+   * {@link TransportStateEvent.TransportStates#CLOSED} event is fired for it.
+   * Connections with unsent messages are not evicted, thus the maximum may
+   * be exceeded temporarily while all connections are busy.
+   * @param maxConnections
+   *    the maximum number of connections or zero (default) for no limit.
+   * @since 2.4
+   */
+  public void setMaxConnections(int maxConnections) {
+    if (maxConnections < 0) {
+      throw new IllegalArgumentException("Maximum number of connections must "+
+                                         "not be negative: "+maxConnections);
+    }
+    this.maxConnections = maxConnections;
+  }
+
+  /**
+   * Gets the maximum number of bytes that may be queued for sending
+   * to a single peer.
+   * @return
+   *    the maximum number of unsent bytes per connection or zero if
+   *    unlimited.
+   * @since 2.4
+   */
+  public long getMaxQueuedBytes() {
+    return maxQueuedBytes;
+  }
+
+  /**
+   * Sets the maximum number of bytes that may be queued for sending to a
+   * single peer. When a peer does not read its messages fast enough and its
+   * queue would exceed this limit, {@link #sendMessage} throws a
+   * {@link MessageQueueFullException} instead of queuing the message.
+   * @param maxQueuedBytes
+   *    the maximum number of unsent bytes per connection or zero (default)
+   *    for no limit.
+   * @since 2.4
+   */
+  public void setMaxQueuedBytes(long maxQueuedBytes) {
+    this.maxQueuedBytes = maxQueuedBytes;
+  }
+
+  /**
+   * Gets the number of bytes queued for sending to the given peer.
+   * @param remoteAddress
+   *    the address of the peer.
+   * @return
+   *    the number of unsent bytes or zero if there is no connection to the
+   *    peer.
+   * @since 2.4
+   */
+  public long getQueuedBytes(TcpAddress remoteAddress) {
+    SocketEntry entry = sockets.get(remoteAddress.toSocketAddress());
+    return (entry == null) ? 0 : Math.max(0, entry.queuedBytes.get());
+  }
+
+  /**
+   * Gets the number of currently open connections.
+   * @return
+   *    the number of open (or opening) connections.
+   * @since 2.4
+   */
+  public int getNumOpenConnections() {
+    return sockets.size();
+  }
+
+  /**
+   * Gets the total number of connections opened or accepted by this
+   * transport mapping.
+   * @return
+   *    the number of connections opened since creation.
+   * @since 2.4
+   */
+  public long getNumConnectionsOpened() {
+    return connectionsOpened.get();
+  }
+
+  /**
+   * Gets the total number of connections closed because they were idle
+   * longer than the connection timeout.
+   * @return
+   *    the number of reaped connections.
+   * @since 2.4
+   */
+  public long getNumConnectionsReaped() {
+    return connectionsReaped.get();
+  }
+
+  /**
+   * Gets the total number of connections closed to stay within the maximum
+   * number of connections.
+   * @return
+   *    the number of evicted connections.
+   * @since 2.4
+   */
+  public long getNumConnectionsEvicted() {
+    return connectionsEvicted.get();
   }
 
   /**
@@ -268,9 +489,115 @@ public class DefaultTcpTransportMapping extends TcpTransportMapping {
     this.maxInboundMessageSize = maxInboundMessageSize;
   }
 
+  /**
+   * Gets the size of the per connection read buffer.
+   * @return
+   *    the read buffer size in bytes.
+   * @since 2.4
+   */
+  public int getReadBufferSize() {
+    return readBufferSize;
+  }
+
+  /**
+   * Sets the size of the per connection read buffer. Incoming data is read
+   * in chunks of up to this size and all complete messages in a chunk are
+   * dispatched without copying them. The effective buffer size is never
+   * smaller than the maximum inbound message size. The new value applies to
+   * connections established after this call.
+   * @param readBufferSize
+   *    the read buffer size in bytes (default is 65536).
+   * @since 2.4
+   */
+  public void setReadBufferSize(int readBufferSize) {
+    if (readBufferSize <= 0) {
+      throw new IllegalArgumentException("Read buffer size must be positive: "+
+                                         readBufferSize);
+    }
+    this.readBufferSize = readBufferSize;
+  }
+
+  /**
+   * Checks whether direct byte buffers are used for reading from connections.
+   * @return
+   *    <code>true</code> if direct buffers are used.
+   * @since 2.4
+   */
+  public boolean isDirectBuffers() {
+    return directBuffers;
+  }
+
+  /**
+   * Sets whether direct byte buffers are allocated as read buffers. Direct
+   * buffers avoid an additional copy between the socket and the Java heap,
+   * but are more expensive to allocate. The new value applies to
+   * connections established after this call.
+   * @param directBuffers
+   *    <code>true</code> to use direct buffers, <code>false</code> (default)
+   *    to use heap buffers.
+   * @since 2.4
+   */
+  public void setDirectBuffers(boolean directBuffers) {
+    this.directBuffers = directBuffers;
+  }
+
+  /**
+   * Gets the number of selector threads.
+   * @return
+   *    the number of threads that perform I/O on established connections.
+   * @since 2.4
+   */
+  public int getSelectorThreads() {
+    return selectorThreads;
+  }
+
+  /**
+   * Sets the number of selector threads that perform connect, read, and
+   * write operations. Each connection is assigned to exactly one selector
+   * thread (round-robin). To use all cores of a manager holding many
+   * connections, set this to the number of available processors. The new
+   * value takes effect with the next call of {@link #listen()}.
+   * @param selectorThreads
+   *    the number of selector threads (default is 1).
+   * @since 2.4
+   */
+  public void setSelectorThreads(int selectorThreads) {
+    if (selectorThreads <= 0) {
+      throw new IllegalArgumentException("Number of selector threads must be "+
+                                         "positive: "+selectorThreads);
+    }
+    this.selectorThreads = selectorThreads;
+  }
+
+  /**
+   * Gets the executor that dispatches received messages.
+   * @return
+   *    the dispatch executor or <code>null</code> if messages are dispatched
+   *    on the selector threads.
+   * @since 2.4
+   */
+  public Executor getDispatchExecutor() {
+    return dispatchExecutor;
+  }
+
+  /**
+   * Sets an executor that decodes and dispatches received messages instead
+   * of the selector thread that read them. This keeps the selector threads
+   * free for I/O when message processing is expensive. Messages handed off
+   * to the executor are copied out of the read buffer and messages of
+   * the same connection may then be processed out of order.
+   * @param dispatchExecutor
+   *    an executor or <code>null</code> (default) to dispatch messages on
+   *    the selector threads.
+   * @since 2.4
+   */
+  public void setDispatchExecutor(Executor dispatchExecutor) {
+    this.dispatchExecutor = dispatchExecutor;
+  }
+
   @Override
-  public boolean isListening() {
-    return (listenerThread != null);
+  public synchronized boolean isListening() {
+    return (selectorWorkers != null);
   }
 
   public static class SnmpMesssageLengthDecoder implements MessageLengthDecoder {
@@ -282,53 +609,45 @@ public class DefaultTcpTransportMapping extends TcpTransportMapping {
     public MessageLength getMessageLength(ByteBuffer buf) throws IOException {
       MutableByte type = new MutableByte();
       BERInputStream is = new BERInputStream(buf);
-      int ml = BER.decodeHeader(is, type);
+      // only the header may be available, thus do not check the length
+      int ml = BER.decodeHeader(is, type, false);
       int hl = (int)is.getPosition();
       return new MessageLength(hl, ml);
     }
   }
 
-  private void readMessage(SocketEntry entry, SelectionKey key, SocketChannel readChannel) throws IOException {
-    ByteBuffer inputBuffer = entry.inputBuffer;
-    long iterationBytesRead;
+
+  private void readMessage(SocketEntry entry, SocketChannel readChannel) throws IOException {
+    MessageFramer framer = entry.framer;
+    List<ByteBuffer> messages = entry.framedMessages;
+    int iterationBytesRead;
 
     SocketAddress remoteAddress = entry.remoteAddress;
 
     // Continue reading from the channel until there is nothing more to read.
-    // It is a non blocking operation so it will just return with a value
-    // equal to or bellow 0 if there is nothing to read
-    while ((iterationBytesRead = readChannel.read(inputBuffer)) > 0) {
+    // Each read fills the connection's input buffer as far as possible and
+    // all complete messages in it are dispatched as slices of that buffer
+    // without copying. It is a non blocking operation so it will just return
+    // with a value equal to or bellow 0 if there is nothing to read
+    while ((iterationBytesRead = framer.read(readChannel, messages)) > 0) {
       logger.debug("Read {} bytes from {}", iterationBytesRead, remoteAddress);
-
-      if (inputBuffer.position() == messageLengthDecoder.getMinHeaderLength()) {
-        // If we have read a complete header decode the message length and
-        // do stuff with it
-        MessageLength messageLength = messageLengthDecoder.getMessageLength(inputBuffer);
-        logger.debug("Message from {} will be {} bytes", remoteAddress, messageLength);
-
-        if ((messageLength.getMessageLength() > getMaxInboundMessageSize()) ||
-            (messageLength.getMessageLength() <= 0)) {
-          throw new MalformedMessageException("Message from {} has invalid length (0 <= " + messageLength.getMessageLength() + " < " + getMaxInboundMessageSize() + ")");
+      entry.used();
+      try {
+        for (ByteBuffer messageBuffer : messages) {
+          logger.debug("Received a full message of length {} from {}",
+              messageBuffer.limit(), remoteAddress);
+          dispatchMessage(entry, messageBuffer);
         }
-
-        // Update the buffers limit so we don't read past the message
-        inputBuffer.limit(messageLength.getMessageLength());
-      } else if (!inputBuffer.hasRemaining()) {
-        // If we have read to the limit of the buffer we have read a full
-        // message so now we need to dispatch the mssage and reset this
-        // connections input buffer so we can read the next message.
-        logger.debug("Received a full message of length {} from {}", inputBuffer.position(), remoteAddress);
-
-        ByteBuffer messageBuffer = entry.copyMessage();
-        entry.resetInputBuffer();
-
-        dispatchMessage(entry, messageBuffer);
+      }
+      finally {
+        // slices are invalid after the next read
+        messages.clear();
       }
     }
 
     if (iterationBytesRead < 0) {
       logger.debug("Reached end-of-stream with {}", remoteAddress);
-      close(key);
+      close(entry);
 
       TransportStateEvent e =
           new TransportStateEvent(DefaultTcpTransportMapping.this,
@@ -340,56 +659,172 @@ public class DefaultTcpTransportMapping extends TcpTransportMapping {
     }
   }
 
+  /**
+   * Writes the queued messages to the channel with gathering writes of up to
+   * {@link #MAX_GATHERING_WRITE_BUFFERS} messages each, until all messages
+   * are written or the socket send buffer is full. Completely written
+   * messages are removed from the queue. The queue must have a single
+   * consumer, i.e. only the calling thread may remove messages from it.
+   * @param messages
+   *    the queue of outgoing messages.
+   * @param channel
+   *    the (non-blocking) channel to write to.
+   * @return
+   *    the number of bytes written.
+   * @throws IOException
+   *    if writing fails.
+   */
+  public long writeMessages(final Queue<ByteBuffer> messages, SocketChannel channel) throws IOException {
+    ByteBuffer[] buffers = new ByteBuffer[MAX_GATHERING_WRITE_BUFFERS];
+    long totalBytes = 0;
+
+    while (true) {
+      int count = 0;
+      for (Iterator<ByteBuffer> it = messages.iterator();
+           it.hasNext() && (count < buffers.length); count++) {
+        buffers[count] = it.next();
+      }
+      if (count == 0) {
+        return totalBytes;
+      }
+      long writtenBytes = channel.write(buffers, 0, count);
+      totalBytes += writtenBytes;
+      logger.debug("Wrote {} bytes of {} message(s) to {}", writtenBytes, count, channel);
+
+      for (int i=0; i<count; i++) {
+        if (buffers[i].hasRemaining()) {
+          // socket send buffer is full, continue when writable again
+          return totalBytes;
+        }
+        messages.poll();
+      }
+    }
+  }
+
+  /**
+   * Writes the queued messages to the channel until all messages are written
+   * or the socket send buffer is full.
+   * @param messages
+   *    the queue of outgoing messages.
+   * @param channel
+   *    the (non-blocking) channel to write to.
+   * @throws IOException
+   *    if writing fails.
+   * @deprecated
+   *    Use {@link #writeMessages(Queue, SocketChannel)} instead.
+   */
+  @Deprecated
   public void writeMessages(final ArrayDeque<ByteBuffer> messages, SocketChannel channel) throws IOException {
-    ByteBuffer nextBuffer = messages.peek();
-    int writtenBytes;
+    writeMessages((Queue<ByteBuffer>) messages, channel);
+  }
 
-    while ((writtenBytes = channel.write(nextBuffer)) > 0) {
-      if (!nextBuffer.hasRemaining()) {
-        messages.pop();
-        nextBuffer = messages.peek();
+  private SocketEntry getEntry(InetSocketAddress remoteAddress) throws IOException {
+    SocketEntry entry = sockets.get(remoteAddress);
+    if ((entry == null) || entry.isClosed()) {
+      synchronized (sockets) {
+        entry = sockets.get(remoteAddress);
+        if ((entry != null) && entry.isClosed()) {
+          sockets.remove(remoteAddress, entry);
+          entry = null;
+        }
+        if (entry == null) {
+          entry = connect(remoteAddress);
+        }
       }
-
-      logger.debug("Wrote {} bytes to {}", writtenBytes, channel);
     }
+    return entry;
   }
 
-  private SelectionKey getSelectionKey(InetSocketAddress remoteAddress) throws IOException {
-    SelectionKey key = keys.get(remoteAddress);
-
-    if (key == null) {
-      // Open the channel, set it to non-blocking, initiate connect
-      SocketChannel sc = SocketChannel.open();
-      key = configureChannel(sc);
+  private SocketEntry connect(InetSocketAddress remoteAddress) throws IOException {
+    evictConnections();
+    SelectorWorker worker = nextSelectorWorker();
+    // Open the channel, set it to non-blocking, initiate connect
+    SocketChannel sc = SocketChannel.open();
+    try {
+      sc.configureBlocking(false);
       sc.connect(remoteAddress);
     }
-
-    return key;
+    catch (IOException iox) {
+      sc.close();
+      throw iox;
+    }
+    SocketEntry entry = new SocketEntry(remoteAddress, sc, worker);
+    // a failed registration closes the entry, which must then find it here
+    sockets.put(remoteAddress, entry);
+    worker.register(entry);
+    connectionsOpened.incrementAndGet();
+    return entry;
   }
 
-  private SocketEntry getEntry(SelectionKey key) {
-    return (SocketEntry) key.attachment();
+  /**
+   * Closes the least recently used connections until a new connection can
+   * be opened without exceeding the maximum number of connections.
+   * Connections with messages waiting to be sent are not evicted, thus the
+   * maximum may be exceeded while all connections are busy.
+   */
+  private void evictConnections() {
+    int max = maxConnections;
+    List<SocketEntry> busy = null;
+    while ((max > 0) && (sockets.size() >= max)) {
+      SocketEntry lru = null;
+      for (SocketEntry entry : sockets.values()) {
+        if (((lru == null) || (entry.lastUse - lru.lastUse < 0)) &&
+            ((busy == null) || !busy.contains(entry))) {
+          lru = entry;
+        }
+      }
+      if (lru == null) {
+        logger.debug("All {} connections are busy, none evicted", sockets.size());
+        return;
+      }
+      if (!lru.closeIfIdle()) {
+        if (busy == null) {
+          busy = new ArrayList<>();
+        }
+        busy.add(lru);
+        continue;
+      }
+      logger.info("Evicting least recently used connection to {} (max connections {})",
+                  lru.remoteAddress, max);
+      connectionsEvicted.incrementAndGet();
+      close(lru);
+      fireConnectionStateChanged(
+          new TransportStateEvent(DefaultTcpTransportMapping.this,
+              new TcpAddress(lru.remoteAddress),
+              TransportStateEvent.TransportStates.CLOSED,
+              null));
+    }
   }
 
-  private SocketEntry getEntry(InetSocketAddress remoteAddress) throws IOException {
-    return getEntry(getSelectionKey(remoteAddress));
+  private SelectorWorker nextSelectorWorker() throws IOException {
+    SelectorWorker[] workers;
+    synchronized (this) {
+      if (selectorWorkers == null) {
+        listen();
+      }
+      workers = selectorWorkers;
+    }
+    int index = (nextSelectorWorker.getAndIncrement() & Integer.MAX_VALUE);
+    return workers[index % workers.length];
   }
 
-  private SelectionKey configureChannel(SocketChannel s) throws IOException {
-    s.configureBlocking(false);
-    SelectionKey key = s.register(selector,
-        SelectionKey.OP_CONNECT |
-            SelectionKey.OP_READ |
-            SelectionKey.OP_WRITE);
-
-    SocketEntry entry = new SocketEntry((InetSocketAddress) s.getRemoteAddress());
-    key.attach(entry);
-
-    return key;
+  private void dispatchMessage(final SocketEntry entry,
+                               ByteBuffer messageBuffer) {
+    Executor executor = dispatchExecutor;
+    if (executor == null) {
+      processMessage(entry, messageBuffer);
+    }
+    else {
+      // the message is a slice of the read buffer, which will be overwritten
+      // by the next read
+      final ByteBuffer message = ByteBuffer.allocate(messageBuffer.remaining());
+      message.put(messageBuffer);
+      message.flip();
+      executor.execute(() -> processMessage(entry, message));
+    }
   }
 
-  private void dispatchMessage(SocketEntry entry,
-                               ByteBuffer messageBuffer) {
+  private void processMessage(SocketEntry entry, ByteBuffer messageBuffer) {
     TcpAddress remoteAddress = new TcpAddress(entry.remoteAddress);
 
     TransportStateReference stateReference =
@@ -403,11 +838,17 @@ public class DefaultTcpTransportMapping extends TcpTransportMapping {
     fireProcessMessage(remoteAddress, messageBuffer, stateReference);
   }
 
+  /**
+   * The <code>SocketListener</code> accepts incoming connections and
+   * assigns them to the selector workers.
+   */
   class SocketListener extends ControlableRunnable {
+    private final Selector selector;
     private final ServerSocketChannel ssc;
 
     public SocketListener(InetSocketAddress bindAddress) throws IOException {
-      if (serverEnabled) {
+      selector = Selector.open();
+      try {
         // Create a new server socket, set to non blocking mode and bind to the
         // supplied address
         ssc = ServerSocketChannel.open();
@@ -419,10 +860,10 @@ public class DefaultTcpTransportMapping extends TcpTransportMapping {
         // ready list when accept operations occur, so allowing multiplexed
         // non-blocking I/O to take place.
         ssc.register(selector, SelectionKey.OP_ACCEPT);
-      } else {
-        // We're not supposed to listen for incoming requests so don't create
-        // the ServerSocketChannel
-        ssc = null;
+      }
+      catch (IOException iox) {
+        selector.close();
+        throw iox;
       }
     }
 
@@ -431,38 +872,12 @@ public class DefaultTcpTransportMapping extends TcpTransportMapping {
       try {
         while (!shouldStop()) {
           if (selector.select() > 0) {
-            // Someone is ready for I/O, get the ready keys
-            Set<SelectionKey> readyKeys = selector.selectedKeys();
-            Iterator<SelectionKey> it = readyKeys.iterator();
-            SelectionKey sk = null;
-
-            // Walk through the ready keys collection and process date requests.
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
             while (it.hasNext()) {
-              try {
-                sk = it.next();
-                it.remove();
-
-                if (sk.isAcceptable()) {
-                  handleAcceptable(sk);
-                } else if (sk.isConnectable()) {
-                  handleConnectable(sk);
-                } else if (sk.isReadable()) {
-                  handleReadable(sk);
-                } else if (sk.isWritable()) {
-                  handleWritable(sk);
-                }
-              } catch (ClosedByInterruptException e) {
-                // If the thread gets interrupted we're about to shut down so
-                // we should propagate this exception to a higher level.
-                // Propagate the exception to a higher level
-                throw e;
-              } catch (ClosedChannelException e) {
-                logger.error("Attempted an I/O operation on a closed channel in {}", this, e);
-              } catch (CancelledKeyException ckex) {
-                logger.debug("Selection key cancelled, skipping it");
-              } catch (IOException e) {
-                close(sk, e);
-                throw e;
+              SelectionKey sk = it.next();
+              it.remove();
+              if (sk.isValid() && sk.isAcceptable()) {
+                handleAcceptable(sk);
               }
             }
           }
@@ -472,7 +887,13 @@ public class DefaultTcpTransportMapping extends TcpTransportMapping {
       } catch (IOException iox) {
         logger.error("Encountered an I/O problem in {}", this, iox);
       } finally {
-        close();
+        try {
+          ssc.close();
+          selector.close();
+        }
+        catch (IOException iox) {
+          logger.warn("Failed to close server socket of {}", this, iox);
+        }
       }
 
       logger.debug("Exiting listener thread {}", this);
@@ -481,17 +902,25 @@ public class DefaultTcpTransportMapping extends TcpTransportMapping {
     private void handleAcceptable(SelectionKey sk) throws IOException {
       // Accept the incoming connection
       SocketChannel newChannel = ((ServerSocketChannel) sk.channel()).accept();
+      if (newChannel == null) {
+        return;
+      }
 
-      SocketAddress remoteAddress = newChannel.getRemoteAddress();
+      InetSocketAddress remoteAddress = (InetSocketAddress) newChannel.getRemoteAddress();
       logger.debug("Accepting incoming connection from {}", remoteAddress);
 
-      configureChannel(newChannel);
-
-      SocketEntry socketEntry = getEntry(sk);
+      try {
+        newChannel.configureBlocking(false);
+      }
+      catch (IOException iox) {
+        logger.warn("Failed to configure incoming connection from {}", remoteAddress, iox);
+        newChannel.close();
+        return;
+      }
 
       TransportStateEvent e =
           new TransportStateEvent(DefaultTcpTransportMapping.this,
-              new TcpAddress(socketEntry.remoteAddress),
+              new TcpAddress(remoteAddress),
               TransportStateEvent.TransportStates.CONNECTED,
               null);
 
@@ -499,14 +928,189 @@ public class DefaultTcpTransportMapping extends TcpTransportMapping {
 
       if (e.isCancelled()) {
         logger.warn("Incoming accepted connection to {} cancelled", remoteAddress);
-        close(sk);
+        newChannel.close();
+        return;
       }
+
+      evictConnections();
+      SocketEntry entry = new SocketEntry(remoteAddress, newChannel, nextSelectorWorker());
+      sockets.put(remoteAddress, entry);
+      entry.worker.register(entry);
+      connectionsOpened.incrementAndGet();
+    }
+
+    @Override
+    public String getName() {
+      return DefaultTcpTransportMapping.class.getSimpleName() + "Listener_" + getListenAddress();
+    }
+  }
+
+  /**
+   * A <code>SelectorWorker</code> owns a selector and performs all I/O of
+   * the connections assigned to it. Registrations and interest changes
+   * requested by other threads are queued as tasks and executed by the
+   * worker thread.
+   */
+  class SelectorWorker extends ControlableRunnable {
+    private final int index;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private long nextIdleCheck = System.nanoTime();
+
+    SelectorWorker(int index) throws IOException {
+      this.index = index;
+      this.selector = Selector.open();
+    }
+
+    void execute(Runnable task) {
+      tasks.add(task);
+      selector.wakeup();
     }
 
-    private void handleConnectable(SelectionKey sk) {
-      SocketEntry entry = getEntry(sk);
+    void register(final SocketEntry entry) {
+      execute(() -> {
+        try {
+          boolean connected = entry.channel.isConnected();
+          int ops = (connected) ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT;
+          if (connected && entry.hasMessages()) {
+            ops |= SelectionKey.OP_WRITE;
+          }
+          entry.key = entry.channel.register(selector, ops, entry);
+        }
+        catch (IOException iox) {
+          close(entry, iox);
+        }
+      });
+    }
+
+    void closeSelector() {
+      try {
+        selector.close();
+      }
+      catch (IOException iox) {
+        logger.warn("Failed to close selector of {}", this, iox);
+      }
+    }
+
+    private void runTasks() {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        try {
+          task.run();
+        }
+        catch (CancelledKeyException ckex) {
+          logger.debug("Selection key cancelled, skipping task");
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!shouldStop()) {
+          long timeout = connectionTimeout;
+          if (timeout > 0) {
+            long interval = Math.max(MIN_IDLE_CHECK_INTERVAL_MS, timeout / 4);
+            long wait = (nextIdleCheck - System.nanoTime()) /
+                SnmpConstants.MILLISECOND_TO_NANOSECOND;
+            if (wait <= 0) {
+              closeIdleConnections(timeout);
+              nextIdleCheck = System.nanoTime() +
+                  interval * SnmpConstants.MILLISECOND_TO_NANOSECOND;
+              wait = interval;
+            }
+            selector.select(wait);
+          }
+          else {
+            selector.select();
+          }
+          runTasks();
+
+          // Walk through the ready keys collection and process date requests.
+          Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+          while (it.hasNext()) {
+            SelectionKey sk = it.next();
+            it.remove();
+            SocketEntry entry = (SocketEntry) sk.attachment();
+            try {
+              if (sk.isConnectable()) {
+                handleConnectable(sk, entry);
+              }
+              if (sk.isValid() && sk.isReadable()) {
+                readMessage(entry, entry.channel);
+              }
+              if (sk.isValid() && sk.isWritable()) {
+                handleWritable(sk, entry);
+              }
+            } catch (CancelledKeyException ckex) {
+              logger.debug("Selection key cancelled, skipping it");
+            } catch (ClosedByInterruptException e) {
+              // If the thread gets interrupted we're about to shut down so
+              // we should propagate this exception to a higher level.
+              throw e;
+            } catch (ClosedChannelException e) {
+              logger.debug("Attempted an I/O operation on a closed channel to {}", entry.remoteAddress);
+              close(entry);
+            } catch (IOException e) {
+              // only this connection is affected
+              close(entry, e);
+            }
+          }
+        }
+      } catch (ClosedByInterruptException e) {
+        logger.info("{} was interrupted during I/O on a channel", this);
+      } catch (IOException iox) {
+        logger.error("Encountered an I/O problem in {}", this, iox);
+      } finally {
+        closeSelector();
+        if (!shouldStop()) {
+          // the connections of this worker are orphaned
+          DefaultTcpTransportMapping.this.close();
+        }
+      }
+
+      logger.debug("Exiting selector thread {}", this);
+    }
+
+    /**
+     * Closes the connections of this worker that have not been used for the
+     * given timeout.
+     * @param timeout
+     *    the idle timeout in milliseconds.
+     */
+    private void closeIdleConnections(long timeout) {
+      long now = System.nanoTime();
+      long timeoutNanos = timeout * SnmpConstants.MILLISECOND_TO_NANOSECOND;
+      for (SelectionKey sk : selector.keys()) {
+        SocketEntry entry = (SocketEntry) sk.attachment();
+        if ((entry != null) && sk.isValid() && (now - entry.lastUse >= timeoutNanos) &&
+            entry.closeIfIdle()) {
+          logger.info("Socket to {} has not been used for {} milliseconds, closing it",
+                      entry.remoteAddress,
+                      (now - entry.lastUse) / SnmpConstants.MILLISECOND_TO_NANOSECOND);
+          connectionsReaped.incrementAndGet();
+          close(entry);
+          fireConnectionStateChanged(
+              new TransportStateEvent(DefaultTcpTransportMapping.this,
+                  new TcpAddress(entry.remoteAddress),
+                  TransportStateEvent.TransportStates.DISCONNECTED_TIMEOUT,
+                  null));
+        }
+      }
+    }
+
+    private void handleConnectable(SelectionKey sk, SocketEntry entry) throws IOException {
+      if (!entry.channel.finishConnect()) {
+        return;
+      }
       logger.debug("Connection to {} established", entry.remoteAddress);
 
+      int ops = SelectionKey.OP_READ;
+      if (entry.hasMessages()) {
+        ops |= SelectionKey.OP_WRITE;
+      }
+      sk.interestOps(ops);
+
       TransportStateEvent e =
           new TransportStateEvent(DefaultTcpTransportMapping.this,
               new TcpAddress(entry.remoteAddress),
@@ -517,54 +1121,137 @@ public class DefaultTcpTransportMapping extends TcpTransportMapping {
 
       if (e.isCancelled()) {
         logger.warn("Outgoing connection to {} cancelled", entry.remoteAddress);
-        close(sk);
+        close(entry);
       }
     }
 
-    private void handleReadable(SelectionKey sk) throws IOException {
-      SocketChannel readChannel = (SocketChannel) sk.channel();
-      SocketEntry socketEntry = getEntry(sk);
-      readMessage(socketEntry, sk, readChannel);
-    }
-
-    private void handleWritable(SelectionKey sk) throws IOException {
-      SocketChannel sc = (SocketChannel) sk.channel();
-      SocketEntry socketEntry = getEntry(sk);
-      writeMessages(socketEntry.messages, sc);
+    private void handleWritable(SelectionKey sk, SocketEntry entry) throws IOException {
+      long written = writeMessages(entry.messages, entry.channel);
+      entry.queuedBytes.addAndGet(-written);
+      if (entry.messages.isEmpty()) {
+        sk.interestOps(sk.interestOps() & ~SelectionKey.OP_WRITE);
+        entry.writeRequested.set(false);
+        // a message added after the emptiness check did not request write
+        // interest, because writeRequested was still set
+        if (!entry.messages.isEmpty() && entry.writeRequested.compareAndSet(false, true)) {
+          sk.interestOps(sk.interestOps() | SelectionKey.OP_WRITE);
+        }
+      }
     }
 
     @Override
     public String getName() {
-      return DefaultTcpTransportMapping.class.getSimpleName() + "Listener_" + getListenAddress();
+      return DefaultTcpTransportMapping.class.getSimpleName() + "Selector_" +
+          index + "_" + getListenAddress();
     }
   }
 
   private class SocketEntry {
-    public final ByteBuffer inputBuffer;
+    // far enough below zero to stay negative while written bytes are subtracted
+    private static final long CLOSED = Long.MIN_VALUE / 2;
+
+    public final MessageFramer framer;
+    public final List<ByteBuffer> framedMessages;
     public final InetSocketAddress remoteAddress;
+    public final SocketChannel channel;
+    public final SelectorWorker worker;
+    private volatile SelectionKey key;
+    private volatile long lastUse = System.nanoTime();
+
+    // multi-producer, single-consumer (the selector worker) queue
+    private final Queue<ByteBuffer> messages;
+    // the number of unsent bytes, negative when the entry has been closed
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicBoolean writeRequested = new AtomicBoolean();
+
+    SocketEntry(InetSocketAddress theRemoteAddress, SocketChannel channel,
+                SelectorWorker worker) {
+      remoteAddress = Objects.requireNonNull(theRemoteAddress);
+      this.channel = channel;
+      this.worker = worker;
+      framer = new MessageFramer(messageLengthDecoder, readBufferSize,
+                                 getMaxInboundMessageSize(), directBuffers);
+      framedMessages = new ArrayList<>();
+      messages = new ConcurrentLinkedQueue<>();
+    }
 
-    private final ArrayDeque<ByteBuffer> messages;
+    public boolean hasMessages() {
+      return !messages.isEmpty();
+    }
 
-    SocketEntry(InetSocketAddress theRemoteAddress) {
-      remoteAddress = Objects.requireNonNull(theRemoteAddress);
-      inputBuffer = ByteBuffer.allocate(getMaxInboundMessageSize());
-      messages = new ArrayDeque<>();
+    public void used() {
+      lastUse = System.nanoTime();
+    }
+
+    public boolean isClosed() {
+      return queuedBytes.get() < 0;
+    }
+
+    /**
+     * Marks this entry as closed. Messages added afterwards are rejected.
+     */
+    public void markClosed() {
+      queuedBytes.set(CLOSED);
     }
 
-    public void resetInputBuffer() {
-      inputBuffer.clear();
-      inputBuffer.limit(messageLengthDecoder.getMinHeaderLength());
+    /**
+     * Marks this entry as closed if no messages are waiting to be sent.
+     * This is atomic with respect to {@link #addMessage(ByteBuffer)}, thus
+     * a message is either queued before and keeps the entry open, or it is
+     * rejected.
+     * @return
+     *    <code>true</code> if the entry has been marked closed by this call.
+     */
+    public boolean closeIfIdle() {
+      return queuedBytes.compareAndSet(0, CLOSED);
     }
 
-    public ByteBuffer copyMessage() {
-      ByteBuffer messageBuffer = ByteBuffer.allocate(inputBuffer.position());
-      inputBuffer.flip();
-      messageBuffer.put(inputBuffer);
-      return messageBuffer;
+    /**
+     * Queues a message for sending.
+     * @param message
+     *    the message.
+     * @return
+     *    <code>false</code> if the entry has been closed and the message has
+     *    not been queued.
+     * @throws MessageQueueFullException
+     *    if the maximum number of queued bytes would be exceeded.
+     */
+    public boolean addMessage(ByteBuffer message) throws MessageQueueFullException {
+      used();
+      int length = message.remaining();
+      long max = maxQueuedBytes;
+      long queued;
+      do {
+        queued = queuedBytes.get();
+        if (queued < 0) {
+          return false;
+        }
+        if ((max > 0) && (queued + length > max)) {
+          throw new MessageQueueFullException("Outbound queue for "+remoteAddress+
+              " is full ("+queued+" bytes queued, max "+max+")", queued);
+        }
+      }
+      while (!queuedBytes.compareAndSet(queued, queued + length));
+      messages.add(message);
+      // only the first message of a batch wakes up the selector
+      if (writeRequested.compareAndSet(false, true)) {
+        worker.execute(this::enableWrite);
+      }
+      return true;
     }
 
-    public void addMessage(ByteBuffer message) {
-      messages.addLast(message);
+    private void enableWrite() {
+      SelectionKey sk = key;
+      // if not yet registered or connected, write interest is set
+      // on registration or connect
+      if ((sk != null) && sk.isValid() && channel.isConnected()) {
+        sk.interestOps(sk.interestOps() | SelectionKey.OP_WRITE);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "SocketEntry[remoteAddress=" + remoteAddress + "]";
     }
   }
 }
@@ -33,6 +33,7 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.*;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 /**
  * The <code>DefaultUdpTransportMapping</code> implements a UDP transport
@@ -40,7 +41,7 @@ import java.nio.ByteBuffer;
  * listening on the inbound socket.
  *
  * @author Frank Fock
- * @version 1.9
+ * @version 2.4
  */
 public class DefaultUdpTransportMapping extends UdpTransportMapping implements Closeable {
   private static final Logger logger =
@@ -121,6 +122,52 @@ public class DefaultUdpTransportMapping extends UdpTransportMapping implements C
     socket.send(new DatagramPacket(message, message.length, targetSocketAddress));
   }
 
+  /**
+   * Sends a batch of messages through the socket of this transport mapping
+   * in a tight loop. A single datagram packet is reused for all messages and
+   * the destination is taken from the already resolved
+   * <code>InetAddress</code> of each {@link UdpAddress}.
+   *
+   * @param messages
+   *    the messages to send in list order.
+   * @return
+   *    the number of messages sent successfully.
+   * @throws SocketException
+   *    if the socket of this transport mapping has been closed.
+   * @since 2.4
+   */
+  @Override
+  public int sendMessages(List<OutboundMessage<UdpAddress>> messages) throws IOException {
+    if (socket.isClosed()) {
+      throw new SocketException("Socket is closed");
+    }
+    boolean debug = logger.isDebugEnabled();
+    DatagramPacket packet = new DatagramPacket(new byte[0], 0);
+    int sent = 0;
+    for (OutboundMessage<UdpAddress> outboundMessage : messages) {
+      UdpAddress targetAddress = outboundMessage.getAddress();
+      byte[] message = outboundMessage.getMessage();
+      if (debug) {
+        logger.debug("Sending message to {} with length {}: {}", targetAddress, message.length,
+                     new OctetString(message).toHexString());
+      }
+      try {
+        packet.setData(message);
+        packet.setAddress(targetAddress.getInetAddress());
+        packet.setPort(targetAddress.getPort());
+        socket.send(packet);
+        sent++;
+      }
+      catch (IOException iox) {
+        outboundMessage.setFailure(iox);
+      }
+    }
+    if (debug) {
+      logger.debug("Sent {} of {} messages in batch", sent, messages.size());
+    }
+    return sent;
+  }
+
   /**
    * Closes the socket and stops the listener thread.
    */
@@ -0,0 +1,1261 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - DtlsTransportMapping.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+
+package org.snmp4j.transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.SNMP4JSettings;
+import org.snmp4j.TransportStateReference;
+import org.snmp4j.concurrent.ControlableRunnable;
+import org.snmp4j.event.CounterEvent;
+import org.snmp4j.mp.CounterSupport;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.security.SecurityLevel;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.DtlsAddress;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.transport.tls.TlsTmSecurityCallback;
+import org.snmp4j.transport.tls.TlsTmTrustManager;
+import org.snmp4j.util.SnmpConfigurator;
+
+import javax.net.ssl.*;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The <code>DtlsTransportMapping</code> implements the DTLS/UDP transport of
+ * the (D)TLS Transport Model (TLSTM) as defined by RFC 6353 with the new IO
+ * API and {@link javax.net.ssl.SSLEngine}. Together with the
+ * {@link org.snmp4j.security.TSM} and a {@link TlsTmSecurityCallback}, it
+ * provides transport security for SNMP over a single connectionless
+ * {@link DatagramChannel}.
+ * <p>
+ * A DTLS session is established per peer address on demand. The sessions
+ * are held in a map bounded by {@link #getMaxSessions()}. When the limit is
+ * reached, the least recently used session in handshake is discarded. An
+ * established session is only discarded for a session opened by this
+ * mapping, datagrams from unknown peers are dropped instead. Lost handshake
+ * messages are retransmitted with exponential back-off using the shared
+ * SNMP4J timer.
+ * </p><p>
+ * All SSL engine operations are run by a single listener thread which is
+ * started by {@link #listen()} or the first {@link #sendMessage}.
+ * DTLS support of the <code>SSLEngine</code> requires a Java 9 or later
+ * runtime, see {@link #isDtlsSupported()}.
+ * </p>
+ *
+ * @author Frank Fock
+ * @version 2.4
+ * @since 2.4
+ */
+public class DtlsTransportMapping extends UdpTransportMapping {
+
+  private static final Logger logger =
+      LoggerFactory.getLogger(DtlsTransportMapping.class);
+
+  public static final String DEFAULT_DTLSTM_PROTOCOLS = "DTLSv1.2";
+  /**
+   * The maximum plaintext length of a DTLS record (2^14 bytes, RFC 6347).
+   * Each SNMP message is sent in a single record (RFC 6353).
+   */
+  public static final int MAX_DTLS_RECORD_PAYLOAD_SIZE = 16*1024;
+  private static final int MAX_DTLS_PACKET_SIZE = MAX_DTLS_RECORD_PAYLOAD_SIZE + 2048;
+  private static final int DEFAULT_MAX_SESSIONS = 10000;
+  private static final long DEFAULT_HANDSHAKE_TIMEOUT = 1000;
+  private static final long MAX_HANDSHAKE_TIMEOUT = 60000;
+  private static final int DEFAULT_MAX_RETRANSMISSIONS = 6;
+  private static final int DEFAULT_MAX_QUEUED_MESSAGES = 100;
+  private static final int MAX_ENGINE_STEPS = 64;
+  private static final String NEED_UNWRAP_AGAIN = "NEED_UNWRAP_AGAIN";
+
+  private final DatagramChannel channel;
+  private CounterSupport counterSupport;
+  private TlsTmSecurityCallback<X509Certificate> securityCallback;
+  private TlsTransportMapping.TLSTMTrustManagerFactory trustManagerFactory =
+      new DefaultDtlsTrustManagerFactory();
+  private String localCertificateAlias;
+  private String keyStore;
+  private String keyStorePassword;
+  private String[] dtlsProtocols;
+
+  private int maxSessions = DEFAULT_MAX_SESSIONS;
+  private long handshakeTimeout = DEFAULT_HANDSHAKE_TIMEOUT;
+  private int maxRetransmissions = DEFAULT_MAX_RETRANSMISSIONS;
+  private int maxQueuedMessages = DEFAULT_MAX_QUEUED_MESSAGES;
+  private int maximumPacketSize;
+
+  // access ordered to find the least recently used sessions, see admitSession
+  private final Map<DtlsAddress, DtlsSession> sessions =
+      new LinkedHashMap<DtlsAddress, DtlsSession>(16, 0.75f, true);
+  // the transport state reference of each SSL engine for the trust checks
+  // of shared SSL contexts
+  private final Map<SSLEngine, TransportStateReference> engineReferences =
+      Collections.synchronizedMap(new WeakHashMap<SSLEngine, TransportStateReference>());
+  private final Map<List<Object>, SSLContext> sslContexts = new HashMap<>();
+  // the trust configuration version of the security callback the cached
+  // SSL contexts have been created with
+  private long contextTrustVersion;
+  private final Queue<DtlsSession> pending = new ConcurrentLinkedQueue<>();
+  private final AtomicLong nextSessionID = new AtomicLong(1);
+  private final AtomicLong handshakesCompleted = new AtomicLong();
+  private final AtomicLong retransmissions = new AtomicLong();
+  private final AtomicLong sessionsEvicted = new AtomicLong();
+  private final AtomicLong sessionsRejected = new AtomicLong();
+
+  private volatile Selector selector;
+  private DtlsListener listener;
+  private Thread listenerThread;
+
+  /**
+   * Creates a DTLS transport mapping on an arbitrary local port of the
+   * local host.
+   * @throws IOException
+   *    if the local host cannot be determined or the port cannot be bound.
+   */
+  public DtlsTransportMapping() throws IOException {
+    this(new DtlsAddress(InetAddress.getLocalHost(), 0));
+  }
+
+  /**
+   * Creates a DTLS transport mapping bound to the given address.
+   * @param address
+   *    the local address for sending and receiving DTLS datagrams.
+   * @throws IOException
+   *    if the address cannot be bound.
+   */
+  public DtlsTransportMapping(DtlsAddress address) throws IOException {
+    this(address, null, CounterSupport.getInstance());
+  }
+
+  /**
+   * Creates a DTLS transport mapping bound to the given address.
+   * @param address
+   *    the local address for sending and receiving DTLS datagrams.
+   * @param securityCallback
+   *    a security name callback to resolve X509 certificates to tmSecurityNames.
+   * @param counterSupport
+   *    the CounterSupport instance to be used to count events created by this
+   *    transport mapping.
+   * @throws IOException
+   *    if the address cannot be bound.
+   */
+  public DtlsTransportMapping(DtlsAddress address,
+                              TlsTmSecurityCallback<X509Certificate> securityCallback,
+                              CounterSupport counterSupport) throws IOException {
+    super(address);
+    super.maxInboundMessageSize = MAX_DTLS_RECORD_PAYLOAD_SIZE;
+    this.securityCallback = securityCallback;
+    this.counterSupport = counterSupport;
+    this.channel = DatagramChannel.open();
+    try {
+      channel.configureBlocking(false);
+      channel.bind(address.toSocketAddress());
+    }
+    catch (IOException iox) {
+      channel.close();
+      throw iox;
+    }
+  }
+
+  /**
+   * Checks whether the Java runtime supports DTLS for <code>SSLEngine</code>.
+   * @return
+   *    <code>true</code> if DTLS is available (Java 9 or later).
+   */
+  public static boolean isDtlsSupported() {
+    try {
+      SSLContext.getInstance("DTLS");
+      return true;
+    }
+    catch (NoSuchAlgorithmException nsaex) {
+      return false;
+    }
+  }
+
+  @Override
+  public Class<? extends Address> getSupportedAddressClass() {
+    return DtlsAddress.class;
+  }
+
+  @Override
+  public synchronized UdpAddress getListenAddress() {
+    try {
+      SocketAddress localAddress = channel.getLocalAddress();
+      if (localAddress instanceof InetSocketAddress) {
+        return new DtlsAddress((InetSocketAddress) localAddress);
+      }
+    }
+    catch (IOException iox) {
+      logger.debug("Local address of closed DTLS channel requested: {}", iox.getMessage());
+    }
+    return udpAddress;
+  }
+
+  public String getLocalCertificateAlias() {
+    if (localCertificateAlias == null) {
+      return System.getProperty(SnmpConfigurator.P_TLS_LOCAL_ID, null);
+    }
+    return localCertificateAlias;
+  }
+
+  /**
+   * Sets the certificate alias used for client and server authentication.
+   * Only the key entry with this alias is then used from the key store.
+   * @param localCertificateAlias
+   *    a key entry alias or <code>null</code> to use any key entry.
+   */
+  public void setLocalCertificateAlias(String localCertificateAlias) {
+    this.localCertificateAlias = localCertificateAlias;
+    clearSSLContexts();
+  }
+
+  public String[] getDtlsProtocols() {
+    if (dtlsProtocols == null) {
+      return DEFAULT_DTLSTM_PROTOCOLS.split(",");
+    }
+    return dtlsProtocols;
+  }
+
+  /**
+   * Sets the DTLS protocol versions enabled for the handshake. The default
+   * is defined by {@link #DEFAULT_DTLSTM_PROTOCOLS}.
+   * @param dtlsProtocols
+   *    an array of DTLS protocol (version) names supported by the SunJSSE
+   *    provider.
+   */
+  public void setDtlsProtocols(String[] dtlsProtocols) {
+    this.dtlsProtocols = dtlsProtocols;
+    clearSSLContexts();
+  }
+
+  public String getKeyStore() {
+    if (keyStore == null) {
+      return System.getProperty("javax.net.ssl.keyStore");
+    }
+    return keyStore;
+  }
+
+  public void setKeyStore(String keyStore) {
+    this.keyStore = keyStore;
+    clearSSLContexts();
+  }
+
+  public String getKeyStorePassword() {
+    if (keyStorePassword == null) {
+      return System.getProperty("javax.net.ssl.keyStorePassword");
+    }
+    return keyStorePassword;
+  }
+
+  public void setKeyStorePassword(String keyStorePassword) {
+    this.keyStorePassword = keyStorePassword;
+    clearSSLContexts();
+  }
+
+  public CounterSupport getCounterSupport() {
+    return counterSupport;
+  }
+
+  public TlsTmSecurityCallback<X509Certificate> getSecurityCallback() {
+    return securityCallback;
+  }
+
+  /**
+   * Sets the security callback and discards the cached SSL contexts, so that
+   * no session established with the old trust configuration is resumed.
+   * @param securityCallback
+   *    a security name callback to resolve X509 certificates to tmSecurityNames.
+   */
+  public void setSecurityCallback(TlsTmSecurityCallback<X509Certificate> securityCallback) {
+    this.securityCallback = securityCallback;
+    clearSSLContexts();
+  }
+
+  public TlsTransportMapping.TLSTMTrustManagerFactory getTrustManagerFactory() {
+    return trustManagerFactory;
+  }
+
+  /**
+   * Sets the trust manager factory that creates the trust managers checking
+   * the peer certificates of the DTLS sessions.
+   * @param trustManagerFactory
+   *    a X.509 trust manager factory.
+   */
+  public void setTrustManagerFactory(TlsTransportMapping.TLSTMTrustManagerFactory trustManagerFactory) {
+    if (trustManagerFactory == null) {
+      throw new NullPointerException();
+    }
+    this.trustManagerFactory = trustManagerFactory;
+    clearSSLContexts();
+  }
+
+  public int getMaxSessions() {
+    return maxSessions;
+  }
+
+  /**
+   * Sets the maximum number of DTLS sessions. When a new session exceeds
+   * this limit, the least recently used session in handshake is discarded
+   * without notifying the peer. If all sessions are established, the least
+   * recently used one is discarded for a session opened by this mapping,
+   * whereas a session from an unknown peer is not accepted.
+   * @param maxSessions
+   *    the maximum number of sessions (default is 10000).
+   */
+  public void setMaxSessions(int maxSessions) {
+    if (maxSessions <= 0) {
+      throw new IllegalArgumentException("Maximum number of sessions must be positive: "+maxSessions);
+    }
+    this.maxSessions = maxSessions;
+  }
+
+  public long getHandshakeTimeout() {
+    return handshakeTimeout;
+  }
+
+  /**
+   * Sets the initial retransmission timeout for handshake messages. The
+   * timeout is doubled with each retransmission up to 60 seconds.
+   * @param handshakeTimeout
+   *    the initial timeout in milliseconds (default is 1000).
+   */
+  public void setHandshakeTimeout(long handshakeTimeout) {
+    if (handshakeTimeout <= 0) {
+      throw new IllegalArgumentException("Handshake timeout must be positive: "+handshakeTimeout);
+    }
+    this.handshakeTimeout = handshakeTimeout;
+  }
+
+  public int getMaxRetransmissions() {
+    return maxRetransmissions;
+  }
+
+  /**
+   * Sets the number of handshake retransmissions after which a handshake
+   * fails and the messages queued for the peer are discarded.
+   * @param maxRetransmissions
+   *    the maximum number of retransmissions (default is 6).
+   */
+  public void setMaxRetransmissions(int maxRetransmissions) {
+    this.maxRetransmissions = maxRetransmissions;
+  }
+
+  public int getMaxQueuedMessages() {
+    return maxQueuedMessages;
+  }
+
+  /**
+   * Sets the maximum number of messages queued for a peer while its
+   * session is established. Additional messages are rejected with a
+   * {@link MessageQueueFullException}.
+   * @param maxQueuedMessages
+   *    the maximum number of queued messages per peer (default is 100).
+   */
+  public void setMaxQueuedMessages(int maxQueuedMessages) {
+    this.maxQueuedMessages = maxQueuedMessages;
+  }
+
+  public int getMaximumPacketSize() {
+    return maximumPacketSize;
+  }
+
+  /**
+   * Sets the maximum size of the DTLS datagrams sent, which should not
+   * exceed the path MTU to avoid IP fragmentation. Larger handshake
+   * messages are fragmented by the SSL engine.
+   * @param maximumPacketSize
+   *    the maximum datagram size in bytes or zero (default) to use the
+   *    default of the SSL engine. The new value applies to sessions
+   *    established after this call.
+   */
+  public void setMaximumPacketSize(int maximumPacketSize) {
+    this.maximumPacketSize = maximumPacketSize;
+  }
+
+  /**
+   * Gets the number of DTLS sessions currently established or in handshake.
+   * @return
+   *    the number of sessions.
+   */
+  public int getNumSessions() {
+    synchronized (sessions) {
+      return sessions.size();
+    }
+  }
+
+  /**
+   * Gets the number of DTLS handshakes completed since creation.
+   * @return
+   *    the number of completed handshakes.
+   */
+  public long getHandshakesCompleted() {
+    return handshakesCompleted.get();
+  }
+
+  /**
+   * Gets the number of handshake flights retransmitted since creation.
+   * @return
+   *    the number of retransmissions.
+   */
+  public long getRetransmissions() {
+    return retransmissions.get();
+  }
+
+  /**
+   * Gets the number of sessions discarded because the maximum number of
+   * sessions had been reached.
+   * @return
+   *    the number of discarded sessions.
+   */
+  public long getSessionsEvicted() {
+    return sessionsEvicted.get();
+  }
+
+  /**
+   * Gets the number of datagrams from unknown peers that were dropped,
+   * because the maximum number of sessions had been reached and all of
+   * them were established.
+   * @return
+   *    the number of rejected sessions.
+   */
+  public long getSessionsRejected() {
+    return sessionsRejected.get();
+  }
+
+  /**
+   * Removes all cached SSL contexts, so that the next session uses the
+   * current key store and trust configuration.
+   */
+  public void clearSSLContexts() {
+    synchronized (sslContexts) {
+      sslContexts.clear();
+    }
+  }
+
+  /**
+   * Starts the listener thread that processes incoming datagrams and the
+   * handshakes of the DTLS sessions. The {@link #close()} method should be
+   * called to stop the thread gracefully and free associated resources.
+   *
+   * @throws IOException
+   *    if the channel is closed or DTLS is not supported by the Java runtime.
+   */
+  @Override
+  public synchronized void listen() throws IOException {
+    if (!channel.isOpen()) {
+      throw new SocketException("Socket is closed");
+    }
+    if (listenerThread == null) {
+      if (!isDtlsSupported()) {
+        throw new IOException("DTLS is not supported by this Java runtime (Java 9 or later required)");
+      }
+      Selector newSelector = Selector.open();
+      channel.register(newSelector, SelectionKey.OP_READ);
+      selector = newSelector;
+      listener = new DtlsListener(newSelector);
+      listenerThread = SNMP4JSettings.getThreadFactory().newThread(listener);
+      listenerThread.start();
+    }
+    logger.info("Now listening with {}", listener);
+  }
+
+  @Override
+  public synchronized boolean isListening() {
+    return (listenerThread != null);
+  }
+
+  /**
+   * Sends a message to the supplied address. If there is no DTLS session
+   * with the peer, a session is established first and the message is
+   * queued until the handshake has been finished.
+   *
+   * @param address
+   *    the peer address.
+   * @param message
+   *    the SNMP message, which must fit into a single DTLS record.
+   * @param tmStateReference
+   *    the transport model state reference of the message.
+   * @throws IOException
+   *    if the session with the peer cannot be created, the session ID of the
+   *    state reference does not match the session with the peer, or too many
+   *    messages are queued for the peer.
+   */
+  @Override
+  public void sendMessage(UdpAddress address, byte[] message,
+                          TransportStateReference tmStateReference)
+      throws IOException {
+    if (message.length > MAX_DTLS_RECORD_PAYLOAD_SIZE) {
+      throw new IOException("Message length "+message.length+" exceeds maximum DTLS record payload size "+
+                            MAX_DTLS_RECORD_PAYLOAD_SIZE);
+    }
+    if (!isListening()) {
+      listen();
+    }
+    DtlsAddress peerAddress = toDtlsAddress(address);
+    DtlsSession session;
+    synchronized (sessions) {
+      session = sessions.get(peerAddress);
+      if ((session != null) && (tmStateReference != null) &&
+          (tmStateReference.getSessionID() != null) &&
+          (!tmStateReference.getSessionID().equals(session.sessionID))) {
+        // session IDs do not match -> drop message
+        counterSupport.fireIncrementCounter(
+            new CounterEvent(this, SnmpConstants.snmpTlstmSessionNoSessions));
+        throw new IOException("Session "+tmStateReference.getSessionID()+" not available");
+      }
+      if ((session == null) || session.closed) {
+        if (tmStateReference == null) {
+          tmStateReference = new TransportStateReference(this, peerAddress, null, SecurityLevel.undefined,
+                                                         SecurityLevel.undefined, false, null);
+        }
+        session = new DtlsSession(peerAddress, true, tmStateReference);
+        admitSession(peerAddress, true);
+        sessions.put(peerAddress, session);
+        counterSupport.fireIncrementCounter(
+            new CounterEvent(this, SnmpConstants.snmpTlstmSessionOpens));
+      }
+    }
+    if (session.queuedMessages.incrementAndGet() > maxQueuedMessages) {
+      session.queuedMessages.decrementAndGet();
+      throw new MessageQueueFullException("Too many messages queued for DTLS session with "+peerAddress,
+                                          session.queuedMessages.get());
+    }
+    if (logger.isDebugEnabled()) {
+      logger.debug("Sending message to {} with length {}: {}", peerAddress, message.length,
+                   new OctetString(message).toHexString());
+    }
+    session.outbound.add(message);
+    schedule(session);
+  }
+
+  /**
+   * Closes the DTLS session with the supplied peer, if there is one. The
+   * peer is notified by a close_notify alert.
+   * @param remoteAddress
+   *    the peer address.
+   * @return
+   *    <code>true</code> if a session has been closed and
+   *    <code>false</code> if there was nothing to close.
+   */
+  public boolean close(UdpAddress remoteAddress) {
+    DtlsSession session;
+    synchronized (sessions) {
+      session = sessions.get(toDtlsAddress(remoteAddress));
+    }
+    if (session == null) {
+      return false;
+    }
+    session.closeRequested = true;
+    if (isListening()) {
+      schedule(session);
+    }
+    else {
+      closeSession(session);
+    }
+    return true;
+  }
+
+  /**
+   * Closes all sessions, the channel and stops the listener thread.
+   */
+  @Override
+  public void close() {
+    DtlsListener l;
+    Thread t;
+    synchronized (this) {
+      l = listener;
+      t = listenerThread;
+      listener = null;
+      listenerThread = null;
+    }
+    if (l != null) {
+      logger.info("Close requested for {}", this);
+      l.askToStop();
+      l.selector.wakeup();
+      if (t != Thread.currentThread()) {
+        try {
+          t.join(SNMP4JSettings.getThreadJoinTimeout());
+        }
+        catch (InterruptedException iex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+    List<DtlsSession> open;
+    synchronized (sessions) {
+      open = new ArrayList<>(sessions.values());
+    }
+    for (DtlsSession session : open) {
+      closeSession(session);
+    }
+    try {
+      channel.close();
+    }
+    catch (IOException iox) {
+      logger.warn("Failed to close DTLS channel: {}", iox.getMessage(), iox);
+    }
+  }
+
+  private static DtlsAddress toDtlsAddress(UdpAddress address) {
+    if (address instanceof DtlsAddress) {
+      return (DtlsAddress) address;
+    }
+    return new DtlsAddress(address.getInetAddress(), address.getPort());
+  }
+
+  private void schedule(DtlsSession session) {
+    pending.add(session);
+    Selector s = selector;
+    if (s != null) {
+      s.wakeup();
+    }
+  }
+
+  /**
+   * Marks the supplied session as closed and discards its queued messages
+   * without notifying the peer.
+   */
+  private void discardSession(DtlsSession session) {
+    session.closed = true;
+    session.cancelRetransmission();
+    int dropped = session.queuedMessages.getAndSet(0);
+    session.outbound.clear();
+    engineReferences.remove(session.sslEngine);
+    if (dropped > 0) {
+      logger.warn("Discarded {} message(s) queued for DTLS session with {}", dropped, session.peerAddress);
+    }
+  }
+
+  /**
+   * Makes room for a new session if the maximum number of sessions has been
+   * reached. The least recently used session in handshake is discarded
+   * first, so that datagrams from unknown peers cannot displace established
+   * sessions. Must be called while holding the lock on the sessions.
+   *
+   * @param peerAddress
+   *    the peer address of the new session.
+   * @param clientMode
+   *    <code>true</code> if the session is opened by this mapping and
+   *    <code>false</code> if it is accepted from the peer.
+   * @return
+   *    <code>true</code> if the session can be added and <code>false</code>
+   *    if it is a session accepted from a peer and all sessions are
+   *    established.
+   */
+  private boolean admitSession(DtlsAddress peerAddress, boolean clientMode) {
+    if (sessions.containsKey(peerAddress) || (sessions.size() < maxSessions)) {
+      return true;
+    }
+    DtlsSession eldest = null;
+    for (DtlsSession s : sessions.values()) {
+      if (!s.handshakeFinished) {
+        eldest = s;
+        break;
+      }
+      if (eldest == null) {
+        eldest = s;
+      }
+    }
+    if ((eldest == null) || (eldest.handshakeFinished && !clientMode)) {
+      return false;
+    }
+    logger.debug("Discarding least recently used DTLS session {}", eldest);
+    sessions.remove(eldest.peerAddress);
+    discardSession(eldest);
+    sessionsEvicted.incrementAndGet();
+    return true;
+  }
+
+  private void removeSession(DtlsSession session) {
+    synchronized (sessions) {
+      if (sessions.get(session.peerAddress) == session) {
+        sessions.remove(session.peerAddress);
+      }
+    }
+    discardSession(session);
+  }
+
+  private void closeSession(DtlsSession session) {
+    if (session.closed) {
+      return;
+    }
+    removeSession(session);
+    session.sslEngine.closeOutbound();
+    counterSupport.fireIncrementCounter(new CounterEvent(this, session.clientMode ?
+        SnmpConstants.snmpTlstmSessionClientCloses : SnmpConstants.snmpTlstmSessionServerCloses));
+    if (channel.isOpen()) {
+      try {
+        ByteBuffer netBuffer = ByteBuffer.allocate(MAX_DTLS_PACKET_SIZE);
+        SSLEngineResult result;
+        int steps = 0;
+        do {
+          netBuffer.clear();
+          result = session.sslEngine.wrap(ByteBuffer.allocate(0), netBuffer);
+          if (result.bytesProduced() > 0) {
+            netBuffer.flip();
+            channel.send(netBuffer, session.peerAddress.toSocketAddress());
+          }
+        }
+        while ((result.getStatus() != SSLEngineResult.Status.CLOSED) &&
+               (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) &&
+               (++steps < MAX_ENGINE_STEPS));
+      }
+      catch (IOException iox) {
+        logger.debug("Failed to send close_notify to {}: {}", session.peerAddress, iox.getMessage());
+      }
+    }
+    logger.debug("DTLS session {} closed", session);
+  }
+
+  private SSLContext getSSLContext(boolean useClientMode, TransportStateReference transportStateReference) {
+    String localCertAlias = getLocalCertificateAlias();
+    if ((securityCallback != null) && (transportStateReference != null)) {
+      String alias = securityCallback.getLocalCertificateAlias(transportStateReference.getAddress());
+      if (alias != null) {
+        localCertAlias = alias;
+      }
+    }
+    // the trust checks of shared contexts are done per SSL engine
+    List<Object> key = Arrays.<Object>asList(useClientMode, localCertAlias);
+    synchronized (sslContexts) {
+      TlsTmSecurityCallback<X509Certificate> callback = securityCallback;
+      long trustVersion = (callback == null) ? 0 : callback.getTrustConfigurationVersion();
+      if (trustVersion != contextTrustVersion) {
+        // sessions resumed from a cached context would skip the trust checks
+        logger.debug("Trust configuration changed, discarding cached DTLS contexts");
+        sslContexts.clear();
+        contextTrustVersion = trustVersion;
+      }
+      SSLContext sslContext = sslContexts.get(key);
+      if (sslContext == null) {
+        sslContext = createSSLContext(useClientMode, localCertAlias);
+        if (sslContext != null) {
+          sslContexts.put(key, sslContext);
+        }
+      }
+      return sslContext;
+    }
+  }
+
+  private SSLContext createSSLContext(boolean useClientMode, String localCertAlias) {
+    if (getKeyStore() == null) {
+      logger.error("Failed to initialize DTLS context because no key store is configured");
+      return null;
+    }
+    try {
+      SSLContext sslContext = SSLContext.getInstance(getDtlsProtocols()[0]);
+      char[] password = (getKeyStorePassword() != null) ? getKeyStorePassword().toCharArray() : null;
+      KeyStore ks = KeyStore.getInstance("JKS");
+      try (FileInputStream fis = new FileInputStream(getKeyStore())) {
+        ks.load(fis, password);
+      }
+      KeyStore keys = ks;
+      if (localCertAlias != null) {
+        if (!ks.isKeyEntry(localCertAlias)) {
+          logger.warn("Local certificate with alias '{}' not found. Known aliases are: {}",
+                      localCertAlias, Collections.list(ks.aliases()));
+        }
+        else {
+          keys = KeyStore.getInstance("JKS");
+          keys.load(null, null);
+          keys.setKeyEntry(localCertAlias, ks.getKey(localCertAlias, password), password,
+                           ks.getCertificateChain(localCertAlias));
+        }
+      }
+      KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
+      kmf.init(keys, password);
+      TrustManagerFactory tmf = TrustManagerFactory.getInstance("SunPKIX");
+      tmf.init(ks);
+      TrustManager trustManager =
+          new EngineTrustManager((X509TrustManager) tmf.getTrustManagers()[0], useClientMode,
+                                 engineReferences, trustManagerFactory);
+      sslContext.init(kmf.getKeyManagers(), new TrustManager[] { trustManager }, null);
+      return sslContext;
+    }
+    catch (GeneralSecurityException | IOException ex) {
+      logger.error("Failed to initialize DTLS context: {}", ex.getMessage(), ex);
+    }
+    return null;
+  }
+
+  private void configure(SSLEngine sslEngine) {
+    String[] supportedCipherSuites = sslEngine.getEnabledCipherSuites();
+    List<String> enabledCipherSuites = new ArrayList<>(supportedCipherSuites.length);
+    for (String cs : supportedCipherSuites) {
+      if (!cs.contains("_anon_") && (!cs.contains("_NULL_"))) {
+        enabledCipherSuites.add(cs);
+      }
+    }
+    sslEngine.setEnabledCipherSuites(enabledCipherSuites.toArray(new String[enabledCipherSuites.size()]));
+    sslEngine.setEnabledProtocols(getDtlsProtocols());
+    if (!sslEngine.getUseClientMode()) {
+      sslEngine.setNeedClientAuth(true);
+    }
+    if (maximumPacketSize > 0) {
+      // SSLParameters.setMaximumPacketSize is available since Java 9
+      SSLParameters parameters = sslEngine.getSSLParameters();
+      try {
+        SSLParameters.class.getMethod("setMaximumPacketSize", int.class)
+            .invoke(parameters, maximumPacketSize);
+        sslEngine.setSSLParameters(parameters);
+      }
+      catch (ReflectiveOperationException roex) {
+        logger.warn("Maximum DTLS packet size could not be set: {}", roex.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Creates the transport state reference of an incoming session or
+   * completes the one of an outgoing session after the handshake.
+   */
+  private void checkTransportStateReference(DtlsSession session) {
+    if (session.tmStateReference == null) {
+      TransportStateReference tmStateReference =
+          new TransportStateReference(this, session.peerAddress, new OctetString(),
+                                      SecurityLevel.authPriv, SecurityLevel.authPriv,
+                                      true, session.sessionID);
+      tmStateReference.setSecurityName(resolveSecurityName(session));
+      session.tmStateReference = tmStateReference;
+    }
+    else {
+      if (session.tmStateReference.getTransportSecurityLevel() == SecurityLevel.undefined) {
+        session.tmStateReference.setTransportSecurityLevel(SecurityLevel.authPriv);
+      }
+      if ((session.securityNameMappingVersion >= 0) && (securityCallback != null) &&
+          (securityCallback.getSecurityNameMappingVersion() != session.securityNameMappingVersion)) {
+        session.tmStateReference.setSecurityName(resolveSecurityName(session));
+      }
+    }
+  }
+
+  private OctetString resolveSecurityName(DtlsSession session) {
+    OctetString securityName = null;
+    if (securityCallback != null) {
+      session.securityNameMappingVersion = securityCallback.getSecurityNameMappingVersion();
+      try {
+        securityName = securityCallback.getSecurityName(
+            (X509Certificate[]) session.sslEngine.getSession().getPeerCertificates());
+      }
+      catch (SSLPeerUnverifiedException e) {
+        logger.error("SSL peer '{}' is not verified: {}", session.peerAddress, e.getMessage(), e);
+      }
+    }
+    return securityName;
+  }
+
+  /**
+   * A <code>DtlsSession</code> holds the SSL engine and the handshake state
+   * of the session with a peer.
+   */
+  class DtlsSession {
+    private final DtlsAddress peerAddress;
+    private final SSLEngine sslEngine;
+    private final boolean clientMode;
+    private final long sessionID;
+    private TransportStateReference tmStateReference;
+    /**
+     * The security name mapping version the tmSecurityName has been resolved
+     * with or -1 if it has not been resolved through the security callback.
+     */
+    private long securityNameMappingVersion = -1;
+    private final Queue<byte[]> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedMessages = new AtomicInteger();
+    private boolean handshakeStarted;
+    private volatile boolean handshakeFinished;
+    private long handshakeStart;
+    private int retransmissionCount;
+    private TimerTask retransmissionTask;
+    private volatile boolean retransmit;
+    private volatile boolean closeRequested;
+    private volatile boolean closed;
+
+    DtlsSession(DtlsAddress peerAddress, boolean clientMode,
+                TransportStateReference tmStateReference) throws IOException {
+      this.peerAddress = peerAddress;
+      this.clientMode = clientMode;
+      this.tmStateReference = tmStateReference;
+      SSLContext sslContext = getSSLContext(clientMode, tmStateReference);
+      if (sslContext == null) {
+        throw new IOException("DTLS context could not be initialized for "+peerAddress);
+      }
+      this.sslEngine = sslContext.createSSLEngine(peerAddress.getInetAddress().getHostAddress(),
+                                                  peerAddress.getPort());
+      sslEngine.setUseClientMode(clientMode);
+      engineReferences.put(sslEngine, tmStateReference);
+      configure(sslEngine);
+      this.sessionID = nextSessionID.getAndIncrement();
+    }
+
+    synchronized void cancelRetransmission() {
+      if (retransmissionTask != null) {
+        retransmissionTask.cancel();
+        retransmissionTask = null;
+      }
+    }
+
+    synchronized void scheduleRetransmission() {
+      if ((retransmissionTask == null) && !closed) {
+        long timeout = Math.min(handshakeTimeout << Math.min(retransmissionCount, 16),
+                                MAX_HANDSHAKE_TIMEOUT);
+        retransmissionTask = new TimerTask() {
+          @Override
+          public void run() {
+            synchronized (DtlsSession.this) {
+              retransmissionTask = null;
+            }
+            retransmit = true;
+            schedule(DtlsSession.this);
+          }
+        };
+        SNMP4JSettings.getSharedTimer().schedule(retransmissionTask, timeout);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "DtlsSession[peerAddress="+peerAddress+",sessionID="+sessionID+
+          ",clientMode="+clientMode+",handshakeFinished="+handshakeFinished+
+          ",queuedMessages="+queuedMessages+"]";
+    }
+  }
+
+  /**
+   * The <code>DtlsListener</code> receives the datagrams of all sessions and
+   * runs their SSL engines.
+   */
+  class DtlsListener extends ControlableRunnable {
+
+    private final Selector selector;
+    private ByteBuffer inNetBuffer = ByteBuffer.allocate(MAX_DTLS_PACKET_SIZE);
+    private ByteBuffer outNetBuffer = ByteBuffer.allocate(MAX_DTLS_PACKET_SIZE);
+    private ByteBuffer appBuffer = ByteBuffer.allocate(MAX_DTLS_PACKET_SIZE);
+
+    DtlsListener(Selector selector) {
+      this.selector = selector;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!shouldStop()) {
+          processPending();
+          selector.select();
+          if (shouldStop()) {
+            break;
+          }
+          selector.selectedKeys().clear();
+          receive();
+        }
+      }
+      catch (IOException iox) {
+        logger.error("DTLS listener of {} failed: {}", getListenAddress(), iox.getMessage(), iox);
+      }
+      finally {
+        try {
+          selector.close();
+        }
+        catch (IOException iox) {
+          logger.debug(iox.getMessage(), iox);
+        }
+      }
+      logger.info("Thread {} is stopping", this);
+    }
+
+    private void receive() throws IOException {
+      SocketAddress source;
+      while (channel.isOpen()) {
+        inNetBuffer.clear();
+        source = channel.receive(inNetBuffer);
+        if (source == null) {
+          return;
+        }
+        inNetBuffer.flip();
+        DtlsAddress peerAddress = new DtlsAddress((InetSocketAddress) source);
+        if (logger.isDebugEnabled()) {
+          logger.debug("Read {} bytes from {}", inNetBuffer.remaining(), peerAddress);
+        }
+        DtlsSession session;
+        synchronized (sessions) {
+          session = sessions.get(peerAddress);
+          if ((session == null) || session.closed) {
+            if (!admitSession(peerAddress, false)) {
+              sessionsRejected.incrementAndGet();
+              logger.debug("Dropped datagram from {} because all {} DTLS sessions are established",
+                           peerAddress, maxSessions);
+              continue;
+            }
+            try {
+              session = new DtlsSession(peerAddress, false, null);
+            }
+            catch (IOException iox) {
+              logger.error("Failed to accept DTLS session from {}: {}", peerAddress, iox.getMessage());
+              continue;
+            }
+            sessions.put(peerAddress, session);
+            counterSupport.fireIncrementCounter(
+                new CounterEvent(DtlsTransportMapping.this, SnmpConstants.snmpTlstmSessionAccepts));
+          }
+        }
+        try {
+          if (!session.handshakeStarted) {
+            beginHandshake(session);
+          }
+          process(session, inNetBuffer);
+        }
+        catch (SSLException sslex) {
+          handshakeFailed(session, sslex);
+        }
+        catch (RuntimeException rex) {
+          handshakeFailed(session, new SSLException(rex));
+        }
+      }
+    }
+
+    private void processPending() {
+      DtlsSession session;
+      while ((session = pending.poll()) != null) {
+        if (session.closed) {
+          continue;
+        }
+        try {
+          if (session.closeRequested) {
+            closeSession(session);
+            continue;
+          }
+          if (!session.handshakeStarted) {
+            beginHandshake(session);
+          }
+          else if (session.retransmit) {
+            session.retransmit = false;
+            if (!session.handshakeFinished) {
+              if (++session.retransmissionCount > maxRetransmissions) {
+                handshakeFailed(session, new SSLException("No response after "+maxRetransmissions+
+                                                          " retransmissions"));
+                continue;
+              }
+              // wrapping while waiting for the peer's flight retransmits the last flight
+              retransmissions.incrementAndGet();
+              logger.debug("Retransmitting handshake flight to {}", session.peerAddress);
+              wrap(session, ByteBuffer.allocate(0));
+            }
+          }
+          process(session, null);
+        }
+        catch (IOException iox) {
+          handshakeFailed(session, iox);
+        }
+        catch (RuntimeException rex) {
+          handshakeFailed(session, new SSLException(rex));
+        }
+      }
+    }
+
+    private void beginHandshake(DtlsSession session) throws SSLException {
+      session.handshakeStarted = true;
+      session.handshakeStart = System.nanoTime();
+      session.sslEngine.beginHandshake();
+    }
+
+    /**
+     * Runs the SSL engine of the session until it needs more input from
+     * the peer, then sends queued messages if the session is established.
+     */
+    private void process(DtlsSession session, ByteBuffer in) throws IOException {
+      SSLEngine sslEngine = session.sslEngine;
+      int steps = 0;
+      while (!session.closed && (++steps < MAX_ENGINE_STEPS)) {
+        SSLEngineResult.HandshakeStatus status = sslEngine.getHandshakeStatus();
+        if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+          Runnable task;
+          while ((task = sslEngine.getDelegatedTask()) != null) {
+            task.run();
+          }
+        }
+        else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+          wrap(session, ByteBuffer.allocate(0));
+        }
+        else if (NEED_UNWRAP_AGAIN.equals(status.name())) {
+          unwrap(session, ByteBuffer.allocate(0));
+        }
+        else if ((in != null) && in.hasRemaining()) {
+          if (!unwrap(session, in)) {
+            // discard the rest of an unprocessable datagram
+            in.position(in.limit());
+          }
+        }
+        else {
+          break;
+        }
+      }
+      if (session.closed) {
+        return;
+      }
+      if (!session.handshakeFinished && session.handshakeStarted &&
+          (sslEngine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING)) {
+        handshakeFinished(session);
+      }
+      if (session.handshakeFinished) {
+        sendQueuedMessages(session);
+      }
+      else if (sslEngine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+        session.scheduleRetransmission();
+      }
+    }
+
+    /**
+     * Unwraps a DTLS record and dispatches contained application data.
+     * @return
+     *    <code>false</code> if the engine did not consume any input.
+     */
+    private boolean unwrap(DtlsSession session, ByteBuffer in) throws IOException {
+      appBuffer.clear();
+      SSLEngineResult result = session.sslEngine.unwrap(in, appBuffer);
+      switch (result.getStatus()) {
+        case BUFFER_OVERFLOW:
+          appBuffer = ByteBuffer.allocate(Math.max(appBuffer.capacity() * 2,
+              session.sslEngine.getSession().getApplicationBufferSize()));
+          return true;
+        case BUFFER_UNDERFLOW:
+          logger.debug("Discarding truncated DTLS datagram from {}", session.peerAddress);
+          return false;
+        case CLOSED:
+          logger.debug("DTLS session {} closed by peer", session);
+          removeSession(session);
+          return true;
+      }
+      if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
+        handshakeFinished(session);
+      }
+      if (result.bytesProduced() > 0) {
+        appBuffer.flip();
+        dispatchMessage(session, appBuffer);
+      }
+      return (result.bytesConsumed() > 0) || (in.remaining() == 0);
+    }
+
+    private SSLEngineResult wrap(DtlsSession session, ByteBuffer source) throws IOException {
+      outNetBuffer.clear();
+      SSLEngineResult result = session.sslEngine.wrap(source, outNetBuffer);
+      if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+        outNetBuffer = ByteBuffer.allocate(Math.max(outNetBuffer.capacity() * 2,
+            session.sslEngine.getSession().getPacketBufferSize()));
+        result = session.sslEngine.wrap(source, outNetBuffer);
+      }
+      if (result.bytesProduced() > 0) {
+        outNetBuffer.flip();
+        if (channel.send(outNetBuffer, session.peerAddress.toSocketAddress()) == 0) {
+          logger.debug("DTLS datagram to {} dropped, send buffer full", session.peerAddress);
+        }
+      }
+      if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
+        handshakeFinished(session);
+      }
+      return result;
+    }
+
+    private void handshakeFinished(DtlsSession session) {
+      if (session.handshakeFinished) {
+        return;
+      }
+      session.handshakeFinished = true;
+      session.cancelRetransmission();
+      handshakesCompleted.incrementAndGet();
+      checkTransportStateReference(session);
+      if (logger.isInfoEnabled()) {
+        logger.info("DTLS session with {} established in {} ms", session.peerAddress,
+                    (System.nanoTime() - session.handshakeStart) / SnmpConstants.MILLISECOND_TO_NANOSECOND);
+      }
+    }
+
+    private void handshakeFailed(DtlsSession session, IOException cause) {
+      logger.warn("DTLS session with {} failed: {}", session.peerAddress, cause.getMessage());
+      if (!session.handshakeFinished) {
+        counterSupport.fireIncrementCounter(
+            new CounterEvent(DtlsTransportMapping.this, SnmpConstants.snmpTlstmSessionOpenErrors));
+      }
+      removeSession(session);
+    }
+
+    private void sendQueuedMessages(DtlsSession session) throws IOException {
+      byte[] message;
+      while (!session.closed && ((message = session.outbound.poll()) != null)) {
+        session.queuedMessages.decrementAndGet();
+        ByteBuffer source = ByteBuffer.wrap(message);
+        SSLEngineResult result = wrap(session, source);
+        if (result.getStatus() != SSLEngineResult.Status.OK) {
+          logger.warn("Message to {} not sent, DTLS wrap result is {}", session.peerAddress, result);
+        }
+        else if (source.hasRemaining()) {
+          logger.error("Message to {} with length {} exceeds DTLS record size, only {} bytes sent",
+                       session.peerAddress, message.length, result.bytesConsumed());
+        }
+      }
+    }
+
+    private void dispatchMessage(DtlsSession session, ByteBuffer appData) {
+      if (!session.handshakeFinished) {
+        logger.warn("Application data from {} received before DTLS handshake finished, dropped",
+                    session.peerAddress);
+        return;
+      }
+      byte[] message = new byte[appData.remaining()];
+      appData.get(message);
+      if (logger.isDebugEnabled()) {
+        logger.debug("Received message from {} with length {}: {}", session.peerAddress, message.length,
+                     new OctetString(message).toHexString());
+      }
+      checkTransportStateReference(session);
+      fireProcessMessage(session.peerAddress, ByteBuffer.wrap(message), session.tmStateReference);
+    }
+
+    @Override
+    public String getName() {
+      return DtlsTransportMapping.class.getSimpleName() + "Listener_" + getListenAddress();
+    }
+  }
+
+  private class DefaultDtlsTrustManagerFactory implements TlsTransportMapping.TLSTMTrustManagerFactory {
+    @Override
+    public X509TrustManager create(X509TrustManager trustManager, boolean useClientMode,
+                                   TransportStateReference tmStateReference) {
+      return new TlsTmTrustManager(trustManager, useClientMode, tmStateReference,
+                                   securityCallback, counterSupport);
+    }
+  }
+}
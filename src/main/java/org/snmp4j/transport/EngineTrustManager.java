@@ -0,0 +1,105 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - EngineTrustManager.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+
+package org.snmp4j.transport;
+
+import org.snmp4j.TransportStateReference;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedTrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.net.Socket;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+
+/**
+ * The <code>EngineTrustManager</code> is used by SSL contexts shared between
+ * sessions. For each check, it creates the trust manager of the
+ * {@link TlsTransportMapping.TLSTMTrustManagerFactory} for the transport
+ * state reference of the session that owns the checked SSL engine.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ * @since 2.4
+ */
+class EngineTrustManager extends X509ExtendedTrustManager {
+
+  private final X509TrustManager trustManager;
+  private final boolean useClientMode;
+  private final Map<SSLEngine, TransportStateReference> engineReferences;
+  private final TlsTransportMapping.TLSTMTrustManagerFactory trustManagerFactory;
+
+  EngineTrustManager(X509TrustManager trustManager, boolean useClientMode,
+                     Map<SSLEngine, TransportStateReference> engineReferences,
+                     TlsTransportMapping.TLSTMTrustManagerFactory trustManagerFactory) {
+    this.trustManager = trustManager;
+    this.useClientMode = useClientMode;
+    this.engineReferences = engineReferences;
+    this.trustManagerFactory = trustManagerFactory;
+  }
+
+  private X509TrustManager getTrustManager(SSLEngine sslEngine) {
+    TransportStateReference tmStateReference =
+        (sslEngine == null) ? null : engineReferences.get(sslEngine);
+    return trustManagerFactory.create(trustManager, useClientMode, tmStateReference);
+  }
+
+  @Override
+  public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket)
+      throws CertificateException {
+    getTrustManager(null).checkClientTrusted(chain, authType);
+  }
+
+  @Override
+  public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket)
+      throws CertificateException {
+    getTrustManager(null).checkServerTrusted(chain, authType);
+  }
+
+  @Override
+  public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine sslEngine)
+      throws CertificateException {
+    getTrustManager(sslEngine).checkClientTrusted(chain, authType);
+  }
+
+  @Override
+  public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine sslEngine)
+      throws CertificateException {
+    getTrustManager(sslEngine).checkServerTrusted(chain, authType);
+  }
+
+  @Override
+  public void checkClientTrusted(X509Certificate[] chain, String authType)
+      throws CertificateException {
+    getTrustManager(null).checkClientTrusted(chain, authType);
+  }
+
+  @Override
+  public void checkServerTrusted(X509Certificate[] chain, String authType)
+      throws CertificateException {
+    getTrustManager(null).checkServerTrusted(chain, authType);
+  }
+
+  @Override
+  public X509Certificate[] getAcceptedIssuers() {
+    return getTrustManager(null).getAcceptedIssuers();
+  }
+}
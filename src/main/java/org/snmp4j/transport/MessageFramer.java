@@ -0,0 +1,157 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - MessageFramer.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+
+/**
+ * The <code>MessageFramer</code> cuts complete messages out of the byte
+ * stream of a connection oriented transport. Each call of
+ * {@link #read(ReadableByteChannel, List)} fills a large (optionally direct)
+ * buffer with a single read operation and returns all complete messages
+ * found in the buffer as read-only slices of that buffer. A partial message
+ * at the end of the buffer is moved to the beginning of the buffer (compacted)
+ * before the next read.
+ * <p>
+ * The returned slices share their content with the framer's buffer. They are
+ * only valid until the next call of <code>read</code>. Consumers that need a
+ * message longer than that have to copy it.
+ * <p>
+ * A <code>MessageFramer</code> is not thread safe. It is intended to be used
+ * by the single thread that reads from a channel.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ * @since 2.4
+ */
+public class MessageFramer {
+
+  private static final Logger logger =
+      LoggerFactory.getLogger(MessageFramer.class);
+
+  private final MessageLengthDecoder messageLengthDecoder;
+  private final int maxMessageSize;
+  private final ByteBuffer buffer;
+  // start of the first unconsumed byte in buffer
+  private int start = 0;
+
+  /**
+   * Creates a message framer.
+   *
+   * @param messageLengthDecoder
+   *    the decoder that determines the total message length from a message
+   *    header.
+   * @param bufferSize
+   *    the size of the read buffer in bytes. If smaller than
+   *    <code>maxMessageSize</code>, <code>maxMessageSize</code> is used.
+   * @param maxMessageSize
+   *    the maximum size of a message in bytes.
+   * @param direct
+   *    <code>true</code> to allocate a direct buffer which avoids copying
+   *    between the socket and the Java heap.
+   */
+  public MessageFramer(MessageLengthDecoder messageLengthDecoder,
+                       int bufferSize, int maxMessageSize, boolean direct) {
+    this.messageLengthDecoder = messageLengthDecoder;
+    this.maxMessageSize = maxMessageSize;
+    int size = Math.max(bufferSize, maxMessageSize);
+    this.buffer = (direct) ?
+        ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+  }
+
+  /**
+   * Reads available bytes from the channel with a single read operation and
+   * adds all complete messages to the supplied list.
+   *
+   * @param channel
+   *    a (non-blocking) channel.
+   * @param messages
+   *    a list that receives read-only buffers, each containing exactly one
+   *    message starting at position zero.
+   * @return
+   *    the number of bytes read, possibly zero, or -1 if the channel has
+   *    reached end-of-stream.
+   * @throws IOException
+   *    if reading from the channel fails or if a message header is invalid.
+   */
+  public int read(ReadableByteChannel channel, List<ByteBuffer> messages)
+      throws IOException
+  {
+    if (start > 0) {
+      // compact partial trailing message
+      int pending = buffer.position() - start;
+      buffer.flip();
+      buffer.position(start);
+      buffer.compact();
+      start = 0;
+      if (logger.isDebugEnabled()) {
+        logger.debug("Compacted {} bytes of partial message", pending);
+      }
+    }
+    int read = channel.read(buffer);
+    if (read > 0) {
+      frame(messages);
+    }
+    return read;
+  }
+
+  /**
+   * Gets the number of bytes of an incomplete message currently buffered.
+   * @return
+   *    the number of buffered bytes not yet returned as message.
+   */
+  public int getPendingBytes() {
+    return buffer.position() - start;
+  }
+
+  private void frame(List<ByteBuffer> messages) throws IOException {
+    int end = buffer.position();
+    int minHeaderLength = messageLengthDecoder.getMinHeaderLength();
+    while (end - start >= minHeaderLength) {
+      ByteBuffer view = buffer.duplicate();
+      view.limit(end);
+      view.position(start);
+      MessageLength messageLength =
+          messageLengthDecoder.getMessageLength(view.slice());
+      int length = messageLength.getMessageLength();
+      if ((length <= 0) || (length > maxMessageSize)) {
+        throw new MalformedMessageException("Message has invalid length (0 < " +
+                                            length + " <= " + maxMessageSize + ")");
+      }
+      if (end - start < length) {
+        break;
+      }
+      view.limit(start + length);
+      messages.add(view.slice().asReadOnlyBuffer());
+      start += length;
+    }
+    if (start == end) {
+      // everything consumed, no compaction needed
+      buffer.clear();
+      start = 0;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - MessageQueueFullException.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.transport;
+
+import java.io.IOException;
+
+/**
+ * The <code>MessageQueueFullException</code> is thrown by a transport mapping
+ * when a message cannot be queued for sending because the outbound queue
+ * of the connection to the peer already holds the maximum number of bytes.
+ * It signals back-pressure: the peer does not read fast enough and the
+ * sender should retry later or reduce its sending rate.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ * @since 2.4
+ */
+public class MessageQueueFullException extends IOException {
+
+  private static final long serialVersionUID = 2880569512532566451L;
+
+  private final long queuedBytes;
+
+  public MessageQueueFullException(String message, long queuedBytes) {
+    super(message);
+    this.queuedBytes = queuedBytes;
+  }
+
+  /**
+   * Gets the number of bytes queued for the peer when the message was
+   * rejected.
+   * @return
+   *    the number of unsent bytes.
+   */
+  public long getQueuedBytes() {
+    return queuedBytes;
+  }
+}
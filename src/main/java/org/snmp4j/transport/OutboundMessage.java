@@ -0,0 +1,95 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - OutboundMessage.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+
+package org.snmp4j.transport;
+
+import org.snmp4j.TransportStateReference;
+import org.snmp4j.smi.Address;
+
+import java.io.IOException;
+
+/**
+ * An <code>OutboundMessage</code> is an encoded SNMP message together with
+ * its destination address, as sent in a batch by
+ * {@link org.snmp4j.TransportMapping#sendMessages(java.util.List)}. If the
+ * message could not be sent, the transport mapping records the cause as
+ * failure of the message.
+ *
+ * @param <A> the address type of the transport mapping.
+ * @author Frank Fock
+ * @version 2.4
+ * @since 2.4
+ */
+public class OutboundMessage<A extends Address> {
+
+  private final A address;
+  private final byte[] message;
+  private final TransportStateReference tmStateReference;
+  private IOException failure;
+
+  /**
+   * Creates an outbound message.
+   * @param address
+   *    the destination address.
+   * @param message
+   *    the whole message as an array of bytes.
+   * @param tmStateReference
+   *    the (optional) transport model state reference as defined by
+   *    RFC 5590 section 6.1.
+   */
+  public OutboundMessage(A address, byte[] message, TransportStateReference tmStateReference) {
+    this.address = address;
+    this.message = message;
+    this.tmStateReference = tmStateReference;
+  }
+
+  public A getAddress() {
+    return address;
+  }
+
+  public byte[] getMessage() {
+    return message;
+  }
+
+  public TransportStateReference getTmStateReference() {
+    return tmStateReference;
+  }
+
+  /**
+   * Gets the reason why the message could not be sent.
+   * @return
+   *    the <code>IOException</code> that occurred while sending this message
+   *    or <code>null</code> if the message has been sent or has not been
+   *    processed yet.
+   */
+  public IOException getFailure() {
+    return failure;
+  }
+
+  public void setFailure(IOException failure) {
+    this.failure = failure;
+  }
+
+  @Override
+  public String toString() {
+    return "OutboundMessage[address="+address+",length="+message.length+
+        ",failure="+failure+"]";
+  }
+}
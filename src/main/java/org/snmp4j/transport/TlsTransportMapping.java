@@ -30,11 +30,11 @@ import org.snmp4j.mp.SnmpConstants;
 import org.snmp4j.security.SecurityLevel;
 import org.snmp4j.smi.*;
 import org.snmp4j.transport.tls.TlsTmSecurityCallback;
+import org.snmp4j.transport.tls.TlsTmTrustManager;
 import org.snmp4j.util.SnmpConfigurator;
 import org.snmp4j.util.WorkerTask;
 
 import javax.net.ssl.*;
-import javax.security.auth.x500.X500Principal;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -47,11 +47,11 @@ import java.security.*;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
 import java.util.*;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The <code>TLSTM</code> implements the Transport Layer Security
@@ -90,12 +90,51 @@ public class TlsTransportMapping extends TcpTransportMapping {
 
   public static final String DEFAULT_TLSTM_PROTOCOLS = "TLSv1";
   public static final int MAX_TLS_PAYLOAD_SIZE = 32*1024;
+  /**
+   * The maximum plaintext length of a TLS record (2^14 bytes, RFC 5246).
+   * @since 2.4
+   */
+  public static final int MAX_TLS_RECORD_PAYLOAD_SIZE = 16*1024;
+  private static final int DEFAULT_DELEGATED_TASK_QUEUE_SIZE = 1024;
+  private static final int DEFAULT_SESSION_CACHE_SIZE = 10000;
+  private static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 3600;
+  private static final int MAX_CACHED_SSL_CONTEXTS = 64;
+  private static final int DEFAULT_BUFFER_POOL_SIZE = 256;
 
   private String localCertificateAlias;
   private String keyStore;
   private String keyStorePassword;
   private String[] tlsProtocols;
   private TLSTMTrustManagerFactory trustManagerFactory = new DefaultTLSTMTrustManagerFactory();
+  private MessageLengthDecoder messageLengthDecoder =
+      new DefaultTcpTransportMapping.SnmpMesssageLengthDecoder();
+  private long writeCoalescingDelay = 0;
+
+  private int delegatedTaskThreads = Runtime.getRuntime().availableProcessors();
+  private int delegatedTaskQueueSize = DEFAULT_DELEGATED_TASK_QUEUE_SIZE;
+  private ExecutorService delegatedTaskExecutor;
+  private final AtomicInteger delegatedTasksPending = new AtomicInteger();
+  // delegated tasks waiting for a pool thread because the pool queue was full
+  private final Queue<ServerThread.DelegatedTasks> delegatedTaskOverflow = new ConcurrentLinkedQueue<>();
+  private final AtomicLong delegatedTaskOverflows = new AtomicLong();
+  private final AtomicLong handshakesCompleted = new AtomicLong();
+  private final AtomicLong handshakeNanosTotal = new AtomicLong();
+  private final AtomicLong handshakeNanosMax = new AtomicLong();
+
+  private boolean sessionResumption = true;
+  private int sessionCacheSize = DEFAULT_SESSION_CACHE_SIZE;
+  private int sessionTimeout = DEFAULT_SESSION_TIMEOUT_SECONDS;
+  private final AtomicLong sessionsResumed = new AtomicLong();
+  private final AtomicLong fullHandshakes = new AtomicLong();
+  // the transport state reference of each SSL engine for the trust checks
+  // of shared SSL contexts
+  private final Map<SSLEngine, TransportStateReference> engineReferences =
+      Collections.synchronizedMap(new WeakHashMap<SSLEngine, TransportStateReference>());
+
+  private boolean directBuffers;
+  private int bufferPoolSize = DEFAULT_BUFFER_POOL_SIZE;
+  private volatile ByteBufferPool bufferPool;
+  private final AtomicInteger leasedBuffers = new AtomicInteger();
 
   /**
    * Creates a default TCP transport mapping with the server for incoming
@@ -215,6 +254,7 @@ public class TlsTransportMapping extends TcpTransportMapping {
    */
   public void setTlsProtocols(String[] tlsProtocols) {
     this.tlsProtocols = tlsProtocols;
+    clearSessionCache();
   }
 
   public String getKeyStore() {
@@ -226,6 +266,7 @@ public class TlsTransportMapping extends TcpTransportMapping {
 
   public void setKeyStore(String keyStore) {
     this.keyStore = keyStore;
+    clearSessionCache();
   }
 
   public String getKeyStorePassword() {
@@ -237,6 +278,7 @@ public class TlsTransportMapping extends TcpTransportMapping {
 
   public void setKeyStorePassword(String keyStorePassword) {
     this.keyStorePassword = keyStorePassword;
+    clearSessionCache();
   }
 
   /**
@@ -255,6 +297,7 @@ public class TlsTransportMapping extends TcpTransportMapping {
    */
   public void setLocalCertificateAlias(String localCertificateAlias) {
     this.localCertificateAlias = localCertificateAlias;
+    clearSessionCache();
   }
 
   public CounterSupport getCounterSupport() {
@@ -272,6 +315,7 @@ public class TlsTransportMapping extends TcpTransportMapping {
 
   public void setSecurityCallback(TlsTmSecurityCallback<X509Certificate> securityCallback) {
     this.securityCallback = securityCallback;
+    clearSessionCache();
   }
 
   public TLSTMTrustManagerFactory getTrustManagerFactory() {
@@ -290,6 +334,7 @@ public class TlsTransportMapping extends TcpTransportMapping {
       throw new NullPointerException();
     }
     this.trustManagerFactory = trustManagerFactory;
+    clearSessionCache();
   }
 
   /**
@@ -306,6 +351,9 @@ public class TlsTransportMapping extends TcpTransportMapping {
       throw new SocketException("Port already listening");
     }
     serverThread = new ServerThread();
+    if (delegatedTaskThreads > 0) {
+      delegatedTaskExecutor = createDelegatedTaskExecutor();
+    }
     server = SNMP4JSettings.getThreadFactory().createWorkerThread(
       "TLSTM_"+getAddress(), serverThread, true);
     if (connectionTimeout > 0) {
@@ -388,12 +436,23 @@ public class TlsTransportMapping extends TcpTransportMapping {
             logger.debug(iox.getMessage(), iox);
           }
         }
+        entry.releaseBuffers();
       }
-      if (socketCleaner != null) {
-        socketCleaner.cancel();
-      }
+      // the socket cleaner is the shared timer and must not be cancelled
       socketCleaner = null;
     }
+    ExecutorService executor = delegatedTaskExecutor;
+    if (executor != null) {
+      delegatedTaskExecutor = null;
+      // tasks that never ran must not leave their handshakes pending
+      for (Runnable tasks : executor.shutdownNow()) {
+        ((ServerThread.DelegatedTasks) tasks).finished();
+      }
+      ServerThread.DelegatedTasks tasks;
+      while ((tasks = delegatedTaskOverflow.poll()) != null) {
+        tasks.finished();
+      }
+    }
   }
 
   /**
@@ -417,6 +476,7 @@ public class TlsTransportMapping extends TcpTransportMapping {
     }
     SocketEntry entry = sockets.remove(remoteAddress);
     if (entry != null) {
+      entry.releaseBuffers();
       Socket s = entry.getSocket();
       if (s != null) {
         SocketChannel sc = entry.getSocket().getChannel();
@@ -492,7 +552,7 @@ public class TlsTransportMapping extends TcpTransportMapping {
 
   @Override
   public MessageLengthDecoder getMessageLengthDecoder() {
-    return null;
+    return messageLengthDecoder;
   }
 
   /**
@@ -508,14 +568,301 @@ public class TlsTransportMapping extends TcpTransportMapping {
     this.serverEnabled = serverEnabled;
   }
 
+  /**
+   * Sets the message length decoder that is used to separate the messages
+   * within the decrypted TLS data stream. Default message length decoder is
+   * the {@link DefaultTcpTransportMapping.SnmpMesssageLengthDecoder}.
+   * @param messageLengthDecoder
+   *    a <code>MessageLengthDecoder</code> instance.
+   */
   @Override
   public void setMessageLengthDecoder(MessageLengthDecoder messageLengthDecoder) {
-/*
     if (messageLengthDecoder == null) {
       throw new NullPointerException();
     }
     this.messageLengthDecoder = messageLengthDecoder;
-    */
+  }
+
+  /**
+   * Gets the number of threads that run the delegated tasks of TLS
+   * handshakes.
+   * @return
+   *    the number of threads or zero if delegated tasks are run on the
+   *    server (selector) thread.
+   * @since 2.4
+   */
+  public int getDelegatedTaskThreads() {
+    return delegatedTaskThreads;
+  }
+
+  /**
+   * Sets the number of threads that run the delegated tasks of TLS
+   * handshakes, like certificate validation and key exchange. Running these
+   * tasks in a separate bounded pool prevents a handshake with a new peer
+   * from blocking I/O of all established sessions. If the pool and its queue
+   * are saturated, the tasks wait for the next free thread of the pool. The
+   * new value takes effect with the next call of {@link #listen()}.
+   * @param delegatedTaskThreads
+   *    the number of threads (default is the number of available processors)
+   *    or zero to run the delegated tasks on the server thread.
+   * @since 2.4
+   */
+  public void setDelegatedTaskThreads(int delegatedTaskThreads) {
+    if (delegatedTaskThreads < 0) {
+      throw new IllegalArgumentException("Number of threads must not be negative: "+
+                                         delegatedTaskThreads);
+    }
+    this.delegatedTaskThreads = delegatedTaskThreads;
+  }
+
+  /**
+   * Sets the maximum number of delegated task batches waiting for a
+   * thread of the delegated task pool. The new value takes effect with the
+   * next call of {@link #listen()}.
+   * @param delegatedTaskQueueSize
+   *    the queue capacity (default is 1024).
+   * @since 2.4
+   */
+  public void setDelegatedTaskQueueSize(int delegatedTaskQueueSize) {
+    if (delegatedTaskQueueSize <= 0) {
+      throw new IllegalArgumentException("Queue size must be positive: "+
+                                         delegatedTaskQueueSize);
+    }
+    this.delegatedTaskQueueSize = delegatedTaskQueueSize;
+  }
+
+  public int getDelegatedTaskQueueSize() {
+    return delegatedTaskQueueSize;
+  }
+
+  /**
+   * Gets the number of delegated task batches that are queued or running.
+   * @return
+   *    the current delegated task queue depth.
+   * @since 2.4
+   */
+  public int getDelegatedTaskQueueDepth() {
+    return delegatedTasksPending.get();
+  }
+
+  /**
+   * Gets the number of delegated task batches that could not be queued in
+   * the delegated task pool, because its queue was full. These batches are
+   * run by the next free thread of the pool.
+   * @return
+   *    the number of delegated task batches that overflowed the pool queue.
+   * @since 2.4
+   */
+  public long getDelegatedTaskOverflows() {
+    return delegatedTaskOverflows.get();
+  }
+
+  /**
+   * Gets the number of TLS handshakes completed since creation.
+   * @return
+   *    the number of completed handshakes.
+   * @since 2.4
+   */
+  public long getHandshakesCompleted() {
+    return handshakesCompleted.get();
+  }
+
+  /**
+   * Gets the average duration of the completed TLS handshakes, measured
+   * from the creation of the connection to the end of the handshake.
+   * @return
+   *    the average handshake duration in nanoseconds or zero if no handshake
+   *    has been completed.
+   * @since 2.4
+   */
+  public long getAverageHandshakeDuration() {
+    long count = handshakesCompleted.get();
+    return (count == 0) ? 0 : handshakeNanosTotal.get() / count;
+  }
+
+  /**
+   * Gets the longest duration of a completed TLS handshake.
+   * @return
+   *    the maximum handshake duration in nanoseconds.
+   * @since 2.4
+   */
+  public long getMaxHandshakeDuration() {
+    return handshakeNanosMax.get();
+  }
+
+  private ExecutorService createDelegatedTaskExecutor() {
+    final AtomicInteger threadNumber = new AtomicInteger();
+    final String name = "TLSTM_DelegatedTask_"+getAddress()+"_";
+    java.util.concurrent.ThreadFactory threadFactory = (r -> {
+      Thread t = SNMP4JSettings.getThreadFactory().newThread(r);
+      t.setName(name + threadNumber.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    // rejected tasks are handled by offloadDelegatedTasks
+    return new ThreadPoolExecutor(delegatedTaskThreads, delegatedTaskThreads,
+        60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(delegatedTaskQueueSize),
+        threadFactory, new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  /**
+   * Checks whether TLS session resumption is enabled.
+   * @return
+   *    <code>true</code> if SSL contexts and their session caches are reused.
+   * @since 2.4
+   */
+  public boolean isSessionResumption() {
+    return sessionResumption;
+  }
+
+  /**
+   * Enables or disables TLS session resumption. If enabled (default), the SSL
+   * contexts are reused for all connections with the same local certificate
+   * (and certified peer identity). Thus, their client and server session
+   * caches let reconnecting peers resume their previous TLS session
+   * (by session ID or, if enabled in the JSSE, by session ticket) instead of
+   * doing a full handshake. Certificate checks of new sessions are still
+   * done with the trust manager created by the {@link TLSTMTrustManagerFactory}
+   * for the transport state reference of each connection.
+   * If disabled, each connection uses a new SSL context.
+   * @param sessionResumption
+   *    <code>true</code> to enable session resumption.
+   * @since 2.4
+   */
+  public void setSessionResumption(boolean sessionResumption) {
+    this.sessionResumption = sessionResumption;
+    clearSessionCache();
+  }
+
+  public int getSessionCacheSize() {
+    return sessionCacheSize;
+  }
+
+  /**
+   * Sets the maximum number of TLS sessions cached by each SSL context for
+   * client and server mode. Changes apply to SSL contexts created afterwards.
+   * @param sessionCacheSize
+   *    the maximum number of cached sessions (default is 10000), zero means
+   *    no limit.
+   * @since 2.4
+   */
+  public void setSessionCacheSize(int sessionCacheSize) {
+    this.sessionCacheSize = sessionCacheSize;
+    clearSessionCache();
+  }
+
+  public int getSessionTimeout() {
+    return sessionTimeout;
+  }
+
+  /**
+   * Sets the lifetime of cached TLS sessions. A session older than this
+   * cannot be resumed. Changes apply to SSL contexts created afterwards.
+   * @param sessionTimeout
+   *    the session lifetime in seconds (default is 3600), zero means
+   *    no limit.
+   * @since 2.4
+   */
+  public void setSessionTimeout(int sessionTimeout) {
+    this.sessionTimeout = sessionTimeout;
+    clearSessionCache();
+  }
+
+  /**
+   * Removes all cached SSL contexts and thereby all cached TLS sessions.
+   * This is done automatically when the key store or other security relevant
+   * settings of this transport mapping are changed.
+   * @since 2.4
+   */
+  public void clearSessionCache() {
+    SSLEngineConfigurator configurator = sslEngineConfigurator;
+    if (configurator instanceof DefaultSSLEngineConfiguration) {
+      ((DefaultSSLEngineConfiguration)configurator).clearSSLContexts();
+    }
+  }
+
+  /**
+   * Gets the number of handshakes that resumed a cached TLS session.
+   * @return
+   *    the number of resumed sessions.
+   * @since 2.4
+   */
+  public long getSessionsResumed() {
+    return sessionsResumed.get();
+  }
+
+  /**
+   * Gets the number of handshakes that established a new TLS session.
+   * @return
+   *    the number of full handshakes.
+   * @since 2.4
+   */
+  public long getFullHandshakes() {
+    return fullHandshakes.get();
+  }
+
+  /**
+   * Gets the ratio of resumed sessions to all completed handshakes.
+   * @return
+   *    the session cache hit rate between 0.0 and 1.0.
+   * @since 2.4
+   */
+  public double getSessionResumptionRate() {
+    long resumed = sessionsResumed.get();
+    long total = resumed + fullHandshakes.get();
+    return (total == 0) ? 0.0 : (double)resumed / total;
+  }
+
+  private void handshakeFinished(SocketEntry entry) {
+    // a resumed session has been created before the connection
+    if (entry.sslEngine.getSession().getCreationTime() < entry.createdMillis) {
+      sessionsResumed.incrementAndGet();
+      logger.debug("TLS session with {} resumed", entry.getPeerAddress());
+    }
+    else {
+      fullHandshakes.incrementAndGet();
+    }
+    long duration = System.nanoTime() - entry.created;
+    handshakesCompleted.incrementAndGet();
+    handshakeNanosTotal.addAndGet(duration);
+    long max;
+    while ((max = handshakeNanosMax.get()) < duration) {
+      if (handshakeNanosMax.compareAndSet(max, duration)) {
+        break;
+      }
+    }
+    if (logger.isDebugEnabled()) {
+      logger.debug("TLS handshake with {} finished after {} ms", entry.getPeerAddress(),
+          duration / SnmpConstants.MILLISECOND_TO_NANOSECOND);
+    }
+  }
+
+  /**
+   * Gets the maximum delay for coalescing outgoing messages.
+   * @return
+   *    the delay in milliseconds.
+   * @since 2.4
+   */
+  public long getWriteCoalescingDelay() {
+    return writeCoalescingDelay;
+  }
+
+  /**
+   * Sets the maximum time an outgoing message may be held back to be sent
+   * together with subsequent messages to the same peer. Queued messages of a
+   * connection are always encrypted into as few TLS records as possible
+   * (up to {@link #MAX_TLS_RECORD_PAYLOAD_SIZE} bytes each). A positive delay
+   * lets bursts of messages, like notifications or responses sent to the same
+   * peer, share TLS records even if they are not sent at the same instant.
+   * Messages are sent without further delay when the queued messages fill a
+   * TLS record.
+   * @param writeCoalescingDelay
+   *    the latency budget in milliseconds. Zero (default) sends messages
+   *    immediately.
+   * @since 2.4
+   */
+  public void setWriteCoalescingDelay(long writeCoalescingDelay) {
+    this.writeCoalescingDelay = writeCoalescingDelay;
   }
 
   /**
@@ -529,6 +876,86 @@ public class TlsTransportMapping extends TcpTransportMapping {
     this.maxInboundMessageSize = maxInboundMessageSize;
   }
 
+  /**
+   * Indicates whether the network and application buffers of the TLS
+   * connections are direct byte buffers.
+   * @return
+   *    <code>true</code> if direct buffers are used.
+   * @since 2.4
+   */
+  public boolean isDirectBuffers() {
+    return directBuffers;
+  }
+
+  /**
+   * Sets whether direct byte buffers are allocated for the network and
+   * application buffers of the TLS connections. Direct buffers avoid an
+   * additional copy between the socket and the Java heap, but are more
+   * expensive to allocate. The buffers are pooled either way.
+   * @param directBuffers
+   *    <code>true</code> to use direct buffers, <code>false</code> (default)
+   *    to use heap buffers.
+   * @since 2.4
+   */
+  public synchronized void setDirectBuffers(boolean directBuffers) {
+    this.directBuffers = directBuffers;
+    this.bufferPool = null;
+  }
+
+  public int getBufferPoolSize() {
+    return bufferPoolSize;
+  }
+
+  /**
+   * Sets the maximum number of idle buffers kept for reuse. A connection
+   * leases its network and application buffers only while it has data
+   * in progress and returns them to the pool afterwards. Thus, the memory
+   * used for buffers depends on the number of active connections rather
+   * than the number of open connections.
+   * @param bufferPoolSize
+   *    the maximum number of idle pooled buffers (default is 256).
+   * @since 2.4
+   */
+  public synchronized void setBufferPoolSize(int bufferPoolSize) {
+    if (bufferPoolSize < 0) {
+      throw new IllegalArgumentException("Pool size must be >= 0: "+bufferPoolSize);
+    }
+    this.bufferPoolSize = bufferPoolSize;
+    this.bufferPool = null;
+  }
+
+  /**
+   * Gets the number of buffers currently leased by connections, including
+   * buffers leased from a pool that has been replaced by a configuration
+   * change. Connections return their buffers when they are closed.
+   * @return
+   *    the number of network and application buffers in use.
+   * @since 2.4
+   */
+  public int getLeasedBuffers() {
+    return leasedBuffers.get();
+  }
+
+  /**
+   * Returns the buffer pool for the current maximum inbound message size,
+   * creating it if necessary.
+   * @return
+   *    the buffer pool of this transport mapping.
+   */
+  protected ByteBufferPool getBufferPool() {
+    ByteBufferPool pool = bufferPool;
+    if ((pool == null) || (pool.getBufferSize() != getMaxInboundMessageSize())) {
+      synchronized (this) {
+        pool = bufferPool;
+        if ((pool == null) || (pool.getBufferSize() != getMaxInboundMessageSize())) {
+          pool = new ByteBufferPool(getMaxInboundMessageSize(), bufferPoolSize, directBuffers);
+          bufferPool = pool;
+        }
+      }
+    }
+    return pool;
+  }
+
 
   private synchronized void timeoutSocket(SocketEntry entry) {
     if (connectionTimeout > 0) {
@@ -576,25 +1003,37 @@ public class TlsTransportMapping extends TcpTransportMapping {
     private TcpAddress peerAddress;
     private long lastUse;
     private LinkedList<byte[]> message = new LinkedList<>();
+    private int messageBytes;
+    private TimerTask flushTask;
     private ByteBuffer inNetBuffer;
     private ByteBuffer inAppBuffer;
-    private ByteBuffer outAppBuffer;
+    private ByteBuffer[] outAppBuffers;
     private ByteBuffer outNetBuffer;
     private volatile int registrations = 0;
     private SSLEngine sslEngine;
     private long sessionID;
     private TransportStateReference tmStateReference;
+    /**
+     * The security name mapping version the tmSecurityName has been resolved
+     * with or -1 if it has not been resolved through the security callback.
+     */
+    private long securityNameMappingVersion = -1;
     private boolean handshakeFinished;
+    private final long created = System.nanoTime();
+    private final long createdMillis = System.currentTimeMillis();
+    private volatile boolean delegatedTasksRunning;
+    private SSLEngineResult delegatedTaskResult;
 
     private final Object outboundLock = new Object();
     private final Object inboundLock = new Object();
+    // the pools the leased buffers have been acquired from
+    private ByteBufferPool inboundPool;
+    private ByteBufferPool outboundPool;
+    private volatile boolean closed;
 
     public SocketEntry(TcpAddress address, Socket socket,
                        boolean useClientMode,
                        TransportStateReference tmStateReference) {
-      this.inAppBuffer = ByteBuffer.allocate(getMaxInboundMessageSize());
-      this.inNetBuffer = ByteBuffer.allocate(getMaxInboundMessageSize());
-      this.outNetBuffer = ByteBuffer.allocate(getMaxInboundMessageSize());
       this.peerAddress = address;
       this.tmStateReference = tmStateReference;
       this.socket = socket;
@@ -605,6 +1044,7 @@ public class TlsTransportMapping extends TcpTransportMapping {
       SSLContext sslContext = sslEngineConfigurator.getSSLContext(useClientMode, tmStateReference);
       this.sslEngine = sslContext.createSSLEngine(address.getInetAddress().getHostName(), address.getPort());
       sslEngine.setUseClientMode(useClientMode);
+      engineReferences.put(sslEngine, tmStateReference);
 //      sslEngineConfigurator.configure(SSLContext.getDefault(), useClientMode);
       sslEngineConfigurator.configure(sslEngine);
       synchronized (TlsTransportMapping.this) {
@@ -657,13 +1097,70 @@ public class TlsTransportMapping extends TcpTransportMapping {
 
     public synchronized void addMessage(byte[] message) {
       this.message.add(message);
+      messageBytes += message.length;
     }
 
-    public synchronized byte[] nextMessage() {
-      if (!this.message.isEmpty()) {
-        return this.message.removeFirst();
+    /**
+     * Removes the next queued messages from the queue that fit into the
+     * given number of bytes, but at least one message.
+     * @param maxBytes
+     *    the maximum total length of the returned messages if more than one
+     *    message is returned.
+     * @return
+     *    the messages or <code>null</code> if there is no queued message.
+     */
+    public synchronized ByteBuffer[] nextMessages(int maxBytes) {
+      if (this.message.isEmpty()) {
+        return null;
+      }
+      List<ByteBuffer> messages = new ArrayList<>();
+      int total = 0;
+      do {
+        byte[] next = this.message.getFirst();
+        if ((total > 0) && (total + next.length > maxBytes)) {
+          break;
+        }
+        this.message.removeFirst();
+        messageBytes -= next.length;
+        total += next.length;
+        messages.add(ByteBuffer.wrap(next));
+      }
+      while (!this.message.isEmpty());
+      return messages.toArray(new ByteBuffer[messages.size()]);
+    }
+
+    public synchronized int getMessageBytes() {
+      return messageBytes;
+    }
+
+    /**
+     * Schedules a flush of the queued messages after the given delay unless
+     * a flush is already scheduled.
+     * @param delay
+     *    the delay in milliseconds.
+     * @param flush
+     *    the flush to run.
+     */
+    public synchronized void scheduleFlush(long delay, final Runnable flush) {
+      if (flushTask == null) {
+        flushTask = new TimerTask() {
+          @Override
+          public void run() {
+            synchronized (SocketEntry.this) {
+              flushTask = null;
+            }
+            flush.run();
+          }
+        };
+        SNMP4JSettings.getSharedTimer().schedule(flushTask, delay);
+      }
+    }
+
+    public synchronized void cancelFlush() {
+      if (flushTask != null) {
+        flushTask.cancel();
+        flushTask = null;
       }
-      return null;
     }
 
     public synchronized boolean hasMessage() {
@@ -674,14 +1171,97 @@ public class TlsTransportMapping extends TcpTransportMapping {
       this.inNetBuffer = byteBuffer;
     }
 
+    /**
+     * Gets the network input buffer, leasing it from the buffer pool if
+     * the entry does not hold one.
+     * @return
+     *    the network input buffer (in write mode).
+     */
     public ByteBuffer getInNetBuffer() {
+      assert Thread.holdsLock(inboundLock);
+      if (inNetBuffer == null) {
+        inNetBuffer = leaseInboundBuffer();
+      }
       return inNetBuffer;
     }
 
+    private ByteBuffer leaseInboundBuffer() {
+      if ((inNetBuffer == null) && (inAppBuffer == null)) {
+        // both inbound buffers are returned, thus switching the pool is safe
+        inboundPool = getBufferPool();
+      }
+      leasedBuffers.incrementAndGet();
+      return inboundPool.acquireBuffer();
+    }
+
+    /**
+     * Gets the network output buffer, leasing it from the buffer pool if
+     * the entry does not hold one.
+     * @return
+     *    the network output buffer (in write mode).
+     */
     public ByteBuffer getOutNetBuffer() {
+      assert Thread.holdsLock(outboundLock);
+      if (outNetBuffer == null) {
+        outboundPool = getBufferPool();
+        leasedBuffers.incrementAndGet();
+        outNetBuffer = outboundPool.acquireBuffer();
+      }
       return outNetBuffer;
     }
 
+    /**
+     * Returns the inbound buffers that do not contain pending data to the
+     * buffer pool they have been leased from. Buffers of a closed entry are
+     * returned regardless of their content.
+     */
+    public void releaseInboundBuffers() {
+      synchronized (inboundLock) {
+        if ((inNetBuffer != null) && (closed || (inNetBuffer.position() == 0))) {
+          ByteBuffer buffer = inNetBuffer;
+          inNetBuffer = null;
+          leasedBuffers.decrementAndGet();
+          inboundPool.offerBuffer(buffer);
+        }
+        if ((inAppBuffer != null) && (closed || (inAppBuffer.position() == 0))) {
+          ByteBuffer buffer = inAppBuffer;
+          inAppBuffer = null;
+          leasedBuffers.decrementAndGet();
+          inboundPool.offerBuffer(buffer);
+        }
+      }
+    }
+
+    /**
+     * Returns the network output buffer to the buffer pool it has been leased
+     * from if all its data has been written or the entry is closed.
+     */
+    public void releaseOutboundBuffer() {
+      synchronized (outboundLock) {
+        if ((outNetBuffer != null) && (closed || (outNetBuffer.position() == 0))) {
+          ByteBuffer buffer = outNetBuffer;
+          outNetBuffer = null;
+          leasedBuffers.decrementAndGet();
+          outboundPool.offerBuffer(buffer);
+        }
+      }
+    }
+
+    /**
+     * Marks this entry as closed and returns all its buffers to the buffer
+     * pool. Buffers leased afterwards are returned as soon as their use
+     * ends.
+     */
+    public void releaseBuffers() {
+      closed = true;
+      releaseInboundBuffers();
+      releaseOutboundBuffer();
+    }
+
+    boolean isClosed() {
+      return closed;
+    }
+
     public void setOutNetBuffer(ByteBuffer outNetBuffer) {
       this.outNetBuffer = outNetBuffer;
     }
@@ -717,28 +1297,49 @@ public class TlsTransportMapping extends TcpTransportMapping {
             new TransportStateReference(TlsTransportMapping.this, peerAddress, new OctetString(),
                 SecurityLevel.authPriv, SecurityLevel.authPriv,
                 true, sessionID);
-        OctetString securityName = null;
-        if (securityCallback != null) {
-          try {
-            securityName = securityCallback.getSecurityName(
-                (X509Certificate[]) sslEngine.getSession().getPeerCertificates());
-          } catch (SSLPeerUnverifiedException e) {
-            logger.error("SSL peer '{}' is not verified: {}", peerAddress, e.getMessage(), e);
-            sslEngine.setEnableSessionCreation(false);
-          }
+        tmStateReference.setSecurityName(resolveSecurityName());
+      }
+      else {
+        if (tmStateReference.getTransportSecurityLevel() == SecurityLevel.undefined) {
+          tmStateReference.setTransportSecurityLevel(SecurityLevel.authPriv);
+        }
+        if ((securityNameMappingVersion >= 0) && (securityCallback != null) &&
+            (securityCallback.getSecurityNameMappingVersion() != securityNameMappingVersion)) {
+          tmStateReference.setSecurityName(resolveSecurityName());
         }
-        tmStateReference.setSecurityName(securityName);
       }
-      else if (tmStateReference.getTransportSecurityLevel() == SecurityLevel.undefined) {
-        tmStateReference.setTransportSecurityLevel(SecurityLevel.authPriv);
+    }
+
+    private OctetString resolveSecurityName() {
+      OctetString securityName = null;
+      if (securityCallback != null) {
+        securityNameMappingVersion = securityCallback.getSecurityNameMappingVersion();
+        try {
+          securityName = securityCallback.getSecurityName(
+              (X509Certificate[]) sslEngine.getSession().getPeerCertificates());
+        } catch (SSLPeerUnverifiedException e) {
+          logger.error("SSL peer '{}' is not verified: {}", peerAddress, e.getMessage(), e);
+          sslEngine.setEnableSessionCreation(false);
+        }
       }
+      return securityName;
     }
 
     public void setInAppBuffer(ByteBuffer inAppBuffer) {
       this.inAppBuffer = inAppBuffer;
     }
 
+    /**
+     * Gets the application input buffer, leasing it from the buffer pool if
+     * the entry does not hold one.
+     * @return
+     *    the application input buffer (in write mode).
+     */
     public ByteBuffer getInAppBuffer() {
+      assert Thread.holdsLock(inboundLock);
+      if (inAppBuffer == null) {
+        inAppBuffer = leaseInboundBuffer();
+      }
       return inAppBuffer;
     }
 
@@ -752,7 +1353,7 @@ public class TlsTransportMapping extends TcpTransportMapping {
 
     public boolean isAppOutPending() {
       synchronized (outboundLock) {
-        return (outAppBuffer != null) && (outAppBuffer.limit() > 0);
+        return (outAppBuffers != null) && hasRemaining(outAppBuffers);
       }
     }
 
@@ -825,6 +1426,7 @@ public class TlsTransportMapping extends TcpTransportMapping {
           synchronized (entryCopy) {
             entryCopy.getSocket().close();
           }
+          entryCopy.releaseBuffers();
           logger.info("Socket to {} closed due to timeout", entryCopy.getPeerAddress());
         }
         catch (IOException ex) {
@@ -860,6 +1462,7 @@ public class TlsTransportMapping extends TcpTransportMapping {
     private LinkedList<SocketEntry> pending = new LinkedList<>();
     private BlockingQueue<SocketEntry> outQueue = new LinkedBlockingQueue<>();
     private BlockingQueue<SocketEntry> inQueue = new LinkedBlockingQueue<>();
+    private Queue<SocketEntry> resumed = new ConcurrentLinkedQueue<>();
 
     public ServerThread() throws IOException {
       // Selector for incoming requests
@@ -908,8 +1511,9 @@ public class TlsTransportMapping extends TcpTransportMapping {
           try {
             entry = inQueue.take();
             synchronized (entry.inboundLock) {
-              entry.inNetBuffer.flip();
-              logger.debug("TLS inNetBuffer = {}", entry.inNetBuffer);
+              ByteBuffer inNetBuffer = entry.getInNetBuffer();
+              inNetBuffer.flip();
+              logger.debug("TLS inNetBuffer = {}", inNetBuffer);
 /*
             if (entry.inNetBuffer.limit() < entry.inNetBuffer.capacity()) {
               entry.inNetBuffer.limit(entry.inNetBuffer.capacity());
@@ -917,12 +1521,11 @@ public class TlsTransportMapping extends TcpTransportMapping {
               continue;
             } */
               SSLEngineResult nextResult =
-                  entry.sslEngine.unwrap(entry.inNetBuffer, entry.inAppBuffer);
+                  entry.sslEngine.unwrap(inNetBuffer, entry.getInAppBuffer());
               adjustInNetBuffer(entry, nextResult);
               if (runDelegatedTasks(nextResult, entry)) {
                 switch (nextResult.getStatus()) {
                   case BUFFER_UNDERFLOW:
-                    entry.inNetBuffer.limit(entry.inNetBuffer.capacity());
                     entry.addRegistration(selector, SelectionKey.OP_READ);
                     break;
                   case BUFFER_OVERFLOW:
@@ -935,17 +1538,17 @@ public class TlsTransportMapping extends TcpTransportMapping {
                       // we have a message to send
                       writeMessage(entry, entry.getSocket().getChannel());
                     }
-                    entry.inAppBuffer.flip();
                     logger.debug("Dispatching inAppBuffer={}", entry.inAppBuffer);
-                    if (entry.inAppBuffer.limit() > 0) {
-                      dispatchMessage(entry.getPeerAddress(),
-                          entry.inAppBuffer, entry.inAppBuffer.limit(),
-                          entry.sessionID, entry.tmStateReference);
+                    dispatchMessages(entry.getPeerAddress(), entry);
+                    // the final handshake records may be followed by data
+                    // in the same read, which must not wait for the next one
+                    if ((nextResult.bytesConsumed() > 0) && (inNetBuffer.position() > 0)) {
+                      inQueue.add(entry);
                     }
-                    entry.inAppBuffer.clear();
                 }
               }
             }
+            entry.releaseInboundBuffers();
           } catch (IOException iox) {
             logger.error("IO exception caught while SSL processing: {}", iox.getMessage(), iox);
             while (entry != null && inQueue.remove(entry)) {
@@ -959,8 +1562,12 @@ public class TlsTransportMapping extends TcpTransportMapping {
     }
     private void processPending() {
       synchronized (pending) {
-        for (int i=0; i<pending.size(); i++) {
-          SocketEntry entry = pending.getFirst();
+        for (SocketEntry entry : new ArrayList<>(pending)) {
+          if (!entry.getSocket().getChannel().isOpen()) {
+            // connection has been closed meanwhile
+            pending.remove(entry);
+            continue;
+          }
           try {
             // Register the channel with the selector, indicating
             // interest in connection completion and attaching the
@@ -992,25 +1599,11 @@ public class TlsTransportMapping extends TcpTransportMapping {
               logger.error(ex.getMessage(), ex);
             }
           }
-          catch (IOException iox) {
-            logger.error(iox.getMessage(), iox);
+          catch (ClosedChannelException ccex) {
+            // connection has been closed concurrently, registration is the
+            // only I/O operation of this loop
+            logger.debug("Channel to {} closed before registration", entry.getPeerAddress());
             pending.remove(entry);
-            // Something went wrong, so close the channel and
-            // record the failure
-            try {
-              entry.getSocket().getChannel().close();
-              TransportStateEvent e =
-                  new TransportStateEvent(TlsTransportMapping.this,
-                                          entry.getPeerAddress(),
-                                          TransportStateEvent.TransportStates.CLOSED,
-                                          iox);
-              fireConnectionStateChanged(e);
-            }
-            catch (IOException ex) {
-              logger.error(ex.getMessage(), ex);
-            }
-            lastError = iox;
-            throw new RuntimeException(iox);
           }
         }
       }
@@ -1034,6 +1627,15 @@ public class TlsTransportMapping extends TcpTransportMapping {
       }
       SSLEngineResult.HandshakeStatus status = result.getHandshakeStatus();
       if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+        if (entry.delegatedTasksRunning) {
+          // resumed by the delegated task pool
+          return false;
+        }
+        ExecutorService executor = delegatedTaskExecutor;
+        if (executor != null) {
+          offloadDelegatedTasks(executor, result, entry);
+          return false;
+        }
         Runnable runnable;
         while ((runnable = entry.sslEngine.getDelegatedTask()) != null) {
           logger.debug("Running delegated task...");
@@ -1045,10 +1647,150 @@ public class TlsTransportMapping extends TcpTransportMapping {
         }
         logger.info("Handshake status = {}", status);
       }
-      System.err.println("TASK:"+result);
+      return continueHandshake(result, status, entry);
+    }
+
+    /**
+     * Runs the delegated tasks of the supplied entry's SSL engine on the
+     * given executor. When finished, the entry is queued for resumption
+     * by this server thread.
+     */
+    private void offloadDelegatedTasks(ExecutorService executor,
+                                       final SSLEngineResult result,
+                                       final SocketEntry entry) {
+      final List<Runnable> tasks = new ArrayList<>();
+      Runnable runnable;
+      while ((runnable = entry.sslEngine.getDelegatedTask()) != null) {
+        tasks.add(runnable);
+      }
+      entry.delegatedTasksRunning = true;
+      entry.delegatedTaskResult = result;
+      delegatedTasksPending.incrementAndGet();
+      logger.debug("Offloading {} delegated task(s) of {}", tasks.size(), entry);
+      DelegatedTasks delegatedTasks = new DelegatedTasks(entry, tasks);
+      try {
+        executor.execute(delegatedTasks);
+      }
+      catch (RejectedExecutionException rex) {
+        if (executor.isShutdown()) {
+          // run the tasks here to not stall the handshake
+          logger.debug("Delegated tasks of {} rejected, running them inline: {}", entry, rex.getMessage());
+          delegatedTasks.runTasks();
+        }
+        else {
+          // the queue is full, every queued batch runs the overflow when done
+          logger.debug("Delegated task queue full, deferring tasks of {}", entry);
+          delegatedTaskOverflows.incrementAndGet();
+          delegatedTaskOverflow.add(delegatedTasks);
+          try {
+            // the queued batches may have finished before the overflow was added
+            executor.execute(new DelegatedTasks(null, null));
+          }
+          catch (RejectedExecutionException rex2) {
+            // still full, thus a queued batch will run the overflow
+          }
+        }
+      }
+    }
+
+    /**
+     * The delegated tasks of a handshake step. When run by a thread of the
+     * delegated task pool, that thread also runs the batches that did not
+     * fit into the queue of the pool. Without entry, only those are run.
+     */
+    class DelegatedTasks implements Runnable {
+      private final SocketEntry entry;
+      private final List<Runnable> tasks;
+
+      DelegatedTasks(SocketEntry entry, List<Runnable> tasks) {
+        this.entry = entry;
+        this.tasks = tasks;
+      }
+
+      @Override
+      public void run() {
+        DelegatedTasks next = (entry != null) ? this : delegatedTaskOverflow.poll();
+        while (next != null) {
+          next.runTasks();
+          next = delegatedTaskOverflow.poll();
+        }
+      }
+
+      void runTasks() {
+        try {
+          for (Runnable task : tasks) {
+            task.run();
+          }
+        }
+        finally {
+          finished();
+        }
+      }
+
+      /**
+       * Queues the entry for resumption by the server thread.
+       */
+      void finished() {
+        if (entry == null) {
+          return;
+        }
+        delegatedTasksPending.decrementAndGet();
+        entry.delegatedTasksRunning = false;
+        resumed.add(entry);
+        selector.wakeup();
+      }
+    }
+
+    /**
+     * Continues the handshakes of entries whose delegated tasks have been
+     * run by the delegated task pool.
+     */
+    private void processResumed() {
+      SocketEntry entry;
+      while ((entry = resumed.poll()) != null) {
+        try {
+          SSLEngineResult result = entry.delegatedTaskResult;
+          entry.delegatedTaskResult = null;
+          SSLEngineResult.HandshakeStatus status = entry.sslEngine.getHandshakeStatus();
+          logger.debug("Resuming handshake of {} with status {}", entry, status);
+          if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+            runDelegatedTasks(new SSLEngineResult(result.getStatus(), status,
+                0, result.bytesProduced()), entry);
+          }
+          else if (continueHandshake(result, status, entry) && entry.isAppOutPending()) {
+            writeMessage(entry, entry.getSocket().getChannel());
+          }
+        }
+        catch (IOException iox) {
+          logger.error("IO exception caught while resuming SSL handshake: {}", iox.getMessage(), iox);
+        }
+        catch (CancelledKeyException ckex) {
+          logger.debug("Selection key of {} cancelled while resuming handshake", entry);
+        }
+      }
+    }
+
+    /**
+     * Continues the processing of a wrap/unwrap result after the delegated
+     * tasks of the SSL engine have been run.
+     * @param result
+     *    the SSLEngine wrap/unwrap result.
+     * @param status
+     *    the current handshake status of the SSL engine.
+     * @param entry
+     *    the session to use.
+     * @return
+     *    <code>true</code> if the handshake has been finished or is not
+     *    running, <code>false</code> otherwise.
+     * @throws IOException
+     *    if writing the network buffer fails.
+     */
+    private boolean continueHandshake(SSLEngineResult result,
+                                      SSLEngineResult.HandshakeStatus status,
+                                      SocketEntry entry) throws IOException {
       switch (result.getStatus()) {
         case BUFFER_UNDERFLOW:
-          entry.inNetBuffer.limit(entry.inNetBuffer.capacity());
+          // the partial record remains in the network buffer (write mode)
           entry.addRegistration(selector, SelectionKey.OP_READ);
           return false;
         case CLOSED:
@@ -1066,7 +1808,8 @@ public class TlsTransportMapping extends TcpTransportMapping {
           break;
         case FINISHED:
           logger.debug("TLS handshake finished");
-          entry.setHandshakeFinished(true);/*
+          entry.setHandshakeFinished(true);
+          handshakeFinished(entry);/*
           if (result.bytesProduced() > 0) {
             writeNetBuffer(entry, entry.getSocket().getChannel());
           }
@@ -1132,7 +1875,8 @@ public class TlsTransportMapping extends TcpTransportMapping {
           else {
             sc = s.getChannel();
             sc.configureBlocking(false);
-            if (!sc.isConnectionPending()) {
+            // the connection may have been established since the check above
+            if (!sc.isConnectionPending() && !sc.isConnected()) {
               sc.connect(targetAddress);
               counterSupport.fireIncrementCounter(
                   new CounterEvent(this, SnmpConstants.snmpTlstmSessionOpens));
@@ -1172,11 +1916,16 @@ public class TlsTransportMapping extends TcpTransportMapping {
       }
       else if (matchingStateReferences(tmStateReference, entry.tmStateReference)) {
         entry.addMessage(message);
-        synchronized (pending) {
-          pending.addFirst(entry);
+        long delay = writeCoalescingDelay;
+        if ((delay > 0) && (entry.getMessageBytes() < MAX_TLS_RECORD_PAYLOAD_SIZE)) {
+          // wait for more messages to fill the TLS record
+          final SocketEntry flushEntry = entry;
+          entry.scheduleFlush(delay, () -> flush(flushEntry));
+        }
+        else {
+          entry.cancelFlush();
+          flush(entry);
         }
-        logger.debug("Waking up selector for new message");
-        selector.wakeup();
       }
       else {
         logger.error("TransportStateReferences refNew={},refOld={} do not match, message dropped", tmStateReference, entry.tmStateReference);
@@ -1187,6 +1936,14 @@ public class TlsTransportMapping extends TcpTransportMapping {
     }
 
 
+    private void flush(SocketEntry entry) {
+      synchronized (pending) {
+        pending.addFirst(entry);
+      }
+      logger.debug("Waking up selector for new message");
+      selector.wakeup();
+    }
+
     @Override
     public void run() {
       // Here's where everything happens. The select method will
@@ -1195,6 +1952,7 @@ public class TlsTransportMapping extends TcpTransportMapping {
       try {
         while (!stop) {
           try {
+            processResumed();
             processQueues();
             if (selector.select() > 0) {
               if (stop) {
@@ -1238,19 +1996,24 @@ public class TlsTransportMapping extends TcpTransportMapping {
                       logger.warn("Incoming connection cancelled");
                       s.close();
                       sockets.remove(incomingAddress);
+                      entry.releaseBuffers();
                       readChannel = null;
                     }
                   }
-                  else if (sk.isWritable()) {
-                    logger.debug("Key is writable");
-                    incomingAddress = writeData(sk, incomingAddress);
-                  }
-                  else if (sk.isReadable()) {
-                    logger.debug("Key is readable");
-                    readChannel = (SocketChannel) sk.channel();
-                    incomingAddress =
-                        new TcpAddress(readChannel.socket().getInetAddress(),
-                                       readChannel.socket().getPort());
+                  else if (sk.isWritable() || sk.isReadable()) {
+                    // a connection with queued messages is writable during
+                    // the handshake, thus reading must not depend on it
+                    if (sk.isWritable()) {
+                      logger.debug("Key is writable");
+                      incomingAddress = writeData(sk, incomingAddress);
+                    }
+                    if (sk.isValid() && sk.isReadable()) {
+                      logger.debug("Key is readable");
+                      readChannel = (SocketChannel) sk.channel();
+                      incomingAddress =
+                          new TcpAddress(readChannel.socket().getInetAddress(),
+                                         readChannel.socket().getPort());
+                    }
                   }
                   else if (sk.isConnectable()) {
                     logger.debug("Key is connectable");
@@ -1406,6 +2169,20 @@ public class TlsTransportMapping extends TcpTransportMapping {
       assert (entry != null);
       // note that socket has been used
       entry.used();
+      // the buffers are leased, used and released under the inbound lock only
+      synchronized (entry.inboundLock) {
+        try {
+          readAndUnwrap(sk, readChannel, incomingAddress, entry);
+        }
+        finally {
+          entry.releaseInboundBuffers();
+        }
+      }
+    }
+
+    private void readAndUnwrap(SelectionKey sk, SocketChannel readChannel,
+                               TcpAddress incomingAddress,
+                               SocketEntry entry) throws IOException {
       ByteBuffer inNetBuffer = entry.getInNetBuffer();
       ByteBuffer inAppBuffer = entry.getInAppBuffer();
       try {
@@ -1419,6 +2196,7 @@ public class TlsTransportMapping extends TcpTransportMapping {
           logger.debug("Socket closed remotely");
           sk.cancel();
           readChannel.close();
+          entry.releaseBuffers();
           TransportStateEvent e =
               new TransportStateEvent(TlsTransportMapping.this,
                                       incomingAddress,
@@ -1428,12 +2206,15 @@ public class TlsTransportMapping extends TcpTransportMapping {
           return;
         }
         if (bytesRead == 0) {
-          entry.inNetBuffer.clear();
+          // keep a partially received record
+          inNetBuffer.compact();
           //entry.addRegistration(selector, SelectionKey.OP_READ);
         }
         else {
           SSLEngineResult result;
-          synchronized (entry.inboundLock) {
+          boolean moreRecords;
+          do {
+            moreRecords = false;
             result = entry.sslEngine.unwrap(inNetBuffer, inAppBuffer);
             adjustInNetBuffer(entry, result);
             switch (result.getStatus()) {
@@ -1444,26 +2225,30 @@ public class TlsTransportMapping extends TcpTransportMapping {
 */
               case BUFFER_OVERFLOW:
                 // TODO handle overflow
-                System.err.println("BUFFER_OVERFLOW");
+                logger.error("TLS inAppBuffer overflow for {}", incomingAddress);
                 throw new IOException("BUFFER_OVERFLOW");
             }
             if (runDelegatedTasks(result, entry)) {
               logger.info("SSL session established");
               if (result.bytesProduced() > 0) {
-                entry.inAppBuffer.flip();
                 logger.debug("SSL established, dispatching inappBuffer={}", entry.inAppBuffer);
                 // SSL session is established
                 entry.checkTransportStateReference();
-                dispatchMessage(incomingAddress, inAppBuffer, inAppBuffer.limit(),
-                                entry.sessionID,
-                                entry.tmStateReference);
-                entry.getInAppBuffer().clear();
+                dispatchMessages(incomingAddress, entry);
               }
               else if (entry.isAppOutPending()) {
                 writeMessage(entry, entry.getSocket().getChannel());
               }
+              // a single read may have received several TLS records,
+              // e.g. the peer's Finished message followed by data
+              if ((result.getStatus() == SSLEngineResult.Status.OK) &&
+                  (result.bytesConsumed() > 0) && (inNetBuffer.position() > 0)) {
+                inNetBuffer.flip();
+                moreRecords = true;
+              }
             }
           }
+          while (moreRecords);
         }
       }
       catch (ClosedChannelException ccex) {
@@ -1484,32 +2269,63 @@ public class TlsTransportMapping extends TcpTransportMapping {
       return bufferCopy;
     }
 
-    private void dispatchMessage(TcpAddress incomingAddress,
-                                 ByteBuffer byteBuffer, long bytesRead,
-                                 Object sessionID,
-                                 TransportStateReference tmStateReference) {
-      byteBuffer.flip();
-      if (logger.isDebugEnabled()) {
-        logger.debug("Received message from {} with length {}: {}", incomingAddress, bytesRead, new OctetString(byteBuffer.array(), 0,
-            (int) bytesRead).toHexString());
+    /**
+     * Dispatches all complete messages in the application input buffer of
+     * the supplied entry. A TLS record may contain several messages and a
+     * message may span several records, thus an incomplete trailing message
+     * is kept in the buffer.
+     * @param incomingAddress
+     *    the source address of the messages.
+     * @param entry
+     *    the socket entry whose application input buffer (in write mode)
+     *    contains the received plaintext.
+     * @throws IOException
+     *    if a message header is invalid.
+     */
+    private void dispatchMessages(TcpAddress incomingAddress, SocketEntry entry)
+        throws IOException
+    {
+      ByteBuffer inAppBuffer = entry.getInAppBuffer();
+      MessageLengthDecoder decoder = messageLengthDecoder;
+      inAppBuffer.flip();
+      try {
+        while (inAppBuffer.remaining() >= decoder.getMinHeaderLength()) {
+          int length = decoder.getMessageLength(inAppBuffer.slice()).getMessageLength();
+          if ((length <= 0) || (length > getMaxInboundMessageSize())) {
+            throw new MalformedMessageException("Message from "+incomingAddress+
+                " has invalid length (0 < "+length+" <= "+getMaxInboundMessageSize()+")");
+          }
+          if (inAppBuffer.remaining() < length) {
+            break;
+          }
+          byte[] bytes = new byte[length];
+          inAppBuffer.get(bytes);
+          if (logger.isDebugEnabled()) {
+            logger.debug("Received message from {} with length {}: {}", incomingAddress, length,
+                new OctetString(bytes).toHexString());
+          }
+          entry.checkTransportStateReference();
+          fireProcessMessage(incomingAddress, ByteBuffer.wrap(bytes), entry.tmStateReference);
+        }
+      }
+      finally {
+        inAppBuffer.compact();
       }
-
-      byte[] bytes = new byte[(int) bytesRead];
-      System.arraycopy(byteBuffer.array(), 0, bytes, 0, (int) bytesRead);
-      ByteBuffer bis = ByteBuffer.wrap(bytes);
-
-      fireProcessMessage(incomingAddress, bis,tmStateReference);
     }
 
     private void writeMessage(SocketEntry entry, SocketChannel sc) throws
         IOException {
       synchronized (entry.outboundLock) {
-        if (entry.outAppBuffer == null) {
-          byte[] message = entry.nextMessage();
-          if (message != null) {
-            entry.outAppBuffer = ByteBuffer.wrap(message);
+        if (entry.outAppBuffers == null) {
+          // coalesce queued messages into a single TLS record
+          ByteBuffer[] messages = entry.nextMessages(MAX_TLS_RECORD_PAYLOAD_SIZE);
+          if (messages != null) {
+            entry.outAppBuffers = messages;
             if (logger.isDebugEnabled()) {
-              logger.debug("Sending message with length {} to {}: {}", message.length, entry.getPeerAddress(), new OctetString(message).toHexString());
+              for (ByteBuffer message : messages) {
+                logger.debug("Sending message with length {} to {}: {}", message.limit(), entry.getPeerAddress(),
+                    new OctetString(message.array()).toHexString());
+              }
             }
           }
           else {
@@ -1527,7 +2343,7 @@ public class TlsTransportMapping extends TcpTransportMapping {
           }
         }
         SSLEngineResult result;
-        result = entry.sslEngine.wrap(entry.outAppBuffer, entry.outNetBuffer);
+        result = entry.sslEngine.wrap(entry.outAppBuffers, entry.getOutNetBuffer());
         if (result.getStatus() == SSLEngineResult.Status.OK) {
           if (result.bytesProduced() > 0) {
             writeNetBuffer(entry, sc);
@@ -1541,31 +2357,40 @@ public class TlsTransportMapping extends TcpTransportMapping {
           }
           */
         }
-        if (result.bytesConsumed() >= entry.outAppBuffer.limit()) {
+        if (!hasRemaining(entry.outAppBuffers)) {
           logger.debug("Payload sent completely");
-          entry.outAppBuffer = null;
+          entry.outAppBuffers = null;
         }
+        entry.releaseOutboundBuffer();
       }
       entry.addRegistration(selector, SelectionKey.OP_READ);
     }
 
     private void writeNetBuffer(SocketEntry entry, SocketChannel sc) throws IOException {
-      entry.outNetBuffer.flip();
+      synchronized (entry.outboundLock) {
+        writeNetBufferLocked(entry, sc);
+      }
+    }
+
+    private void writeNetBufferLocked(SocketEntry entry, SocketChannel sc) throws IOException {
+      ByteBuffer outNetBuffer = entry.getOutNetBuffer();
+      outNetBuffer.flip();
       // Send SSL/TLS encoded data to peer
-      while (entry.outNetBuffer.hasRemaining()) {
-        logger.debug("Writing TLS outNetBuffer(PAYLOAD): {}", entry.outNetBuffer);
-        int num = sc.write(entry.outNetBuffer);
+      while (outNetBuffer.hasRemaining()) {
+        logger.debug("Writing TLS outNetBuffer(PAYLOAD): {}", outNetBuffer);
+        int num = sc.write(outNetBuffer);
         logger.debug("Wrote TLS {} bytes from outNetBuffer(PAYLOAD)", num);
         if (num == -1) {
           throw new IOException("TLS connection closed");
         }
         else if (num == 0) {
-          entry.outNetBuffer.compact();
+          outNetBuffer.compact();
           //entry.outNetBuffer.limit(entry.outNetBuffer.capacity());
           return;
         }
       }
-      entry.outNetBuffer.clear();
+      outNetBuffer.clear();
+      entry.releaseOutboundBuffer();
     }
 
     public void close() {
@@ -1621,14 +2446,20 @@ public class TlsTransportMapping extends TcpTransportMapping {
   private SSLEngineResult sendNetMessage(SocketEntry entry) throws IOException {
     SSLEngineResult result;
     synchronized (entry.outboundLock) {
-      if (!entry.outNetBuffer.hasRemaining()) {
+      ByteBuffer outNetBuffer = entry.getOutNetBuffer();
+      if (!outNetBuffer.hasRemaining()) {
         return null;
       }
-      result = entry.sslEngine.wrap(ByteBuffer.allocate(0), entry.outNetBuffer);
-      entry.outNetBuffer.flip();
-      logger.debug("TLS outNetBuffer = {}", entry.outNetBuffer);
-      entry.socket.getChannel().write(entry.outNetBuffer);
-      entry.outNetBuffer.clear();
+      try {
+        result = entry.sslEngine.wrap(ByteBuffer.allocate(0), outNetBuffer);
+        outNetBuffer.flip();
+        logger.debug("TLS outNetBuffer = {}", outNetBuffer);
+        entry.socket.getChannel().write(outNetBuffer);
+        outNetBuffer.clear();
+      }
+      finally {
+        entry.releaseOutboundBuffer();
+      }
     }
     return result;
   }
@@ -1661,6 +2492,47 @@ public class TlsTransportMapping extends TcpTransportMapping {
   protected class DefaultSSLEngineConfiguration implements SSLEngineConfigurator {
 
     private TrustManager[] trustManagers;
+    // the security callback configuration the cached contexts were created with
+    private TlsTmSecurityCallback<X509Certificate> contextCallback;
+    private long contextTrustVersion;
+    private long contextMappingVersion;
+    // shared SSL contexts with their session caches by context key
+    private final Map<List<Object>, SSLContext> sslContexts =
+        new LinkedHashMap<List<Object>, SSLContext>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<List<Object>, SSLContext> eldest) {
+            return size() > MAX_CACHED_SSL_CONTEXTS;
+          }
+        };
+
+    void clearSSLContexts() {
+      synchronized (sslContexts) {
+        sslContexts.clear();
+      }
+    }
+
+    /**
+     * Discards the cached contexts, and thus their sessions, if the security
+     * callback changed its trust or mapping configuration since the contexts
+     * have been created. Otherwise, a de-authorized peer could resume its
+     * session without a new trust check. Must be called with the lock on
+     * <code>sslContexts</code> held.
+     */
+    private void checkSecurityCallbackVersion() {
+      TlsTmSecurityCallback<X509Certificate> callback = securityCallback;
+      long trustVersion = (callback == null) ? 0 : callback.getTrustConfigurationVersion();
+      long mappingVersion = (callback == null) ? 0 : callback.getSecurityNameMappingVersion();
+      if ((callback != contextCallback) || (trustVersion != contextTrustVersion) ||
+          (mappingVersion != contextMappingVersion)) {
+        if (!sslContexts.isEmpty()) {
+          logger.debug("Security callback configuration changed, discarding cached SSL contexts");
+          sslContexts.clear();
+        }
+        contextCallback = callback;
+        contextTrustVersion = trustVersion;
+        contextMappingVersion = mappingVersion;
+      }
+    }
 
     @Override
     public void configure(SSLEngine sslEngine) {
@@ -1685,6 +2557,45 @@ public class TlsTransportMapping extends TcpTransportMapping {
 
     @Override
     public SSLContext getSSLContext(boolean useClientMode, TransportStateReference transportStateReference) {
+      if (!sessionResumption) {
+        return createSSLContext(useClientMode, transportStateReference, false);
+      }
+      // The trust checks of shared contexts are done per SSL engine, thus
+      // only the local certificate and the certified identity distinguish
+      // contexts.
+      List<Object> key = new ArrayList<>(4);
+      key.add(useClientMode);
+      key.add(getLocalCertificateAlias(transportStateReference));
+      if ((transportStateReference != null) &&
+          (transportStateReference.getCertifiedIdentity() != null)) {
+        key.add(transportStateReference.getCertifiedIdentity().getServerFingerprint());
+        key.add(transportStateReference.getCertifiedIdentity().getClientFingerprint());
+      }
+      synchronized (sslContexts) {
+        checkSecurityCallbackVersion();
+        SSLContext sslContext = sslContexts.get(key);
+        if (sslContext == null) {
+          sslContext = createSSLContext(useClientMode, transportStateReference, true);
+          if (sslContext != null) {
+            configureSessionContext(sslContext.getClientSessionContext());
+            configureSessionContext(sslContext.getServerSessionContext());
+            sslContexts.put(key, sslContext);
+          }
+        }
+        return sslContext;
+      }
+    }
+
+    private void configureSessionContext(SSLSessionContext sessionContext) {
+      if (sessionContext != null) {
+        sessionContext.setSessionCacheSize(sessionCacheSize);
+        sessionContext.setSessionTimeout(sessionTimeout);
+      }
+    }
+
+    private SSLContext createSSLContext(boolean useClientMode,
+                                        TransportStateReference transportStateReference,
+                                        boolean shared) {
       try {
         String protocol = DEFAULT_TLSTM_PROTOCOLS;
         if ((getTlsProtocols() != null) && (getTlsProtocols().length > 0)) {
@@ -1715,10 +2626,12 @@ public class TlsTransportMapping extends TcpTransportMapping {
           if (logger.isDebugEnabled()) {
             logger.debug("SSL context initializing with TrustManagers: {} and factory {}", Arrays.asList(trustManagers), trustManagerFactory.getClass().getName());
           }
-          sslContext.init(kmf.getKeyManagers(),
-              new TrustManager[]{ trustManagerFactory.create((X509TrustManager) trustManagers[0],
-                                    useClientMode, transportStateReference)},
-              null);
+          TrustManager trustManager = (shared) ?
+              new EngineTrustManager((X509TrustManager) trustManagers[0], useClientMode,
+                                     engineReferences, trustManagerFactory) :
+              trustManagerFactory.create((X509TrustManager) trustManagers[0],
+                                         useClientMode, transportStateReference);
+          sslContext.init(kmf.getKeyManagers(), new TrustManager[]{ trustManager }, null);
           return sslContext;
         } catch (KeyStoreException e) {
           logger.error("Failed to initialize SSLContext because of a KeyStoreException: {}", e.getMessage(), e);
@@ -1739,7 +2652,7 @@ public class TlsTransportMapping extends TcpTransportMapping {
       return null;
     }
 
-    private void filterCertificates(KeyStore ks, TransportStateReference transportStateReference) {
+    private String getLocalCertificateAlias(TransportStateReference transportStateReference) {
       String localCertAlias = localCertificateAlias;
       if ((securityCallback != null) && (transportStateReference != null)) {
         localCertAlias = securityCallback.getLocalCertificateAlias(transportStateReference.getAddress());
@@ -1747,6 +2660,11 @@ public class TlsTransportMapping extends TcpTransportMapping {
           localCertAlias = localCertificateAlias;
         }
       }
+      return localCertAlias;
+    }
+
+    private void filterCertificates(KeyStore ks, TransportStateReference transportStateReference) {
+      String localCertAlias = getLocalCertificateAlias(transportStateReference);
       if (localCertAlias != null) {
         try {
           Certificate[] chain = ks.getCertificateChain(localCertAlias);
@@ -1776,151 +2694,34 @@ public class TlsTransportMapping extends TcpTransportMapping {
 
   }
 
-  protected class TlsTrustManager implements X509TrustManager {
-
-    X509TrustManager trustManager;
-    private boolean useClientMode;
-    private TransportStateReference tmStateReference;
+  protected class TlsTrustManager extends TlsTmTrustManager {
 
     protected TlsTrustManager(X509TrustManager trustManager, boolean useClientMode,
                               TransportStateReference tmStateReference) {
-      this.trustManager = trustManager;
-      this.useClientMode = useClientMode;
-      this.tmStateReference = tmStateReference;
-    }
-
-    @Override
-    public void checkClientTrusted(X509Certificate[] x509Certificates, String s)
-        throws CertificateException {
-      if ((tmStateReference != null) && (tmStateReference.getCertifiedIdentity() != null)) {
-        OctetString fingerprint = tmStateReference.getCertifiedIdentity().getClientFingerprint();
-        if (isMatchingFingerprint(x509Certificates, fingerprint)) {
-          return;
-        }
-      }
-      TlsTmSecurityCallback<X509Certificate> callback = securityCallback;
-      if (!useClientMode && (callback != null)) {
-        if (callback.isClientCertificateAccepted(x509Certificates[0])) {
-          if (logger.isInfoEnabled()) {
-            logger.info("Client is trusted with certificate '{}'", x509Certificates[0]);
-          }
-          return;
-        }
-      }
-      try {
-        trustManager.checkClientTrusted(x509Certificates, s);
-      }
-      catch (CertificateException cex) {
-        counterSupport.fireIncrementCounter(new CounterEvent(this, SnmpConstants.snmpTlstmSessionOpenErrors));
-        counterSupport.fireIncrementCounter(new CounterEvent(this, SnmpConstants.snmpTlstmSessionInvalidClientCertificates));
-        logger.warn("Client certificate validation failed for '{}'", x509Certificates[0]);
-        throw cex;
-      }
-    }
-
-    @Override
-    public void checkServerTrusted(X509Certificate[] x509Certificates, String s) throws CertificateException {
-      if (tmStateReference.getCertifiedIdentity() != null) {
-        OctetString fingerprint = tmStateReference.getCertifiedIdentity().getServerFingerprint();
-        if (isMatchingFingerprint(x509Certificates, fingerprint)) return;
-      }
-      Object entry = null;
-      try {
-        entry = TlsTransportMapping.getSubjAltName(x509Certificates[0].getSubjectAlternativeNames(), 2);
-      } catch (CertificateParsingException e) {
-        logger.error("CertificateParsingException while verifying server certificate {}", Arrays.asList(x509Certificates));
-      }
-      if (entry == null) {
-        X500Principal x500Principal = x509Certificates[0].getSubjectX500Principal();
-        if (x500Principal != null) {
-          entry = x500Principal.getName();
-        }
-      }
-      if (entry != null) {
-        String dNSName = ((String)entry).toLowerCase();
-        String hostName = ((IpAddress)tmStateReference.getAddress())
-            .getInetAddress().getCanonicalHostName();
-        if (!dNSName.isEmpty()) {
-          if (dNSName.charAt(0) == '*') {
-            int pos = hostName.indexOf('.');
-            hostName = hostName.substring(pos);
-            dNSName = dNSName.substring(1);
-          }
-          if (hostName.equalsIgnoreCase(dNSName)) {
-            if (logger.isInfoEnabled()) {
-              logger.info("Peer hostname {} matches dNSName {}", hostName, dNSName);
-            }
-            return;
-          }
-        }
-        if (logger.isDebugEnabled()) {
-          logger.debug("Peer hostname {} did not match dNSName {}", hostName, dNSName);
-        }
-      }
-      try {
-        trustManager.checkServerTrusted(x509Certificates, s);
-      }
-      catch (CertificateException cex) {
-        counterSupport.fireIncrementCounter(new CounterEvent(this, SnmpConstants.snmpTlstmSessionOpenErrors));
-        counterSupport.fireIncrementCounter(new CounterEvent(this, SnmpConstants.snmpTlstmSessionUnknownServerCertificate));
-        logger.warn("Server certificate validation failed for '{}'", x509Certificates[0]);
-        throw cex;
-      }
-      TlsTmSecurityCallback<X509Certificate> callback = securityCallback;
-      if (useClientMode && (callback != null)) {
-        if (!callback.isServerCertificateAccepted(x509Certificates)) {
-          logger.info("Server is NOT trusted with certificate '{}'", Arrays.asList(x509Certificates));
-          throw new CertificateException("Server's certificate is not trusted by this application (although it was trusted by the JRE): "+
-          Arrays.asList(x509Certificates));
-        }
-      }
-    }
-
-    private boolean isMatchingFingerprint(X509Certificate[] x509Certificates, OctetString fingerprint) {
-      if ((fingerprint != null) && (fingerprint.length() > 0)) {
-        for (X509Certificate cert : x509Certificates) {
-          OctetString certFingerprint;
-          certFingerprint = getFingerprint(cert);
-          if (logger.isDebugEnabled()) {
-            logger.debug("Comparing certificate fingerprint {} with {}", certFingerprint, fingerprint);
-          }
-          if (certFingerprint == null) {
-            logger.error("Failed to determine fingerprint for certificate {} and algorithm {}", cert, cert.getSigAlgName());
-          }
-          else if (certFingerprint.equals(fingerprint)) {
-            if (logger.isInfoEnabled()) {
-              logger.info("Peer is trusted by fingerprint '{}' of certificate: '{}'", fingerprint, cert);
-            }
-            return true;
-          }
-        }
-      }
-      return false;
+      super(trustManager, useClientMode, tmStateReference, securityCallback, counterSupport);
     }
+  }
 
-    @Override
-    public X509Certificate[] getAcceptedIssuers() {
-      TlsTmSecurityCallback<X509Certificate> callback = securityCallback;
-      X509Certificate[] accepted = trustManager.getAcceptedIssuers();
-      if ((accepted != null) && (callback != null)) {
-        ArrayList<X509Certificate> acceptedIssuers = new ArrayList<>(accepted.length);
-        for (X509Certificate cert : accepted) {
-          if (callback.isAcceptedIssuer(cert)) {
-            acceptedIssuers.add(cert);
-          }
-        }
-        return acceptedIssuers.toArray(new X509Certificate[acceptedIssuers.size()]);
+  private static boolean hasRemaining(ByteBuffer[] buffers) {
+    for (ByteBuffer buffer : buffers) {
+      if (buffer.hasRemaining()) {
+        return true;
       }
-      return accepted;
     }
+    return false;
   }
 
+  /**
+   * Returns the network input buffer of the supplied entry to write mode
+   * after an unwrap, keeping any bytes not consumed by the SSL engine.
+   */
   private void adjustInNetBuffer(SocketEntry entry, SSLEngineResult result) {
-    if (result.bytesConsumed() == entry.inNetBuffer.limit()) {
-      entry.inNetBuffer.clear();
+    ByteBuffer inNetBuffer = entry.getInNetBuffer();
+    if (result.bytesConsumed() == inNetBuffer.limit()) {
+      inNetBuffer.clear();
     }
-    else if (result.bytesConsumed()>0) {
-      entry.inNetBuffer.compact();
+    else {
+      inNetBuffer.compact();
     }
   }
 
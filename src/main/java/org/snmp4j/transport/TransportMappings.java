@@ -24,6 +24,7 @@ import org.slf4j.LoggerFactory;
 import org.snmp4j.SNMP4JSettings;
 import org.snmp4j.TransportMapping;
 import org.snmp4j.smi.Address;
+import org.snmp4j.smi.DtlsAddress;
 import org.snmp4j.smi.TcpAddress;
 import org.snmp4j.smi.TlsAddress;
 import org.snmp4j.smi.UdpAddress;
@@ -177,6 +178,7 @@ public class TransportMappings {
       t.put(UdpAddress.class.getName(), DefaultUdpTransportMapping.class);
       t.put(TcpAddress.class.getName(), DefaultTcpTransportMapping.class);
       t.put(TlsAddress.class.getName(), TlsTransportMapping.class);
+      t.put(DtlsAddress.class.getName(), DtlsTransportMapping.class);
       transportMappings = t;
     }
   }
@@ -30,10 +30,15 @@ import javax.security.auth.x500.X500Principal;
 import java.security.Principal;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The <code>DefaultTlsTmSecurityCallback</code> resolves the
@@ -42,33 +47,73 @@ import java.util.Set;
  * resolves the local certificate alias through a mapping table
  * based on the target address and accepts peer certificates
  * based on a list of trusted peer and issuer certificates.
+ * <p>
+ * Mappings are indexed by their fingerprint and the security name resolved
+ * for a peer certificate chain is cached until the mapping table changes.
  *
  * @author Frank Fock
+ * @version 2.4
  * @since 2.0
  */
 public class DefaultTlsTmSecurityCallback implements TlsTmSecurityCallback<X509Certificate> {
 
   private Logger LOGGER = LoggerFactory.getLogger(DefaultTlsTmSecurityCallback.class);
 
-  private Map<SecurityNameMapping, OctetString> securityNameMapping = new HashMap<>();
+  /**
+   * The default maximum number of peer certificate chains whose resolved
+   * security name is cached.
+   */
+  public static final int DEFAULT_MAX_CACHED_CHAINS = 1000;
+
+  private static final OctetString NO_MATCH = new OctetString();
+
+  private Map<SecurityNameMapping, OctetString> securityNameMapping = new LinkedHashMap<>();
+  private volatile Map<OctetString, List<SecurityNameMapping>> fingerprintIndex = Collections.emptyMap();
+  private volatile long mappingVersion;
+  private final Map<List<X509Certificate>, OctetString> securityNameCache = new ConcurrentHashMap<>();
+  private int maxCachedChains = DEFAULT_MAX_CACHED_CHAINS;
   private Map<Address, String> localCertMapping = new HashMap<>();
-  private Set<String> acceptedSubjectDN = new HashSet<>();
-  private Set<String> acceptedIssuerDN = new HashSet<>();
+  private Set<String> acceptedSubjectDN = ConcurrentHashMap.newKeySet();
+  private Set<String> acceptedIssuerDN = ConcurrentHashMap.newKeySet();
+  private volatile long trustVersion;
 
   @Override
   public OctetString getSecurityName(X509Certificate[] peerCertificateChain) {
-    for (Map.Entry<SecurityNameMapping,OctetString> entry : securityNameMapping.entrySet()) {
-      OctetString fingerprint = entry.getKey().getFingerprint();
-      for (X509Certificate cert : peerCertificateChain) {
-        OctetString certFingerprint;
-        certFingerprint = TlsTransportMapping.getFingerprint(cert);
-        if ((certFingerprint != null) && (certFingerprint.equals(fingerprint))) {
+    OctetString cached = securityNameCache.get(Arrays.asList(peerCertificateChain));
+    if (cached != null) {
+      return (cached == NO_MATCH) ? null : cached;
+    }
+    long version = mappingVersion;
+    OctetString tmSecurityName = resolveSecurityName(peerCertificateChain, fingerprintIndex);
+    if (maxCachedChains <= 0) {
+      return tmSecurityName;
+    }
+    if (securityNameCache.size() >= maxCachedChains) {
+      securityNameCache.clear();
+    }
+    List<X509Certificate> key = Arrays.asList(peerCertificateChain.clone());
+    securityNameCache.put(key, (tmSecurityName == null) ? NO_MATCH : tmSecurityName);
+    if (version != mappingVersion) {
+      // mapping changed while resolving, do not keep a possibly stale result
+      securityNameCache.remove(key);
+    }
+    return tmSecurityName;
+  }
+
+  private OctetString resolveSecurityName(X509Certificate[] peerCertificateChain,
+                                          Map<OctetString, List<SecurityNameMapping>> index) {
+    if (index.isEmpty()) {
+      return null;
+    }
+    for (X509Certificate cert : peerCertificateChain) {
+      OctetString certFingerprint = TlsTransportMapping.getFingerprint(cert);
+      List<SecurityNameMapping> mappings = (certFingerprint == null) ? null : index.get(certFingerprint);
+      if (mappings != null) {
+        for (SecurityNameMapping mapping : mappings) {
           // possible match found -> now try to map to tmSecurityName
-          SecurityNameMapping.CertMappingType mappingType = entry.getKey().getType();
-          OctetString data = entry.getKey().getData();
           OctetString tmSecurityName = null;
           try {
-            tmSecurityName = mapCertToTSN(cert, mappingType, data);
+            tmSecurityName = mapCertToTSN(cert, mapping.getType(), mapping.getData());
           } catch (CertificateParsingException e) {
             LOGGER.warn("Failed to parse client certificate: {}", e.getMessage());
           }
@@ -185,31 +230,96 @@ public class DefaultTlsTmSecurityCallback implements TlsTmSecurityCallback<X509C
    *    the mapping type does not dictate a method to derive the security name from a
    *    certificates meta data (like subjectAltName).
    */
-  public void addSecurityNameMapping(OctetString fingerprint,
-                                     SecurityNameMapping.CertMappingType type,
-                                     OctetString data,
-                                     OctetString securityName) {
+  public synchronized void addSecurityNameMapping(OctetString fingerprint,
+                                                  SecurityNameMapping.CertMappingType type,
+                                                  OctetString data,
+                                                  OctetString securityName) {
     securityNameMapping.put(new SecurityNameMapping(fingerprint, data, type, securityName), securityName);
+    securityNameMappingChanged();
+  }
+
+  public synchronized OctetString removeSecurityNameMapping(OctetString fingerprint,
+                                                            SecurityNameMapping.CertMappingType type,
+                                                            OctetString data) {
+    OctetString removed = securityNameMapping.remove(new SecurityNameMapping(fingerprint, data, type, null));
+    securityNameMappingChanged();
+    return removed;
+  }
+
+  /**
+   * Rebuilds the fingerprint index of the security name mappings and
+   * invalidates the cached security names.
+   */
+  private void securityNameMappingChanged() {
+    Map<OctetString, List<SecurityNameMapping>> index = new HashMap<>(securityNameMapping.size());
+    for (SecurityNameMapping mapping : securityNameMapping.keySet()) {
+      if (mapping.getFingerprint() != null) {
+        List<SecurityNameMapping> mappings = index.get(mapping.getFingerprint());
+        if (mappings == null) {
+          mappings = new ArrayList<>(1);
+          index.put(mapping.getFingerprint(), mappings);
+        }
+        mappings.add(mapping);
+      }
+    }
+    fingerprintIndex = index;
+    mappingVersion++;
+    securityNameCache.clear();
   }
 
-  public OctetString removeSecurityNameMapping(OctetString fingerprint, SecurityNameMapping.CertMappingType type, OctetString data) {
-    return securityNameMapping.remove(new SecurityNameMapping(fingerprint, data, type, null));
+  @Override
+  public long getSecurityNameMappingVersion() {
+    return mappingVersion;
   }
 
-  public void addAcceptedIssuerDN(String issuerDN) {
+  /**
+   * Gets the maximum number of peer certificate chains whose resolved
+   * security name is cached.
+   * @return
+   *    the maximum cache size.
+   * @since 2.4
+   */
+  public int getMaxCachedChains() {
+    return maxCachedChains;
+  }
+
+  /**
+   * Sets the maximum number of peer certificate chains whose resolved
+   * security name is cached. If the cache is full, it is cleared.
+   * @param maxCachedChains
+   *    the maximum cache size, zero disables caching.
+   * @since 2.4
+   */
+  public void setMaxCachedChains(int maxCachedChains) {
+    this.maxCachedChains = maxCachedChains;
+    securityNameCache.clear();
+  }
+
+  public synchronized void addAcceptedIssuerDN(String issuerDN) {
     acceptedIssuerDN.add(issuerDN);
+    trustVersion++;
   }
 
-  public boolean removeAcceptedIssuerDN(String issuerDN) {
-    return acceptedIssuerDN.remove(issuerDN);
+  public synchronized boolean removeAcceptedIssuerDN(String issuerDN) {
+    boolean removed = acceptedIssuerDN.remove(issuerDN);
+    trustVersion++;
+    return removed;
   }
 
-  public void addAcceptedSubjectDN(String subjectDN) {
+  public synchronized void addAcceptedSubjectDN(String subjectDN) {
     acceptedSubjectDN.add(subjectDN);
+    trustVersion++;
+  }
+
+  public synchronized boolean removeAcceptedSubjectDN(String subjectDN) {
+    boolean removed = acceptedSubjectDN.remove(subjectDN);
+    trustVersion++;
+    return removed;
   }
 
-  public boolean removeAcceptedSubjectDN(String subjectDN) {
-    return acceptedSubjectDN.remove(subjectDN);
+  @Override
+  public long getTrustConfigurationVersion() {
+    return trustVersion;
   }
 
   /**
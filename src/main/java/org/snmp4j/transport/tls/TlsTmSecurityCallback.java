@@ -31,7 +31,7 @@ import java.security.cert.Certificate;
  * <code>tmSecurityName</code> for incoming requests.
  *
  * @author Frank Fock
- * @version 2.0
+ * @version 2.4
  * @since 2.0
  */
 public interface TlsTmSecurityCallback<C extends Certificate> {
@@ -48,6 +48,36 @@ public interface TlsTmSecurityCallback<C extends Certificate> {
    */
   OctetString getSecurityName(C[] peerCertificateChain);
 
+  /**
+   * Gets a value that changes whenever the mapping used by
+   * {@link #getSecurityName} changes. Transport mappings resolve the
+   * tmSecurityName once per connection and resolve it again only if this
+   * value has changed since.
+   *
+   * @return
+   *    the version of the security name mapping. By default <code>0</code>,
+   *    i.e. the mapping is treated as static.
+   * @since 2.4
+   */
+  default long getSecurityNameMappingVersion() {
+    return 0;
+  }
+
+  /**
+   * Gets a value that changes whenever the configuration used to accept
+   * peer certificates and issuers changes. Transport mappings discard their
+   * cached TLS sessions when this value changes, so that resuming peers
+   * are checked again.
+   *
+   * @return
+   *    the version of the trust configuration. By default <code>0</code>,
+   *    i.e. the configuration is treated as static.
+   * @since 2.4
+   */
+  default long getTrustConfigurationVersion() {
+    return 0;
+  }
+
   /**
    * Check if the supplied peer end certificate is accepted as client.
    * @param peerEndCertificate
@@ -0,0 +1,212 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - TlsTmTrustManager.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+
+package org.snmp4j.transport.tls;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.TransportStateReference;
+import org.snmp4j.event.CounterEvent;
+import org.snmp4j.mp.CounterSupport;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.IpAddress;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.transport.TlsTransportMapping;
+
+import javax.net.ssl.X509TrustManager;
+import javax.security.auth.x500.X500Principal;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The <code>TlsTmTrustManager</code> checks peer certificates of (D)TLS
+ * transport mappings as defined by RFC 6353. A peer is trusted if its
+ * certificate fingerprint matches the certified identity of the transport
+ * state reference, if the {@link TlsTmSecurityCallback} accepts it, or if the
+ * underlying JRE trust manager trusts it.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ * @since 2.4
+ */
+public class TlsTmTrustManager implements X509TrustManager {
+
+  private static final Logger logger = LoggerFactory.getLogger(TlsTmTrustManager.class);
+
+  protected X509TrustManager trustManager;
+  private boolean useClientMode;
+  private TransportStateReference tmStateReference;
+  private TlsTmSecurityCallback<X509Certificate> securityCallback;
+  private CounterSupport counterSupport;
+
+  /**
+   * Creates a trust manager for a (D)TLS session.
+   * @param trustManager
+   *    the JRE trust manager used if neither the certified identity nor the
+   *    security callback accepts a peer.
+   * @param useClientMode
+   *    <code>true</code> if the local side is the client of the session.
+   * @param tmStateReference
+   *    the transport state reference of the session or <code>null</code> for
+   *    incoming sessions.
+   * @param securityCallback
+   *    the security callback or <code>null</code>.
+   * @param counterSupport
+   *    the counter support to report session open errors.
+   */
+  public TlsTmTrustManager(X509TrustManager trustManager, boolean useClientMode,
+                           TransportStateReference tmStateReference,
+                           TlsTmSecurityCallback<X509Certificate> securityCallback,
+                           CounterSupport counterSupport) {
+    this.trustManager = trustManager;
+    this.useClientMode = useClientMode;
+    this.tmStateReference = tmStateReference;
+    this.securityCallback = securityCallback;
+    this.counterSupport = counterSupport;
+  }
+
+  @Override
+  public void checkClientTrusted(X509Certificate[] x509Certificates, String s)
+      throws CertificateException {
+    if ((tmStateReference != null) && (tmStateReference.getCertifiedIdentity() != null)) {
+      OctetString fingerprint = tmStateReference.getCertifiedIdentity().getClientFingerprint();
+      if (isMatchingFingerprint(x509Certificates, fingerprint)) {
+        return;
+      }
+    }
+    TlsTmSecurityCallback<X509Certificate> callback = securityCallback;
+    if (!useClientMode && (callback != null)) {
+      if (callback.isClientCertificateAccepted(x509Certificates[0])) {
+        if (logger.isInfoEnabled()) {
+          logger.info("Client is trusted with certificate '{}'", x509Certificates[0]);
+        }
+        return;
+      }
+    }
+    try {
+      trustManager.checkClientTrusted(x509Certificates, s);
+    }
+    catch (CertificateException cex) {
+      counterSupport.fireIncrementCounter(new CounterEvent(this, SnmpConstants.snmpTlstmSessionOpenErrors));
+      counterSupport.fireIncrementCounter(new CounterEvent(this, SnmpConstants.snmpTlstmSessionInvalidClientCertificates));
+      logger.warn("Client certificate validation failed for '{}'", x509Certificates[0]);
+      throw cex;
+    }
+  }
+
+  @Override
+  public void checkServerTrusted(X509Certificate[] x509Certificates, String s) throws CertificateException {
+    if (tmStateReference.getCertifiedIdentity() != null) {
+      OctetString fingerprint = tmStateReference.getCertifiedIdentity().getServerFingerprint();
+      if (isMatchingFingerprint(x509Certificates, fingerprint)) return;
+    }
+    Object entry = null;
+    try {
+      entry = TlsTransportMapping.getSubjAltName(x509Certificates[0].getSubjectAlternativeNames(), 2);
+    } catch (CertificateParsingException e) {
+      logger.error("CertificateParsingException while verifying server certificate {}", Arrays.asList(x509Certificates));
+    }
+    if (entry == null) {
+      X500Principal x500Principal = x509Certificates[0].getSubjectX500Principal();
+      if (x500Principal != null) {
+        entry = x500Principal.getName();
+      }
+    }
+    if (entry != null) {
+      String dNSName = ((String)entry).toLowerCase();
+      String hostName = ((IpAddress)tmStateReference.getAddress())
+          .getInetAddress().getCanonicalHostName();
+      if (!dNSName.isEmpty()) {
+        if (dNSName.charAt(0) == '*') {
+          int pos = hostName.indexOf('.');
+          hostName = hostName.substring(pos);
+          dNSName = dNSName.substring(1);
+        }
+        if (hostName.equalsIgnoreCase(dNSName)) {
+          if (logger.isInfoEnabled()) {
+            logger.info("Peer hostname {} matches dNSName {}", hostName, dNSName);
+          }
+          return;
+        }
+      }
+      if (logger.isDebugEnabled()) {
+        logger.debug("Peer hostname {} did not match dNSName {}", hostName, dNSName);
+      }
+    }
+    try {
+      trustManager.checkServerTrusted(x509Certificates, s);
+    }
+    catch (CertificateException cex) {
+      counterSupport.fireIncrementCounter(new CounterEvent(this, SnmpConstants.snmpTlstmSessionOpenErrors));
+      counterSupport.fireIncrementCounter(new CounterEvent(this, SnmpConstants.snmpTlstmSessionUnknownServerCertificate));
+      logger.warn("Server certificate validation failed for '{}'", x509Certificates[0]);
+      throw cex;
+    }
+    TlsTmSecurityCallback<X509Certificate> callback = securityCallback;
+    if (useClientMode && (callback != null)) {
+      if (!callback.isServerCertificateAccepted(x509Certificates)) {
+        logger.info("Server is NOT trusted with certificate '{}'", Arrays.asList(x509Certificates));
+        throw new CertificateException("Server's certificate is not trusted by this application (although it was trusted by the JRE): "+
+        Arrays.asList(x509Certificates));
+      }
+    }
+  }
+
+  private boolean isMatchingFingerprint(X509Certificate[] x509Certificates, OctetString fingerprint) {
+    if ((fingerprint != null) && (fingerprint.length() > 0)) {
+      for (X509Certificate cert : x509Certificates) {
+        OctetString certFingerprint;
+        certFingerprint = TlsTransportMapping.getFingerprint(cert);
+        if (logger.isDebugEnabled()) {
+          logger.debug("Comparing certificate fingerprint {} with {}", certFingerprint, fingerprint);
+        }
+        if (certFingerprint == null) {
+          logger.error("Failed to determine fingerprint for certificate {} and algorithm {}", cert, cert.getSigAlgName());
+        }
+        else if (certFingerprint.equals(fingerprint)) {
+          if (logger.isInfoEnabled()) {
+            logger.info("Peer is trusted by fingerprint '{}' of certificate: '{}'", fingerprint, cert);
+          }
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public X509Certificate[] getAcceptedIssuers() {
+    TlsTmSecurityCallback<X509Certificate> callback = securityCallback;
+    X509Certificate[] accepted = trustManager.getAcceptedIssuers();
+    if ((accepted != null) && (callback != null)) {
+      ArrayList<X509Certificate> acceptedIssuers = new ArrayList<>(accepted.length);
+      for (X509Certificate cert : accepted) {
+        if (callback.isAcceptedIssuer(cert)) {
+          acceptedIssuers.add(cert);
+        }
+      }
+      return acceptedIssuers.toArray(new X509Certificate[acceptedIssuers.size()]);
+    }
+    return accepted;
+  }
+}
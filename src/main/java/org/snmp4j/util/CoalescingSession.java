@@ -0,0 +1,483 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - CoalescingSession.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.*;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.VariableBinding;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The <code>CoalescingSession</code> is a {@link Session} decorator that
+ * combines GET requests sent by independent callers to the same target
+ * within a short time window into a single GET request. Identical OIDs are
+ * requested only once and the response is split back into one response PDU
+ * per caller with the variable bindings in the order of the caller's request.
+ * <p>
+ * Requests are combined only if they share the target address, SNMP version,
+ * security model, security name, security level, transport mapping, and (for
+ * {@link ScopedPDU}s) context engine ID and context name. The combined request
+ * is sent with the timeout and retry settings of the first request of the
+ * batch and never exceeds {@link Target#getMaxSizeRequestPDU()}. All other
+ * PDU types are passed to the underlying session unchanged.
+ * <p>
+ * If the combined request fails with an error status, each caller's request is
+ * resent separately, because a GET error status applies to the whole PDU. The
+ * source of the <code>ResponseEvent</code>s returned to the callers is this
+ * session.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ * @since 2.4
+ */
+public class CoalescingSession implements Session {
+
+  private static final Logger logger =
+      LoggerFactory.getLogger(CoalescingSession.class);
+
+  public static final long DEFAULT_COALESCING_WINDOW = 10;
+
+  private Session session;
+  private long coalescingWindow = DEFAULT_COALESCING_WINDOW;
+  private Timer timer;
+
+  private final Map<BatchKey, Batch> batches = new HashMap<>();
+  private final Set<Batch> inFlight = new HashSet<>();
+
+  /**
+   * Creates a coalescing session with the default coalescing window of
+   * {@link #DEFAULT_COALESCING_WINDOW} milliseconds.
+   *
+   * @param session
+   *    the <code>Session</code> used to send the (combined) requests.
+   */
+  public CoalescingSession(Session session) {
+    this(session, DEFAULT_COALESCING_WINDOW);
+  }
+
+  /**
+   * Creates a coalescing session.
+   *
+   * @param session
+   *    the <code>Session</code> used to send the (combined) requests.
+   * @param coalescingWindow
+   *    the time in milliseconds a GET request is held back to wait for other
+   *    requests to the same target that can be combined with it.
+   */
+  public CoalescingSession(Session session, long coalescingWindow) {
+    this.session = session;
+    setCoalescingWindow(coalescingWindow);
+    this.timer = SNMP4JSettings.getSharedTimer();
+  }
+
+  /**
+   * Gets the time window in milliseconds in which GET requests are combined.
+   * @return
+   *    the coalescing window in milliseconds.
+   */
+  public long getCoalescingWindow() {
+    return coalescingWindow;
+  }
+
+  /**
+   * Sets the time window in milliseconds in which GET requests are combined.
+   * @param coalescingWindow
+   *    the coalescing window in milliseconds (must not be negative). A value
+   *    of zero disables coalescing.
+   */
+  public void setCoalescingWindow(long coalescingWindow) {
+    if (coalescingWindow < 0) {
+      throw new IllegalArgumentException("Coalescing window must be >= 0");
+    }
+    this.coalescingWindow = coalescingWindow;
+  }
+
+  /**
+   * Gets the session that is used to send the combined requests.
+   * @return
+   *    the underlying <code>Session</code>.
+   */
+  public Session getSession() {
+    return session;
+  }
+
+  /**
+   * Sends all pending batches, closes the underlying session, and thereby
+   * returns all outstanding requests to their listeners.
+   */
+  @Override
+  public void close() {
+    List<Batch> pending;
+    synchronized (batches) {
+      pending = new ArrayList<>(batches.values());
+      batches.clear();
+      inFlight.addAll(pending);
+    }
+    for (Batch batch : pending) {
+      batch.cancel();
+      batch.flush();
+    }
+    session.close();
+  }
+
+  @Override
+  public void send(PDU pdu, Target target, Object userHandle,
+                   ResponseListener listener) throws IOException {
+    send(pdu, target, null, userHandle, listener);
+  }
+
+  @Override
+  public void send(PDU pdu, Target target, TransportMapping transport,
+                   Object userHandle, ResponseListener listener)
+      throws IOException
+  {
+    if ((pdu.getType() != PDU.GET) || (listener == null) ||
+        (coalescingWindow == 0)) {
+      session.send(pdu, target, transport, userHandle, listener);
+      return;
+    }
+    Caller caller = new Caller(pdu, userHandle, listener);
+    BatchKey key = new BatchKey(pdu, target, transport);
+    Batch full = null;
+    synchronized (batches) {
+      Batch batch = batches.get(key);
+      if ((batch != null) && (!batch.add(caller))) {
+        batches.remove(key);
+        inFlight.add(batch);
+        batch.cancel();
+        full = batch;
+        batch = null;
+      }
+      if (batch == null) {
+        batch = new Batch(key, target, transport, pdu);
+        if (!batch.add(caller)) {
+          // does not fit into a PDU on its own
+          batch = null;
+        }
+        else {
+          batches.put(key, batch);
+          timer.schedule(batch, coalescingWindow);
+        }
+      }
+      if (batch == null) {
+        caller = null;
+      }
+    }
+    if (full != null) {
+      full.flush();
+    }
+    if (caller == null) {
+      session.send(pdu, target, transport, userHandle, listener);
+    }
+  }
+
+  /**
+   * Cancels an asynchronous request. If the request has not yet been sent as
+   * part of a combined request, it is removed from its batch. Otherwise, its
+   * listener will not be called anymore and the combined request is cancelled
+   * as soon as all of its callers have been cancelled.
+   *
+   * @param request
+   *    a request PDU as sent via {@link #send}.
+   * @param listener
+   *    a ResponseListener instance.
+   */
+  @Override
+  public void cancel(PDU request, ResponseListener listener) {
+    if (request.getType() != PDU.GET) {
+      session.cancel(request, listener);
+      return;
+    }
+    Batch abandoned = null;
+    synchronized (batches) {
+      for (Batch batch : batches.values()) {
+        if (batch.cancelCaller(request, listener)) {
+          return;
+        }
+      }
+      for (Iterator<Batch> it = inFlight.iterator(); it.hasNext(); ) {
+        Batch batch = it.next();
+        if (batch.cancelCaller(request, listener)) {
+          if (batch.isCancelled()) {
+            it.remove();
+            abandoned = batch;
+          }
+          else {
+            return;
+          }
+          break;
+        }
+      }
+    }
+    if (abandoned != null) {
+      session.cancel(abandoned.combined, abandoned);
+      return;
+    }
+    // the request was sent directly or resent on its own
+    session.cancel(request, listener);
+  }
+
+  private static class Caller {
+    private PDU pdu;
+    private Object userHandle;
+    private ResponseListener listener;
+    private volatile boolean cancelled;
+    private int[] positions;
+
+    Caller(PDU pdu, Object userHandle, ResponseListener listener) {
+      this.pdu = pdu;
+      this.userHandle = userHandle;
+      this.listener = listener;
+    }
+  }
+
+  /**
+   * A <code>Batch</code> collects the requests to be combined into one PDU
+   * and splits up the response of that PDU.
+   */
+  class Batch extends TimerTask implements ResponseListener {
+
+    private BatchKey key;
+    private Target target;
+    private TransportMapping transport;
+    private PDU combined;
+    private Map<OID, Integer> positions = new HashMap<>();
+    private List<Caller> callers = new LinkedList<>();
+
+    Batch(BatchKey key, Target target, TransportMapping transport, PDU pdu) {
+      this.key = key;
+      this.target = (Target) target.clone();
+      this.transport = transport;
+      this.combined = (PDU) pdu.clone();
+      this.combined.clear();
+    }
+
+    /**
+     * Adds a caller's request to the combined PDU.
+     * @param caller
+     *    the caller to add.
+     * @return
+     *    <code>false</code> if the combined PDU would exceed the maximum
+     *    request PDU size of the target.
+     */
+    synchronized boolean add(Caller caller) {
+      int sizeBefore = combined.size();
+      int[] callerPositions = new int[caller.pdu.size()];
+      List<OID> added = new ArrayList<>(caller.pdu.size());
+      for (int i = 0; i < callerPositions.length; i++) {
+        OID oid = caller.pdu.get(i).getOid();
+        Integer pos = positions.get(oid);
+        if (pos == null) {
+          pos = combined.size();
+          positions.put(oid, pos);
+          combined.add(new VariableBinding(oid));
+          added.add(oid);
+        }
+        callerPositions[i] = pos;
+      }
+      if ((combined.size() > sizeBefore) &&
+          (combined.getBERLength() > target.getMaxSizeRequestPDU())) {
+        while (combined.size() > sizeBefore) {
+          combined.trim();
+        }
+        for (OID oid : added) {
+          positions.remove(oid);
+        }
+        return false;
+      }
+      caller.positions = callerPositions;
+      callers.add(caller);
+      return true;
+    }
+
+    synchronized boolean cancelCaller(PDU request, ResponseListener listener) {
+      for (Iterator<Caller> it = callers.iterator(); it.hasNext(); ) {
+        Caller caller = it.next();
+        if ((caller.pdu == request) && (caller.listener == listener)) {
+          caller.cancelled = true;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    synchronized boolean isCancelled() {
+      for (Caller caller : callers) {
+        if (!caller.cancelled) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public void run() {
+      synchronized (batches) {
+        if (batches.get(key) == this) {
+          batches.remove(key);
+          inFlight.add(this);
+        }
+      }
+      flush();
+    }
+
+    /**
+     * Sends the combined request. The batch must have been moved from the
+     * pending batches to the in-flight batches before, so that its callers
+     * can still be cancelled until the response has been received.
+     */
+    void flush() {
+      List<Caller> receivers;
+      synchronized (this) {
+        receivers = new ArrayList<>(callers);
+      }
+      if (isCancelled()) {
+        synchronized (batches) {
+          inFlight.remove(this);
+        }
+        return;
+      }
+      if (logger.isDebugEnabled()) {
+        logger.debug("Sending {} coalesced GET requests with {} OIDs to {}",
+                     receivers.size(), combined.size(), target.getAddress());
+      }
+      // the combined request is a new request and must not reuse the
+      // request ID of the first caller's PDU
+      combined.setRequestID(new Integer32((session instanceof Snmp) ?
+          ((Snmp) session).getNextRequestID() : 0));
+      try {
+        session.send(combined, target, transport, null, this);
+      }
+      catch (IOException ex) {
+        synchronized (batches) {
+          inFlight.remove(this);
+        }
+        for (Caller caller : receivers) {
+          if (!caller.cancelled) {
+            caller.listener.onResponse(new ResponseEvent(
+                CoalescingSession.this, null, caller.pdu, null,
+                caller.userHandle, ex));
+          }
+        }
+      }
+    }
+
+    @Override
+    public void onResponse(ResponseEvent event) {
+      session.cancel(event.getRequest(), this);
+      synchronized (batches) {
+        if (!inFlight.remove(this)) {
+          // all callers have been cancelled or the response has been
+          // processed already
+          return;
+        }
+      }
+      PDU response = event.getResponse();
+      List<Caller> receivers;
+      int requested;
+      synchronized (this) {
+        receivers = new ArrayList<>(callers);
+        requested = combined.size();
+      }
+      // an error or a response that does not match the combined request
+      // cannot be split, thus each caller's request is sent on its own
+      boolean resend = (response != null) &&
+          (response.getType() == PDU.RESPONSE) &&
+          ((response.getErrorStatus() != PDU.noError) ||
+           (response.size() != requested));
+      for (Caller caller : receivers) {
+        if (caller.cancelled) {
+          continue;
+        }
+        if (resend) {
+          try {
+            session.send(caller.pdu, target, transport, caller.userHandle,
+                         caller.listener);
+          }
+          catch (IOException ex) {
+            caller.listener.onResponse(new ResponseEvent(
+                CoalescingSession.this, null, caller.pdu, null,
+                caller.userHandle, ex));
+          }
+          continue;
+        }
+        PDU callerResponse = response;
+        if ((response != null) && (response.getType() == PDU.RESPONSE)) {
+          callerResponse = (PDU) response.clone();
+          callerResponse.clear();
+          callerResponse.setRequestID(caller.pdu.getRequestID());
+          for (int pos : caller.positions) {
+            callerResponse.add(response.get(pos));
+          }
+        }
+        caller.listener.onResponse(new ResponseEvent(CoalescingSession.this,
+            event.getPeerAddress(), caller.pdu, callerResponse,
+            caller.userHandle, event.getError()));
+      }
+    }
+  }
+
+  /**
+   * The <code>BatchKey</code> identifies requests that can be combined.
+   */
+  static class BatchKey {
+
+    private Object[] fields;
+
+    BatchKey(PDU pdu, Target target, TransportMapping transport) {
+      OctetString contextEngineID = null;
+      OctetString contextName = null;
+      if (pdu instanceof ScopedPDU) {
+        contextEngineID = ((ScopedPDU) pdu).getContextEngineID();
+        contextName = ((ScopedPDU) pdu).getContextName();
+      }
+      this.fields = new Object[] {
+          pdu.getClass(),
+          target.getAddress(),
+          target.getVersion(),
+          target.getSecurityModel(),
+          target.getSecurityName(),
+          target.getSecurityLevel(),
+          transport,
+          contextEngineID,
+          contextName
+      };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return (o instanceof BatchKey) &&
+          Arrays.equals(fields, ((BatchKey) o).fields);
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(fields);
+    }
+  }
+}
@@ -0,0 +1,453 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - EngineDiscovery.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+
+package org.snmp4j.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.*;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.mp.MPv3;
+import org.snmp4j.security.SecurityLevel;
+import org.snmp4j.security.USM;
+import org.snmp4j.security.UsmTimeEntry;
+import org.snmp4j.security.UsmUserEntry;
+import org.snmp4j.smi.OctetString;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The <code>EngineDiscovery</code> discovers the authoritative engine IDs
+ * and synchronizes the engine times of a (large) list of SNMPv3
+ * {@link UserTarget}s before they are polled. Without it, the first request
+ * to each agent triggers a REPORT and has to be sent again, which doubles
+ * the latency of the first poll per agent.
+ * <p>
+ * For each target, an engine ID discovery request is sent (see
+ * {@link Snmp#discoverAuthoritativeEngineID(Target, Object, ResponseListener)}).
+ * Once the engine ID is known, the keys of the target's user are localized
+ * on an executor, and for targets with authentication an authenticated
+ * GET without variable bindings synchronizes the engine time. The results
+ * are stored in the {@link MPv3} engine ID cache, the
+ * {@link org.snmp4j.security.UsmTimeTable}, and the
+ * {@link org.snmp4j.security.UsmUserTable} of the session.
+ * <p>
+ * Discovery requests of all targets are pipelined. The number of requests
+ * in flight and the request rate are limited by a {@link RequestThrottle}
+ * owned by this object, independent of the throttle of the session. Results
+ * are reported to a {@link DiscoveryListener} as they arrive. Targets whose
+ * engine ID and time are already known are reported without sending any
+ * request.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ * @since 2.4
+ */
+public class EngineDiscovery {
+
+  private static final Logger logger = LoggerFactory.getLogger(EngineDiscovery.class);
+
+  /**
+   * The default limits for discovery requests: 100 requests in flight and
+   * 1000 requests per second.
+   */
+  public static final RequestThrottle.Limits DEFAULT_LIMITS =
+      new RequestThrottle.Limits(100, 1000.0, 100);
+
+  private Snmp snmp;
+  private RequestThrottle throttle;
+  private Executor localizationExecutor = ForkJoinPool.commonPool();
+
+  /**
+   * Creates an engine discovery for the supplied session with
+   * {@link #DEFAULT_LIMITS}.
+   * @param snmp
+   *    the SNMP session with a {@link MPv3} and {@link USM}.
+   */
+  public EngineDiscovery(Snmp snmp) {
+    this(snmp, DEFAULT_LIMITS);
+  }
+
+  /**
+   * Creates an engine discovery for the supplied session.
+   * @param snmp
+   *    the SNMP session with a {@link MPv3} and {@link USM}.
+   * @param limits
+   *    the global limits for discovery requests.
+   */
+  public EngineDiscovery(Snmp snmp, RequestThrottle.Limits limits) {
+    this.snmp = snmp;
+    this.throttle = new RequestThrottle(limits, RequestThrottle.UNLIMITED);
+  }
+
+  /**
+   * Gets the throttle that limits the discovery requests. Per address limits
+   * can be set on it.
+   * @return
+   *    the <code>RequestThrottle</code> of this engine discovery.
+   */
+  public RequestThrottle getRequestThrottle() {
+    return throttle;
+  }
+
+  public Executor getLocalizationExecutor() {
+    return localizationExecutor;
+  }
+
+  /**
+   * Sets the executor that localizes the user keys of the discovered engines.
+   * @param localizationExecutor
+   *    an <code>Executor</code>, by default the common fork/join pool.
+   */
+  public void setLocalizationExecutor(Executor localizationExecutor) {
+    if (localizationExecutor == null) {
+      throw new NullPointerException();
+    }
+    this.localizationExecutor = localizationExecutor;
+  }
+
+  /**
+   * Discovers the engine IDs and engine times of the supplied targets.
+   *
+   * @param targets
+   *    the SNMPv3 targets using the USM.
+   * @param listener
+   *    an optional listener that is called with the result of each target as
+   *    soon as it is available, or <code>null</code>.
+   * @return
+   *    a future that is completed with the results of all targets, in the
+   *    order of <code>targets</code>, when all targets have been processed.
+   */
+  public CompletableFuture<List<Result>> discover(Collection<? extends UserTarget> targets,
+                                                  DiscoveryListener listener) {
+    MPv3 mpv3 = (MPv3) snmp.getMessageProcessingModel(MPv3.ID);
+    USM usm = snmp.getUSM();
+    if ((mpv3 == null) || (usm == null)) {
+      throw new IllegalStateException("Engine discovery requires MPv3 and USM");
+    }
+    Batch batch = new Batch(targets.size(), mpv3, usm, listener);
+    int index = 0;
+    for (UserTarget target : targets) {
+      new Discovery(batch, index++, target).start();
+    }
+    if (targets.isEmpty()) {
+      batch.future.complete(Collections.<Result>emptyList());
+    }
+    return batch.future;
+  }
+
+  /**
+   * The <code>DiscoveryListener</code> receives the result of each target of
+   * an engine discovery as soon as it is available.
+   */
+  public interface DiscoveryListener extends EventListener {
+
+    /**
+     * The discovery of a target has finished.
+     * @param result
+     *    the discovery result.
+     */
+    void engineDiscovered(Result result);
+  }
+
+  /**
+   * The <code>Result</code> of the engine discovery of a target.
+   */
+  public static class Result {
+
+    private UserTarget target;
+    private OctetString engineID;
+    private int engineBoots;
+    private int engineTime;
+    private boolean timeSynchronized;
+    private boolean cached;
+    private String errorMessage;
+
+    Result(UserTarget target) {
+      this.target = target;
+    }
+
+    public UserTarget getTarget() {
+      return target;
+    }
+
+    /**
+     * Gets the discovered authoritative engine ID.
+     * @return
+     *    the engine ID or <code>null</code> if it could not be discovered.
+     */
+    public OctetString getEngineID() {
+      return engineID;
+    }
+
+    public int getEngineBoots() {
+      return engineBoots;
+    }
+
+    public int getEngineTime() {
+      return engineTime;
+    }
+
+    /**
+     * Indicates whether the engine time has been synchronized. This is only
+     * the case for targets with security level authNoPriv or authPriv.
+     * @return
+     *    <code>true</code> if engine boots and time are known.
+     */
+    public boolean isTimeSynchronized() {
+      return timeSynchronized;
+    }
+
+    /**
+     * Indicates whether the result has been taken from the caches of the
+     * session without sending a request.
+     * @return
+     *    <code>true</code> if no request has been sent.
+     */
+    public boolean isCached() {
+      return cached;
+    }
+
+    /**
+     * Indicates whether the target is ready for requests with its security
+     * level, that is the engine ID is known and the time is synchronized if
+     * needed.
+     * @return
+     *    <code>true</code> if the discovery succeeded.
+     */
+    public boolean isSuccess() {
+      return errorMessage == null;
+    }
+
+    /**
+     * Gets the reason why the discovery failed.
+     * @return
+     *    an error message or <code>null</code> if the discovery succeeded.
+     */
+    public String getErrorMessage() {
+      return errorMessage;
+    }
+
+    @Override
+    public String toString() {
+      return "Result[address="+target.getAddress()+",engineID="+
+          ((engineID == null) ? null : engineID.toHexString())+
+          ",engineBoots="+engineBoots+",engineTime="+engineTime+
+          ",timeSynchronized="+timeSynchronized+",cached="+cached+
+          ",errorMessage="+errorMessage+"]";
+    }
+  }
+
+  private static class Batch {
+    private final MPv3 mpv3;
+    private final USM usm;
+    private final DiscoveryListener listener;
+    private final Result[] results;
+    private final AtomicInteger remaining;
+    private final CompletableFuture<List<Result>> future = new CompletableFuture<>();
+
+    Batch(int size, MPv3 mpv3, USM usm, DiscoveryListener listener) {
+      this.mpv3 = mpv3;
+      this.usm = usm;
+      this.listener = listener;
+      this.results = new Result[size];
+      this.remaining = new AtomicInteger(size);
+    }
+
+    void finished(int index, Result result) {
+      synchronized (results) {
+        results[index] = result;
+      }
+      if (listener != null) {
+        try {
+          listener.engineDiscovered(result);
+        }
+        catch (RuntimeException rex) {
+          logger.error("Discovery listener failed for "+result+": "+rex.getMessage(), rex);
+        }
+      }
+      if (remaining.decrementAndGet() == 0) {
+        synchronized (results) {
+          future.complete(Collections.unmodifiableList(Arrays.asList(results)));
+        }
+      }
+    }
+  }
+
+  /**
+   * The state of the discovery of a single target.
+   */
+  private class Discovery implements ResponseListener, RequestThrottle.PermitListener {
+
+    private final Batch batch;
+    private final int index;
+    private final UserTarget target;
+    private final Result result;
+    private volatile boolean synchronizingTime;
+    private volatile RequestThrottle.Permit permit;
+
+    Discovery(Batch batch, int index, UserTarget target) {
+      this.batch = batch;
+      this.index = index;
+      this.target = target;
+      this.result = new Result(target);
+    }
+
+    private boolean isAuthenticated() {
+      return target.getSecurityLevel() != SecurityLevel.NOAUTH_NOPRIV;
+    }
+
+    void start() {
+      OctetString engineID = batch.mpv3.getEngineID(target.getAddress());
+      if (engineID != null) {
+        result.engineID = engineID;
+        if (!isAuthenticated()) {
+          result.cached = true;
+          finish(null);
+          return;
+        }
+        // snmpEngineBoots is at least one for an engine whose time is known
+        UsmTimeEntry time = batch.usm.getTimeTable().getTime(engineID);
+        if ((time != null) && (time.getEngineBoots() > 0) &&
+            (batch.usm.getUserTable().getUser(engineID, target.getSecurityName()) != null)) {
+          updateTime();
+          result.cached = true;
+          finish(null);
+          return;
+        }
+        localizeAndSynchronize();
+        return;
+      }
+      acquire();
+    }
+
+    private void acquire() {
+      RequestThrottle.Permit p = throttle.acquire(target.getAddress(), this);
+      if (p != null) {
+        permitGranted(p);
+      }
+    }
+
+    @Override
+    public void permitGranted(RequestThrottle.Permit permit) {
+      this.permit = permit;
+      try {
+        if (synchronizingTime) {
+          ScopedPDU pdu = new ScopedPDU();
+          pdu.setType(PDU.GET);
+          snmp.send(pdu, target, null, this);
+        }
+        else {
+          snmp.discoverAuthoritativeEngineID(target, null, this);
+        }
+      }
+      catch (IOException iox) {
+        releasePermit();
+        finish("Failed to send discovery request: "+iox.getMessage());
+      }
+    }
+
+    private void releasePermit() {
+      RequestThrottle.Permit p = permit;
+      if (p != null) {
+        permit = null;
+        p.release();
+      }
+    }
+
+    @Override
+    public void onResponse(ResponseEvent event) {
+      ((Session) event.getSource()).cancel(event.getRequest(), this);
+      releasePermit();
+      if (event.getError() != null) {
+        finish("Discovery request failed: "+event.getError().getMessage());
+        return;
+      }
+      if (event.getResponse() == null) {
+        finish(synchronizingTime ? "Time synchronization timed out" : "Engine ID discovery timed out");
+        return;
+      }
+      if (synchronizingTime) {
+        PDU response = event.getResponse();
+        if ((response.getType() == PDU.REPORT) && (response.size() > 0)) {
+          finish("Time synchronization failed with report "+response.get(0).getOid());
+        }
+        else if (!updateTime()) {
+          finish("Engine time not available after time synchronization");
+        }
+        else {
+          finish(null);
+        }
+        return;
+      }
+      result.engineID = batch.mpv3.getEngineID(target.getAddress());
+      if (result.engineID == null) {
+        finish("No engine ID received");
+      }
+      else if (isAuthenticated()) {
+        localizeAndSynchronize();
+      }
+      else {
+        finish(null);
+      }
+    }
+
+    private void localizeAndSynchronize() {
+      synchronizingTime = true;
+      localizationExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          UsmUserEntry user = batch.usm.getUser(result.engineID, target.getSecurityName());
+          if ((user == null) || (user.getUsmUser().getAuthenticationProtocol() == null)) {
+            finish("No authentication key for user "+target.getSecurityName());
+          }
+          else {
+            acquire();
+          }
+        }
+      });
+    }
+
+    private boolean updateTime() {
+      UsmTimeEntry time = batch.usm.getTimeTable().getTime(result.engineID);
+      if (time != null) {
+        result.engineBoots = time.getEngineBoots();
+        result.engineTime = time.getLatestReceivedTime();
+        result.timeSynchronized = true;
+        return true;
+      }
+      return false;
+    }
+
+    private void finish(String errorMessage) {
+      result.errorMessage = errorMessage;
+      if (logger.isDebugEnabled()) {
+        logger.debug("Engine discovery finished: {}", result);
+      }
+      batch.finished(index, result);
+    }
+  }
+}
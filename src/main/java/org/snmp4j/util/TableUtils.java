@@ -27,6 +27,7 @@ import org.snmp4j.Target;
 import org.snmp4j.event.ResponseEvent;
 import org.snmp4j.event.ResponseListener;
 import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Address;
 import org.snmp4j.smi.Integer32;
 import org.snmp4j.smi.OID;
 import org.snmp4j.smi.VariableBinding;
@@ -58,6 +59,9 @@ public class TableUtils extends AbstractSnmpUtility {
   private int maxNumOfRowsPerPDU = 10;
   private int maxNumColumnsPerPDU = 10;
 
+  private final Map<SnapshotKey, TableSnapshot> deltaSnapshots =
+      Collections.synchronizedMap(new HashMap<SnapshotKey, TableSnapshot>());
+
   /**
    * Creates a <code>TableUtils</code> instance. The created instance is thread
    * safe as long as the supplied <code>Session</code> and <code>PDUFactory</code>
@@ -269,6 +273,123 @@ public class TableUtils extends AbstractSnmpUtility {
     req.sendNextChunk();
   }
 
+  /**
+   * Gets synchronously the changes of SNMP tabular data since the last call of
+   * this method for the same target address and column OIDs. The first call
+   * for a target retrieves the whole table and returns all rows. Subsequent
+   * calls retrieve the cells of the rows known from the previous poll with
+   * GET requests (as many cells per PDU as possible) instead of walking the
+   * table again. The table is walked again only if the value of any of the
+   * given change indicators (for example <code>ifNumber.0</code> or
+   * <code>ifTableLastChange.0</code>) changed or if a known row disappeared.
+   * <p>
+   * Only rows with changed cells are returned. The columns array of such a row
+   * contains the changed cells only, unchanged cells are <code>null</code>.
+   * A row that has been removed since the last poll is returned with a
+   * columns array containing only <code>null</code> elements.
+   *
+   * @param target
+   *    a <code>Target</code> instance.
+   * @param columnOIDs
+   *    an array of OIDs of the columnar objects whose instances should be
+   *    retrieved (see {@link #getTable(Target, OID[], OID, OID)}).
+   * @param changeIndicatorOIDs
+   *    an optional array of instance OIDs of scalars whose values change
+   *    whenever rows are added to or removed from the table. If
+   *    <code>null</code> or empty, only disappearing rows trigger a table walk.
+   * @return
+   *    a <code>List</code> of {@link TableEvent} instances. Each instance
+   *    represents a changed row or an error condition. Error conditions may
+   *    only appear at the last element of the list.
+   * @since 2.4
+   */
+  public List<TableEvent> getDeltaTable(Target target,
+                                        OID[] columnOIDs,
+                                        OID[] changeIndicatorOIDs) {
+    if ((columnOIDs == null) || (columnOIDs.length == 0)) {
+      throw new IllegalArgumentException("No column OIDs specified");
+    }
+    InternalTableListener listener = new InternalTableListener();
+    DeltaTableRequest req = new DeltaTableRequest(target, columnOIDs,
+                                                  changeIndicatorOIDs,
+                                                  listener, null);
+    synchronized (listener) {
+      if (req.start()) {
+        try {
+          while (!listener.isFinished()) {
+            listener.wait();
+          }
+        }
+        catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+    return listener.getRows();
+  }
+
+  /**
+   * Gets asynchronously the changes of SNMP tabular data since the last call
+   * for the same target address and column OIDs. See
+   * {@link #getDeltaTable(Target, OID[], OID[])} for details on how changes
+   * are detected and reported.
+   *
+   * @param target
+   *    a <code>Target</code> instance.
+   * @param columnOIDs
+   *    an array of OIDs of the columnar objects whose instances should be
+   *    retrieved.
+   * @param changeIndicatorOIDs
+   *    an optional array of instance OIDs of scalars whose values change
+   *    whenever rows are added to or removed from the table.
+   * @param listener
+   *    a <code>TableListener</code> that is called with a {@link TableEvent}
+   *    for each changed row and when the operation has finished.
+   * @param userObject
+   *    an user object that is transparently supplied to the above call back.
+   * @since 2.4
+   */
+  public void getDeltaTable(Target target,
+                            OID[] columnOIDs,
+                            OID[] changeIndicatorOIDs,
+                            TableListener listener,
+                            Object userObject) {
+    if ((columnOIDs == null) || (columnOIDs.length == 0)) {
+      throw new IllegalArgumentException("No column OIDs specified");
+    }
+    DeltaTableRequest req = new DeltaTableRequest(target, columnOIDs,
+                                                  changeIndicatorOIDs,
+                                                  listener, userObject);
+    req.start();
+  }
+
+  /**
+   * Removes all table snapshots kept for delta polling of the specified
+   * target. The next delta poll for that target will walk the tables again.
+   *
+   * @param target
+   *    a <code>Target</code> instance.
+   * @since 2.4
+   */
+  public void resetDeltaSnapshots(Target target) {
+    synchronized (deltaSnapshots) {
+      for (Iterator<SnapshotKey> it = deltaSnapshots.keySet().iterator();
+           it.hasNext(); ) {
+        if (it.next().address.equals(target.getAddress())) {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes all table snapshots kept for delta polling.
+   * @since 2.4
+   */
+  public void clearDeltaSnapshots() {
+    deltaSnapshots.clear();
+  }
+
   /**
    * Gets the maximum number of rows that will be retrieved per SNMP GETBULK
    * request.
@@ -683,6 +804,365 @@ public class TableUtils extends AbstractSnmpUtility {
     }
   }
 
+  /**
+   * The <code>DeltaTableRequest</code> extends TableRequest to poll a table
+   * incrementally based on the snapshot of the previous poll for the same
+   * target. Known cells are retrieved by GET requests and only changed cells
+   * are reported. The table is walked with a regular {@link TableRequest} if
+   * there is no snapshot yet, if a change indicator changed, or if a known
+   * row disappeared.
+   *
+   * @author Frank Fock
+   * @since 2.4
+   */
+  class DeltaTableRequest extends TableRequest {
+
+    private OID[] changeIndicatorOIDs;
+    private SnapshotKey key;
+    private TableSnapshot previous;
+    private OID[] cellIndexes;
+    private int[] cellColumns;
+    private int cellsSent = 0;
+    private VariableBinding[] indicators;
+    private SortedMap<OID, VariableBinding[]> changes = new TreeMap<>();
+
+    protected DeltaTableRequest(Target target,
+                                OID[] columnOIDs,
+                                OID[] changeIndicatorOIDs,
+                                TableListener listener,
+                                Object userObject) {
+      super(target, columnOIDs, listener, userObject, null, null);
+      this.changeIndicatorOIDs = (changeIndicatorOIDs == null) ?
+          new OID[0] : changeIndicatorOIDs;
+      this.key = new SnapshotKey(target.getAddress(), columnOIDs);
+      this.previous = deltaSnapshots.get(key);
+      if (previous != null) {
+        int numCells = 0;
+        for (VariableBinding[] row : previous.rows.values()) {
+          for (VariableBinding vb : row) {
+            if (vb != null) {
+              numCells++;
+            }
+          }
+        }
+        cellIndexes = new OID[numCells];
+        cellColumns = new int[numCells];
+        int n = 0;
+        for (Map.Entry<OID, VariableBinding[]> row : previous.rows.entrySet()) {
+          VariableBinding[] vbs = row.getValue();
+          for (int c = 0; c < vbs.length; c++) {
+            if (vbs[c] != null) {
+              cellIndexes[n] = row.getKey();
+              cellColumns[n++] = c;
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Starts the delta poll.
+     * @return
+     *    <code>true</code> if a request has been sent and the listener will be
+     *    informed asynchronously, <code>false</code> if the listener has
+     *    already been called with the final event.
+     */
+    public boolean start() {
+      if ((previous == null) ||
+          ((cellIndexes.length == 0) && (changeIndicatorOIDs.length == 0))) {
+        return walk();
+      }
+      return sendNextChunk();
+    }
+
+    @Override
+    public boolean sendNextChunk() {
+      PDU pdu = pduFactory.createPDU(target);
+      pdu.setType(PDU.GET);
+      int maxCells = maxNumColumnsPerPDU * maxNumOfRowsPerPDU;
+      int startCell = cellsSent;
+      if (startCell == 0) {
+        for (OID indicator : changeIndicatorOIDs) {
+          pdu.add(new VariableBinding(indicator));
+        }
+      }
+      int n = 0;
+      while ((cellsSent < cellIndexes.length) && (n < maxCells)) {
+        OID oid = new OID(columnOIDs[cellColumns[cellsSent]]);
+        oid.append(cellIndexes[cellsSent]);
+        pdu.add(new VariableBinding(oid));
+        if ((n > 0) && (pdu.getBERLength() > target.getMaxSizeRequestPDU())) {
+          pdu.trim();
+          break;
+        }
+        cellsSent++;
+        n++;
+      }
+      try {
+        sendRequest(pdu, target, startCell);
+      }
+      catch (Exception ex) {
+        logger.error(ex.getMessage(), ex);
+        finished = true;
+        listener.finished(new TableEvent(this, userObject, ex));
+        return false;
+      }
+      return true;
+    }
+
+    @Override
+    public synchronized void onResponse(ResponseEvent event) {
+      // Do not forget to cancel the asynchronous request! ;-)
+      session.cancel(event.getRequest(), this);
+      if (finished) {
+        return;
+      }
+      PDU response = event.getResponse();
+      if ((response != null) && (response.getType() != PDU.REPORT) &&
+          (response.getErrorStatus() == PDU.noSuchName)) {
+        // SNMPv1 agents report vanished rows this way
+        walk();
+        return;
+      }
+      if (!checkResponse(event)) {
+        return;
+      }
+      int startCell = (Integer) event.getUserObject();
+      int offset = 0;
+      if (startCell == 0) {
+        offset = changeIndicatorOIDs.length;
+        indicators = new VariableBinding[offset];
+        for (int i = 0; i < offset; i++) {
+          indicators[i] = response.get(i);
+        }
+        if (!Arrays.equals(indicators, previous.indicators)) {
+          logger.debug("Change indicators of table changed, walking table");
+          walk();
+          return;
+        }
+      }
+      int numCells = event.getRequest().size() - offset;
+      for (int i = 0; i < numCells; i++) {
+        VariableBinding vb = response.get(offset + i);
+        VariableBinding requested = event.getRequest().get(offset + i);
+        if (vb.isException() || !vb.getOid().equals(requested.getOid())) {
+          walk();
+          return;
+        }
+        OID index = cellIndexes[startCell + i];
+        int col = cellColumns[startCell + i];
+        VariableBinding[] row = previous.rows.get(index);
+        if (!vb.getVariable().equals(row[col].getVariable())) {
+          VariableBinding[] changed = changes.get(index);
+          if (changed == null) {
+            changed = new VariableBinding[columnOIDs.length];
+            changes.put(index, changed);
+          }
+          changed[col] = vb;
+        }
+      }
+      if (cellsSent < cellIndexes.length) {
+        sendNextChunk();
+        return;
+      }
+      SortedMap<OID, VariableBinding[]> rows = new TreeMap<>();
+      for (Map.Entry<OID, VariableBinding[]> row : previous.rows.entrySet()) {
+        VariableBinding[] vbs = row.getValue();
+        VariableBinding[] changed = changes.get(row.getKey());
+        if (changed != null) {
+          vbs = vbs.clone();
+          for (int c = 0; c < changed.length; c++) {
+            if (changed[c] != null) {
+              vbs[c] = changed[c];
+            }
+          }
+        }
+        rows.put(row.getKey(), vbs);
+      }
+      finish(rows);
+    }
+
+    /**
+     * Walks the table with a {@link TableRequest} and compares the result with
+     * the previous snapshot. If the current values of the change indicators
+     * are not yet known, they are retrieved first.
+     *
+     * @return
+     *    <code>true</code> if a request has been sent.
+     */
+    private boolean walk() {
+      if ((indicators == null) && (changeIndicatorOIDs.length > 0)) {
+        PDU pdu = pduFactory.createPDU(target);
+        pdu.setType(PDU.GET);
+        for (OID indicator : changeIndicatorOIDs) {
+          pdu.add(new VariableBinding(indicator));
+        }
+        try {
+          session.send(pdu, target, null, new ResponseListener() {
+            @Override
+            public void onResponse(ResponseEvent event) {
+              session.cancel(event.getRequest(), this);
+              synchronized (DeltaTableRequest.this) {
+                if (checkResponse(event)) {
+                  indicators = event.getResponse().getVariableBindings().toArray(
+                      new VariableBinding[changeIndicatorOIDs.length]);
+                  walk();
+                }
+              }
+            }
+          });
+        }
+        catch (IOException ex) {
+          logger.error(ex.getMessage(), ex);
+          finished = true;
+          listener.finished(new TableEvent(this, userObject, ex));
+          return false;
+        }
+        return true;
+      }
+      if (indicators == null) {
+        indicators = new VariableBinding[0];
+      }
+      TableListener walkListener = new TableListener() {
+        private SortedMap<OID, VariableBinding[]> rows = new TreeMap<>();
+        private volatile boolean walkFinished;
+
+        @Override
+        public boolean next(TableEvent event) {
+          rows.put(event.getIndex(), event.getColumns());
+          return true;
+        }
+
+        @Override
+        public void finished(TableEvent event) {
+          walkFinished = true;
+          synchronized (DeltaTableRequest.this) {
+            if (!event.isError()) {
+              diff(rows);
+              finish(rows);
+            }
+            else {
+              finished = true;
+              if (event.getException() != null) {
+                listener.finished(new TableEvent(DeltaTableRequest.this,
+                    userObject, event.getException()));
+              }
+              else if (event.getReportPDU() != null) {
+                listener.finished(new TableEvent(DeltaTableRequest.this,
+                    userObject, event.getReportPDU()));
+              }
+              else {
+                listener.finished(new TableEvent(DeltaTableRequest.this,
+                    userObject, event.getStatus()));
+              }
+            }
+          }
+        }
+
+        @Override
+        public boolean isFinished() {
+          return walkFinished;
+        }
+      };
+      TableRequest walkRequest =
+          createTableRequest(target, columnOIDs, walkListener, null, null, null);
+      return walkRequest.sendNextChunk();
+    }
+
+    private void diff(SortedMap<OID, VariableBinding[]> rows) {
+      changes.clear();
+      for (Map.Entry<OID, VariableBinding[]> row : rows.entrySet()) {
+        VariableBinding[] vbs = row.getValue();
+        VariableBinding[] old =
+            (previous == null) ? null : previous.rows.get(row.getKey());
+        VariableBinding[] changed = null;
+        for (int c = 0; c < vbs.length; c++) {
+          VariableBinding oldVB = ((old == null) || (c >= old.length)) ?
+              null : old[c];
+          if ((old == null) ||
+              ((vbs[c] == null) ? (oldVB != null) :
+               ((oldVB == null) || !vbs[c].getVariable().equals(oldVB.getVariable())))) {
+            if (changed == null) {
+              changed = new VariableBinding[columnOIDs.length];
+            }
+            changed[c] = vbs[c];
+          }
+        }
+        if (changed != null) {
+          changes.put(row.getKey(), changed);
+        }
+      }
+      if (previous != null) {
+        for (OID index : previous.rows.keySet()) {
+          if (!rows.containsKey(index)) {
+            changes.put(index, new VariableBinding[columnOIDs.length]);
+          }
+        }
+      }
+    }
+
+    private void finish(SortedMap<OID, VariableBinding[]> rows) {
+      deltaSnapshots.put(key, new TableSnapshot(rows, indicators));
+      finished = true;
+      for (Map.Entry<OID, VariableBinding[]> change : changes.entrySet()) {
+        if (!listener.next(new TableEvent(this, userObject, change.getKey(),
+                                          change.getValue()))) {
+          break;
+        }
+      }
+      listener.finished(new TableEvent(this, userObject));
+    }
+  }
+
+  /**
+   * A <code>SnapshotKey</code> identifies the table snapshot of a target
+   * address and a set of columns.
+   */
+  static class SnapshotKey {
+
+    private Address address;
+    private OID[] columnOIDs;
+
+    SnapshotKey(Address address, OID[] columnOIDs) {
+      this.address = address;
+      this.columnOIDs = columnOIDs.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof SnapshotKey)) {
+        return false;
+      }
+      SnapshotKey other = (SnapshotKey) o;
+      return address.equals(other.address) &&
+          Arrays.equals(columnOIDs, other.columnOIDs);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * address.hashCode() + Arrays.hashCode(columnOIDs);
+    }
+  }
+
+  /**
+   * A <code>TableSnapshot</code> holds the rows and change indicator values
+   * retrieved by the last delta poll.
+   */
+  static class TableSnapshot {
+
+    private SortedMap<OID, VariableBinding[]> rows;
+    private VariableBinding[] indicators;
+
+    TableSnapshot(SortedMap<OID, VariableBinding[]> rows,
+                  VariableBinding[] indicators) {
+      this.rows = rows;
+      this.indicators = indicators;
+    }
+  }
+
   /**
    * Creates a SNMP table row for a table that supports the RowStatus
    * mechanism for row creation.
@@ -0,0 +1,125 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - RequestThrottleTest.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.UdpAddress;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Junit 4 test class for the {@link RequestThrottle}.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ */
+public class RequestThrottleTest {
+
+  private Address first = new UdpAddress("127.0.0.1/161");
+  private Address second = new UdpAddress("127.0.0.2/161");
+
+  private final BlockingQueue<RequestThrottle.Permit> granted = new ArrayBlockingQueue<>(10);
+  private RequestThrottle.PermitListener listener = permit -> granted.add(permit);
+
+  @Test
+  public void testGlobalInFlightCap() throws Exception {
+    RequestThrottle throttle =
+        new RequestThrottle(new RequestThrottle.Limits(2, 0.0, 0), RequestThrottle.UNLIMITED);
+    RequestThrottle.Permit p1 = throttle.acquire(first, listener);
+    RequestThrottle.Permit p2 = throttle.acquire(second, listener);
+    Assert.assertNotNull(p1);
+    Assert.assertNotNull(p2);
+    Assert.assertNull(throttle.acquire(first, listener));
+    Assert.assertEquals(2, throttle.getRequestsInFlight());
+    Assert.assertEquals(1, throttle.getQueueDepth());
+    Assert.assertEquals(1, throttle.getQueueDepth(first));
+
+    p2.release();
+    RequestThrottle.Permit p3 = granted.poll(1, TimeUnit.SECONDS);
+    Assert.assertNotNull(p3);
+    Assert.assertEquals(first, p3.getAddress());
+    Assert.assertEquals(2, throttle.getRequestsInFlight());
+    Assert.assertEquals(2, throttle.getRequestsInFlight(first));
+    Assert.assertEquals(0, throttle.getQueueDepth());
+
+    // releasing twice has no effect
+    p2.release();
+    Assert.assertEquals(2, throttle.getRequestsInFlight());
+    p1.release();
+    p3.release();
+    Assert.assertEquals(0, throttle.getRequestsInFlight());
+    Assert.assertTrue(granted.isEmpty());
+  }
+
+  @Test
+  public void testAddressInFlightCap() throws Exception {
+    RequestThrottle throttle = new RequestThrottle();
+    throttle.setAddressLimits(first, new RequestThrottle.Limits(1, 0.0, 0));
+    RequestThrottle.Permit p1 = throttle.acquire(first, listener);
+    Assert.assertNotNull(p1);
+    Assert.assertNull(throttle.acquire(first, listener));
+    // other addresses are not limited
+    for (int i=0; i<5; i++) {
+      Assert.assertNotNull(throttle.acquire(second, listener));
+    }
+    Assert.assertEquals(1, throttle.getQueueDepth());
+    p1.release();
+    Assert.assertNotNull(granted.poll(1, TimeUnit.SECONDS));
+    Assert.assertEquals(1, throttle.getRequestsInFlight(first));
+  }
+
+  @Test
+  public void testRateLimit() throws Exception {
+    RequestThrottle throttle =
+        new RequestThrottle(RequestThrottle.UNLIMITED, new RequestThrottle.Limits(0, 20.0, 2));
+    long start = System.nanoTime();
+    Assert.assertNotNull(throttle.acquire(first, listener));
+    Assert.assertNotNull(throttle.acquire(first, listener));
+    // burst exhausted
+    Assert.assertNull(throttle.acquire(first, listener));
+    Assert.assertNull(throttle.acquire(first, listener));
+    Assert.assertNotNull(throttle.acquire(second, listener));
+    Assert.assertNotNull(granted.poll(2, TimeUnit.SECONDS));
+    Assert.assertNotNull(granted.poll(2, TimeUnit.SECONDS));
+    // two tokens at 20 requests per second take at least 100ms
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    Assert.assertTrue("Rate limit not enforced, elapsed " + elapsed + "ms", elapsed >= 90);
+    Assert.assertEquals(0, throttle.getQueueDepth());
+  }
+
+  @Test
+  public void testCancelQueued() throws Exception {
+    RequestThrottle throttle =
+        new RequestThrottle(new RequestThrottle.Limits(1, 0.0, 0), RequestThrottle.UNLIMITED);
+    RequestThrottle.Permit p1 = throttle.acquire(first, listener);
+    Assert.assertNotNull(p1);
+    Assert.assertNull(throttle.acquire(first, listener));
+    Assert.assertTrue(throttle.cancel(first, listener));
+    Assert.assertFalse(throttle.cancel(first, listener));
+    Assert.assertEquals(0, throttle.getQueueDepth());
+    p1.release();
+    Assert.assertNull(granted.poll(100, TimeUnit.MILLISECONDS));
+    Assert.assertEquals(0, throttle.getRequestsInFlight());
+  }
+}
@@ -0,0 +1,218 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - ResponseFutureTest.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+
+package org.snmp4j;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.smi.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Junit 4 test class for the {@link ResponseFuture} and the
+ * <code>...Async</code> default methods of {@link Session}.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ */
+public class ResponseFutureTest {
+
+  private static final OID OID_A = new OID("1.3.6.1.2.1.1.1.0");
+
+  private RecordingSession session = new RecordingSession();
+  private CommunityTarget target =
+      new CommunityTarget(new UdpAddress("127.0.0.1/161"), new OctetString("public"));
+
+  @Test
+  public void testCompletion() throws Exception {
+    PDU request = request();
+    CompletableFuture<ResponseEvent> future = session.getAsync(request, target);
+    Assert.assertEquals(PDU.GET, request.getType());
+    Assert.assertEquals(1, session.sent.size());
+    Assert.assertSame(request, session.sent.get(0).pdu);
+    Assert.assertFalse(future.isDone());
+
+    PDU response = new PDU();
+    response.setType(PDU.RESPONSE);
+    response.add(new VariableBinding(OID_A, new OctetString("value")));
+    session.sent.get(0).listener.onResponse(new ResponseEvent(session, null, request, response, null));
+    Assert.assertTrue(future.isDone());
+    Assert.assertSame(response, future.get().getResponse());
+    // the request is always cancelled in the session when the response arrived
+    Assert.assertEquals(1, session.cancelled.size());
+    Assert.assertSame(request, session.cancelled.get(0).pdu);
+    Assert.assertSame(future, session.cancelled.get(0).listener);
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    PDU request = request();
+    CompletableFuture<ResponseEvent> future = session.getNextAsync(request, target);
+    Assert.assertEquals(PDU.GETNEXT, request.getType());
+    session.sent.get(0).listener.onResponse(new ResponseEvent(session, null, request, null, null));
+    Assert.assertFalse(future.isCompletedExceptionally());
+    Assert.assertSame(request, future.get().getRequest());
+    Assert.assertNull(future.get().getResponse());
+  }
+
+  @Test
+  public void testError() throws Exception {
+    PDU request = request();
+    CompletableFuture<ResponseEvent> future = session.setAsync(request, target);
+    Assert.assertEquals(PDU.SET, request.getType());
+    IOException error = new IOException("test");
+    session.sent.get(0).listener.onResponse(new ResponseEvent(session, null, request, null, null, error));
+    Assert.assertTrue(future.isCompletedExceptionally());
+    try {
+      future.get();
+      Assert.fail("ExecutionException expected");
+    }
+    catch (ExecutionException eex) {
+      Assert.assertSame(error, eex.getCause());
+    }
+  }
+
+  @Test
+  public void testSendFailure() throws Exception {
+    session.failure = new IOException("not sent");
+    CompletableFuture<ResponseEvent> future = session.informAsync(request(), target);
+    Assert.assertTrue(future.isCompletedExceptionally());
+    try {
+      future.get();
+      Assert.fail("ExecutionException expected");
+    }
+    catch (ExecutionException eex) {
+      Assert.assertSame(session.failure, eex.getCause());
+    }
+  }
+
+  @Test
+  public void testUnconfirmedPDU() throws Exception {
+    PDU trap = request();
+    trap.setType(PDU.TRAP);
+    CompletableFuture<ResponseEvent> future = session.sendAsync(trap, target);
+    Assert.assertTrue(future.isCompletedExceptionally());
+    Assert.assertTrue(session.sent.isEmpty());
+    try {
+      future.get();
+      Assert.fail("ExecutionException expected");
+    }
+    catch (ExecutionException eex) {
+      Assert.assertTrue(eex.getCause() instanceof IllegalArgumentException);
+    }
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    PDU request = request();
+    CompletableFuture<ResponseEvent> future = session.getBulkAsync(request, target);
+    Assert.assertEquals(PDU.GETBULK, request.getType());
+    Assert.assertTrue(future.cancel(true));
+    Assert.assertTrue(future.isCancelled());
+    Assert.assertEquals(1, session.cancelled.size());
+    Assert.assertSame(request, session.cancelled.get(0).pdu);
+    Assert.assertSame(future, session.cancelled.get(0).listener);
+    // cancelling again does not cancel the request again
+    Assert.assertTrue(future.cancel(true));
+    Assert.assertEquals(1, session.cancelled.size());
+    // a late response does not change the outcome
+    session.sent.get(0).listener.onResponse(new ResponseEvent(session, null, request, new PDU(), null));
+    Assert.assertTrue(future.isCancelled());
+  }
+
+  @Test
+  public void testExecutor() throws Exception {
+    final List<Runnable> tasks = new ArrayList<>();
+    Executor executor = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        tasks.add(command);
+      }
+    };
+    PDU request = request();
+    request.setType(PDU.GET);
+    CompletableFuture<ResponseEvent> future = new ResponseFuture(session, request, executor).send(target, null);
+    session.sent.get(0).listener.onResponse(new ResponseEvent(session, null, request, new PDU(), null));
+    Assert.assertFalse(future.isDone());
+    Assert.assertEquals(1, tasks.size());
+    tasks.get(0).run();
+    Assert.assertTrue(future.isDone());
+    Assert.assertNotNull(future.get().getResponse());
+  }
+
+  private static PDU request() {
+    PDU pdu = new PDU();
+    pdu.add(new VariableBinding(OID_A));
+    return pdu;
+  }
+
+  private static class Sent {
+    private PDU pdu;
+    private ResponseListener listener;
+
+    Sent(PDU pdu, ResponseListener listener) {
+      this.pdu = pdu;
+      this.listener = listener;
+    }
+  }
+
+  /**
+   * A session that records sent and cancelled requests without sending
+   * them. It relies on the default <code>...Async</code> methods of
+   * {@link Session}.
+   */
+  private static class RecordingSession implements Session {
+    private List<Sent> sent = new ArrayList<>();
+    private List<Sent> cancelled = new ArrayList<>();
+    private IOException failure;
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void send(PDU pdu, Target target, Object userHandle, ResponseListener listener)
+        throws IOException {
+      send(pdu, target, null, userHandle, listener);
+    }
+
+    @Override
+    public void send(PDU pdu, Target target, TransportMapping transport, Object userHandle,
+                     ResponseListener listener) throws IOException {
+      if (failure != null) {
+        throw failure;
+      }
+      sent.add(new Sent(pdu, listener));
+    }
+
+    @Override
+    public void cancel(PDU request, ResponseListener listener) {
+      cancelled.add(new Sent(request, listener));
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - RttTimeoutModelTest.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.UdpAddress;
+
+/**
+ * Junit 4 test class for the {@link RttTimeoutModel}.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ */
+public class RttTimeoutModelTest {
+
+  private static final long MS = SnmpConstants.MILLISECOND_TO_NANOSECOND;
+
+  private Address address = new UdpAddress("127.0.0.1/161");
+
+  @Test
+  public void testTargetTimeoutWithoutSamples() {
+    RttTimeoutModel model = new RttTimeoutModel();
+    Assert.assertEquals(1500, model.getRetryTimeout(address, 0, 2, 1500));
+    Assert.assertEquals(3000, model.getRetryTimeout(address, 1, 2, 1500));
+    Assert.assertEquals(6000, model.getRetryTimeout(address, 2, 2, 1500));
+  }
+
+  @Test
+  public void testFirstSample() {
+    RttTimeoutModel model = new RttTimeoutModel();
+    model.roundTripTimeMeasured(address, 100 * MS);
+    // SRTT = 100, RTTVAR = 50 => RTO = 100 + 4 * 50
+    Assert.assertEquals(300, model.getRetryTimeout(address, 0, 2, 5000));
+    Assert.assertEquals(600, model.getRetryTimeout(address, 1, 2, 5000));
+    Assert.assertEquals(100.0, model.getSmoothedRoundTripTime(address), 0.001);
+  }
+
+  @Test
+  public void testSmoothing() {
+    RttTimeoutModel model = new RttTimeoutModel();
+    model.roundTripTimeMeasured(address, 100 * MS);
+    model.roundTripTimeMeasured(address, 200 * MS);
+    // RTTVAR = 0.75 * 50 + 0.25 * 100 = 62.5, SRTT = 0.875 * 100 + 0.125 * 200
+    Assert.assertEquals(112.5, model.getSmoothedRoundTripTime(address), 0.001);
+    Assert.assertEquals(363, model.getRetryTimeout(address, 0, 2, 5000));
+  }
+
+  @Test
+  public void testClamping() {
+    RttTimeoutModel model = new RttTimeoutModel();
+    model.setMinTimeout(500);
+    model.setMaxTimeout(2000);
+    model.roundTripTimeMeasured(address, MS);
+    Assert.assertEquals(500, model.getRetryTimeout(address, 0, 5, 5000));
+    Assert.assertEquals(2000, model.getRetryTimeout(address, 40, 50, 5000));
+  }
+
+  @Test
+  public void testBoundedAddresses() {
+    RttTimeoutModel model = new RttTimeoutModel(1);
+    Address other = new UdpAddress("127.0.0.2/161");
+    model.roundTripTimeMeasured(address, 100 * MS);
+    model.roundTripTimeMeasured(other, 100 * MS);
+    Assert.assertTrue(model.getSmoothedRoundTripTime(address) < 0);
+    Assert.assertEquals(100.0, model.getSmoothedRoundTripTime(other), 0.001);
+  }
+}
@@ -30,9 +30,22 @@ import org.snmp4j.smi.*;
 import org.snmp4j.transport.AbstractTransportMapping;
 import org.snmp4j.transport.DummyTransport;
 import org.snmp4j.transport.TransportMappings;
+import org.snmp4j.util.DefaultPDUFactory;
+import org.snmp4j.util.EngineDiscovery;
+import org.snmp4j.util.TableEvent;
+import org.snmp4j.util.TableUtils;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Junit 4 test class for testing the {@link org.snmp4j.Snmp} class. The tests are run
@@ -529,6 +542,502 @@ public class SnmpTest {
     }
   }
 
+  @Test(timeout = 30000)
+  public void testGetV2cBatch() throws InterruptedException, IOException {
+    CommunityTarget target = (CommunityTarget) communityTarget.clone();
+    target.setVersion(SnmpConstants.version2c);
+    target.setTimeout(50000L);
+    target.setRetries(0);
+    Map<Integer, RequestResponse> queue = new HashMap<>(100);
+    List<PDU> pdus = new ArrayList<>(100);
+    for (int i=0; i<100; i++) {
+      PDU pdu = new PDU();
+      pdu.add(new VariableBinding(new OID("1.3.6.1.4976.2."+i), new Integer32(i)));
+      pdu.setRequestID(new Integer32(snmpCommandGenerator.getNextRequestID()));
+      RequestResponse rr = new RequestResponse(pdu, (PDU)pdu.clone());
+      rr.response.setType(PDU.RESPONSE);
+      queue.put(pdu.getRequestID().getValue(), rr);
+      pdu.get(0).setVariable(Null.instance);
+      pdus.add(pdu);
+    }
+    TestCommandResponder responder = new TestCommandResponder(queue);
+    snmpCommandResponder.addCommandResponder(responder);
+    snmpCommandGenerator.listen();
+    snmpCommandResponder.listen();
+    final AsyncResponseListener asyncResponseListener = new AsyncResponseListener(pdus.size());
+    synchronized (asyncResponseListener) {
+      Assert.assertEquals(pdus.size(), snmpCommandGenerator.sendBatch(pdus, Collections.nCopies(pdus.size(), target),
+                                                                      null, asyncResponseListener));
+      while (asyncResponseListener.received < pdus.size()) {
+        asyncResponseListener.wait(20000);
+      }
+    }
+    Assert.assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void testSendPdusCallbackOrder() {
+    final List<String> events = new ArrayList<>();
+    PduHandleCallback<PDU> callback = new PduHandleCallback<PDU>() {
+      @Override
+      public void pduHandleAssigned(PduHandle handle, PDU pdu) {
+        events.add("assigned " + handle.getTransactionID());
+      }
+
+      @Override
+      public void pduSent(PduHandle handle, PDU pdu) {
+        events.add("sent " + handle.getTransactionID());
+      }
+    };
+    CommunityTarget target = (CommunityTarget) communityTarget.clone();
+    target.setVersion(SnmpConstants.version2c);
+    List<OutboundPdu> pdus = new ArrayList<>();
+    for (int i=1; i<=3; i++) {
+      PDU pdu = new PDU();
+      pdu.add(new VariableBinding(new OID("1.3.6.1.4976.4."+i)));
+      pdu.setRequestID(new Integer32(i));
+      pdus.add(new OutboundPdu(target, pdu, callback));
+    }
+    Assert.assertEquals(3, snmpCommandGenerator.getMessageDispatcher().sendPdus(transportMappingCG, pdus, true));
+    // the send time is taken after the whole batch has been handed to the transport
+    Assert.assertEquals(Arrays.asList("assigned 1", "assigned 2", "assigned 3", "sent 1", "sent 2", "sent 3"),
+                        events);
+  }
+
+  @Test(timeout = 30000)
+  public void testGetDeltaTable() throws IOException {
+    CommunityTarget target = (CommunityTarget) communityTarget.clone();
+    target.setVersion(SnmpConstants.version2c);
+    target.setTimeout(5000L);
+    OID[] columns = new OID[] { new OID("1.3.6.1.4976.5.1.1.2"), new OID("1.3.6.1.4976.5.1.1.3") };
+    OID[] indicators = new OID[] { new OID("1.3.6.1.4976.5.2.0") };
+    TableAgent agent = new TableAgent();
+    for (int i=1; i<=3; i++) {
+      agent.setRow(columns, i, "row"+i);
+    }
+    agent.data.put(indicators[0], new Integer32(3));
+    agent.data.put(new OID("1.3.6.1.4976.5.3.0"), new Integer32(0));
+    snmpCommandResponder.addCommandResponder(agent);
+    snmpCommandGenerator.listen();
+    snmpCommandResponder.listen();
+    TableUtils tableUtils = new TableUtils(snmpCommandGenerator, new DefaultPDUFactory(PDU.GETBULK));
+
+    // the first poll returns all rows
+    List<TableEvent> rows = tableUtils.getDeltaTable(target, columns, indicators);
+    Assert.assertEquals(3, rows.size());
+    for (int i=0; i<3; i++) {
+      Assert.assertFalse(rows.get(i).isError());
+      Assert.assertEquals(new OID(new int[] { i+1 }), rows.get(i).getIndex());
+      Assert.assertEquals(new OctetString("row"+(i+1)), rows.get(i).getColumns()[0].getVariable());
+      Assert.assertEquals(new Integer32(i+1), rows.get(i).getColumns()[1].getVariable());
+    }
+
+    // an unchanged table returns nothing and is not walked
+    agent.walks = 0;
+    Assert.assertTrue(tableUtils.getDeltaTable(target, columns, indicators).isEmpty());
+    Assert.assertEquals(0, agent.walks);
+
+    // changed cells are returned with their row, unchanged cells are null
+    agent.data.put(new OID(columns[1].getValue(), new int[] { 2 }), new Integer32(22));
+    rows = tableUtils.getDeltaTable(target, columns, indicators);
+    Assert.assertEquals(1, rows.size());
+    Assert.assertEquals(new OID(new int[] { 2 }), rows.get(0).getIndex());
+    Assert.assertNull(rows.get(0).getColumns()[0]);
+    Assert.assertEquals(new Integer32(22), rows.get(0).getColumns()[1].getVariable());
+    Assert.assertEquals(0, agent.walks);
+
+    // a changed indicator walks the table and returns the added row
+    agent.setRow(columns, 4, "row4");
+    agent.data.put(indicators[0], new Integer32(4));
+    rows = tableUtils.getDeltaTable(target, columns, indicators);
+    Assert.assertTrue(agent.walks > 0);
+    Assert.assertEquals(1, rows.size());
+    Assert.assertEquals(new OID(new int[] { 4 }), rows.get(0).getIndex());
+    Assert.assertEquals(new OctetString("row4"), rows.get(0).getColumns()[0].getVariable());
+    Assert.assertEquals(new Integer32(4), rows.get(0).getColumns()[1].getVariable());
+
+    // a vanished row is returned without columns even if the indicator did not change
+    agent.walks = 0;
+    agent.data.remove(new OID(columns[0].getValue(), new int[] { 1 }));
+    agent.data.remove(new OID(columns[1].getValue(), new int[] { 1 }));
+    rows = tableUtils.getDeltaTable(target, columns, indicators);
+    Assert.assertTrue(agent.walks > 0);
+    Assert.assertEquals(1, rows.size());
+    Assert.assertEquals(new OID(new int[] { 1 }), rows.get(0).getIndex());
+    Assert.assertNull(rows.get(0).getColumns()[0]);
+    Assert.assertNull(rows.get(0).getColumns()[1]);
+    Assert.assertTrue(tableUtils.getDeltaTable(target, columns, indicators).isEmpty());
+  }
+
+  @Test(timeout = 30000)
+  public void testThrottledAsyncRequests() throws Exception {
+    CommunityTarget target = (CommunityTarget) communityTarget.clone();
+    target.setVersion(SnmpConstants.version2c);
+    target.setTimeout(5000L);
+    final RequestThrottle throttle =
+        new RequestThrottle(new RequestThrottle.Limits(2, 0.0, 0), RequestThrottle.UNLIMITED);
+    snmpCommandGenerator.setRequestThrottle(throttle);
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    TableAgent agent = new TableAgent() {
+      @Override
+      public void processPdu(CommandResponderEvent event) {
+        maxInFlight.set(Math.max(maxInFlight.get(), throttle.getRequestsInFlight()));
+        super.processPdu(event);
+      }
+    };
+    agent.data.put(new OID("1.3.6.1.4976.6.1.0"), new Integer32(1));
+    snmpCommandResponder.addCommandResponder(agent);
+    snmpCommandGenerator.listen();
+    snmpCommandResponder.listen();
+    AsyncResponseListener listener = new AsyncResponseListener(10);
+    synchronized (listener) {
+      for (int i=0; i<10; i++) {
+        PDU pdu = new PDU();
+        pdu.setType(PDU.GET);
+        pdu.add(new VariableBinding(new OID("1.3.6.1.4976.6.1.0")));
+        snmpCommandGenerator.send(pdu, target, null, listener);
+      }
+      while (listener.received < 10) {
+        listener.wait(20000);
+      }
+    }
+    Assert.assertTrue(maxInFlight.get() <= 2);
+    Assert.assertEquals(0, throttle.getRequestsInFlight());
+    Assert.assertEquals(0, throttle.getQueueDepth());
+  }
+
+  @Test(timeout = 30000)
+  public void testCancelThrottledAsyncRequests() throws Exception {
+    CommunityTarget target = (CommunityTarget) communityTarget.clone();
+    target.setVersion(SnmpConstants.version2c);
+    target.setTimeout(20000L);
+    target.setRetries(0);
+    RequestThrottle throttle =
+        new RequestThrottle(new RequestThrottle.Limits(1, 0.0, 0), RequestThrottle.UNLIMITED);
+    snmpCommandGenerator.setRequestThrottle(throttle);
+    // no command responder, the requests are never answered
+    snmpCommandGenerator.listen();
+    snmpCommandResponder.listen();
+    final List<ResponseEvent> events = Collections.synchronizedList(new ArrayList<ResponseEvent>());
+    ResponseListener listener = new ResponseListener() {
+      @Override
+      public void onResponse(ResponseEvent event) {
+        events.add(event);
+      }
+    };
+    PDU[] pdus = new PDU[3];
+    for (int i=0; i<pdus.length; i++) {
+      pdus[i] = new PDU();
+      pdus[i].setType(PDU.GET);
+      pdus[i].add(new VariableBinding(new OID("1.3.6.1.4976.6.2."+i)));
+      snmpCommandGenerator.send(pdus[i], target, null, listener);
+    }
+    Assert.assertEquals(1, throttle.getRequestsInFlight());
+    Assert.assertEquals(2, throttle.getQueueDepth());
+
+    // cancelling a queued request removes it from the queue
+    snmpCommandGenerator.cancel(pdus[1], listener);
+    Assert.assertEquals(1, throttle.getRequestsInFlight());
+    Assert.assertEquals(1, throttle.getQueueDepth());
+
+    // cancelling the request in flight sends the remaining queued request
+    snmpCommandGenerator.cancel(pdus[0], listener);
+    Assert.assertEquals(1, throttle.getRequestsInFlight());
+    Assert.assertEquals(0, throttle.getQueueDepth());
+    Assert.assertTrue(pdus[2].getRequestID().getValue() != 0);
+
+    snmpCommandGenerator.cancel(pdus[2], listener);
+    Assert.assertEquals(0, throttle.getRequestsInFlight());
+    Assert.assertTrue(events.isEmpty());
+  }
+
+  @Test(timeout = 30000)
+  public void testSendAsync() throws Exception {
+    CommunityTarget target = (CommunityTarget) communityTarget.clone();
+    target.setVersion(SnmpConstants.version2c);
+    target.setTimeout(20000L);
+    target.setRetries(0);
+    final OID silent = new OID("1.3.6.1.4976.7.2");
+    TableAgent agent = new TableAgent() {
+      @Override
+      public void processPdu(CommandResponderEvent event) {
+        if (!event.getPDU().get(0).getOid().startsWith(silent)) {
+          super.processPdu(event);
+        }
+      }
+    };
+    agent.data.put(new OID("1.3.6.1.4976.7.1.0"), new OctetString("async"));
+    snmpCommandResponder.addCommandResponder(agent);
+    final AtomicInteger completions = new AtomicInteger();
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    snmpCommandGenerator.setAsyncExecutor(new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        completions.incrementAndGet();
+        executor.execute(command);
+      }
+    });
+    snmpCommandGenerator.listen();
+    snmpCommandResponder.listen();
+    try {
+      // completion with the response on the async executor
+      PDU pdu = new PDU();
+      pdu.add(new VariableBinding(new OID("1.3.6.1.4976.7.1.0")));
+      CompletableFuture<ResponseEvent> future = snmpCommandGenerator.getAsync(pdu, target);
+      ResponseEvent event = future.get(10, TimeUnit.SECONDS);
+      Assert.assertEquals(PDU.GET, pdu.getType());
+      Assert.assertNotNull(event.getResponse());
+      Assert.assertEquals(new OctetString("async"), event.getResponse().get(0).getVariable());
+      Assert.assertEquals(1, completions.get());
+
+      // a timeout completes the future normally without response
+      CommunityTarget shortTarget = (CommunityTarget) target.clone();
+      shortTarget.setTimeout(200L);
+      pdu = new PDU();
+      pdu.add(new VariableBinding(new OID(silent.getValue(), new int[] { 1 })));
+      event = snmpCommandGenerator.getAsync(pdu, shortTarget).get(10, TimeUnit.SECONDS);
+      Assert.assertNull(event.getResponse());
+      Assert.assertNull(event.getError());
+
+      // cancellation cancels the pending request
+      pdu = new PDU();
+      pdu.add(new VariableBinding(new OID(silent.getValue(), new int[] { 2 })));
+      future = snmpCommandGenerator.getAsync(pdu, target);
+      Assert.assertTrue(future.cancel(true));
+      Assert.assertTrue(future.isCancelled());
+
+      // unconfirmed PDUs are rejected
+      pdu = new PDU();
+      pdu.setType(PDU.TRAP);
+      future = snmpCommandGenerator.sendAsync(pdu, target);
+      Assert.assertTrue(future.isCompletedExceptionally());
+      try {
+        future.get();
+        Assert.fail("ExecutionException expected");
+      }
+      catch (ExecutionException eex) {
+        Assert.assertTrue(eex.getCause() instanceof IllegalArgumentException);
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void testGetV3AsyncReportExecutor() throws InterruptedException, IOException {
+    final AtomicInteger reports = new AtomicInteger();
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    snmpCommandGenerator.setReportExecutor(new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        reports.incrementAndGet();
+        executor.execute(command);
+      }
+    });
+    asyncAuthPrivRequests(100, "1.3.6.1.4976.3.");
+    executor.shutdown();
+    Assert.assertTrue(reports.get() > 0);
+  }
+
+  @Test(timeout = 30000)
+  public void testGetV3AsyncResync() throws InterruptedException, IOException {
+    // all requests are reported, but only the first one resyncs the time
+    asyncAuthPrivRequests(1000, "1.3.6.1.4976.9.");
+    Assert.assertEquals(1, snmpCommandGenerator.getResyncCount());
+  }
+
+  @Test(timeout = 30000)
+  public void testGetV3AsyncReportExecutorShutdown() throws InterruptedException, IOException {
+    // reports rejected by a shut down executor are processed by the receiving thread
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    executor.shutdown();
+    snmpCommandGenerator.setReportExecutor(executor);
+    asyncAuthPrivRequests(10, "1.3.6.1.4976.8.");
+  }
+
+  @Test(timeout = 30000)
+  public void testGetV3AsyncSecurityStage() throws InterruptedException, IOException {
+    ExecutorService executor = Executors.newWorkStealingPool(4);
+    ((MessageDispatcherImpl)snmpCommandGenerator.getMessageDispatcher()).setSecurityStageExecutor(executor);
+    ((MessageDispatcherImpl)snmpCommandResponder.getMessageDispatcher()).setSecurityStageExecutor(executor);
+    asyncAuthPrivRequests(500, "1.3.6.1.4976.4.");
+    executor.shutdown();
+  }
+
+  @Test(timeout = 30000)
+  public void testGetV3AsyncSecurityStageOrder() throws Exception {
+    final ExecutorService pool = Executors.newFixedThreadPool(4);
+    final AtomicBoolean armed = new AtomicBoolean();
+    final AtomicInteger started = new AtomicInteger();
+    final CountDownLatch secondStarted = new CountDownLatch(1);
+    final AtomicBoolean overlapped = new AtomicBoolean();
+    ((MessageDispatcherImpl)snmpCommandResponder.getMessageDispatcher()).setSecurityStageExecutor(new Executor() {
+      @Override
+      public void execute(final Runnable command) {
+        pool.execute(new Runnable() {
+          @Override
+          public void run() {
+            if (armed.get()) {
+              int n = started.incrementAndGet();
+              if (n == 1) {
+                // hold the first message until the next one is being prepared
+                try {
+                  overlapped.set(secondStarted.await(10, TimeUnit.SECONDS));
+                }
+                catch (InterruptedException iex) {
+                  Thread.currentThread().interrupt();
+                }
+              }
+              else if (n == 2) {
+                secondStarted.countDown();
+              }
+            }
+            command.run();
+          }
+        });
+      }
+    });
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+    snmpCommandResponder.addCommandResponder(new CommandResponder() {
+      @Override
+      public void processPdu(CommandResponderEvent event) {
+        order.add(event.getPDU().get(0).getOid().last());
+        PDU response = (PDU) event.getPDU().clone();
+        response.setType(PDU.RESPONSE);
+        try {
+          snmpCommandResponder.getMessageDispatcher().returnResponsePdu(
+              event.getMessageProcessingModel(), event.getSecurityModel(),
+              event.getSecurityName(), event.getSecurityLevel(),
+              response, event.getMaxSizeResponsePDU(),
+              event.getStateReference(), new StatusInformation());
+        } catch (MessageException e) {
+          Assert.assertNull(e);
+        }
+      }
+    });
+    snmpCommandGenerator.listen();
+    snmpCommandResponder.listen();
+    UserTarget target = (UserTarget) userTarget.clone();
+    target.setSecurityLevel(SecurityLevel.AUTH_PRIV);
+    target.setTimeout(20000L);
+    try {
+      // discover the engine and synchronize the time first
+      ScopedPDU pdu = new ScopedPDU();
+      pdu.add(new VariableBinding(new OID("1.3.6.1.4976.10.0")));
+      Assert.assertNotNull(snmpCommandGenerator.getAsync(pdu, target).get(10, TimeUnit.SECONDS).getResponse());
+      order.clear();
+      armed.set(true);
+      int count = 50;
+      AsyncResponseListener listener = new AsyncResponseListener(count);
+      synchronized (listener) {
+        for (int i=0; i<count; i++) {
+          pdu = new ScopedPDU();
+          pdu.add(new VariableBinding(new OID("1.3.6.1.4976.10."+i)));
+          snmpCommandGenerator.send(pdu, target, null, listener);
+        }
+        while (listener.received < count) {
+          listener.wait(20000);
+        }
+      }
+      // the second message has been prepared while the first one was held
+      Assert.assertTrue(overlapped.get());
+      List<Integer> expected = new ArrayList<>(count);
+      for (int i=0; i<count; i++) {
+        expected.add(i);
+      }
+      Assert.assertEquals(expected, order);
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  private void asyncAuthPrivRequests(int count, String oidPrefix) throws InterruptedException, IOException {
+    UserTarget target = (UserTarget) userTarget.clone();
+    target.setSecurityLevel(SecurityLevel.AUTH_PRIV);
+    target.setTimeout(20000L);
+    Map<Integer, RequestResponse> queue = new HashMap<>(count);
+    List<PDU> pdus = new ArrayList<>(count);
+    for (int i=0; i<count; i++) {
+      ScopedPDU pdu = new ScopedPDU();
+      pdu.add(new VariableBinding(new OID(oidPrefix+i), new Integer32(i)));
+      pdu.setRequestID(new Integer32(snmpCommandGenerator.getNextRequestID()));
+      RequestResponse rr = new RequestResponse(pdu, (PDU)pdu.clone());
+      rr.response.setType(PDU.RESPONSE);
+      queue.put(pdu.getRequestID().getValue(), rr);
+      pdu.get(0).setVariable(Null.instance);
+      pdus.add(pdu);
+    }
+    TestCommandResponder responder = new TestCommandResponder(queue);
+    snmpCommandResponder.addCommandResponder(responder);
+    snmpCommandGenerator.listen();
+    snmpCommandResponder.listen();
+    final AsyncResponseListener asyncResponseListener = new AsyncResponseListener(pdus.size());
+    synchronized (asyncResponseListener) {
+      for (PDU pdu : pdus) {
+        snmpCommandGenerator.send(pdu, target, null, asyncResponseListener);
+      }
+      while (asyncResponseListener.received < pdus.size()) {
+        asyncResponseListener.wait(20000);
+      }
+    }
+    Assert.assertTrue(queue.isEmpty());
+  }
+
+  @Test(timeout = 30000)
+  public void testEngineDiscovery() throws Exception {
+    snmpCommandResponder.addCommandResponder(new CommandResponder() {
+      @Override
+      public void processPdu(CommandResponderEvent event) {
+        PDU response = (PDU) event.getPDU().clone();
+        response.setType(PDU.RESPONSE);
+        try {
+          snmpCommandResponder.getMessageDispatcher().returnResponsePdu(
+              event.getMessageProcessingModel(), event.getSecurityModel(),
+              event.getSecurityName(), event.getSecurityLevel(),
+              response, event.getMaxSizeResponsePDU(),
+              event.getStateReference(), new StatusInformation());
+        } catch (MessageException e) {
+          Assert.assertNull(e);
+        }
+      }
+    });
+    snmpCommandResponder.getUSM().setEngineBoots(1);
+    snmpCommandGenerator.listen();
+    snmpCommandResponder.listen();
+    UserTarget target = (UserTarget) userTarget.clone();
+    target.setSecurityLevel(SecurityLevel.AUTH_PRIV);
+    target.setTimeout(5000);
+    UserTarget unknownUser = (UserTarget) target.clone();
+    unknownUser.setSecurityName(new OctetString("unknown"));
+    final List<EngineDiscovery.Result> reported = Collections.synchronizedList(new ArrayList<EngineDiscovery.Result>());
+    EngineDiscovery discovery = new EngineDiscovery(snmpCommandGenerator);
+    List<EngineDiscovery.Result> results =
+        discovery.discover(Arrays.asList(target, unknownUser), new EngineDiscovery.DiscoveryListener() {
+          @Override
+          public void engineDiscovered(EngineDiscovery.Result result) {
+            reported.add(result);
+          }
+        }).get();
+    Assert.assertEquals(2, results.size());
+    Assert.assertEquals(2, reported.size());
+    OctetString engineID = new OctetString(snmpCommandResponder.getLocalEngineID());
+    EngineDiscovery.Result result = results.get(0);
+    Assert.assertTrue(result.toString(), result.isSuccess());
+    Assert.assertEquals(engineID, result.getEngineID());
+    Assert.assertTrue(result.isTimeSynchronized());
+    Assert.assertEquals(1, result.getEngineBoots());
+    Assert.assertEquals(engineID,
+        ((MPv3) snmpCommandGenerator.getMessageProcessingModel(MPv3.ID)).getEngineID(target.getAddress()));
+    Assert.assertNotNull(snmpCommandGenerator.getUSM().getUserTable().getUser(engineID, target.getSecurityName()));
+    Assert.assertFalse(results.get(1).isSuccess());
+    // second discovery is answered from the caches
+    result = discovery.discover(Collections.singletonList(target), null).get().get(0);
+    Assert.assertTrue(result.isSuccess());
+    Assert.assertTrue(result.isCached());
+  }
+
   @Test(timeout = 30000)
   public void testGetNextV3AsyncUserChange() throws InterruptedException, IOException {
     Target target = userTarget;
@@ -710,6 +1219,86 @@ public class SnmpTest {
   }
   */
 
+  /**
+   * A command responder that answers GET, GETNEXT, and GETBULK requests from
+   * a sorted map of instances and counts the GETNEXT and GETBULK requests.
+   */
+  class TableAgent implements CommandResponder {
+
+    private final SortedMap<OID, Variable> data = Collections.synchronizedSortedMap(new TreeMap<OID, Variable>());
+    private volatile int walks;
+
+    void setRow(OID[] columns, int index, String name) {
+      data.put(new OID(columns[0].getValue(), new int[] { index }), new OctetString(name));
+      data.put(new OID(columns[1].getValue(), new int[] { index }), new Integer32(index));
+    }
+
+    private VariableBinding next(OID oid) {
+      synchronized (data) {
+        SortedMap<OID, Variable> tail = data.tailMap(oid.successor());
+        if (tail.isEmpty()) {
+          return new VariableBinding(oid, Null.endOfMibView);
+        }
+        return new VariableBinding(tail.firstKey(), tail.get(tail.firstKey()));
+      }
+    }
+
+    @Override
+    public void processPdu(CommandResponderEvent event) {
+      PDU pdu = event.getPDU();
+      PDU response = (PDU) pdu.clone();
+      response.clear();
+      response.setType(PDU.RESPONSE);
+      response.setRequestID(pdu.getRequestID());
+      List<? extends VariableBinding> vbs = pdu.getVariableBindings();
+      switch (pdu.getType()) {
+        case PDU.GET:
+          for (VariableBinding vb : vbs) {
+            Variable value = data.get(vb.getOid());
+            response.add(new VariableBinding(vb.getOid(), (value == null) ? Null.noSuchInstance : value));
+          }
+          break;
+        case PDU.GETNEXT:
+          walks++;
+          for (VariableBinding vb : vbs) {
+            response.add(next(vb.getOid()));
+          }
+          break;
+        case PDU.GETBULK:
+          walks++;
+          int nonRepeaters = Math.min(pdu.getNonRepeaters(), vbs.size());
+          for (int i=0; i<nonRepeaters; i++) {
+            response.add(next(vbs.get(i).getOid()));
+          }
+          List<OID> current = new ArrayList<>();
+          for (int i=nonRepeaters; i<vbs.size(); i++) {
+            current.add(vbs.get(i).getOid());
+          }
+          for (int r=0; (r<pdu.getMaxRepetitions()) && !current.isEmpty(); r++) {
+            for (int i=0; i<current.size(); i++) {
+              VariableBinding vb = next(current.get(i));
+              response.add(vb);
+              current.set(i, vb.getOid());
+            }
+          }
+          break;
+        default:
+          return;
+      }
+      event.setProcessed(true);
+      try {
+        snmpCommandResponder.getMessageDispatcher().returnResponsePdu(
+            event.getMessageProcessingModel(), event.getSecurityModel(),
+            event.getSecurityName(), event.getSecurityLevel(),
+            response, event.getMaxSizeResponsePDU(),
+            event.getStateReference(), new StatusInformation());
+      }
+      catch (MessageException e) {
+        Assert.assertNull(e);
+      }
+    }
+  }
+
   class TestCommandResponder implements CommandResponder {
 
     private Map<Integer, RequestResponse> expectedPDUs;
@@ -0,0 +1,102 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - EngineIdCacheTest.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.mp;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.snmp4j.event.SnmpEngineEvent;
+import org.snmp4j.event.SnmpEngineListener;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.UdpAddress;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Junit 4 test class for the {@link EngineIdCache}.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ */
+public class EngineIdCacheTest {
+
+  private static Address address(int i) {
+    return new UdpAddress(InetAddress.getLoopbackAddress(), 1024 + i);
+  }
+
+  @Test
+  public void testMaxSize() {
+    EngineIdCache cache = new EngineIdCache(100, 0);
+    final List<Address> evicted = new ArrayList<Address>();
+    cache.setEvictionListener(new EngineIdCache.EvictionListener() {
+      @Override
+      public void engineIdEvicted(Address address, OctetString engineID) {
+        evicted.add(address);
+      }
+    });
+    for (int i=0; i<1000; i++) {
+      Assert.assertNull(cache.put(address(i), new OctetString("engine"+i)));
+      Assert.assertTrue(cache.size() <= 100);
+    }
+    Assert.assertEquals(1000 - cache.size(), evicted.size());
+    Assert.assertEquals(new OctetString("engine999"), cache.get(address(999)));
+    Assert.assertNull(cache.get(address(0)));
+    Assert.assertEquals(new OctetString("engine999"), cache.put(address(999), new OctetString("new")));
+    Assert.assertEquals(new OctetString("new"), cache.remove(address(999)));
+    Assert.assertNull(cache.get(address(999)));
+  }
+
+  @Test
+  public void testIdleTimeout() throws InterruptedException {
+    EngineIdCache cache = new EngineIdCache(0, 1);
+    cache.put(address(1), new OctetString("engine"));
+    Thread.sleep(10);
+    Assert.assertEquals(1, cache.removeIdleEntries());
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testMPv3EvictionEvent() {
+    MPv3 mpv3 = new MPv3();
+    mpv3.getEngineIdCache().setMaxSize(10);
+    final List<SnmpEngineEvent> events = new ArrayList<SnmpEngineEvent>();
+    mpv3.addSnmpEngineListener(new SnmpEngineListener() {
+      @Override
+      public void engineChanged(SnmpEngineEvent engineEvent) {
+        events.add(engineEvent);
+      }
+    });
+    for (int i=0; i<11; i++) {
+      mpv3.addEngineID(address(i), new OctetString("engine"+i));
+    }
+    // evicted down to 90% of the maximum size
+    Assert.assertEquals(9, mpv3.getEngineIDs().size());
+    int removed = 0;
+    for (SnmpEngineEvent event : events) {
+      if (event.getType() == SnmpEngineEvent.REMOVED_ENGINE_ID) {
+        Assert.assertNull(mpv3.getEngineID(event.getEngineAddress()));
+        removed++;
+      }
+    }
+    Assert.assertEquals(2, removed);
+  }
+}
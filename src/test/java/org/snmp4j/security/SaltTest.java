@@ -0,0 +1,89 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - SaltTest.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.security;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Junit 4 concurrency test for the {@link Salt}.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ */
+public class SaltTest {
+
+  private static final int THREADS = 32;
+  private static final int VALUES_PER_THREAD = 20000;
+
+  private static void assertUnique(final Salt salt) throws InterruptedException {
+    final long[][] values = new long[THREADS][VALUES_PER_THREAD];
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[THREADS];
+    for (int t=0; t<THREADS; t++) {
+      final long[] threadValues = values[t];
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          }
+          catch (InterruptedException e) {
+            return;
+          }
+          for (int i=0; i<threadValues.length; i++) {
+            threadValues[i] = salt.getNext();
+          }
+        }
+      });
+      threads[t].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Set<Long> unique = new HashSet<Long>(THREADS * VALUES_PER_THREAD * 2);
+    for (long[] threadValues : values) {
+      for (long value : threadValues) {
+        Assert.assertTrue("Salt "+value+" returned twice", unique.add(value));
+      }
+    }
+    Assert.assertEquals(THREADS * VALUES_PER_THREAD, unique.size());
+  }
+
+  @Test
+  public void testConcurrentUniqueness() throws InterruptedException {
+    assertUnique(Salt.getInstance());
+  }
+
+  @Test
+  public void testConcurrentUniquenessSmallRanges() throws InterruptedException {
+    assertUnique(new Salt(0, 3));
+  }
+
+  @Test
+  public void testWrapAround() throws InterruptedException {
+    assertUnique(new Salt(Long.MAX_VALUE - 1000, 100));
+  }
+}
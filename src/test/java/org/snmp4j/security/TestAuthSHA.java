@@ -24,6 +24,14 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.snmp4j.smi.OctetString;
 
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
 
 public class TestAuthSHA {
   @Test
@@ -123,4 +131,91 @@ public class TestAuthSHA {
     }
 
   }
+
+  @Test
+  public void testPasswordToKeys() {
+    byte[] rfcEngineId = {
+        (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+        (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+        (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x02};
+    List<byte[]> engineIds = new ArrayList<byte[]>();
+    for (int i=0; i<200; i++) {
+      engineIds.add(new OctetString("engine"+i).getValue());
+    }
+    engineIds.set(123, rfcEngineId);
+    AuthSHA auth = new AuthSHA();
+    OctetString password = new OctetString("maplesyrup");
+    List<byte[]> keys = auth.passwordToKeys(password, engineIds);
+    Assert.assertEquals(engineIds.size(), keys.size());
+    Assert.assertEquals("66:95:fe:bc:92:88:e3:62:82:23:5f:c7:15:1f:12:84:97:b3:8f:3f",
+                        new OctetString(keys.get(123)).toHexString());
+    for (int i=0; i<engineIds.size(); i+=37) {
+      Assert.assertArrayEquals(auth.passwordToKey(password, engineIds.get(i)), keys.get(i));
+    }
+  }
+
+  @Test
+  public void testPasswordToKeysWithExecutor() throws Exception {
+    List<byte[]> engineIds = new ArrayList<byte[]>();
+    for (int i=0; i<500; i++) {
+      engineIds.add(new OctetString("engine"+i).getValue());
+    }
+    AuthSHA auth = new AuthSHA();
+    OctetString password = new OctetString("maplesyrup");
+    List<byte[]> expected = auth.passwordToKeys(password, engineIds);
+    final AtomicInteger tasks = new AtomicInteger();
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<byte[]> keys = auth.passwordToKeys(password, engineIds, new Executor() {
+        @Override
+        public void execute(Runnable command) {
+          tasks.incrementAndGet();
+          executor.execute(command);
+        }
+      });
+      assertKeys(expected, keys);
+      // 500 engine IDs are localized in 16 chunks, one by the calling thread
+      Assert.assertEquals(15, tasks.get());
+    }
+    finally {
+      executor.shutdown();
+    }
+    // the calling thread localizes the keys if the executor rejects the tasks
+    assertKeys(expected, auth.passwordToKeys(password, engineIds, executor));
+    // or does not run them
+    assertKeys(expected, auth.passwordToKeys(password, engineIds, new Executor() {
+      @Override
+      public void execute(Runnable command) {
+      }
+    }));
+  }
+
+  private static void assertKeys(List<byte[]> expected, List<byte[]> keys) {
+    Assert.assertEquals(expected.size(), keys.size());
+    for (int i=0; i<expected.size(); i++) {
+      Assert.assertArrayEquals(expected.get(i), keys.get(i));
+    }
+  }
+
+  @Test
+  public void testPasswordToMasterKeyOddLengths() {
+    AuthSHA auth = new AuthSHA();
+    for (int length : new int[] { 1, 7, 63, 65, 1000, 20000 }) {
+      byte[] password = new byte[length];
+      for (int i=0; i<length; i++) {
+        password[i] = (byte)('a' + i % 26);
+      }
+      // reference implementation from RFC 3414 A.2
+      MessageDigest md = auth.getDigestObject();
+      byte[] buf = new byte[64];
+      int passwordIndex = 0;
+      for (int count = 0; count < 1048576; count += 64) {
+        for (int i = 0; i < 64; ++i) {
+          buf[i] = password[passwordIndex++ % password.length];
+        }
+        md.update(buf);
+      }
+      Assert.assertArrayEquals(md.digest(), auth.passwordToMasterKey(new OctetString(password)));
+    }
+  }
 }
@@ -0,0 +1,118 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - UsmStateStoreTest.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.security;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.snmp4j.mp.MPv3;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.UdpAddress;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Junit 4 test class for the {@link UsmStateStore}.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ */
+public class UsmStateStoreTest {
+
+  private static final OctetString REMOTE_ENGINE_ID = new OctetString("remoteEngine");
+  private static final OctetString SECURITY_NAME = new OctetString("SHADES");
+  private static final char[] PASSPHRASE = "storePassphrase".toCharArray();
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("usmstate", ".bin");
+    file.delete();
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  private static USM createUSM() {
+    SecurityProtocols securityProtocols = new SecurityProtocols();
+    securityProtocols.addDefaultProtocols();
+    USM usm = new USM(securityProtocols, new OctetString(MPv3.createLocalEngineID()), 0);
+    usm.addUser(SECURITY_NAME, new UsmUser(SECURITY_NAME, AuthSHA.ID, new OctetString("SHADESAuthPassword"),
+                                           PrivDES.ID, new OctetString("SHADESPrivPassword")));
+    return usm;
+  }
+
+  @Test
+  public void testSaveLoad() throws IOException {
+    USM usm = createUSM();
+    MPv3 mpv3 = new MPv3(usm);
+    UdpAddress address = new UdpAddress("127.0.0.1/161");
+    mpv3.addEngineID(address, REMOTE_ENGINE_ID);
+    usm.getTimeTable().addEntry(new UsmTimeEntry(REMOTE_ENGINE_ID, 7, 1000));
+    UsmUserEntry localized = usm.getUser(REMOTE_ENGINE_ID, SECURITY_NAME);
+    Assert.assertNotNull(localized);
+    UsmStateStore store = new UsmStateStore(file, PASSPHRASE);
+    store.setKeyDerivationIterations(1000);
+    Assert.assertEquals(-1, store.load(mpv3, usm));
+    store.save(mpv3, usm);
+
+    USM restoredUSM = createUSM();
+    MPv3 restoredMPv3 = new MPv3(restoredUSM);
+    Assert.assertEquals(3, new UsmStateStore(file, PASSPHRASE).load(restoredMPv3, restoredUSM));
+    Assert.assertEquals(REMOTE_ENGINE_ID, restoredMPv3.getEngineID(address));
+    UsmTimeEntry time = restoredUSM.getTimeTable().getEntry(REMOTE_ENGINE_ID);
+    Assert.assertEquals(7, time.getEngineBoots());
+    Assert.assertEquals(1000, restoredUSM.getTimeTable().getTime(REMOTE_ENGINE_ID).getLatestReceivedTime(), 2);
+    UsmUserEntry restored = restoredUSM.getUserTable().getUser(REMOTE_ENGINE_ID, SECURITY_NAME);
+    Assert.assertNotNull(restored);
+    Assert.assertArrayEquals(localized.getAuthenticationKey(), restored.getAuthenticationKey());
+    Assert.assertArrayEquals(localized.getPrivacyKey(), restored.getPrivacyKey());
+    // existing entries are kept
+    Assert.assertEquals(0, new UsmStateStore(file, PASSPHRASE).load(restoredMPv3, restoredUSM));
+  }
+
+  @Test
+  public void testChangedPassword() throws IOException {
+    USM usm = createUSM();
+    usm.getUser(REMOTE_ENGINE_ID, SECURITY_NAME);
+    UsmStateStore store = new UsmStateStore(file, PASSPHRASE);
+    store.setKeyDerivationIterations(1000);
+    store.save(null, usm);
+    USM changed = createUSM();
+    changed.addUser(SECURITY_NAME, new UsmUser(SECURITY_NAME, AuthSHA.ID, new OctetString("changedAuthPassword"),
+                                               PrivDES.ID, new OctetString("SHADESPrivPassword")));
+    Assert.assertEquals(0, store.load(null, changed));
+    Assert.assertNull(changed.getUserTable().getUser(REMOTE_ENGINE_ID, SECURITY_NAME));
+  }
+
+  @Test(expected = IOException.class)
+  public void testWrongPassphrase() throws IOException {
+    USM usm = createUSM();
+    UsmStateStore store = new UsmStateStore(file, PASSPHRASE);
+    store.setKeyDerivationIterations(1000);
+    store.save(null, usm);
+    new UsmStateStore(file, "wrongPassphrase".toCharArray()).load(null, usm);
+  }
+}
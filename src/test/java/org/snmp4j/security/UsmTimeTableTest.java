@@ -0,0 +1,150 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - UsmTimeTableTest.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.security;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.OctetString;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Base64;
+
+/**
+ * Junit 4 test class for the {@link UsmTimeTable}.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ */
+public class UsmTimeTableTest {
+
+  private static final OctetString LOCAL_ENGINE_ID = new OctetString("local");
+  private static final OctetString REMOTE_ENGINE_ID = new OctetString("remote");
+
+  /**
+   * A time table with local engine boots 3 and a "remote" entry (boots 7, time 1234)
+   * serialized by SNMP4J 2.3.
+   */
+  private static final String SERIALIZED_2_3 =
+      "rO0ABXNyACBvcmcuc25tcDRqLnNlY3VyaXR5LlVzbVRpbWVUYWJsZeqmyLPntO+bAgADSgATbGFzdExv" +
+      "Y2FsVGltZUNoYW5nZUwACWxvY2FsVGltZXQAIkxvcmcvc25tcDRqL3NlY3VyaXR5L1VzbVRpbWVFbnRy" +
+      "eTtMAAV0YWJsZXQAFUxqYXZhL3V0aWwvSGFzaHRhYmxlO3hwAAAGiIrld81zcgAgb3JnLnNubXA0ai5z" +
+      "ZWN1cml0eS5Vc21UaW1lRW50cnmQFTNseItE5wIABEkAC2VuZ2luZUJvb3RzSQASbGF0ZXN0UmVjZWl2" +
+      "ZWRUaW1lSQAIdGltZURpZmZMAAhlbmdpbmVJRHQAHExvcmcvc25tcDRqL3NtaS9PY3RldFN0cmluZzt4" +
+      "cAAAAAMAAAAA///j8XNyABpvcmcuc25tcDRqLnNtaS5PY3RldFN0cmluZzlBSwNEBR6hAgABWwAFdmFs" +
+      "dWV0AAJbQnhyAB9vcmcuc25tcDRqLnNtaS5BYnN0cmFjdFZhcmlhYmxlE18FxPAyrogCAAB4cHVyAAJb" +
+      "QqzzF/gGCFTgAgAAeHAAAAAFbG9jYWxzcgATamF2YS51dGlsLkhhc2h0YWJsZRO7DyUhSuS4AwACRgAK" +
+      "bG9hZEZhY3RvckkACXRocmVzaG9sZHhwP0AAAAAAAAd3CAAAAAoAAAABc3EAfgAHdXEAfgALAAAABnJl" +
+      "bW90ZXNxAH4ABAAAAAcAAATS///ow3EAfgAPeA==";
+
+  @Test
+  public void testCheckTimeNonAuthoritative() {
+    UsmTimeTable table = new UsmTimeTable(LOCAL_ENGINE_ID, 1);
+    Assert.assertEquals(SnmpConstants.SNMPv3_USM_UNKNOWN_ENGINEID, table.checkTime(REMOTE_ENGINE_ID, 3, 1000));
+    Assert.assertEquals(SnmpConstants.SNMPv3_USM_OK, table.checkEngineID(REMOTE_ENGINE_ID, true));
+    Assert.assertEquals(SnmpConstants.SNMPv3_USM_OK, table.checkTime(REMOTE_ENGINE_ID, 3, 1000));
+    UsmTimeEntry entry = table.getEntry(REMOTE_ENGINE_ID);
+    Assert.assertEquals(3, entry.getEngineBoots());
+    Assert.assertEquals(1000, entry.getLatestReceivedTime());
+    // within the time window
+    Assert.assertEquals(SnmpConstants.SNMPv3_USM_OK, table.checkTime(REMOTE_ENGINE_ID, 3, 900));
+    Assert.assertEquals(1000, entry.getLatestReceivedTime());
+    // too old, or from a previous boot
+    Assert.assertEquals(SnmpConstants.SNMPv3_USM_NOT_IN_TIME_WINDOW, table.checkTime(REMOTE_ENGINE_ID, 3, 849));
+    Assert.assertEquals(SnmpConstants.SNMPv3_USM_NOT_IN_TIME_WINDOW, table.checkTime(REMOTE_ENGINE_ID, 2, 5000));
+    // reboot
+    Assert.assertEquals(SnmpConstants.SNMPv3_USM_OK, table.checkTime(REMOTE_ENGINE_ID, 4, 10));
+    Assert.assertEquals(4, entry.getEngineBoots());
+    Assert.assertEquals(10, table.getTime(REMOTE_ENGINE_ID).getLatestReceivedTime(), 1);
+  }
+
+  @Test
+  public void testGetTimeState() {
+    UsmTimeTable table = new UsmTimeTable(LOCAL_ENGINE_ID, 1);
+    long now = System.nanoTime();
+    Assert.assertNull(table.getTimeState(REMOTE_ENGINE_ID, now));
+    table.checkEngineID(REMOTE_ENGINE_ID, true);
+    table.checkTime(REMOTE_ENGINE_ID, 3, 1000);
+    now = System.nanoTime();
+    UsmTimeEntry.TimeState time = table.getTimeState(REMOTE_ENGINE_ID, now);
+    Assert.assertEquals(3, time.getEngineBoots());
+    Assert.assertEquals(1000, time.getTimeDiff() + (int) (now / UsmTimeTable.TIME_PRECISION), 1);
+    // the state of the entry is returned, not a copy
+    Assert.assertSame(time, table.getTimeState(REMOTE_ENGINE_ID, now));
+    time = table.getTimeState(LOCAL_ENGINE_ID, now);
+    Assert.assertEquals(1, time.getEngineBoots());
+    Assert.assertEquals(table.getEngineTime(), time.getTimeDiff() + (int) (now / UsmTimeTable.TIME_PRECISION), 1);
+  }
+
+  @Test
+  public void testCheckTimeAuthoritative() {
+    UsmTimeTable table = new UsmTimeTable(LOCAL_ENGINE_ID, 1);
+    Assert.assertEquals(SnmpConstants.SNMPv3_USM_OK, table.checkTime(LOCAL_ENGINE_ID, 1, 0));
+    Assert.assertEquals(SnmpConstants.SNMPv3_USM_NOT_IN_TIME_WINDOW, table.checkTime(LOCAL_ENGINE_ID, 2, 0));
+    Assert.assertEquals(SnmpConstants.SNMPv3_USM_NOT_IN_TIME_WINDOW, table.checkTime(LOCAL_ENGINE_ID, 1, 151));
+  }
+
+  @Test
+  public void testIdleExpiry() throws InterruptedException {
+    UsmTimeTable table = new UsmTimeTable(LOCAL_ENGINE_ID, 1);
+    table.checkEngineID(REMOTE_ENGINE_ID, true);
+    Assert.assertEquals(0, table.removeIdleEntries());
+    table.setIdleTimeout(1);
+    Thread.sleep(10);
+    Assert.assertEquals(1, table.removeIdleEntries());
+    Assert.assertEquals(0, table.size());
+    Assert.assertEquals(SnmpConstants.SNMPv3_USM_UNKNOWN_ENGINEID, table.checkEngineID(REMOTE_ENGINE_ID, false));
+  }
+
+  @Test
+  public void testDeserializePreviousVersion() throws Exception {
+    UsmTimeTable table = deserialize(Base64.getDecoder().decode(SERIALIZED_2_3));
+    assertRestored(table);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bos);
+    oos.writeObject(table);
+    oos.close();
+    assertRestored(deserialize(bos.toByteArray()));
+  }
+
+  private static UsmTimeTable deserialize(byte[] bytes) throws Exception {
+    ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+    try {
+      return (UsmTimeTable) ois.readObject();
+    }
+    finally {
+      ois.close();
+    }
+  }
+
+  private static void assertRestored(UsmTimeTable table) {
+    Assert.assertEquals(3, table.getEngineBoots());
+    Assert.assertEquals(1, table.size());
+    UsmTimeEntry entry = table.getEntry(REMOTE_ENGINE_ID);
+    Assert.assertNotNull(entry);
+    Assert.assertEquals(7, entry.getEngineBoots());
+    Assert.assertEquals(1234, entry.getLatestReceivedTime());
+    table.setIdleTimeout(60000);
+    Assert.assertEquals(0, table.removeIdleEntries());
+  }
+}
@@ -0,0 +1,124 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - UsmUserTableTest.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.security;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.snmp4j.smi.OctetString;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Junit 4 test class for the {@link UsmUserTable}.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ */
+public class UsmUserTableTest {
+
+  /**
+   * An empty user table serialized by SNMP4J 2.3.
+   */
+  private static final String SERIALIZED_2_3 =
+      "rO0ABXNyACBvcmcuc25tcDRqLnNlY3VyaXR5LlVzbVVzZXJUYWJsZWBDkXPIczw2AgABTAAFdGFibGV0" +
+      "AA9MamF2YS91dGlsL01hcDt4cHNyABFqYXZhLnV0aWwuVHJlZU1hcAzB9j4tJWrmAwABTAAKY29tcGFy" +
+      "YXRvcnQAFkxqYXZhL3V0aWwvQ29tcGFyYXRvcjt4cHB3BAAAAAB4";
+
+  private static UsmUserEntry createEntry(String engineID, String securityName) {
+    return new UsmUserEntry((engineID == null) ? null : engineID.getBytes(), new OctetString(securityName),
+                            AuthSHA.ID, new byte[20], null, null);
+  }
+
+  @Test
+  public void testGetAndRemove() {
+    UsmUserTable table = new UsmUserTable();
+    UsmUserEntry noEngine = createEntry(null, "alice");
+    UsmUserEntry alice1 = createEntry("engine1", "alice");
+    UsmUserEntry alice2 = createEntry("engine2", "alice");
+    UsmUserEntry bob1 = createEntry("engine1", "bob");
+    table.setUsers(Arrays.asList(alice2, bob1, noEngine));
+    Assert.assertNull(table.addUser(alice1));
+    Assert.assertSame(alice1, table.getUser(new OctetString("engine1"), new OctetString("alice")));
+    Assert.assertSame(bob1, table.getUser(new OctetString("engine1"), new OctetString("bob")));
+    Assert.assertSame(noEngine, table.getUser(new OctetString("alice")));
+    Assert.assertNull(table.getUser(new OctetString("engine2"), new OctetString("bob")));
+    Assert.assertEquals(Arrays.asList(noEngine, alice1, alice2), table.getUserEntries(new OctetString("alice")));
+    Assert.assertEquals(4, table.getUserEntries().size());
+
+    List<UsmUserEntry> removed = table.removeAllUsers(new OctetString("alice"), null);
+    Assert.assertEquals(3, removed.size());
+    Assert.assertNull(table.getUser(new OctetString("engine1"), new OctetString("alice")));
+    Assert.assertTrue(table.getUserEntries(new OctetString("alice")).isEmpty());
+    Assert.assertSame(bob1, table.removeUser(new OctetString("engine1"), new OctetString("bob")));
+    Assert.assertTrue(table.getUserEntries().isEmpty());
+  }
+
+  @Test
+  public void testUserNameDiffersFromSecurityName() {
+    UsmUserTable table = new UsmUserTable();
+    UsmUserEntry entry = createEntry("engine1", "secName");
+    entry.setUserName(new OctetString("userName"));
+    table.addUser(entry);
+    Assert.assertEquals(Arrays.asList(entry), table.getUserEntries(new OctetString("userName")));
+    Assert.assertTrue(table.getUserEntries(new OctetString("secName")).isEmpty());
+    table.removeUser(new OctetString("engine1"), new OctetString("secName"));
+    Assert.assertTrue(table.getUserEntries(new OctetString("userName")).isEmpty());
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    UsmUserTable table = new UsmUserTable();
+    table.addUser(createEntry("engine1", "alice"));
+    table.addUser(createEntry(null, "bob"));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(table);
+    }
+    UsmUserTable copy;
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      copy = (UsmUserTable) in.readObject();
+    }
+    Assert.assertEquals(2, copy.getUserEntries().size());
+    Assert.assertNotNull(copy.getUser(new OctetString("engine1"), new OctetString("alice")));
+    Assert.assertNotNull(copy.getUser(new OctetString("bob")));
+  }
+
+  @Test
+  public void testDeserializePreviousVersion() throws Exception {
+    UsmUserTable table;
+    try (ObjectInputStream in = new ObjectInputStream(
+        new ByteArrayInputStream(Base64.getDecoder().decode(SERIALIZED_2_3)))) {
+      table = (UsmUserTable) in.readObject();
+    }
+    Assert.assertTrue(table.getUserEntries().isEmpty());
+    UsmUserEntry alice = createEntry("engine1", "alice");
+    table.addUser(alice);
+    Assert.assertSame(alice, table.getUser(new OctetString("engine1"), new OctetString("alice")));
+    // the previous form is still written
+    ObjectStreamField[] fields = ObjectStreamClass.lookup(UsmUserTable.class).getFields();
+    Assert.assertEquals(1, fields.length);
+    Assert.assertEquals("table", fields[0].getName());
+    Assert.assertEquals(Map.class, fields[0].getType());
+  }
+}
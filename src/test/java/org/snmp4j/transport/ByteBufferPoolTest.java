@@ -0,0 +1,82 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - ByteBufferPoolTest.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.transport;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Junit 4 test class for the {@link ByteBufferPool}.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ */
+public class ByteBufferPoolTest {
+
+  @Test
+  public void testLeaseAndReuse() {
+    ByteBufferPool pool = new ByteBufferPool(128, 2, false);
+    ByteBuffer b1 = pool.acquireBuffer();
+    ByteBuffer b2 = pool.acquireBuffer();
+    Assert.assertEquals(128, b1.capacity());
+    Assert.assertFalse(b1.isDirect());
+    Assert.assertEquals(2, pool.getLeasedBuffers());
+    Assert.assertEquals(0, pool.getPooledBuffers());
+    b1.put((byte)1);
+    pool.offerBuffer(b1);
+    Assert.assertEquals(1, pool.getLeasedBuffers());
+    Assert.assertEquals(1, pool.getPooledBuffers());
+    ByteBuffer b3 = pool.acquireBuffer();
+    Assert.assertSame(b1, b3);
+    Assert.assertEquals(0, b3.position());
+    Assert.assertEquals(b3.capacity(), b3.limit());
+    pool.offerBuffer(b2);
+    pool.offerBuffer(b3);
+    Assert.assertEquals(0, pool.getLeasedBuffers());
+    Assert.assertEquals(2, pool.getPooledBuffers());
+  }
+
+  @Test
+  public void testMaxPoolSize() {
+    ByteBufferPool pool = new ByteBufferPool(64, 1, true);
+    ByteBuffer b1 = pool.acquireBuffer();
+    ByteBuffer b2 = pool.acquireBuffer();
+    Assert.assertTrue(b1.isDirect());
+    pool.offerBuffer(b1);
+    pool.offerBuffer(b2);
+    Assert.assertEquals(0, pool.getLeasedBuffers());
+    Assert.assertEquals(1, pool.getPooledBuffers());
+  }
+
+  @Test
+  public void testForeignBuffersIgnored() {
+    ByteBufferPool pool = new ByteBufferPool(64, 4, false);
+    ByteBufferPool otherPool = new ByteBufferPool(128, 4, false);
+    ByteBuffer leased = pool.acquireBuffer();
+    pool.offerBuffer(otherPool.acquireBuffer());
+    pool.offerBuffer(ByteBuffer.allocateDirect(64));
+    Assert.assertEquals(1, pool.getLeasedBuffers());
+    Assert.assertEquals(0, pool.getPooledBuffers());
+    pool.offerBuffer(leased);
+    Assert.assertEquals(0, pool.getLeasedBuffers());
+  }
+}
@@ -0,0 +1,365 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - DefaultTcpTransportMappingTest.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+
+package org.snmp4j.transport;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.snmp4j.smi.TcpAddress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Junit 4 test class for the {@link DefaultTcpTransportMapping} using
+ * loopback connections.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ */
+public class DefaultTcpTransportMappingTest {
+
+  private static final byte[] MESSAGE =
+      { 0x30, 0x06, 0x02, 0x01, 0x01, 0x04, 0x01, 0x41 };
+
+  private final List<DefaultTcpTransportMapping> mappings = new ArrayList<>();
+  private final Semaphore received = new Semaphore(0);
+  private final Set<Thread> receivingThreads = Collections.synchronizedSet(new HashSet<Thread>());
+  private final List<TransportStateEvent> events =
+      Collections.synchronizedList(new ArrayList<TransportStateEvent>());
+
+  @After
+  public void tearDown() {
+    for (DefaultTcpTransportMapping mapping : mappings) {
+      mapping.close();
+    }
+  }
+
+  private static int getFreePort() throws Exception {
+    ServerSocket socket = new ServerSocket(0);
+    try {
+      return socket.getLocalPort();
+    }
+    finally {
+      socket.close();
+    }
+  }
+
+  private DefaultTcpTransportMapping createServer(int selectorThreads) throws Exception {
+    TcpAddress address =
+        new TcpAddress(InetAddress.getByName("127.0.0.1"), getFreePort());
+    DefaultTcpTransportMapping server = new DefaultTcpTransportMapping(address, true);
+    server.setSelectorThreads(selectorThreads);
+    server.addTransportListener((sourceTransport, incomingAddress, wholeMessage, tmStateReference) -> {
+      if (wholeMessage.remaining() == MESSAGE.length) {
+        receivingThreads.add(Thread.currentThread());
+        received.release();
+      }
+    });
+    mappings.add(server);
+    server.listen();
+    return server;
+  }
+
+  private DefaultTcpTransportMapping createClient() throws Exception {
+    DefaultTcpTransportMapping client =
+        new DefaultTcpTransportMapping(new TcpAddress("127.0.0.1/0"), false);
+    client.addTransportStateListener(change -> events.add(change));
+    mappings.add(client);
+    return client;
+  }
+
+  private void send(DefaultTcpTransportMapping client, TcpAddress address, int count)
+      throws Exception {
+    for (int i=0; i<count; i++) {
+      client.sendMessage(address, MESSAGE, null);
+    }
+    Assert.assertTrue(received.tryAcquire(count, 10, TimeUnit.SECONDS));
+  }
+
+  private static TransportStateEvent awaitEvent(List<TransportStateEvent> events, int count)
+      throws InterruptedException {
+    for (int i=0; (i<200) && (events.size() < count); i++) {
+      Thread.sleep(25);
+    }
+    Assert.assertTrue(events.size() >= count);
+    return events.get(count-1);
+  }
+
+  @Test
+  public void testSelectorWorkers() throws Exception {
+    DefaultTcpTransportMapping server = createServer(3);
+    TcpAddress serverAddress = server.getListenAddress();
+    for (int i=0; i<6; i++) {
+      send(createClient(), serverAddress, 5);
+    }
+    Assert.assertEquals(6, server.getNumOpenConnections());
+    Assert.assertEquals(6, server.getNumConnectionsOpened());
+    // connections are assigned round-robin, each worker reads two of them
+    Assert.assertEquals(3, receivingThreads.size());
+  }
+
+  @Test
+  public void testDispatchExecutor() throws Exception {
+    DefaultTcpTransportMapping server = createServer(2);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Thread[] executorThread = new Thread[1];
+      executor.submit(() -> executorThread[0] = Thread.currentThread()).get();
+      server.setDispatchExecutor(executor);
+      send(createClient(), server.getListenAddress(), 10);
+      send(createClient(), server.getListenAddress(), 10);
+      Assert.assertEquals(Collections.singleton(executorThread[0]), receivingThreads);
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testIdleConnectionReaped() throws Exception {
+    DefaultTcpTransportMapping server = createServer(1);
+    DefaultTcpTransportMapping client = createClient();
+    client.setConnectionTimeout(200);
+    send(client, server.getListenAddress(), 1);
+    Assert.assertEquals(1, client.getNumOpenConnections());
+    TransportStateEvent event = awaitEvent(events, 2);
+    Assert.assertEquals(TransportStateEvent.TransportStates.CONNECTED, events.get(0).getNewState());
+    Assert.assertEquals(TransportStateEvent.TransportStates.DISCONNECTED_TIMEOUT, event.getNewState());
+    Assert.assertEquals(server.getListenAddress(), event.getPeerAddress());
+    Assert.assertEquals(0, client.getNumOpenConnections());
+    Assert.assertEquals(1, client.getNumConnectionsReaped());
+    // the server notices the closed connection
+    for (int i=0; (i<200) && (server.getNumOpenConnections() > 0); i++) {
+      Thread.sleep(25);
+    }
+    Assert.assertEquals(0, server.getNumOpenConnections());
+
+    // a reaped connection is reopened by the next message
+    send(client, server.getListenAddress(), 1);
+    Assert.assertEquals(2, client.getNumConnectionsOpened());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedConnectionEvicted() throws Exception {
+    TcpAddress a = createServer(1).getListenAddress();
+    TcpAddress b = createServer(1).getListenAddress();
+    TcpAddress c = createServer(1).getListenAddress();
+    DefaultTcpTransportMapping client = createClient();
+    client.setMaxConnections(2);
+    send(client, a, 1);
+    Thread.sleep(20);
+    send(client, b, 1);
+    Thread.sleep(20);
+    send(client, a, 1);
+    Thread.sleep(20);
+    send(client, c, 1);
+    Assert.assertEquals(2, client.getNumOpenConnections());
+    Assert.assertEquals(1, client.getNumConnectionsEvicted());
+    List<TransportStateEvent> closed = new ArrayList<>();
+    synchronized (events) {
+      for (TransportStateEvent event : events) {
+        if (event.getNewState() == TransportStateEvent.TransportStates.CLOSED) {
+          closed.add(event);
+        }
+      }
+    }
+    Assert.assertEquals(1, closed.size());
+    Assert.assertEquals(b, closed.get(0).getPeerAddress());
+
+    // reconnecting to b evicts a, which is now the least recently used
+    Thread.sleep(20);
+    send(client, b, 1);
+    Assert.assertEquals(2, client.getNumOpenConnections());
+    Assert.assertEquals(2, client.getNumConnectionsEvicted());
+    Assert.assertEquals(4, client.getNumConnectionsOpened());
+  }
+
+  @Test
+  public void testBusyConnectionNotEvicted() throws Exception {
+    ServerSocket serverSocket = createNonReadingPeer();
+    try {
+      InetSocketAddress peer = new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+      DefaultTcpTransportMapping client = createClient();
+      client.setMaxQueuedBytes(65536);
+      client.setMaxConnections(1);
+      TcpAddress peerAddress = new TcpAddress(peer.getAddress(), peer.getPort());
+      // fill until the socket buffers are full and the queue does not drain anymore
+      for (int i=0; (i<100) && (client.getQueuedBytes(peerAddress) == 0); i++) {
+        fillQueue(client, peer);
+        Thread.sleep(100);
+      }
+      TcpAddress other = createServer(1).getListenAddress();
+      send(client, other, 1);
+      // the connection with unsent messages is kept beyond the maximum
+      Assert.assertEquals(0, client.getNumConnectionsEvicted());
+      Assert.assertEquals(2, client.getNumOpenConnections());
+      Assert.assertTrue(client.getQueuedBytes(peerAddress) > 0);
+    }
+    finally {
+      serverSocket.close();
+    }
+  }
+
+  @Test
+  public void testGatheringWrites() throws Exception {
+    ServerSocketChannel serverChannel = ServerSocketChannel.open();
+    try {
+      serverChannel.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+      try (SocketChannel out = SocketChannel.open(serverChannel.getLocalAddress());
+           SocketChannel in = serverChannel.accept()) {
+        // more messages than written by a single gathering write
+        int count = DefaultTcpTransportMapping.MAX_GATHERING_WRITE_BUFFERS * 2 + 10;
+        Queue<ByteBuffer> messages = new ArrayDeque<>();
+        for (int i=0; i<count; i++) {
+          byte[] message = MESSAGE.clone();
+          message[message.length - 1] = (byte) i;
+          messages.add(ByteBuffer.wrap(message));
+        }
+        Assert.assertEquals(count * MESSAGE.length, createClient().writeMessages(messages, out));
+        Assert.assertTrue(messages.isEmpty());
+        ByteBuffer buffer = ByteBuffer.allocate(count * MESSAGE.length);
+        while (buffer.hasRemaining() && (in.read(buffer) >= 0)) {
+        }
+        Assert.assertFalse(buffer.hasRemaining());
+        // the messages are received completely and in order
+        for (int i=0; i<count; i++) {
+          Assert.assertEquals((byte) i, buffer.get((i + 1) * MESSAGE.length - 1));
+        }
+      }
+    }
+    finally {
+      serverChannel.close();
+    }
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void testWriteMessagesArrayDeque() throws Exception {
+    ServerSocketChannel serverChannel = ServerSocketChannel.open();
+    try {
+      serverChannel.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+      try (SocketChannel out = SocketChannel.open(serverChannel.getLocalAddress());
+           SocketChannel in = serverChannel.accept()) {
+        ArrayDeque<ByteBuffer> messages = new ArrayDeque<>();
+        messages.add(ByteBuffer.wrap(MESSAGE));
+        messages.add(ByteBuffer.wrap(MESSAGE));
+        createClient().writeMessages(messages, out);
+        Assert.assertTrue(messages.isEmpty());
+        ByteBuffer buffer = ByteBuffer.allocate(MESSAGE.length * 2);
+        while (buffer.hasRemaining() && (in.read(buffer) >= 0)) {
+        }
+        Assert.assertFalse(buffer.hasRemaining());
+      }
+    }
+    finally {
+      serverChannel.close();
+    }
+  }
+
+  private static ServerSocket createNonReadingPeer() throws IOException {
+    ServerSocket serverSocket = new ServerSocket();
+    serverSocket.setReceiveBufferSize(4096);
+    serverSocket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 1);
+    return serverSocket;
+  }
+
+  private static byte[] createLargeMessage() {
+    byte[] message = new byte[8192];
+    message[0] = 0x30;
+    message[1] = (byte)0x82;
+    message[2] = (byte)((message.length - 4) >> 8);
+    message[3] = (byte)(message.length - 4);
+    return message;
+  }
+
+  /**
+   * Sends to a peer that does not read until the queue of the connection is full.
+   */
+  private static MessageQueueFullException fillQueue(DefaultTcpTransportMapping client,
+                                                     InetSocketAddress peer) throws IOException {
+    byte[] message = createLargeMessage();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+    while (System.nanoTime() < deadline) {
+      try {
+        client.sendMessage(peer, ByteBuffer.wrap(message));
+      }
+      catch (MessageQueueFullException mqfex) {
+        return mqfex;
+      }
+    }
+    Assert.fail("Queue to "+peer+" did not fill up");
+    return null;
+  }
+
+  @Test
+  public void testMessageQueueFull() throws Exception {
+    final ServerSocket serverSocket = createNonReadingPeer();
+    try {
+      InetSocketAddress peer = new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+      TcpAddress peerAddress = new TcpAddress(peer.getAddress(), peer.getPort());
+      DefaultTcpTransportMapping client = createClient();
+      long maxQueuedBytes = 65536;
+      client.setMaxQueuedBytes(maxQueuedBytes);
+      byte[] message = createLargeMessage();
+
+      // the peer does not read, thus the queue fills once the socket buffers are full
+      MessageQueueFullException full = fillQueue(client, peer);
+      Assert.assertTrue(full.getQueuedBytes() > maxQueuedBytes - message.length);
+      Assert.assertTrue(full.getQueuedBytes() <= maxQueuedBytes);
+      Assert.assertTrue(client.getQueuedBytes(peerAddress) <= maxQueuedBytes);
+
+      // once the peer reads, the queue drains and messages are accepted again
+      Thread reader = new Thread(() -> {
+        try (Socket socket = serverSocket.accept(); InputStream in = socket.getInputStream()) {
+          byte[] buffer = new byte[65536];
+          while (in.read(buffer) >= 0) {
+          }
+        }
+        catch (IOException iox) {
+          // closed
+        }
+      });
+      reader.setDaemon(true);
+      reader.start();
+      for (int i=0; (i<400) && (client.getQueuedBytes(peerAddress) > 0); i++) {
+        Thread.sleep(25);
+      }
+      Assert.assertEquals(0, client.getQueuedBytes(peerAddress));
+      client.sendMessage(peer, ByteBuffer.wrap(message));
+    }
+    finally {
+      serverSocket.close();
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - DtlsTransportMappingTest.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.transport;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.snmp4j.TransportStateReference;
+import org.snmp4j.mp.CounterSupport;
+import org.snmp4j.security.SecurityLevel;
+import org.snmp4j.smi.DtlsAddress;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.transport.tls.DefaultTlsTmSecurityCallback;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Junit 4 test class for the {@link DtlsTransportMapping} using loopback
+ * sessions and the self-signed test certificate of the
+ * {@link TlsTransportMappingTest}.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ */
+public class DtlsTransportMappingTest {
+
+  private static final byte[] MESSAGE =
+      { 0x30, 0x06, 0x02, 0x01, 0x01, 0x04, 0x01, 0x41 };
+  // a DTLS handshake record header with an invalid body
+  private static final byte[] GARBAGE =
+      { 0x16, (byte) 0xfe, (byte) 0xfd, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x00 };
+
+  private DefaultTlsTmSecurityCallback securityCallback;
+  private DtlsTransportMapping server;
+  private UdpAddress serverAddress;
+  private List<DtlsTransportMapping> clients = new ArrayList<>();
+  private final Semaphore received = new Semaphore(0);
+
+  @Before
+  public void setUp() throws Exception {
+    Assume.assumeTrue(DtlsTransportMapping.isDtlsSupported());
+    securityCallback = new DefaultTlsTmSecurityCallback();
+    securityCallback.addAcceptedSubjectDN(TlsTransportMappingTest.CERTIFICATE_SUBJECT);
+    server = createMapping();
+    server.addTransportListener((sourceTransport, incomingAddress, wholeMessage, tmStateReference) -> {
+      if (wholeMessage.remaining() == MESSAGE.length) {
+        received.release();
+      }
+    });
+    server.listen();
+    serverAddress = new DtlsAddress("127.0.0.1/" + server.getListenAddress().getPort());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    for (DtlsTransportMapping client : clients) {
+      client.close();
+    }
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  private DtlsTransportMapping createMapping() throws Exception {
+    DtlsTransportMapping mapping =
+        new DtlsTransportMapping(new DtlsAddress("127.0.0.1/0"), securityCallback,
+                                 CounterSupport.getInstance());
+    mapping.setKeyStore(TlsTransportMappingTest.getKeyStore());
+    mapping.setKeyStorePassword(TlsTransportMappingTest.KEY_STORE_PASSWORD);
+    mapping.setHandshakeTimeout(200);
+    mapping.setMaxRetransmissions(2);
+    return mapping;
+  }
+
+  private DtlsTransportMapping createClient() throws Exception {
+    DtlsTransportMapping client = createMapping();
+    clients.add(client);
+    client.listen();
+    return client;
+  }
+
+  private void send(DtlsTransportMapping client) throws Exception {
+    TransportStateReference tmStateReference =
+        new TransportStateReference(client, serverAddress, new OctetString("test"),
+                                    SecurityLevel.authPriv, SecurityLevel.authPriv, false, null);
+    client.sendMessage(serverAddress, MESSAGE, tmStateReference);
+  }
+
+  private static void sendGarbage(UdpAddress address) throws Exception {
+    DatagramSocket socket = new DatagramSocket();
+    try {
+      socket.send(new DatagramPacket(GARBAGE, GARBAGE.length, address.getInetAddress(), address.getPort()));
+    }
+    finally {
+      socket.close();
+    }
+  }
+
+  private static void awaitSessions(DtlsTransportMapping mapping, int count) throws InterruptedException {
+    for (int i=0; (i<100) && (mapping.getNumSessions() != count); i++) {
+      Thread.sleep(20);
+    }
+    Assert.assertEquals(count, mapping.getNumSessions());
+  }
+
+  @Test
+  public void testHandshakeAndMessages() throws Exception {
+    DtlsTransportMapping client = createClient();
+    for (int i=0; i<10; i++) {
+      send(client);
+    }
+    Assert.assertTrue(received.tryAcquire(10, 20, TimeUnit.SECONDS));
+    Assert.assertEquals(1, server.getHandshakesCompleted());
+    Assert.assertEquals(1, client.getHandshakesCompleted());
+    Assert.assertEquals(1, server.getNumSessions());
+    Assert.assertTrue(client.close(serverAddress));
+    awaitSessions(client, 0);
+  }
+
+  @Test
+  public void testUnknownPeerCannotEvictEstablishedSession() throws Exception {
+    server.setMaxSessions(1);
+    DtlsTransportMapping client = createClient();
+    send(client);
+    Assert.assertTrue(received.tryAcquire(20, TimeUnit.SECONDS));
+
+    DtlsTransportMapping intruder = createClient();
+    send(intruder);
+    sendGarbage(serverAddress);
+    for (int i=0; (i<100) && (server.getSessionsRejected() < 2); i++) {
+      Thread.sleep(20);
+    }
+    Assert.assertTrue(server.getSessionsRejected() >= 2);
+    Assert.assertEquals(0, server.getSessionsEvicted());
+    Assert.assertEquals(1, server.getNumSessions());
+    // the established session is still usable
+    send(client);
+    Assert.assertTrue(received.tryAcquire(20, TimeUnit.SECONDS));
+    Assert.assertEquals(1, server.getHandshakesCompleted());
+  }
+
+  @Test
+  public void testSessionInHandshakeIsEvicted() throws Exception {
+    server.setMaxSessions(1);
+    sendGarbage(serverAddress);
+    awaitSessions(server, 1);
+    DtlsTransportMapping client = createClient();
+    send(client);
+    Assert.assertTrue(received.tryAcquire(20, TimeUnit.SECONDS));
+    Assert.assertEquals(1, server.getSessionsEvicted());
+    Assert.assertEquals(0, server.getSessionsRejected());
+    Assert.assertEquals(1, server.getNumSessions());
+  }
+}
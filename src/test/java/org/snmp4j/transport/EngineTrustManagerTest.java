@@ -0,0 +1,122 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - EngineTrustManagerTest.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.transport;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.snmp4j.TransportStateReference;
+import org.snmp4j.security.SecurityLevel;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TlsAddress;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509TrustManager;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Junit 4 test class for the {@link EngineTrustManager}.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ */
+public class EngineTrustManagerTest {
+
+  private static final X509Certificate[] CHAIN = new X509Certificate[0];
+
+  private final List<TransportStateReference> created = new ArrayList<>();
+
+  /**
+   * Creates trust managers that reject all peers of sessions without a
+   * transport state reference.
+   */
+  private TlsTransportMapping.TLSTMTrustManagerFactory factory = (trustManager, useClientMode, tmStateReference) -> {
+    created.add(tmStateReference);
+    return new X509TrustManager() {
+      @Override
+      public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        if (tmStateReference == null) {
+          throw new CertificateException("No session");
+        }
+      }
+
+      @Override
+      public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        checkClientTrusted(chain, authType);
+      }
+
+      @Override
+      public X509Certificate[] getAcceptedIssuers() {
+        return CHAIN;
+      }
+    };
+  };
+
+  @Test
+  public void testTrustManagerPerEngine() throws Exception {
+    SSLContext sslContext = SSLContext.getInstance("TLS");
+    sslContext.init(null, null, null);
+    SSLEngine first = sslContext.createSSLEngine();
+    SSLEngine second = sslContext.createSSLEngine();
+    TransportStateReference firstReference =
+        new TransportStateReference(null, new TlsAddress("127.0.0.1/10161"), new OctetString("first"),
+                                    SecurityLevel.authPriv, SecurityLevel.authPriv, false, null);
+    Map<SSLEngine, TransportStateReference> engineReferences = new HashMap<>();
+    engineReferences.put(first, firstReference);
+    EngineTrustManager trustManager = new EngineTrustManager(null, false, engineReferences, factory);
+
+    trustManager.checkClientTrusted(CHAIN, "RSA", first);
+    trustManager.checkServerTrusted(CHAIN, "RSA", first);
+    try {
+      trustManager.checkClientTrusted(CHAIN, "RSA", second);
+      Assert.fail("Engine without session must not be trusted");
+    }
+    catch (CertificateException cex) {
+      // expected
+    }
+    try {
+      trustManager.checkClientTrusted(CHAIN, "RSA");
+      Assert.fail("Check without engine must not be trusted");
+    }
+    catch (CertificateException cex) {
+      // expected
+    }
+    Assert.assertEquals(4, created.size());
+    Assert.assertSame(firstReference, created.get(0));
+    Assert.assertSame(firstReference, created.get(1));
+    Assert.assertNull(created.get(2));
+    Assert.assertNull(created.get(3));
+
+    // a session closed later must not be trusted anymore
+    engineReferences.remove(first);
+    try {
+      trustManager.checkServerTrusted(CHAIN, "RSA", first);
+      Assert.fail("Engine of a removed session must not be trusted");
+    }
+    catch (CertificateException cex) {
+      // expected
+    }
+  }
+}
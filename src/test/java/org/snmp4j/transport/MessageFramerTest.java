@@ -0,0 +1,147 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - MessageFramerTest.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.transport;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Junit 4 test class for the {@link MessageFramer}.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ */
+public class MessageFramerTest {
+
+  private static final byte[] MESSAGE_1 =
+      { 0x30, 0x06, 0x02, 0x01, 0x01, 0x04, 0x01, 0x41 };
+  private static final byte[] MESSAGE_2 =
+      { 0x30, 0x07, 0x02, 0x01, 0x02, 0x04, 0x02, 0x42, 0x43 };
+
+  @Test
+  public void testSeveralMessagesInOneRead() throws IOException {
+    byte[] stream = concat(MESSAGE_1, MESSAGE_2, MESSAGE_1);
+    MessageFramer framer = createFramer(64);
+    List<ByteBuffer> messages = new ArrayList<>();
+    int read = framer.read(new ChunkedChannel(stream, stream.length), messages);
+    Assert.assertEquals(stream.length, read);
+    Assert.assertEquals(3, messages.size());
+    assertMessage(MESSAGE_1, messages.get(0));
+    assertMessage(MESSAGE_2, messages.get(1));
+    assertMessage(MESSAGE_1, messages.get(2));
+    Assert.assertTrue(messages.get(0).isReadOnly());
+    Assert.assertEquals(0, framer.getPendingBytes());
+  }
+
+  @Test
+  public void testMessagesSplitAcrossReads() throws IOException {
+    byte[] stream = concat(MESSAGE_1, MESSAGE_2, MESSAGE_2, MESSAGE_1);
+    // buffer as small as one message forces compaction of partial messages
+    MessageFramer framer = createFramer(MESSAGE_2.length);
+    ChunkedChannel channel = new ChunkedChannel(stream, 5);
+    List<byte[]> received = new ArrayList<>();
+    List<ByteBuffer> messages = new ArrayList<>();
+    while (framer.read(channel, messages) >= 0) {
+      for (ByteBuffer message : messages) {
+        byte[] copy = new byte[message.remaining()];
+        message.get(copy);
+        received.add(copy);
+      }
+      messages.clear();
+    }
+    Assert.assertEquals(4, received.size());
+    Assert.assertArrayEquals(MESSAGE_1, received.get(0));
+    Assert.assertArrayEquals(MESSAGE_2, received.get(1));
+    Assert.assertArrayEquals(MESSAGE_2, received.get(2));
+    Assert.assertArrayEquals(MESSAGE_1, received.get(3));
+    Assert.assertEquals(0, framer.getPendingBytes());
+  }
+
+  @Test(expected = MalformedMessageException.class)
+  public void testMessageTooLong() throws IOException {
+    MessageFramer framer = createFramer(MESSAGE_1.length);
+    framer.read(new ChunkedChannel(MESSAGE_2, MESSAGE_2.length),
+                new ArrayList<ByteBuffer>());
+  }
+
+  private static MessageFramer createFramer(int maxMessageSize) {
+    return new MessageFramer(
+        new DefaultTcpTransportMapping.SnmpMesssageLengthDecoder(),
+        maxMessageSize, maxMessageSize, false);
+  }
+
+  private static void assertMessage(byte[] expected, ByteBuffer message) {
+    Assert.assertEquals(0, message.position());
+    byte[] actual = new byte[message.remaining()];
+    message.get(actual);
+    Assert.assertArrayEquals(expected, actual);
+  }
+
+  private static byte[] concat(byte[]... parts) {
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+    for (byte[] part : parts) {
+      buffer.put(part);
+    }
+    byte[] result = new byte[buffer.position()];
+    buffer.flip();
+    buffer.get(result);
+    return result;
+  }
+
+  /**
+   * A channel that returns the given stream in chunks of a fixed maximum size.
+   */
+  private static class ChunkedChannel implements ReadableByteChannel {
+    private final byte[] data;
+    private final int chunkSize;
+    private int offset;
+
+    ChunkedChannel(byte[] data, int chunkSize) {
+      this.data = data;
+      this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+      if (offset >= data.length) {
+        return -1;
+      }
+      int n = Math.min(Math.min(chunkSize, dst.remaining()), data.length - offset);
+      dst.put(data, offset, n);
+      offset += n;
+      return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,273 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - TlsTransportMappingTest.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.transport;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.snmp4j.TransportStateReference;
+import org.snmp4j.security.SecurityLevel;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TlsAddress;
+import org.snmp4j.transport.tls.DefaultTlsTmSecurityCallback;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Junit 4 test class for the {@link TlsTransportMapping} using a loopback
+ * connection and a self-signed test certificate.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ */
+public class TlsTransportMappingTest {
+
+  static final String KEY_STORE_PASSWORD = "snmp4j-test";
+  static final String CERTIFICATE_SUBJECT = "CN=localhost";
+  // TLSv1 (the default) is disabled by current JREs
+  static final String[] TLS_PROTOCOLS = { "TLSv1.2" };
+
+  private static final byte[] MESSAGE =
+      { 0x30, 0x06, 0x02, 0x01, 0x01, 0x04, 0x01, 0x41 };
+
+  private DefaultTlsTmSecurityCallback securityCallback;
+  private TlsTransportMapping server;
+  private TlsTransportMapping client;
+  private TlsAddress serverAddress;
+  private final Semaphore received = new Semaphore(0);
+
+  static String getKeyStore() throws Exception {
+    return new File(TlsTransportMappingTest.class.getResource("tls-test.jks").toURI()).getPath();
+  }
+
+  static int getFreePort() throws Exception {
+    ServerSocket socket = new ServerSocket(0);
+    try {
+      return socket.getLocalPort();
+    }
+    finally {
+      socket.close();
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    securityCallback = new DefaultTlsTmSecurityCallback();
+    securityCallback.addAcceptedSubjectDN(CERTIFICATE_SUBJECT);
+    serverAddress = new TlsAddress(InetAddress.getByName("127.0.0.1"), getFreePort());
+    server = new TlsTransportMapping(securityCallback, serverAddress);
+    server.setKeyStore(getKeyStore());
+    server.setKeyStorePassword(KEY_STORE_PASSWORD);
+    server.setTlsProtocols(TLS_PROTOCOLS);
+    server.addTransportListener((sourceTransport, incomingAddress, wholeMessage, tmStateReference) -> {
+      if (wholeMessage.remaining() == MESSAGE.length) {
+        received.release();
+      }
+    });
+    server.listen();
+    client = new TlsTransportMapping(securityCallback, new TlsAddress("127.0.0.1/0"));
+    client.setServerEnabled(false);
+    client.setKeyStore(getKeyStore());
+    client.setKeyStorePassword(KEY_STORE_PASSWORD);
+    client.setTlsProtocols(TLS_PROTOCOLS);
+    client.listen();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.close();
+    server.close();
+  }
+
+  private void sendMessages(int count) throws Exception {
+    TransportStateReference tmStateReference =
+        new TransportStateReference(client, serverAddress, new OctetString("test"),
+                                    SecurityLevel.authPriv, SecurityLevel.authPriv, false, null);
+    for (int i=0; i<count; i++) {
+      client.sendMessage(serverAddress, MESSAGE, tmStateReference);
+    }
+    Assert.assertTrue(received.tryAcquire(count, 20, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testDelegatedTaskOverflow() throws Exception {
+    TlsAddress address = new TlsAddress(InetAddress.getByName("127.0.0.1"), getFreePort());
+    final TlsTransportMapping saturated = new TlsTransportMapping(securityCallback, address);
+    saturated.setKeyStore(getKeyStore());
+    saturated.setKeyStorePassword(KEY_STORE_PASSWORD);
+    saturated.setTlsProtocols(TLS_PROTOCOLS);
+    saturated.setDelegatedTaskThreads(1);
+    saturated.setDelegatedTaskQueueSize(1);
+    final Semaphore saturatedReceived = new Semaphore(0);
+    saturated.addTransportListener((sourceTransport, incomingAddress, wholeMessage, tmStateReference) ->
+        saturatedReceived.release());
+    saturated.listen();
+    List<TlsTransportMapping> clients = new ArrayList<>();
+    try {
+      // concurrent handshakes overflow the queue of the single pool thread
+      for (int round=0; (round<5) && (saturated.getDelegatedTaskOverflows() == 0); round++) {
+        for (int i=0; i<8; i++) {
+          TlsTransportMapping c = new TlsTransportMapping(securityCallback, new TlsAddress("127.0.0.1/0"));
+          c.setServerEnabled(false);
+          c.setKeyStore(getKeyStore());
+          c.setKeyStorePassword(KEY_STORE_PASSWORD);
+          c.setTlsProtocols(TLS_PROTOCOLS);
+          c.listen();
+          clients.add(c);
+        }
+        TransportStateReference tmStateReference =
+            new TransportStateReference(client, address, new OctetString("test"),
+                                        SecurityLevel.authPriv, SecurityLevel.authPriv, false, null);
+        for (int i=clients.size()-8; i<clients.size(); i++) {
+          clients.get(i).sendMessage(address, MESSAGE, tmStateReference);
+        }
+        // all handshakes complete although tasks were deferred
+        Assert.assertTrue(saturatedReceived.tryAcquire(8, 30, TimeUnit.SECONDS));
+      }
+      Assert.assertTrue(saturated.getDelegatedTaskOverflows() > 0);
+      for (int i=0; (i<100) && (saturated.getDelegatedTaskQueueDepth() > 0); i++) {
+        Thread.sleep(50);
+      }
+      Assert.assertEquals(0, saturated.getDelegatedTaskQueueDepth());
+    }
+    finally {
+      for (TlsTransportMapping c : clients) {
+        c.close();
+      }
+      saturated.close();
+    }
+    Assert.assertEquals(0, saturated.getDelegatedTaskQueueDepth());
+  }
+
+  private static void assertBuffersReturned(TlsTransportMapping mapping) throws InterruptedException {
+    for (int i=0; (i<100) && (mapping.getLeasedBuffers() != 0); i++) {
+      Thread.sleep(50);
+    }
+    Assert.assertEquals(0, mapping.getLeasedBuffers());
+  }
+
+  @Test
+  public void testBufferLeaseReleaseCycle() throws Exception {
+    sendMessages(20);
+    assertBuffersReturned(server);
+    assertBuffersReturned(client);
+
+    // replacing the pools while the connection is open must not unbalance the lease count
+    server.setBufferPoolSize(4);
+    server.setDirectBuffers(true);
+    client.setBufferPoolSize(4);
+    sendMessages(20);
+    assertBuffersReturned(server);
+    assertBuffersReturned(client);
+
+    client.close(new TlsAddress(serverAddress.getInetAddress(), serverAddress.getPort()));
+    client.close();
+    server.close();
+    Assert.assertEquals(0, server.getLeasedBuffers());
+    Assert.assertEquals(0, client.getLeasedBuffers());
+  }
+
+  @Test
+  public void testWriteCoalescing() throws Exception {
+    // a message spanning two TLS records
+    final byte[] largeMessage = new byte[TlsTransportMapping.MAX_TLS_RECORD_PAYLOAD_SIZE + 4000];
+    largeMessage[0] = 0x30;
+    largeMessage[1] = (byte)0x82;
+    largeMessage[2] = (byte)((largeMessage.length - 4) >> 8);
+    largeMessage[3] = (byte)(largeMessage.length - 4);
+    final Semaphore largeReceived = new Semaphore(0);
+    server.addTransportListener((sourceTransport, incomingAddress, wholeMessage, tmStateReference) -> {
+      if (wholeMessage.remaining() == largeMessage.length) {
+        largeReceived.release();
+      }
+    });
+    client.setWriteCoalescingDelay(100);
+    TransportStateReference tmStateReference =
+        new TransportStateReference(client, serverAddress, new OctetString("test"),
+                                    SecurityLevel.authPriv, SecurityLevel.authPriv, false, null);
+    // small messages share TLS records, which are split into messages again
+    for (int i=0; i<50; i++) {
+      client.sendMessage(serverAddress, MESSAGE, tmStateReference);
+    }
+    client.sendMessage(serverAddress, largeMessage, tmStateReference);
+    for (int i=0; i<50; i++) {
+      client.sendMessage(serverAddress, MESSAGE, tmStateReference);
+    }
+    Assert.assertTrue(received.tryAcquire(100, 20, TimeUnit.SECONDS));
+    Assert.assertTrue(largeReceived.tryAcquire(20, TimeUnit.SECONDS));
+    Assert.assertEquals(0, received.availablePermits());
+  }
+
+  @Test
+  public void testSessionResumption() throws Exception {
+    TlsAddress peer = new TlsAddress(serverAddress.getInetAddress(), serverAddress.getPort());
+    Assert.assertEquals(0.0, client.getSessionResumptionRate(), 0.0);
+    sendMessages(1);
+    for (int i=0; i<3; i++) {
+      // a reconnect resumes the cached session on both sides
+      client.close(peer);
+      sendMessages(1);
+    }
+    Assert.assertEquals(1, client.getFullHandshakes());
+    Assert.assertEquals(3, client.getSessionsResumed());
+    Assert.assertEquals(0.75, client.getSessionResumptionRate(), 0.001);
+    Assert.assertEquals(1, server.getFullHandshakes());
+    Assert.assertEquals(3, server.getSessionsResumed());
+    Assert.assertEquals(0.75, server.getSessionResumptionRate(), 0.001);
+
+    // without resumption each connection does a full handshake
+    client.setSessionResumption(false);
+    client.close(peer);
+    sendMessages(1);
+    Assert.assertEquals(2, client.getFullHandshakes());
+    Assert.assertEquals(3, client.getSessionsResumed());
+    Assert.assertEquals(0.6, client.getSessionResumptionRate(), 0.001);
+  }
+
+  @Test
+  public void testSessionCacheInvalidatedByTrustChange() throws Exception {
+    TlsAddress peer = new TlsAddress(serverAddress.getInetAddress(), serverAddress.getPort());
+    sendMessages(1);
+    client.close(peer);
+    sendMessages(1);
+    Assert.assertEquals(1, client.getFullHandshakes());
+    Assert.assertEquals(1, client.getSessionsResumed());
+
+    // a changed trust configuration must not let the peer resume its session
+    securityCallback.addAcceptedIssuerDN("CN=other");
+    client.close(peer);
+    sendMessages(1);
+    Assert.assertEquals(2, client.getFullHandshakes());
+    Assert.assertEquals(1, client.getSessionsResumed());
+
+    client.setSecurityCallback(securityCallback);
+    client.close(peer);
+    sendMessages(1);
+    Assert.assertEquals(3, client.getFullHandshakes());
+  }
+}
@@ -0,0 +1,86 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - DefaultTlsTmSecurityCallbackTest.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+
+package org.snmp4j.transport.tls;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.transport.TlsTransportMapping;
+
+import java.io.ByteArrayInputStream;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+
+/**
+ * Tests the fingerprint index and the security name cache of the
+ * {@link DefaultTlsTmSecurityCallback}.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ * @since 2.4
+ */
+public class DefaultTlsTmSecurityCallbackTest {
+
+  private static final String CERTIFICATE =
+      "MIICBDCCAW2gAwIBAgIUUfbPSALoDe0SN1rf0R+p7jzqy9UwDQYJKoZIhvcNAQEL\n" +
+      "BQAwEzERMA8GA1UEAwwIdGxzYWdlbnQwIBcNMjYxMDE5MTI0MDU1WhgPMjEyNjA5\n" +
+      "MjUxMjQwNTVaMBMxETAPBgNVBAMMCHRsc2FnZW50MIGfMA0GCSqGSIb3DQEBAQUA\n" +
+      "A4GNADCBiQKBgQDgDTZLnmtX/eqLV4EtLos+16Hm2lQBXwQ3Js1UErY+VLzYnwPb\n" +
+      "5GDh76/NLfYiA1YJ7uRyoUGO+ZJKz3DRefKUtrTiHk2kCYqUQbtxOm1aD+eYkqOh\n" +
+      "vLp2IAjct1BVcUzZDxqEAq6AQW1J5nXFtP8/UgNJO07fu5QpiJhG0g3x2wIDAQAB\n" +
+      "o1MwUTAdBgNVHQ4EFgQUzLyb4Pwh2tfHS+IUM7dwOQMnA7owHwYDVR0jBBgwFoAU\n" +
+      "zLyb4Pwh2tfHS+IUM7dwOQMnA7owDwYDVR0TAQH/BAUwAwEB/zANBgkqhkiG9w0B\n" +
+      "AQsFAAOBgQB9Ave5Jwfiw7Zm7uEVx5JvRDAUApbdYc+rL6LMSXHZNZOLEz+5StaP\n" +
+      "/VLI4meTM1xXyCf7Pn0Rw0esPVRYT6EZX3dEbaC0fpg24aqOS4tRjYhkHu494DrM\n" +
+      "lCmree7C6ya7EtWokggt5QwJpJabdxqUU6p8/Y/mQ7+wKwBNLJBrVA==\n";
+
+  private static X509Certificate createCertificate() throws Exception {
+    byte[] der = Base64.getMimeDecoder().decode(CERTIFICATE);
+    return (X509Certificate)
+        CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(der));
+  }
+
+  @Test
+  public void testSecurityNameCacheInvalidation() throws Exception {
+    X509Certificate cert = createCertificate();
+    X509Certificate[] chain = new X509Certificate[] { cert };
+    OctetString fingerprint = TlsTransportMapping.getFingerprint(cert);
+    DefaultTlsTmSecurityCallback callback = new DefaultTlsTmSecurityCallback();
+    Assert.assertNull(callback.getSecurityName(chain));
+    long version = callback.getSecurityNameMappingVersion();
+
+    callback.addSecurityNameMapping(new OctetString("00:11"), SecurityNameMapping.CertMappingType.Specified,
+                                    new OctetString("other"), null);
+    callback.addSecurityNameMapping(fingerprint, SecurityNameMapping.CertMappingType.Specified,
+                                    new OctetString("tlsUser"), null);
+    Assert.assertTrue(callback.getSecurityNameMappingVersion() > version);
+    Assert.assertEquals(new OctetString("tlsUser"), callback.getSecurityName(chain));
+    Assert.assertEquals(new OctetString("tlsUser"), callback.getSecurityName(chain.clone()));
+
+    callback.removeSecurityNameMapping(fingerprint, SecurityNameMapping.CertMappingType.Specified,
+                                       new OctetString("tlsUser"));
+    Assert.assertNull(callback.getSecurityName(chain));
+
+    callback.addSecurityNameMapping(fingerprint, SecurityNameMapping.CertMappingType.CommonName, null, null);
+    Assert.assertEquals(new OctetString("CN=tlsagent"), callback.getSecurityName(chain));
+  }
+}
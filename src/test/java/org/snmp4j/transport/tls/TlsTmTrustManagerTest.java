@@ -0,0 +1,202 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - TlsTmTrustManagerTest.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.transport.tls;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.snmp4j.CertifiedTarget;
+import org.snmp4j.TransportStateReference;
+import org.snmp4j.mp.CounterSupport;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.security.SecurityLevel;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TlsAddress;
+import org.snmp4j.transport.TlsTransportMapping;
+
+import javax.net.ssl.X509TrustManager;
+import java.io.ByteArrayInputStream;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Tests the RFC 6353 certificate checks of the {@link TlsTmTrustManager}.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ * @since 2.4
+ */
+public class TlsTmTrustManagerTest {
+
+  // self-signed certificate with subject and issuer CN=tlsagent
+  private static final String CERTIFICATE =
+      "MIICBDCCAW2gAwIBAgIUUfbPSALoDe0SN1rf0R+p7jzqy9UwDQYJKoZIhvcNAQEL\n" +
+      "BQAwEzERMA8GA1UEAwwIdGxzYWdlbnQwIBcNMjYxMDE5MTI0MDU1WhgPMjEyNjA5\n" +
+      "MjUxMjQwNTVaMBMxETAPBgNVBAMMCHRsc2FnZW50MIGfMA0GCSqGSIb3DQEBAQUA\n" +
+      "A4GNADCBiQKBgQDgDTZLnmtX/eqLV4EtLos+16Hm2lQBXwQ3Js1UErY+VLzYnwPb\n" +
+      "5GDh76/NLfYiA1YJ7uRyoUGO+ZJKz3DRefKUtrTiHk2kCYqUQbtxOm1aD+eYkqOh\n" +
+      "vLp2IAjct1BVcUzZDxqEAq6AQW1J5nXFtP8/UgNJO07fu5QpiJhG0g3x2wIDAQAB\n" +
+      "o1MwUTAdBgNVHQ4EFgQUzLyb4Pwh2tfHS+IUM7dwOQMnA7owHwYDVR0jBBgwFoAU\n" +
+      "zLyb4Pwh2tfHS+IUM7dwOQMnA7owDwYDVR0TAQH/BAUwAwEB/zANBgkqhkiG9w0B\n" +
+      "AQsFAAOBgQB9Ave5Jwfiw7Zm7uEVx5JvRDAUApbdYc+rL6LMSXHZNZOLEz+5StaP\n" +
+      "/VLI4meTM1xXyCf7Pn0Rw0esPVRYT6EZX3dEbaC0fpg24aqOS4tRjYhkHu494DrM\n" +
+      "lCmree7C6ya7EtWokggt5QwJpJabdxqUU6p8/Y/mQ7+wKwBNLJBrVA==\n";
+  private static final String SUBJECT = "CN=tlsagent";
+
+  private X509Certificate[] chain;
+  private DefaultTlsTmSecurityCallback callback;
+  private final List<OID> counters = new ArrayList<>();
+  private CounterSupport counterSupport;
+
+  @Before
+  public void setUp() throws Exception {
+    byte[] der = Base64.getMimeDecoder().decode(CERTIFICATE);
+    chain = new X509Certificate[] { (X509Certificate)
+        CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(der)) };
+    callback = new DefaultTlsTmSecurityCallback();
+    counterSupport = new CounterSupport() { };
+    counterSupport.addCounterListener(event -> counters.add(event.getOid()));
+  }
+
+  private TlsTmTrustManager createTrustManager(boolean jreTrusted, boolean useClientMode,
+                                               TransportStateReference tmStateReference) {
+    return new TlsTmTrustManager(new FixedTrustManager(jreTrusted), useClientMode, tmStateReference,
+                                 callback, counterSupport);
+  }
+
+  private static TransportStateReference createReference(OctetString serverFingerprint,
+                                                         OctetString clientFingerprint) {
+    TlsAddress address = new TlsAddress("127.0.0.1/10161");
+    return new TransportStateReference(null, address, new OctetString("test"),
+                                       SecurityLevel.authPriv, SecurityLevel.authPriv, false, null,
+                                       new CertifiedTarget(address, new OctetString("test"),
+                                                           serverFingerprint, clientFingerprint));
+  }
+
+  @Test
+  public void testClientTrustedByFingerprint() throws Exception {
+    OctetString fingerprint = TlsTransportMapping.getFingerprint(chain[0]);
+    createTrustManager(false, false, createReference(null, fingerprint)).checkClientTrusted(chain, "RSA");
+    Assert.assertTrue(counters.isEmpty());
+    try {
+      createTrustManager(false, false, createReference(fingerprint, new OctetString("00:11")))
+          .checkClientTrusted(chain, "RSA");
+      Assert.fail("Client fingerprint mismatch must not be trusted");
+    }
+    catch (CertificateException cex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testClientTrustedByCallback() throws Exception {
+    TlsTmTrustManager trustManager = createTrustManager(false, false, null);
+    try {
+      trustManager.checkClientTrusted(chain, "RSA");
+      Assert.fail("Unknown client must not be trusted");
+    }
+    catch (CertificateException cex) {
+      // expected
+    }
+    Assert.assertEquals(2, counters.size());
+    Assert.assertTrue(counters.contains(SnmpConstants.snmpTlstmSessionOpenErrors));
+    Assert.assertTrue(counters.contains(SnmpConstants.snmpTlstmSessionInvalidClientCertificates));
+    callback.addAcceptedSubjectDN(SUBJECT);
+    trustManager.checkClientTrusted(chain, "RSA");
+    // the callback is only consulted for incoming sessions
+    callback.removeAcceptedSubjectDN(SUBJECT);
+    createTrustManager(true, true, null).checkClientTrusted(chain, "RSA");
+  }
+
+  @Test
+  public void testServerTrustedByFingerprint() throws Exception {
+    OctetString fingerprint = TlsTransportMapping.getFingerprint(chain[0]);
+    createTrustManager(false, true, createReference(fingerprint, null)).checkServerTrusted(chain, "RSA");
+    Assert.assertTrue(counters.isEmpty());
+  }
+
+  @Test
+  public void testServerCheckedByJreAndCallback() throws Exception {
+    try {
+      createTrustManager(false, true, createReference(null, null)).checkServerTrusted(chain, "RSA");
+      Assert.fail("Server not trusted by the JRE must not be trusted");
+    }
+    catch (CertificateException cex) {
+      // expected
+    }
+    Assert.assertTrue(counters.contains(SnmpConstants.snmpTlstmSessionUnknownServerCertificate));
+    TlsTmTrustManager trustManager = createTrustManager(true, true, createReference(null, null));
+    try {
+      trustManager.checkServerTrusted(chain, "RSA");
+      Assert.fail("Server trusted by the JRE must also be accepted by the callback");
+    }
+    catch (CertificateException cex) {
+      // expected
+    }
+    callback.addAcceptedIssuerDN(SUBJECT);
+    trustManager.checkServerTrusted(chain, "RSA");
+  }
+
+  @Test
+  public void testAcceptedIssuersFilteredByCallback() {
+    TlsTmTrustManager trustManager = createTrustManager(true, true, null);
+    Assert.assertEquals(0, trustManager.getAcceptedIssuers().length);
+    callback.addAcceptedIssuerDN(SUBJECT);
+    Assert.assertArrayEquals(chain, trustManager.getAcceptedIssuers());
+  }
+
+  /**
+   * A JRE trust manager stand-in that trusts either all or no certificates
+   * and accepts the test certificate as issuer.
+   */
+  private class FixedTrustManager implements X509TrustManager {
+    private final boolean trusted;
+
+    FixedTrustManager(boolean trusted) {
+      this.trusted = trusted;
+    }
+
+    private void check() throws CertificateException {
+      if (!trusted) {
+        throw new CertificateException("Not trusted");
+      }
+    }
+
+    @Override
+    public void checkClientTrusted(X509Certificate[] x509Certificates, String s) throws CertificateException {
+      check();
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] x509Certificates, String s) throws CertificateException {
+      check();
+    }
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+      return chain;
+    }
+  }
+}
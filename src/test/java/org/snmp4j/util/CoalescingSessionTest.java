@@ -0,0 +1,239 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J 2 - CoalescingSessionTest.java  
+  _## 
+  _##  Copyright (C) 2003-2013  Frank Fock and Jochen Katz (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.snmp4j.*;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.smi.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Junit 4 test class for the {@link CoalescingSession}.
+ *
+ * @author Frank Fock
+ * @version 2.4
+ */
+public class CoalescingSessionTest {
+
+  private static final OID OID_A = new OID("1.3.6.1.2.1.1.1.0");
+  private static final OID OID_B = new OID("1.3.6.1.2.1.1.3.0");
+  private static final OID OID_C = new OID("1.3.6.1.2.1.1.5.0");
+
+  private RecordingSession recorder = new RecordingSession();
+  private CommunityTarget target =
+      new CommunityTarget(new UdpAddress("127.0.0.1/161"), new OctetString("public"));
+
+  @Test
+  public void testCoalescingAndResponseSplitting() throws Exception {
+    CoalescingSession session = new CoalescingSession(recorder, 50);
+    Receiver first = new Receiver();
+    Receiver second = new Receiver();
+    PDU firstRequest = get(4711, OID_B, OID_A);
+    PDU secondRequest = get(4712, OID_A, OID_C);
+    session.send(firstRequest, target, null, first);
+    session.send(secondRequest, target, null, second);
+    Sent sent = recorder.awaitSent();
+    Assert.assertEquals(3, sent.pdu.size());
+    Assert.assertEquals(OID_B, sent.pdu.get(0).getOid());
+    Assert.assertEquals(OID_A, sent.pdu.get(1).getOid());
+    Assert.assertEquals(OID_C, sent.pdu.get(2).getOid());
+    Assert.assertFalse(sent.pdu.getRequestID().getValue() == 4711);
+    Assert.assertNull(recorder.sent.poll(100, TimeUnit.MILLISECONDS));
+
+    sent.respond(session);
+    Assert.assertEquals(1, first.events.size());
+    PDU firstResponse = first.events.get(0).getResponse();
+    Assert.assertSame(firstRequest, first.events.get(0).getRequest());
+    Assert.assertEquals(4711, firstResponse.getRequestID().getValue());
+    Assert.assertEquals(2, firstResponse.size());
+    Assert.assertEquals(new VariableBinding(OID_B, new OctetString(OID_B.toString())),
+                        firstResponse.get(0));
+    Assert.assertEquals(new VariableBinding(OID_A, new OctetString(OID_A.toString())),
+                        firstResponse.get(1));
+    Assert.assertEquals(1, second.events.size());
+    PDU secondResponse = second.events.get(0).getResponse();
+    Assert.assertEquals(4712, secondResponse.getRequestID().getValue());
+    Assert.assertEquals(2, secondResponse.size());
+    Assert.assertEquals(OID_A, secondResponse.get(0).getOid());
+    Assert.assertEquals(OID_C, secondResponse.get(1).getOid());
+    Assert.assertSame(session, second.events.get(0).getSource());
+  }
+
+  @Test
+  public void testCancelBeforeFlush() throws Exception {
+    CoalescingSession session = new CoalescingSession(recorder, 50);
+    Receiver first = new Receiver();
+    Receiver second = new Receiver();
+    PDU firstRequest = get(1, OID_A);
+    session.send(firstRequest, target, null, first);
+    session.send(get(2, OID_B), target, null, second);
+    session.cancel(firstRequest, first);
+    Sent sent = recorder.awaitSent();
+    Assert.assertEquals(2, sent.pdu.size());
+    Assert.assertTrue(recorder.cancelled.isEmpty());
+    sent.respond(session);
+    Assert.assertTrue(first.events.isEmpty());
+    Assert.assertEquals(1, second.events.size());
+  }
+
+  @Test
+  public void testCancelAllBeforeFlush() throws Exception {
+    CoalescingSession session = new CoalescingSession(recorder, 50);
+    Receiver receiver = new Receiver();
+    PDU request = get(1, OID_A);
+    session.send(request, target, null, receiver);
+    session.cancel(request, receiver);
+    Assert.assertNull(recorder.sent.poll(300, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testCancelAfterFlush() throws Exception {
+    CoalescingSession session = new CoalescingSession(recorder, 50);
+    Receiver first = new Receiver();
+    Receiver second = new Receiver();
+    PDU firstRequest = get(1, OID_A);
+    PDU secondRequest = get(2, OID_B);
+    session.send(firstRequest, target, null, first);
+    session.send(secondRequest, target, null, second);
+    Sent sent = recorder.awaitSent();
+    session.cancel(firstRequest, first);
+    // the combined request is still needed by the second caller
+    Assert.assertTrue(recorder.cancelled.isEmpty());
+    session.cancel(secondRequest, second);
+    Assert.assertEquals(1, recorder.cancelled.size());
+    Assert.assertSame(sent.pdu, recorder.cancelled.get(0).pdu);
+    Assert.assertSame(sent.listener, recorder.cancelled.get(0).listener);
+    sent.respond(session);
+    Assert.assertTrue(first.events.isEmpty());
+    Assert.assertTrue(second.events.isEmpty());
+  }
+
+  @Test
+  public void testShortResponse() throws Exception {
+    CoalescingSession session = new CoalescingSession(recorder, 50);
+    Receiver first = new Receiver();
+    Receiver second = new Receiver();
+    PDU firstRequest = get(1, OID_A);
+    PDU secondRequest = get(2, OID_B, OID_C);
+    session.send(firstRequest, target, null, first);
+    session.send(secondRequest, target, null, second);
+    Sent sent = recorder.awaitSent();
+    Assert.assertEquals(3, sent.pdu.size());
+    sent.respond(session, 2);
+    // the response cannot be split, the callers' requests are resent
+    Sent firstResend = recorder.awaitSent();
+    Sent secondResend = recorder.awaitSent();
+    Assert.assertSame(firstRequest, firstResend.pdu);
+    Assert.assertSame(first, firstResend.listener);
+    Assert.assertSame(secondRequest, secondResend.pdu);
+    Assert.assertSame(second, secondResend.listener);
+    Assert.assertTrue(first.events.isEmpty());
+    Assert.assertTrue(second.events.isEmpty());
+  }
+
+  private static PDU get(int requestID, OID... oids) {
+    PDU pdu = new PDU();
+    pdu.setType(PDU.GET);
+    pdu.setRequestID(new Integer32(requestID));
+    for (OID oid : oids) {
+      pdu.add(new VariableBinding(oid));
+    }
+    return pdu;
+  }
+
+  private static class Sent {
+    private PDU pdu;
+    private ResponseListener listener;
+
+    Sent(PDU pdu, ResponseListener listener) {
+      this.pdu = pdu;
+      this.listener = listener;
+    }
+
+    /**
+     * Answers each OID of the request with its string representation.
+     */
+    void respond(Session source) {
+      respond(source, pdu.size());
+    }
+
+    /**
+     * Answers the first <code>count</code> OIDs of the request with their
+     * string representation.
+     */
+    void respond(Session source, int count) {
+      PDU response = new PDU();
+      response.setType(PDU.RESPONSE);
+      response.setRequestID(pdu.getRequestID());
+      for (VariableBinding vb : pdu.getVariableBindings().subList(0, count)) {
+        response.add(new VariableBinding(vb.getOid(), new OctetString(vb.getOid().toString())));
+      }
+      listener.onResponse(new ResponseEvent(source, null, pdu, response, null));
+    }
+  }
+
+  private static class RecordingSession implements Session {
+    private BlockingQueue<Sent> sent = new ArrayBlockingQueue<>(10);
+    private List<Sent> cancelled = new ArrayList<>();
+
+    Sent awaitSent() throws InterruptedException {
+      Sent s = sent.poll(5, TimeUnit.SECONDS);
+      Assert.assertNotNull("No request sent", s);
+      return s;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void send(PDU pdu, Target target, Object userHandle, ResponseListener listener) {
+      send(pdu, target, null, userHandle, listener);
+    }
+
+    @Override
+    public void send(PDU pdu, Target target, TransportMapping transport, Object userHandle,
+                     ResponseListener listener) {
+      sent.add(new Sent(pdu, listener));
+    }
+
+    @Override
+    public synchronized void cancel(PDU request, ResponseListener listener) {
+      cancelled.add(new Sent(request, listener));
+    }
+  }
+
+  private static class Receiver implements ResponseListener {
+    private List<ResponseEvent> events = new ArrayList<>();
+
+    @Override
+    public synchronized void onResponse(ResponseEvent event) {
+      events.add(event);
+    }
+  }
+}